@@ -80,6 +80,10 @@ public abstract class AbstractObserver implements Observer {
     public void nodeChildrenChanged(List<String> updatedChildList, List<String> previousChildList) {
     }
 
+    @Override
+    public void nodeChildrenChanged(List<String> updatedChildList, List<String> previousChildList, ChildListDelta delta) {
+    }
+
     @Override
     public void nodeDataChanged(byte[] updatedData, byte[] previousData) {
     }
@@ -0,0 +1,146 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package io.reign;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Children added and removed between two versions of a node's child list. Computed with a single merge pass over
+ * sorted lists and shared (read-only) by all observers of a path.
+ * 
+ * @author ypai
+ * 
+ */
+public class ChildListDelta {
+
+    public static final ChildListDelta EMPTY = new ChildListDelta(Collections.<String> emptyList(),
+            Collections.<String> emptyList());
+
+    private final List<String> added;
+    private final List<String> removed;
+
+    ChildListDelta(List<String> added, List<String> removed) {
+        this.added = added;
+        this.removed = removed;
+    }
+
+    /**
+     * 
+     * @return children in updated list but not in previous list, in sorted order; unmodifiable
+     */
+    public List<String> getAdded() {
+        return added;
+    }
+
+    /**
+     * 
+     * @return children in previous list but not in updated list, in sorted order; unmodifiable
+     */
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "added=" + added + "; removed=" + removed;
+    }
+
+    /**
+     * 
+     * @param previousChildList
+     *            may be null
+     * @param updatedChildList
+     *            may be null
+     * @return delta between lists; lists that are not already sorted are copied and sorted first
+     */
+    public static ChildListDelta compute(List<String> previousChildList, List<String> updatedChildList) {
+        List<String> previous = sorted(previousChildList);
+        List<String> updated = sorted(updatedChildList);
+
+        List<String> added = null;
+        List<String> removed = null;
+        int i = 0;
+        int j = 0;
+        while (i < previous.size() || j < updated.size()) {
+            int compare;
+            if (i == previous.size()) {
+                compare = 1;
+            } else if (j == updated.size()) {
+                compare = -1;
+            } else {
+                compare = previous.get(i).compareTo(updated.get(j));
+            }
+
+            if (compare == 0) {
+                i++;
+                j++;
+            } else if (compare < 0) {
+                if (removed == null) {
+                    removed = new ArrayList<String>(4);
+                }
+                removed.add(previous.get(i++));
+            } else {
+                if (added == null) {
+                    added = new ArrayList<String>(4);
+                }
+                added.add(updated.get(j++));
+            }
+        }
+
+        if (added == null && removed == null) {
+            return EMPTY;
+        }
+        return new ChildListDelta(unmodifiable(added), unmodifiable(removed));
+    }
+
+    /**
+     * 
+     * @param childList
+     *            may be null
+     * @return given list if already sorted, a sorted copy otherwise; never null
+     */
+    public static List<String> sorted(List<String> childList) {
+        if (childList == null) {
+            return Collections.EMPTY_LIST;
+        }
+        if (isSorted(childList)) {
+            return childList;
+        }
+        List<String> sortedChildList = new ArrayList<String>(childList);
+        Collections.sort(sortedChildList);
+        return sortedChildList;
+    }
+
+    static boolean isSorted(List<String> childList) {
+        for (int i = 1; i < childList.size(); i++) {
+            if (childList.get(i - 1).compareTo(childList.get(i)) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static List<String> unmodifiable(List<String> list) {
+        return list == null ? Collections.<String> emptyList() : Collections.unmodifiableList(list);
+    }
+}
@@ -71,6 +71,25 @@ public class DefaultPathScheme implements PathScheme {
         return getAbsolutePath(pathType, joinTokens(pathTokens));
     }
 
+    @Override
+    public PathType getPathType(String absolutePath) {
+        if (absolutePath == null || !absolutePath.startsWith(basePath + "/")) {
+            return null;
+        }
+
+        // first token after base path determines path type
+        int startIndex = basePath.length() + 1;
+        int endIndex = absolutePath.indexOf('/', startIndex);
+        String pathTypeToken = endIndex == -1 ? absolutePath.substring(startIndex) : absolutePath.substring(
+                startIndex, endIndex);
+        for (PathType pathType : PathType.values()) {
+            if (pathType.toString().equals(pathTypeToken)) {
+                return pathType;
+            }
+        }
+        return null;
+    }
+
     @Override
     public String getParentPath(String path) {
         if (!isValidPath(path)) {
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2013 Yen Pai ypai@reign.io
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package io.reign;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Last known state of every node under a root path, shared by all SubtreeObservers of that root. Each node has a
+ * data and child watch set; on an event for a node, only that node is re-fetched and diffed against the cached state,
+ * descending only into children that were added.
+ * 
+ * Not ordered with respect to events on other paths:  callers must hold the lock on this object while refreshing and
+ * passing on the resulting notifications if notifications are to be delivered in order.
+ * 
+ * @author ypai
+ * 
+ */
+class ObservedSubtree {
+
+	private final String rootPath;
+
+	private final ZkClient zkClient;
+
+	/** guarded by this */
+	private final TreeMap<String, Node> nodeMap = new TreeMap<String, Node>();
+
+	private final Set<SubtreeObserver> observerSet = Collections
+	        .newSetFromMap(new ConcurrentHashMap<SubtreeObserver, Boolean>(4, 0.9f, 1));
+
+	ObservedSubtree(String rootPath, ZkClient zkClient) {
+		this.rootPath = rootPath;
+		this.zkClient = zkClient;
+	}
+
+	String getRootPath() {
+		return rootPath;
+	}
+
+	Set<SubtreeObserver> getObserverSet() {
+		return observerSet;
+	}
+
+	synchronized int size() {
+		return nodeMap.size();
+	}
+
+	/**
+	 * 
+	 * @return data of each node in subtree by path, in path order
+	 */
+	synchronized SortedMap<String, byte[]> getDataMap() {
+		SortedMap<String, byte[]> dataMap = new TreeMap<String, byte[]>();
+		for (Map.Entry<String, Node> entry : nodeMap.entrySet()) {
+			dataMap.put(entry.getKey(), entry.getValue().data);
+		}
+		return dataMap;
+	}
+
+	/**
+	 * Fetch entire subtree and set watches without generating notifications.
+	 */
+	synchronized void init() throws KeeperException, InterruptedException {
+		nodeMap.clear();
+		if (!load(rootPath, null)) {
+			// set up watch for when root is created
+			zkClient.exists(rootPath, true);
+		}
+	}
+
+	/**
+	 * Fetch entire subtree again and diff against cached state, for when events may have been missed (e.g. after a
+	 * new session).
+	 * 
+	 * @return notifications for all changes found
+	 */
+	synchronized List<ObserverQueue.Notification> resync() throws KeeperException, InterruptedException {
+		TreeMap<String, Node> previousNodeMap = new TreeMap<String, Node>(nodeMap);
+		init();
+
+		List<ObserverQueue.Notification> notificationList = new ArrayList<ObserverQueue.Notification>();
+		for (String path : previousNodeMap.descendingKeySet()) {
+			if (!nodeMap.containsKey(path)) {
+				notificationList.add(new ObserverQueue.SubtreeNodeDeleted(path, previousNodeMap.get(path).data));
+			}
+		}
+		for (Map.Entry<String, Node> entry : nodeMap.entrySet()) {
+			Node previous = previousNodeMap.get(entry.getKey());
+			Node updated = entry.getValue();
+			if (previous == null) {
+				notificationList.add(new ObserverQueue.SubtreeNodeCreated(entry.getKey(), updated.data, updated.stat));
+			} else if (!Arrays.equals(previous.data, updated.data)) {
+				notificationList.add(new ObserverQueue.SubtreeNodeUpdated(entry.getKey(), updated.data,
+				        previous.data, updated.stat));
+			}
+		}
+		return notificationList;
+	}
+
+	/**
+	 * Fetch current state of a node in the subtree and diff against cached state. Re-arms watches.
+	 * 
+	 * @param path
+	 * @param recheck
+	 *            true to first compare node versions with a single exists() and only fetch if they differ
+	 * @return notifications for changes found in node and its descendants
+	 */
+	synchronized List<ObserverQueue.Notification> refresh(String path, boolean recheck) throws KeeperException,
+	        InterruptedException {
+		List<ObserverQueue.Notification> notificationList = new ArrayList<ObserverQueue.Notification>();
+
+		Node cached = nodeMap.get(path);
+		if (cached == null) {
+			if (path.equals(rootPath) && !load(rootPath, notificationList)) {
+				zkClient.exists(rootPath, true);
+			}
+
+			// other unknown nodes are picked up when parent's child list is refreshed
+			return notificationList;
+		}
+
+		if (recheck) {
+			Stat stat = zkClient.exists(path, true);
+			if (stat != null && stat.getMzxid() == cached.stat.getMzxid() && stat.getPzxid() == cached.pzxid) {
+				return notificationList;
+			}
+		}
+
+		Stat stat = new Stat();
+		Stat childStat = new Stat();
+		byte[] data;
+		List<String> childList;
+		try {
+			data = zkClient.getData(path, true, stat);
+			childList = ChildListDelta.sorted(zkClient.getChildren(path, true, childStat));
+		} catch (KeeperException e) {
+			if (e.code() != KeeperException.Code.NONODE) {
+				throw e;
+			}
+			remove(path, notificationList);
+			if (path.equals(rootPath)) {
+				zkClient.exists(rootPath, true);
+			}
+			return notificationList;
+		}
+
+		nodeMap.put(path, new Node(data, childList, stat, childStat.getPzxid()));
+		if (!Arrays.equals(cached.data, data)) {
+			notificationList.add(new ObserverQueue.SubtreeNodeUpdated(path, data, cached.data, stat));
+		}
+
+		ChildListDelta delta = ChildListDelta.compute(cached.childList, childList);
+		for (String child : delta.getRemoved()) {
+			remove(childPath(path, child), notificationList);
+		}
+		for (String child : delta.getAdded()) {
+			String childPath = childPath(path, child);
+			if (!nodeMap.containsKey(childPath)) {
+				load(childPath, notificationList);
+			}
+		}
+
+		return notificationList;
+	}
+
+	/**
+	 * Fetch node and all of its descendants, setting watches.
+	 * 
+	 * @param path
+	 * @param notificationList
+	 *            created notifications are added here, parents before children; null to not notify
+	 * @return false if node does not exist
+	 */
+	boolean load(String path, List<ObserverQueue.Notification> notificationList) throws KeeperException,
+	        InterruptedException {
+		Stat stat = new Stat();
+		Stat childStat = new Stat();
+		byte[] data;
+		List<String> childList;
+		try {
+			data = zkClient.getData(path, true, stat);
+			childList = ChildListDelta.sorted(zkClient.getChildren(path, true, childStat));
+		} catch (KeeperException e) {
+			if (e.code() != KeeperException.Code.NONODE) {
+				throw e;
+			}
+
+			// deleted since parent was listed:  parent's child watch will fire
+			return false;
+		}
+
+		nodeMap.put(path, new Node(data, childList, stat, childStat.getPzxid()));
+		if (notificationList != null) {
+			notificationList.add(new ObserverQueue.SubtreeNodeCreated(path, data, stat));
+		}
+		for (String child : childList) {
+			load(childPath(path, child), notificationList);
+		}
+		return true;
+	}
+
+	/**
+	 * Remove node and its descendants from cached state.
+	 * 
+	 * @param path
+	 * @param notificationList
+	 *            deleted notifications are added here, children before parents
+	 */
+	void remove(String path, List<ObserverQueue.Notification> notificationList) {
+		List<String> descendantPathList = new ArrayList<String>(nodeMap.subMap(childPath(path, ""),
+		        childPath(path, "\uffff")).keySet());
+		Collections.reverse(descendantPathList);
+		descendantPathList.add(path);
+		for (String descendantPath : descendantPathList) {
+			Node node = nodeMap.remove(descendantPath);
+			if (node != null) {
+				notificationList.add(new ObserverQueue.SubtreeNodeDeleted(descendantPath, node.data));
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @param path
+	 * @return true if path is the root path or a descendant of it
+	 */
+	boolean covers(String path) {
+		return path.equals(rootPath) || path.startsWith(childPath(rootPath, ""));
+	}
+
+	static String childPath(String path, String child) {
+		return "/".equals(path) ? "/" + child : path + "/" + child;
+	}
+
+	static class Node {
+		final byte[] data;
+		final List<String> childList;
+		final Stat stat;
+
+		/** child list version */
+		final long pzxid;
+
+		Node(byte[] data, List<String> childList, Stat stat, long pzxid) {
+			this.data = data;
+			this.childList = childList;
+			this.stat = stat;
+			this.pzxid = pzxid;
+		}
+	}
+}
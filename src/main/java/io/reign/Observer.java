@@ -46,6 +46,16 @@ public interface Observer {
 
     public void nodeChildrenChanged(List<String> updatedChildList, List<String> previousChildList);
 
+    /**
+     * Called after {@link #nodeChildrenChanged(List, List)} with the children added and removed; the delta is computed
+     * once per change and shared by all observers of the path, so it must not be modified.
+     * 
+     * @param updatedChildList
+     * @param previousChildList
+     * @param delta
+     */
+    public void nodeChildrenChanged(List<String> updatedChildList, List<String> previousChildList, ChildListDelta delta);
+
     public void nodeDataChanged(byte[] updatedData, byte[] previousData);
 
     public void nodeDataChanged(byte[] updatedData, byte[] previousData, Stat updatedStat);
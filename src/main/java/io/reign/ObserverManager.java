@@ -16,17 +16,27 @@
 
 package io.reign;
 
+import io.reign.util.PartitionedExecutor;
 import io.reign.util.ZkClientUtil;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -38,12 +48,24 @@ import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
 /**
  * Class for managing observers for services. Deals with multiple observers for
  * a single path, etc.
  * 
  * Has a separate thread pool for dealing with observer callbacks, so as not to
- * tie up the ZooKeeper event thread.
+ * tie up the ZooKeeper event thread. Notifications are queued per observer in
+ * a bounded queue with a configurable ObserverOverflowPolicy, so a slow
+ * observer cannot delay other observers or grow memory without limit.
+ * 
+ * SubtreeObservers watch every node under a root path with a single
+ * registration: the subtree's state is cached once per root and diffed
+ * incrementally as events arrive for nodes within it.
  * 
  * @author ypai
  * 
@@ -57,23 +79,69 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 
 	private static final long DEFAULT_MAX_TIMEOUT_MILLIS = 120000;
 
+	public static final int DEFAULT_DISPATCH_PARALLELISM = 4;
+
+	/** max number of concurrent requests made by sweeper */
+	public static final int DEFAULT_SWEEP_PARALLELISM = 4;
+
+	public static final int DEFAULT_OBSERVER_QUEUE_CAPACITY = 1000;
+
+	public static final long DEFAULT_SLOW_OBSERVER_THRESHOLD_MILLIS = 1000;
+
+	/** max time to wait for room in a full queue with BLOCK policy */
+	public static final long DEFAULT_MAX_BLOCK_MILLIS = 10000;
+
+	/** how often sweeper looks for paths due for a re-check */
+	private static final long MAX_SWEEP_TICK_MILLIS = 1000;
+
 	private final ConcurrentMap<String, Set<T>> observerMap = new ConcurrentHashMap<String, Set<T>>(
 			16, 0.9f, 2);
-	private final ConcurrentMap<String, Set<T>> ownerObserverMap = new ConcurrentHashMap<String, Set<T>>(
+	/** observers by owner, then by path, so owner removal is a lookup */
+	private final ConcurrentMap<String, ConcurrentMap<String, Set<Observer>>> ownerObserverMap = new ConcurrentHashMap<String, ConcurrentMap<String, Set<Observer>>>(
+			16, 0.9f, 2);
+
+	/** subtrees being observed by root path */
+	private final ConcurrentMap<String, ObservedSubtree> subtreeMap = new ConcurrentHashMap<String, ObservedSubtree>(
 			16, 0.9f, 2);
+	/** paths due for a re-check by sweeper, with time the check is due */
 	private final ConcurrentMap<String, Long> observerScheduledCheckTimestampMap = new ConcurrentHashMap<String, Long>(
 			16, 0.9f, 2);
 
+	/** versions of data and child list last passed on to observers */
+	private final ConcurrentMap<String, PathVersion> pathVersionMap = new ConcurrentHashMap<String, PathVersion>(
+			16, 0.9f, 2);
+
 	private final ZkClient zkClient;
 
+	/** used to tell which PathType(s) due paths fall under; null if unknown */
+	private volatile PathScheme pathScheme;
+
 	private final ZkClientUtil zkClientUtil = new ZkClientUtil();
 
 	/**
-	 * single threaded executor for delegation of observer callbacks to not tie
-	 * up ZK event thread but still execute notifications in order
+	 * executor for delegation of observer callbacks to not tie up ZK event
+	 * thread:  partitioned by path so notifications for a path execute in
+	 * order while different paths are notified in parallel
 	 */
-	private final ExecutorService delegatorExecutorService = Executors
-			.newSingleThreadExecutor();
+	private final PartitionedExecutor delegatorExecutor;
+
+	/**
+	 * executor for delivering queued notifications to observers:  observers
+	 * each have their own bounded queue, so a slow observer does not delay
+	 * others or the fetching of updates
+	 */
+	private final ExecutorService callbackExecutor;
+
+	private final ConcurrentMap<Observer, ObserverQueue> observerQueueMap = new ConcurrentHashMap<Observer, ObserverQueue>(
+			16, 0.9f, 2);
+
+	private volatile int observerQueueCapacity = DEFAULT_OBSERVER_QUEUE_CAPACITY;
+
+	private volatile ObserverOverflowPolicy overflowPolicy = ObserverOverflowPolicy.MERGE_TO_LATEST;
+
+	private volatile long slowObserverThresholdMillis = DEFAULT_SLOW_OBSERVER_THRESHOLD_MILLIS;
+
+	private final MetricRegistry metricRegistry = new MetricRegistry();
 
 	/**
 	 * for recheck after receiving an event, in case there was another change in
@@ -82,10 +150,248 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 	private final ScheduledExecutorService scheduledExecutorService = new ScheduledThreadPoolExecutor(
 			2);
 
+	/** bounds number of concurrent version checks made by sweeper */
+	private final ExecutorService sweepExecutor = Executors
+			.newFixedThreadPool(DEFAULT_SWEEP_PARALLELISM);
+
 	private volatile int sweeperIntervalMillis = 30000;
 
+	/** coalescing window for all paths; 0 to notify on every event */
+	private volatile long coalesceWindowMillis = 0;
+
+	/** path-specific coalescing windows */
+	private final ConcurrentMap<String, Long> pathCoalesceWindowMillisMap = new ConcurrentHashMap<String, Long>(
+			16, 0.9f, 2);
+
+	/** first event received for paths with a coalesced check pending */
+	private final ConcurrentMap<String, WatchedEvent> pendingEventMap = new ConcurrentHashMap<String, WatchedEvent>(
+			16, 0.9f, 2);
+
+	private final Counter mergedEventCounter;
+
+	private final Counter droppedEventCounter;
+
+	private final Histogram sweepPathHistogram;
+
+	private final Histogram sweepFetchHistogram;
+
+	private final Histogram sweepRequestHistogram;
+
+	private final Timer sweepTimer;
+
 	public ObserverManager(ZkClient zkClient) {
+		this(zkClient, DEFAULT_DISPATCH_PARALLELISM);
+	}
+
+	/**
+	 * 
+	 * @param zkClient
+	 * @param dispatchParallelism
+	 *            number of threads used to notify observers
+	 */
+	public ObserverManager(ZkClient zkClient, int dispatchParallelism) {
 		this.zkClient = zkClient;
+		this.delegatorExecutor = new PartitionedExecutor(dispatchParallelism,
+				"ObserverManager.delegator");
+		this.callbackExecutor = Executors
+				.newFixedThreadPool(dispatchParallelism);
+
+		this.mergedEventCounter = metricRegistry.counter("observer.events.merged");
+		this.droppedEventCounter = metricRegistry
+				.counter("observer.events.dropped");
+
+		// sweep cost per cycle
+		this.sweepPathHistogram = metricRegistry
+				.histogram("observer.sweep.paths");
+		this.sweepFetchHistogram = metricRegistry
+				.histogram("observer.sweep.fetched");
+		this.sweepRequestHistogram = metricRegistry
+				.histogram("observer.sweep.requests");
+		this.sweepTimer = metricRegistry.timer("observer.sweep.duration");
+
+		// deepest observer queue, to spot slow observers
+		metricRegistry.register("observer.queue.maxDepth",
+				new Gauge<Integer>() {
+					@Override
+					public Integer getValue() {
+						int maxDepth = 0;
+						for (ObserverQueue observerQueue : observerQueueMap
+								.values()) {
+							maxDepth = Math.max(maxDepth, observerQueue.size());
+						}
+						return maxDepth;
+					}
+				});
+
+		// expose queue depth of each partition
+		for (int i = 0; i < dispatchParallelism; i++) {
+			final int partition = i;
+			metricRegistry.register(
+					MetricRegistry.name("observer.dispatch.partition",
+							String.valueOf(partition), "queueDepth"),
+					new Gauge<Integer>() {
+						@Override
+						public Integer getValue() {
+							return delegatorExecutor.getQueueDepth(partition);
+						}
+					});
+		}
+	}
+
+	public PathScheme getPathScheme() {
+		return pathScheme;
+	}
+
+	/**
+	 * 
+	 * @param pathScheme
+	 *            used by sweeps to sync once per PathType, since PathType(s)
+	 *            may be routed to different ZooKeeper ensembles
+	 */
+	public void setPathScheme(PathScheme pathScheme) {
+		this.pathScheme = pathScheme;
+	}
+
+	public long getCoalesceWindowMillis() {
+		return coalesceWindowMillis;
+	}
+
+	/**
+	 * 
+	 * @param coalesceWindowMillis
+	 *            events for a path received within this window are merged
+	 *            into a single fetch and notification; 0 to disable
+	 */
+	public void setCoalesceWindowMillis(long coalesceWindowMillis) {
+		this.coalesceWindowMillis = coalesceWindowMillis;
+	}
+
+	/**
+	 * Override coalescing window for a specific path.
+	 * 
+	 * @param path
+	 * @param coalesceWindowMillis
+	 *            0 to disable for path
+	 */
+	public void setCoalesceWindowMillis(String path, long coalesceWindowMillis) {
+		pathCoalesceWindowMillisMap.put(path, coalesceWindowMillis);
+	}
+
+	long getCoalesceWindowMillis(String path) {
+		Long windowMillis = pathCoalesceWindowMillisMap.get(path);
+		return windowMillis != null ? windowMillis : coalesceWindowMillis;
+	}
+
+	/**
+	 * 
+	 * @return number of events merged into an already pending check
+	 */
+	public long getMergedEventCount() {
+		return mergedEventCounter.getCount();
+	}
+
+	/**
+	 * 
+	 * @return number of events ignored because there were no observers for
+	 *         the path
+	 */
+	public long getDroppedEventCount() {
+		return droppedEventCounter.getCount();
+	}
+
+	public int getObserverQueueCapacity() {
+		return observerQueueCapacity;
+	}
+
+	/**
+	 * 
+	 * @param observerQueueCapacity
+	 *            max notifications queued per observer; applies to observers
+	 *            added afterwards
+	 */
+	public void setObserverQueueCapacity(int observerQueueCapacity) {
+		if (observerQueueCapacity < 1) {
+			throw new IllegalArgumentException(
+					"observerQueueCapacity must be > 0:  observerQueueCapacity="
+							+ observerQueueCapacity);
+		}
+		this.observerQueueCapacity = observerQueueCapacity;
+	}
+
+	public ObserverOverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * 
+	 * @param overflowPolicy
+	 *            what to do when an observer's queue is full; applies to
+	 *            observers added afterwards
+	 */
+	public void setOverflowPolicy(ObserverOverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	public long getSlowObserverThresholdMillis() {
+		return slowObserverThresholdMillis;
+	}
+
+	/**
+	 * 
+	 * @param slowObserverThresholdMillis
+	 *            callbacks taking at least this long are logged and counted
+	 *            as slow; applies to observers added afterwards
+	 */
+	public void setSlowObserverThresholdMillis(long slowObserverThresholdMillis) {
+		this.slowObserverThresholdMillis = slowObserverThresholdMillis;
+	}
+
+	/**
+	 * 
+	 * @param observer
+	 * @return number of notifications waiting to be delivered to observer
+	 */
+	public int getQueueDepth(Observer observer) {
+		ObserverQueue observerQueue = observerQueueMap.get(observer);
+		return observerQueue != null ? observerQueue.size() : 0;
+	}
+
+	void notifyObserver(Observer observer,
+			ObserverQueue.Notification notification) {
+		ObserverQueue observerQueue = observerQueueMap.get(observer);
+		if (observerQueue == null) {
+			if (!isRegistered(observer)) {
+				// removed while notification was being prepared
+				return;
+			}
+			ObserverQueue newObserverQueue = new ObserverQueue(observer,
+					observerQueueCapacity, overflowPolicy,
+					DEFAULT_MAX_BLOCK_MILLIS, slowObserverThresholdMillis,
+					callbackExecutor, metricRegistry);
+			observerQueue = observerQueueMap.putIfAbsent(observer,
+					newObserverQueue);
+			if (observerQueue == null) {
+				observerQueue = newObserverQueue;
+			}
+		}
+		observerQueue.offer(notification);
+	}
+
+	boolean isRegistered(Observer observer) {
+		if (observer instanceof SubtreeObserver) {
+			ObservedSubtree subtree = subtreeMap.get(observer.getPath());
+			return subtree != null
+					&& subtree.getObserverSet().contains(observer);
+		}
+		return getObserverSet(observer.getPath(), false).contains(observer);
+	}
+
+	public int getDispatchParallelism() {
+		return delegatorExecutor.getParallelism();
+	}
+
+	public MetricRegistry getMetricRegistry() {
+		return metricRegistry;
 	}
 
 	public int getSweeperIntervalMillis() {
@@ -98,10 +404,14 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 
 	public void init() {
 		this.zkClient.register(this);
+		scheduleSweep();
 	}
 
 	public void destroy() {
 		scheduledExecutorService.shutdown();
+		sweepExecutor.shutdown();
+		delegatorExecutor.shutdown();
+		callbackExecutor.shutdown();
 	}
 
 	void updateObserver(String path, T observer) {
@@ -117,7 +427,8 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 			// decorate observer with data about the path so we can handle
 			// notifications correctly
 			byte[] data = zkClient.getData(path, true, new Stat());
-			List<String> childList = zkClient.getChildren(path, true);
+			List<String> childList = ChildListDelta.sorted(zkClient
+					.getChildren(path, true));
 
 			observer.setPath(path);
 			observer.setData(data);
@@ -127,8 +438,7 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 			// register with owner (so we can remove all later if a client
 			// disconnects, etc.)
 			if (ownerId != null) {
-				Set<T> ownerObserverSet = getOwnerObserverSet(ownerId, true);
-				ownerObserverSet.add(observer);
+				getOwnerObserverSet(ownerId, path, true).add(observer);
 			}
 
 			logger.info(
@@ -147,9 +457,7 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 					// register with owner (so we can remove all later if a
 					// client disconnects, etc.)
 					if (ownerId != null) {
-						Set<T> ownerObserverSet = getOwnerObserverSet(ownerId,
-								true);
-						ownerObserverSet.add(observer);
+						getOwnerObserverSet(ownerId, path, true).add(observer);
 					}
 
 					zkClient.exists(path, true);
@@ -177,6 +485,136 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 
 	}
 
+	/**
+	 * Observe every node under rootPath (inclusive) with a single
+	 * registration. Observers of the same root share one cached copy of the
+	 * subtree and one set of watches.
+	 * 
+	 * @param rootPath
+	 * @param observer
+	 */
+	public void putSubtree(String rootPath, SubtreeObserver observer) {
+		ObservedSubtree subtree = subtreeMap.get(rootPath);
+		if (subtree == null) {
+			ObservedSubtree newSubtree = new ObservedSubtree(rootPath,
+					zkClient);
+			subtree = subtreeMap.putIfAbsent(rootPath, newSubtree);
+			if (subtree == null) {
+				subtree = newSubtree;
+				try {
+					subtree.init();
+				} catch (Exception e) {
+					logger.error("Unable to load subtree:  rootPath="
+							+ rootPath + "; observerType="
+							+ observer.getClass().getSimpleName(), e);
+				}
+			}
+		}
+
+		observer.setPath(rootPath);
+		subtree.getObserverSet().add(observer);
+		if (observer.getOwnerId() != null) {
+			getOwnerObserverSet(observer.getOwnerId(), rootPath, true).add(
+					observer);
+		}
+
+		logger.info(
+				"Added subtree observer:  observer.hashCode()={}; observer.ownerId={}; rootPath={}; nodeCount={}",
+				new Object[] { observer.hashCode(), observer.getOwnerId(),
+						rootPath, subtree.size() });
+	}
+
+	/**
+	 * 
+	 * @param rootPath
+	 * @return data of each node under rootPath by path, as last passed on to
+	 *         SubtreeObservers; empty if rootPath is not being observed
+	 */
+	public SortedMap<String, byte[]> getSubtreeDataMap(String rootPath) {
+		ObservedSubtree subtree = subtreeMap.get(rootPath);
+		return subtree != null ? subtree.getDataMap()
+				: new TreeMap<String, byte[]>();
+	}
+
+	/**
+	 * 
+	 * @param path
+	 * @return observed subtrees that path is in
+	 */
+	List<ObservedSubtree> getCoveringSubtrees(String path) {
+		if (path == null || subtreeMap.isEmpty()) {
+			return Collections.EMPTY_LIST;
+		}
+		List<ObservedSubtree> subtreeList = new ArrayList<ObservedSubtree>(1);
+		String ancestorPath = path;
+		while (true) {
+			ObservedSubtree subtree = subtreeMap.get(ancestorPath);
+			if (subtree != null) {
+				subtreeList.add(subtree);
+			}
+			int lastSlashIndex = ancestorPath.lastIndexOf('/');
+			if (lastSlashIndex < 0 || "/".equals(ancestorPath)) {
+				break;
+			}
+			ancestorPath = lastSlashIndex == 0 ? "/" : ancestorPath.substring(
+					0, lastSlashIndex);
+		}
+		return subtreeList;
+	}
+
+	/**
+	 * Diff path against each observed subtree it is in and notify subtree
+	 * observers of any changes, on path's partition.
+	 * 
+	 * @param path
+	 * @param recheck
+	 *            true to only fetch if path's version has changed
+	 */
+	void refreshSubtrees(final String path, final boolean recheck) {
+		for (final ObservedSubtree subtree : getCoveringSubtrees(path)) {
+			delegatorExecutor.submit(path, new Runnable() {
+				@Override
+				public void run() {
+					try {
+						// hold lock while queueing so notifications from
+						// different partitions stay in order
+						synchronized (subtree) {
+							notifySubtreeObservers(subtree,
+									subtree.refresh(path, recheck));
+						}
+					} catch (Exception e) {
+						logger.warn("Unable to refresh subtree:  rootPath="
+								+ subtree.getRootPath() + "; path=" + path, e);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * 
+	 * @param event
+	 * @return true if event's path is only observed as part of subtrees, so
+	 *         there are no other observers to notify
+	 */
+	boolean refreshSubtrees(WatchedEvent event) {
+		if (getCoveringSubtrees(event.getPath()).size() == 0) {
+			return false;
+		}
+		refreshSubtrees(event.getPath(), false);
+		scheduleCheck(event);
+		return getObserverSet(event.getPath(), false).size() == 0;
+	}
+
+	void notifySubtreeObservers(ObservedSubtree subtree,
+			List<ObserverQueue.Notification> notificationList) {
+		for (ObserverQueue.Notification notification : notificationList) {
+			for (SubtreeObserver observer : subtree.getObserverSet()) {
+				notifyObserver(observer, notification);
+			}
+		}
+	}
+
 	void scheduleCheck(final WatchedEvent event) {
 		final String path = event.getPath();
 
@@ -203,70 +641,401 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 		logger.debug(
 				"Scheduling re-check after watch triggered:  path={}; eventType={}; timeToCheckMillis={}",
 				event.getPath(), event.getType(), sweeperIntervalMillis);
+	}
 
-		this.scheduledExecutorService.schedule(new Runnable() {
+	void scheduleSweep() {
+		long tickMillis = Math.max(1,
+				Math.min(MAX_SWEEP_TICK_MILLIS, sweeperIntervalMillis / 2));
+		try {
+			this.scheduledExecutorService.schedule(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						sweep(System.currentTimeMillis());
+					} catch (Exception e) {
+						logger.warn("Sweep failed:  " + e, e);
+					} finally {
+						scheduleSweep();
+					}
+				}
+			}, tickMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			logger.debug("Not scheduling sweep:  shutting down");
+		}
+	}
 
-			@Override
-			public void run() {
-				try {
-					// sync data to get most recent
-					zkClientUtil.syncPath(zkClient, path, this);
+	/**
+	 * Re-check all paths due for a check as a batch: a sync per PathType, then
+	 * one exists() per path with bounded parallelism; data and children are only
+	 * fetched (and observers notified) for paths whose data version (mzxid)
+	 * or child list version (pzxid) differs from the version last passed on
+	 * to observers. Paths in observed subtrees are re-checked the same way,
+	 * asynchronously, against the subtree's cached versions.
+	 * 
+	 * @param now
+	 *            paths due at or before this time are checked
+	 * @return number of paths with observers where a change was found
+	 */
+	int sweep(long now) throws InterruptedException {
+		List<String> duePathList = new ArrayList<String>();
+		List<String> dueSubtreePathList = new ArrayList<String>();
+		for (Map.Entry<String, Long> entry : observerScheduledCheckTimestampMap
+				.entrySet()) {
+			if (entry.getValue() <= now
+					&& observerScheduledCheckTimestampMap.remove(
+							entry.getKey(), entry.getValue())) {
+				if (getObserverSet(entry.getKey(), false).size() > 0) {
+					duePathList.add(entry.getKey());
+				} else {
+					pathVersionMap.remove(entry.getKey());
+				}
+				if (getCoveringSubtrees(entry.getKey()).size() > 0) {
+					dueSubtreePathList.add(entry.getKey());
+				}
+			}
+		}
+		if (duePathList.size() == 0 && dueSubtreePathList.size() == 0) {
+			return 0;
+		}
 
-					// fetch info about node
-					Stat zkStat = zkClient.exists(path, true);
-					Stat updatedStat = new Stat();
-					byte[] zkData = zkClient.getData(path, true, updatedStat);
-					List<String> zkChildList = zkClient.getChildren(path, true);
+		Timer.Context timerContext = sweepTimer.time();
+		int requestCount = 0;
+
+		// sync once per PathType to get most recent:  sync is not
+		// path-specific on server, but PathType(s) may be routed to
+		// different ensembles
+		for (String syncPath : getSyncPathList(pathScheme, duePathList,
+				dueSubtreePathList)) {
+			zkClientUtil.syncPath(zkClient, syncPath, 0,
+					ZkClientUtil.DEFAULT_SYNC_TIMEOUT_MILLIS);
+			requestCount++;
+		}
 
-					Set<T> observerSet = getObserverSet(path, false);
-					for (T observer : observerSet) {
-						List<String> observerChildList = observer
-								.getChildList();
-						byte[] observerData = observer.getData();
-						if (zkStat != null) {
-							// check children
-							if (childListsDiffer(observerChildList, zkChildList)) {
-								observer.setChildList(zkChildList);
-								updateObserver(path, observer);
-								logger.warn(
-										"RECHECK:  NODE CHILDREN CHANGED:  updated={}; previous={}",
-										zkChildList, observerChildList);
-								observer.nodeChildrenChanged(zkChildList,
-										observerChildList);
-							}
+		// subtrees compare against their own cached versions
+		for (String path : dueSubtreePathList) {
+			refreshSubtrees(path, true);
+		}
+		requestCount += dueSubtreePathList.size();
+
+		List<Callable<Boolean>> versionCheckList = new ArrayList<Callable<Boolean>>(
+				duePathList.size());
+		for (final String path : duePathList) {
+			versionCheckList.add(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					// also re-arms watch
+					Stat stat = zkClient.exists(path, true);
+					return !PathVersion.of(stat).equals(
+							pathVersionMap.get(path));
+				}
+			});
+		}
+		List<Future<Boolean>> versionCheckFutureList = sweepExecutor
+				.invokeAll(versionCheckList);
+		requestCount += duePathList.size();
+
+		int changedCount = 0;
+		for (int i = 0; i < duePathList.size(); i++) {
+			final String path = duePathList.get(i);
+			boolean changed = true;
+			try {
+				changed = versionCheckFutureList.get(i).get();
+			} catch (ExecutionException e) {
+				logger.warn("Unable to check version:  path=" + path,
+						e.getCause());
+			}
+			if (!changed) {
+				continue;
+			}
 
-							// check data
-							if (!Arrays.equals(observerData, zkData)) {
-								observer.setData(zkData);
-								updateObserver(path, observer);
-								logger.warn(
-										"RECHECK:  NODE DATA CHANGED:  updated={}; previous={}",
-										zkData, observerData);
-								observer.nodeDataChanged(zkData, observerData);
-								observer.nodeDataChanged(zkData, observerData,
-										updatedStat);
-							}
-						} else {
-							// node deleted
-							observer.setData(null);
-							observer.setChildList(Collections.EMPTY_LIST);
-							observer.nodeDeleted(observerData,
-									observerChildList);
+			changedCount++;
+			requestCount += 2;
+
+			// check on path's partition to keep order with other events
+			delegatorExecutor.submit(path, new Runnable() {
+				@Override
+				public void run() {
+					try {
+						checkObservers(path, true);
+					} catch (Exception e) {
+						logger.warn("Unable to check event:  path=" + path, e);
+					}
+				}
+			});
+		}
+
+		long elapsedNanos = timerContext.stop();
+		sweepPathHistogram.update(duePathList.size()
+				+ dueSubtreePathList.size());
+		sweepFetchHistogram.update(changedCount);
+		sweepRequestHistogram.update(requestCount);
+
+		logger.debug(
+				"Sweep complete:  paths={}; changed={}; requests={}; elapsedMillis={}",
+				new Object[] { duePathList.size(), changedCount, requestCount,
+						TimeUnit.NANOSECONDS.toMillis(elapsedNanos) });
+
+		return changedCount;
+	}
+
+	/**
+	 * 
+	 * @param pathScheme
+	 *            null if unknown, in which case all paths are taken to be on
+	 *            the same ensemble
+	 * @param duePathList
+	 * @param dueSubtreePathList
+	 * @return first path of each PathType among given paths
+	 */
+	static List<String> getSyncPathList(PathScheme pathScheme,
+			List<String> duePathList, List<String> dueSubtreePathList) {
+		// PathType is null for paths outside of framework base path
+		Map<PathType, String> syncPathMap = new HashMap<PathType, String>(4,
+				0.9f);
+		List<String> pathList = new ArrayList<String>(duePathList);
+		pathList.addAll(dueSubtreePathList);
+		for (String path : pathList) {
+			PathType pathType = pathScheme != null ? pathScheme
+					.getPathType(path) : null;
+			if (!syncPathMap.containsKey(pathType)) {
+				syncPathMap.put(pathType, path);
+			}
+		}
+		return new ArrayList<String>(syncPathMap.values());
+	}
+
+	/**
+	 * Record version of data and/or child list passed on to observers of a
+	 * path.
+	 * 
+	 * @param path
+	 * @param mzxid
+	 *            -1 to keep previously recorded value
+	 * @param pzxid
+	 *            -1 to keep previously recorded value
+	 */
+	void recordVersion(String path, long mzxid, long pzxid) {
+		if (mzxid == -1 || pzxid == -1) {
+			PathVersion previousVersion = pathVersionMap.get(path);
+			if (previousVersion == null
+					|| previousVersion == PathVersion.NONEXISTENT) {
+				// only have partial version:  let sweeper do a full check
+				pathVersionMap.remove(path);
+				return;
+			}
+			mzxid = mzxid != -1 ? mzxid : previousVersion.mzxid;
+			pzxid = pzxid != -1 ? pzxid : previousVersion.pzxid;
+		}
+		pathVersionMap.put(path, new PathVersion(mzxid, pzxid));
+	}
+
+	/**
+	 * Data (mzxid) and child list (pzxid) version of a path.
+	 */
+	static class PathVersion {
+		static final PathVersion NONEXISTENT = new PathVersion(-1, -1);
+
+		final long mzxid;
+		final long pzxid;
+
+		PathVersion(long mzxid, long pzxid) {
+			this.mzxid = mzxid;
+			this.pzxid = pzxid;
+		}
+
+		static PathVersion of(Stat stat) {
+			return stat != null ? new PathVersion(stat.getMzxid(),
+					stat.getPzxid()) : NONEXISTENT;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof PathVersion
+					&& ((PathVersion) obj).mzxid == mzxid
+					&& ((PathVersion) obj).pzxid == pzxid;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (mzxid ^ pzxid);
+		}
+	}
+
+	/**
+	 * Fetch current state of path once and notify observers of any
+	 * differences from the state they last saw. Re-arms data and child
+	 * watches.
+	 * 
+	 * @param path
+	 * @param recheck
+	 *            true if this is a re-check, in which case any differences
+	 *            found mean an event was missed
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 */
+	void checkObservers(String path, boolean recheck) throws KeeperException,
+			InterruptedException {
+		Set<T> observerSet = getObserverSet(path, false);
+		if (observerSet.size() == 0) {
+			return;
+		}
+
+		// fetch info about node
+		boolean exists = true;
+		Stat updatedStat = new Stat();
+		Stat childStat = new Stat();
+		byte[] updatedData = null;
+		List<String> updatedChildList = null;
+		try {
+			updatedData = zkClient.getData(path, true, updatedStat);
+			updatedChildList = ChildListDelta.sorted(zkClient.getChildren(
+					path, true, childStat));
+			recordVersion(path, updatedStat.getMzxid(), childStat.getPzxid());
+		} catch (KeeperException e) {
+			if (e.code() != KeeperException.Code.NONODE) {
+				throw e;
+			}
+			exists = false;
+			pathVersionMap.put(path, PathVersion.NONEXISTENT);
+
+			// set up watch for when path comes back
+			zkClient.exists(path, true);
+		}
+
+		ChildListDeltaCache deltaCache = new ChildListDeltaCache(
+				updatedChildList);
+		for (T observer : observerSet) {
+			List<ObserverQueue.Notification> notificationList = new ArrayList<ObserverQueue.Notification>(
+					2);
+			synchronized (observer) {
+				byte[] previousData = observer.getData();
+				List<String> previousChildList = observer.getChildList();
+				boolean previouslyDeleted = previousData == null
+						&& previousChildList == Collections.EMPTY_LIST;
+
+				if (!exists) {
+					if (!previouslyDeleted) {
+						observer.setData(null);
+						observer.setChildList(Collections.EMPTY_LIST);
+						updateObserver(path, observer);
+						logCheck(recheck, "NODE DELETED", path, null, null);
+						notificationList.add(new ObserverQueue.Deleted(
+								previousData, previousChildList));
+					}
+				} else {
+					observer.setData(updatedData);
+					observer.setChildList(updatedChildList);
+					updateObserver(path, observer);
+
+					if (previouslyDeleted) {
+						logCheck(recheck, "NODE CREATED", path,
+								updatedChildList, previousChildList);
+						notificationList.add(new ObserverQueue.Created(
+								updatedData, updatedChildList, updatedStat));
+					} else {
+						// check children
+						ChildListDelta delta = deltaCache
+								.get(previousChildList);
+						if (!delta.isEmpty()) {
+							logCheck(recheck, "NODE CHILDREN CHANGED", path,
+									updatedChildList, previousChildList);
+							notificationList
+									.add(new ObserverQueue.ChildrenChanged(
+											updatedChildList,
+											previousChildList, delta));
+						}
+
+						// check data
+						if (!Arrays.equals(previousData, updatedData)) {
+							logCheck(recheck, "NODE DATA CHANGED", path,
+									updatedData, previousData);
+							notificationList.add(new ObserverQueue.DataChanged(
+									updatedData, previousData, updatedStat));
 						}
 					}
-				} catch (Exception e) {
-					logger.warn("Unable to check event:  path=" + path, e);
 				}
 			}
 
-		}, this.sweeperIntervalMillis, TimeUnit.MILLISECONDS);
+			// outside of lock in case queue is full and we have to wait
+			for (ObserverQueue.Notification notification : notificationList) {
+				notifyObserver(observer, notification);
+			}
+		}
+	}
 
+	void logCheck(boolean recheck, String change, String path, Object updated,
+			Object previous) {
+		if (recheck) {
+			logger.warn("RECHECK:  " + change
+					+ ":  path={}; updated={}; previous={}", new Object[] {
+					path, updated, previous });
+		} else {
+			logger.debug(change + ":  path={}; updated={}; previous={}",
+					new Object[] { path, updated, previous });
+		}
+	}
+
+	/**
+	 * If a coalescing window is configured for the event's path, hold the
+	 * event and merge it with any others for the same path received within
+	 * the window:  observers are then notified once based on the state at the
+	 * end of the window.
+	 * 
+	 * @param event
+	 * @return true if event will be handled after coalescing window
+	 */
+	boolean coalesce(final WatchedEvent event) {
+		final String path = event.getPath();
+		long windowMillis = getCoalesceWindowMillis(path);
+		if (windowMillis <= 0) {
+			return false;
+		}
+
+		if (pendingEventMap.putIfAbsent(path, event) != null) {
+			// already have a pending check for this path
+			mergedEventCounter.inc();
+			logger.trace("Merged event:  path={}; eventType={}", path,
+					event.getType());
+			return true;
+		}
+
+		this.scheduledExecutorService.schedule(new Runnable() {
+			@Override
+			public void run() {
+				delegatorExecutor.submit(path, new Runnable() {
+					@Override
+					public void run() {
+						// remove first so events received during check start
+						// a new window
+						WatchedEvent pendingEvent = pendingEventMap
+								.remove(path);
+						try {
+							if (getObserverSet(path, false).size() == 0) {
+								droppedEventCounter.inc();
+								return;
+							}
+							checkObservers(path, false);
+							scheduleCheck(pendingEvent);
+						} catch (Exception e) {
+							logger.warn("Unable to notify observers:  path="
+									+ path, e);
+						}
+					}
+				});
+			}
+		}, windowMillis, TimeUnit.MILLISECONDS);
+
+		return true;
 	}
 
 	@Override
 	public boolean filterWatchedEvent(WatchedEvent event) {
-		if (this.getObserverSet(event.getPath(), false).size() == 0) {
+		if (this.getObserverSet(event.getPath(), false).size() == 0
+				&& getCoveringSubtrees(event.getPath()).size() == 0) {
 			// ignore events that are not being tracked by an observer
+			if (event.getPath() != null) {
+				droppedEventCounter.inc();
+			}
 			return true;
 		}
 		return false;
@@ -274,7 +1043,15 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 
 	@Override
 	public void nodeChildrenChanged(final WatchedEvent event) {
-		delegatorExecutorService.submit(new Runnable() {
+		if (refreshSubtrees(event)) {
+			return;
+		}
+
+		if (coalesce(event)) {
+			return;
+		}
+
+		delegatorExecutor.submit(event.getPath(), new Runnable() {
 			public void run() {
 				String path = event.getPath();
 				logger.debug(
@@ -285,7 +1062,10 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 					if (observerSet.size() > 0) {
 						List<String> updatedChildList = null;
 						try {
-							updatedChildList = zkClient.getChildren(path, true);
+							Stat childStat = new Stat();
+							updatedChildList = ChildListDelta.sorted(zkClient
+									.getChildren(path, true, childStat));
+							recordVersion(path, -1, childStat.getPzxid());
 						} catch (KeeperException e) {
 							if (e.code() != KeeperException.Code.NONODE) {
 								throw e;
@@ -295,27 +1075,36 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 							updatedChildList = Collections.EMPTY_LIST;
 						}
 
+						// observers usually share the same previous child
+						// list, so the delta is only computed once
+						ChildListDeltaCache deltaCache = new ChildListDeltaCache(
+								updatedChildList);
 						for (final T observer : observerSet) {
 
 							logger.trace(
 									"Notifying observer:  observer.hashCode()={}",
 									observer.hashCode());
 
+							ObserverQueue.Notification notification = null;
 							synchronized (observer) {
 								final List<String> previousChildList = observer
 										.getChildList();
-								boolean updatedValueDiffers = childListsDiffer(
-										updatedChildList, previousChildList);
+								ChildListDelta delta = deltaCache
+										.get(previousChildList);
 
 								observer.setChildList(updatedChildList);
 
 								updateObserver(path, observer);
 
-								if (updatedValueDiffers) {
-									observer.nodeChildrenChanged(
-											updatedChildList, previousChildList);
+								if (!delta.isEmpty()) {
+									notification = new ObserverQueue.ChildrenChanged(
+											updatedChildList,
+											previousChildList, delta);
 								}
 							}
+							if (notification != null) {
+								notifyObserver(observer, notification);
+							}
 						}// for
 
 						scheduleCheck(event);
@@ -340,27 +1129,51 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 			updatedChildList = Collections.EMPTY_LIST;
 		}
 
-		boolean updatedValueDiffers = previousChildList.size() != updatedChildList
-				.size();
-		if (!updatedValueDiffers) {
-			// if sizes are the same, compare contents independent of order
-			Set<String> childListSet = new HashSet<String>(
-					previousChildList.size() + 1, 1.0f);
-			childListSet.addAll(previousChildList);
+		if (previousChildList.size() != updatedChildList.size()) {
+			return true;
+		}
 
-			Set<String> updatedChildListSet = new HashSet<String>(
-					updatedChildList.size() + 1, 1.0f);
-			updatedChildListSet.addAll(updatedChildList);
+		// if sizes are the same, compare contents independent of order
+		return !ChildListDelta.compute(previousChildList, updatedChildList)
+				.isEmpty();
+	}
 
-			updatedValueDiffers = !childListSet.equals(updatedChildListSet);
+	/**
+	 * Computes the delta from a given previous child list to the updated child
+	 * list, remembering the last result by identity of the previous list:
+	 * observers of a path are usually all updated to the same list instance.
+	 * Not thread-safe: use for a single event only.
+	 */
+	static class ChildListDeltaCache {
+		private final List<String> updatedChildList;
+		private List<String> previousChildList;
+		private ChildListDelta delta;
+
+		ChildListDeltaCache(List<String> updatedChildList) {
+			this.updatedChildList = updatedChildList;
 		}
 
-		return updatedValueDiffers;
+		ChildListDelta get(List<String> previousChildList) {
+			if (delta == null || previousChildList != this.previousChildList) {
+				this.previousChildList = previousChildList;
+				this.delta = ChildListDelta.compute(previousChildList,
+						updatedChildList);
+			}
+			return delta;
+		}
 	}
 
 	@Override
 	public void nodeCreated(final WatchedEvent event) {
-		delegatorExecutorService.submit(new Runnable() {
+		if (refreshSubtrees(event)) {
+			return;
+		}
+
+		if (coalesce(event)) {
+			return;
+		}
+
+		delegatorExecutor.submit(event.getPath(), new Runnable() {
 			public void run() {
 				String path = event.getPath();
 				logger.debug("Notifying ALL observers:  nodeCreated:  path={}",
@@ -369,15 +1182,19 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 					Set<T> observerSet = getObserverSet(path, false);
 					if (observerSet.size() > 0) {
 						// get children just to get a child watch
-						List<String> childList = zkClient.getChildren(path,
-								true);
+						Stat childStat = new Stat();
+						List<String> childList = ChildListDelta.sorted(zkClient
+								.getChildren(path, true, childStat));
 						Stat updatedStat = new Stat();
 						byte[] data = zkClient.getData(path, true, updatedStat);
+						recordVersion(path, updatedStat.getMzxid(),
+								childStat.getPzxid());
 
 						for (T observer : observerSet) {
 							logger.trace(
 									"Notifying observer:  observer.hashCode()={}",
 									observer.hashCode());
+							ObserverQueue.Notification notification = null;
 							synchronized (observer) {
 								byte[] previousData = observer.getData();
 								List<String> previousChildList = observer
@@ -389,11 +1206,13 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 
 								if (previousData == null
 										&& previousChildList == Collections.EMPTY_LIST) {
-									observer.nodeCreated(data, childList);
-									observer.nodeCreated(data, childList,
-											updatedStat);
+									notification = new ObserverQueue.Created(
+											data, childList, updatedStat);
 								}
 							}
+							if (notification != null) {
+								notifyObserver(observer, notification);
+							}
 						}
 
 						scheduleCheck(event);
@@ -409,7 +1228,15 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 
 	@Override
 	public void nodeDataChanged(final WatchedEvent event) {
-		delegatorExecutorService.submit(new Runnable() {
+		if (refreshSubtrees(event)) {
+			return;
+		}
+
+		if (coalesce(event)) {
+			return;
+		}
+
+		delegatorExecutor.submit(event.getPath(), new Runnable() {
 			public void run() {
 				String path = event.getPath();
 				logger.debug(
@@ -421,10 +1248,12 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 						Stat updatedStat = new Stat();
 						byte[] updatedData = zkClient.getData(path, true,
 								updatedStat);
+						recordVersion(path, updatedStat.getMzxid(), -1);
 						for (T observer : observerSet) {
 							logger.trace(
 									"Notifying observer:  observer.hashCode()={}",
 									observer.hashCode());
+							ObserverQueue.Notification notification = null;
 							synchronized (observer) {
 								if (!Arrays.equals(observer.getData(),
 										updatedData)) {
@@ -433,12 +1262,14 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 
 									updateObserver(path, observer);
 
-									observer.nodeDataChanged(updatedData,
-											previousData);
-									observer.nodeDataChanged(updatedData,
-											previousData, updatedStat);
+									notification = new ObserverQueue.DataChanged(
+											updatedData, previousData,
+											updatedStat);
 								}
 							}
+							if (notification != null) {
+								notifyObserver(observer, notification);
+							}
 						}
 
 						scheduleCheck(event);
@@ -455,7 +1286,15 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 
 	@Override
 	public void nodeDeleted(final WatchedEvent event) {
-		delegatorExecutorService.submit(new Runnable() {
+		if (refreshSubtrees(event)) {
+			return;
+		}
+
+		if (coalesce(event)) {
+			return;
+		}
+
+		delegatorExecutor.submit(event.getPath(), new Runnable() {
 			public void run() {
 				String path = event.getPath();
 				logger.debug("Notifying ALL observers:  nodeDeleted:  path={}",
@@ -470,6 +1309,7 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 					} catch (Exception e) {
 						logger.warn("Unable to set watch:  path=" + path, e);
 					}
+					pathVersionMap.put(path, PathVersion.NONEXISTENT);
 
 					for (T observer : observerSet) {
 
@@ -477,6 +1317,7 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 								"Notifying observer:  observer.hashCode()={}",
 								observer.hashCode());
 
+						ObserverQueue.Notification notification = null;
 						synchronized (observer) {
 							byte[] previousData = observer.getData();
 							observer.setData(null);
@@ -489,10 +1330,13 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 
 							if (previousChildList != observer.getChildList()
 									|| previousData != observer.getData()) {
-								observer.nodeDeleted(previousData,
-										previousChildList);
+								notification = new ObserverQueue.Deleted(
+										previousData, previousChildList);
 							}
 						}
+						if (notification != null) {
+							notifyObserver(observer, notification);
+						}
 					}
 
 					scheduleCheck(event);
@@ -503,37 +1347,85 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 	}
 
 	public void signalStateReset(final Object o) {
-		delegatorExecutorService.submit(new Runnable() {
-			public void run() {
-				logger.warn("Notifying ALL observers:  signalStateReset");
-				for (String path : observerMap.keySet()) {
+		logger.warn("Notifying ALL observers:  signalStateReset");
+		for (final String path : observerMap.keySet()) {
+			// notify on path's partition to keep order with other events
+			delegatorExecutor.submit(path, new Runnable() {
+				public void run() {
 					Set<T> observerSet = getObserverSet(path, false);
 					for (T observer : observerSet) {
-						observer.stateReset(o);
+						notifyObserver(observer, new ObserverQueue.StateReset(o));
 					}
 				}
-			}
-		});
+			});
+		}
+		for (final ObservedSubtree subtree : subtreeMap.values()) {
+			delegatorExecutor.submit(subtree.getRootPath(), new Runnable() {
+				public void run() {
+					try {
+						// events may have been missed:  diff entire subtree
+						// before signalling reset
+						synchronized (subtree) {
+							notifySubtreeObservers(subtree, subtree.resync());
+							for (SubtreeObserver observer : subtree
+									.getObserverSet()) {
+								notifyObserver(observer,
+										new ObserverQueue.StateReset(o));
+							}
+						}
+					} catch (Exception e) {
+						logger.warn("Unable to resync subtree:  rootPath="
+								+ subtree.getRootPath(), e);
+					}
+				}
+			});
+		}
 	}
 
 	public void signalStateUnknown(final Object o) {
-		delegatorExecutorService.submit(new Runnable() {
-			public void run() {
-				logger.warn("Notifying ALL observers:  signalStateUnknown");
-				for (String path : observerMap.keySet()) {
+		logger.warn("Notifying ALL observers:  signalStateUnknown");
+		for (final String path : observerMap.keySet()) {
+			// notify on path's partition to keep order with other events
+			delegatorExecutor.submit(path, new Runnable() {
+				public void run() {
 					Set<T> observerSet = getObserverSet(path, false);
 					for (T observer : observerSet) {
-						observer.stateUnknown(o);
+						notifyObserver(observer,
+								new ObserverQueue.StateUnknown(o));
 					}
 				}
-			}
-		});
+			});
+		}
+		for (final ObservedSubtree subtree : subtreeMap.values()) {
+			delegatorExecutor.submit(subtree.getRootPath(), new Runnable() {
+				public void run() {
+					for (SubtreeObserver observer : subtree.getObserverSet()) {
+						notifyObserver(observer,
+								new ObserverQueue.StateUnknown(o));
+					}
+				}
+			});
+		}
 
 	}
 
 	public void removeAll(String path) {
 		logger.debug("Removing ALL observers:  path={}", path);
-		observerMap.remove(path);
+		Set<T> observerSet = observerMap.remove(path);
+		if (observerSet != null) {
+			for (T observer : observerSet) {
+				observerQueueMap.remove(observer);
+				removeOwnerObserver(observer);
+			}
+		}
+		ObservedSubtree subtree = subtreeMap.remove(path);
+		if (subtree != null) {
+			for (SubtreeObserver observer : subtree.getObserverSet()) {
+				observerQueueMap.remove(observer);
+				removeOwnerObserver(observer);
+			}
+		}
+		pathVersionMap.remove(path);
 	}
 
 	/**
@@ -543,12 +1435,18 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 	 */
 	public void removeAllByOwnerId(String ownerId) {
 		logger.debug("Removing ALL observers by owner:  ownerId={}", ownerId);
-		Set<T> ownerObserverSet = getOwnerObserverSet(ownerId, true);
-		for (Observer observer : ownerObserverSet) {
-			String path = observer.getPath();
+		Map<String, Set<Observer>> pathObserverMap = ownerObserverMap
+				.remove(ownerId);
+		if (pathObserverMap == null) {
+			return;
+		}
+		for (Map.Entry<String, Set<Observer>> entry : pathObserverMap
+				.entrySet()) {
 			logger.debug("Removing observer by owner:  ownerId={}; path={}",
-					ownerId, path);
-			this.remove(path, observer);
+					ownerId, entry.getKey());
+			for (Observer observer : entry.getValue()) {
+				this.remove(entry.getKey(), observer);
+			}
 		}
 	}
 
@@ -560,26 +1458,59 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 	public void removeByOwnerId(String ownerId, String path) {
 		logger.debug("Removing observer by owner:  ownerId={}; path={}",
 				ownerId, path);
-		Set<T> ownerObserverSet = getOwnerObserverSet(ownerId, true);
+		Map<String, Set<Observer>> pathObserverMap = ownerObserverMap
+				.get(ownerId);
+		if (pathObserverMap == null) {
+			return;
+		}
+		Set<Observer> ownerObserverSet = pathObserverMap.remove(path);
+		if (ownerObserverSet == null) {
+			return;
+		}
 		for (Observer observer : ownerObserverSet) {
-			if (path.equals(observer.getPath())) {
-				logger.debug(
-						"Removing observer by owner:  ownerId={}; path={}",
-						ownerId, path);
-				this.remove(path, observer);
-			}
+			this.remove(path, observer);
 		}
 	}
 
 	public void remove(String path, Observer observer) {
-		Set<T> observerSet = getObserverSet(path, false);
-		boolean success = observerSet.remove(observer);
+		boolean success;
+		if (observer instanceof SubtreeObserver) {
+			ObservedSubtree subtree = subtreeMap.get(path);
+			success = subtree != null
+					&& subtree.getObserverSet().remove(observer);
+			if (success && subtree.getObserverSet().isEmpty()) {
+				// watches are left to lapse:  events are filtered once
+				// subtree is no longer being observed
+				subtreeMap.remove(path, subtree);
+			}
+		} else {
+			Set<T> observerSet = getObserverSet(path, false);
+			success = observerSet.remove(observer);
+		}
+		observerQueueMap.remove(observer);
+		removeOwnerObserver(observer);
 
 		logger.debug(
 				"Removed specific observer:  path={}; observer.hashCode()={}; success={}",
 				new Object[] { path, observer.hashCode(), success });
 	}
 
+	void removeOwnerObserver(Observer observer) {
+		if (observer.getOwnerId() == null) {
+			return;
+		}
+		Map<String, Set<Observer>> pathObserverMap = ownerObserverMap
+				.get(observer.getOwnerId());
+		if (pathObserverMap == null) {
+			return;
+		}
+		Set<Observer> ownerObserverSet = pathObserverMap.get(observer
+				.getPath());
+		if (ownerObserverSet != null) {
+			ownerObserverSet.remove(observer);
+		}
+	}
+
 	public boolean isBeingObserved(String path) {
 		Set<T> wrapperSet = getObserverSet(path, false);
 		return wrapperSet.size() > 0;
@@ -616,20 +1547,43 @@ public class ObserverManager<T extends Observer> extends AbstractZkEventHandler
 	/**
 	 * For unit testing
 	 */
-	public Set<T> getReadOnlyOwnerObserverSet(String ownerId) {
-		return Collections.unmodifiableSet(getOwnerObserverSet(ownerId, false));
+	public Set<Observer> getReadOnlyOwnerObserverSet(String ownerId) {
+		Set<Observer> ownerObserverSet = new HashSet<Observer>();
+		Map<String, Set<Observer>> pathObserverMap = ownerObserverMap
+				.get(ownerId);
+		if (pathObserverMap != null) {
+			for (Set<Observer> observerSet : pathObserverMap.values()) {
+				ownerObserverSet.addAll(observerSet);
+			}
+		}
+		return Collections.unmodifiableSet(ownerObserverSet);
 	}
 
-	Set<T> getOwnerObserverSet(String ownerId, boolean createIfNecessary) {
-		Set<T> observerSet = ownerObserverMap.get(ownerId);
+	Set<Observer> getOwnerObserverSet(String ownerId, String path,
+			boolean createIfNecessary) {
+		ConcurrentMap<String, Set<Observer>> pathObserverMap = ownerObserverMap
+				.get(ownerId);
+		if (pathObserverMap == null) {
+			if (!createIfNecessary) {
+				return Collections.EMPTY_SET;
+			}
+			ConcurrentMap<String, Set<Observer>> newPathObserverMap = new ConcurrentHashMap<String, Set<Observer>>(
+					4, 0.9f, 1);
+			pathObserverMap = ownerObserverMap.putIfAbsent(ownerId,
+					newPathObserverMap);
+			if (pathObserverMap == null) {
+				pathObserverMap = newPathObserverMap;
+			}
+		}
+
+		Set<Observer> observerSet = pathObserverMap.get(path);
 
 		if (observerSet == null) {
 			if (createIfNecessary) {
-				Set<T> newObserverSet = Collections
-						.newSetFromMap(new ConcurrentHashMap<T, Boolean>(4,
-								0.9f, 1));
-				observerSet = ownerObserverMap.putIfAbsent(ownerId,
-						newObserverSet);
+				Set<Observer> newObserverSet = Collections
+						.newSetFromMap(new ConcurrentHashMap<Observer, Boolean>(
+								4, 0.9f, 1));
+				observerSet = pathObserverMap.putIfAbsent(path, newObserverSet);
 				if (observerSet == null) {
 					observerSet = newObserverSet;
 				}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2013 Yen Pai ypai@reign.io
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package io.reign;
+
+/**
+ * What to do with a new notification when an observer's queue is full.
+ * 
+ * @author ypai
+ * 
+ */
+public enum ObserverOverflowPolicy {
+
+	/**
+	 * Merge with the most recently queued notification if it is of the same kind (e.g. two data changes become one
+	 * change from the earlier previous value to the later updated value); otherwise drop the oldest notification.
+	 */
+	MERGE_TO_LATEST,
+
+	/** Drop the oldest queued notification. */
+	DROP_OLDEST,
+
+	/**
+	 * Block the notifying thread until there is room in the queue, up to a maximum wait, after which the oldest queued
+	 * notification is dropped.
+	 */
+	BLOCK
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2013 Yen Pai ypai@reign.io
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package io.reign;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Bounded queue of notifications for a single observer, drained on a shared executor so that a slow observer only
+ * delays its own notifications. At most one thread delivers to an observer at a time, in queue order.
+ * 
+ * @author ypai
+ * 
+ */
+class ObserverQueue {
+
+	private static final Logger logger = LoggerFactory.getLogger(ObserverQueue.class);
+
+	/** max notifications delivered per turn before yielding the thread to other observers */
+	static final int MAX_DRAIN_BATCH = 64;
+
+	private final Observer observer;
+
+	private final int capacity;
+
+	private final ObserverOverflowPolicy overflowPolicy;
+
+	private final long maxBlockMillis;
+
+	private final long slowObserverThresholdMillis;
+
+	private final Executor executor;
+
+	private final Histogram latencyHistogram;
+
+	private final Counter slowCounter;
+
+	private final Counter mergedCounter;
+
+	private final Counter droppedCounter;
+
+	private final Counter blockedCounter;
+
+	/** guarded by this */
+	private final ArrayDeque<Notification> deque = new ArrayDeque<Notification>();
+
+	/** true if a drain is scheduled or running; guarded by this */
+	private boolean draining = false;
+
+	private final Runnable drainTask = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	/**
+	 * 
+	 * @param observer
+	 * @param capacity
+	 * @param overflowPolicy
+	 * @param maxBlockMillis
+	 *            max time to wait for room in queue with ObserverOverflowPolicy.BLOCK
+	 * @param slowObserverThresholdMillis
+	 *            callbacks taking longer than this are reported as slow
+	 * @param executor
+	 * @param metricRegistry
+	 */
+	ObserverQueue(Observer observer, int capacity, ObserverOverflowPolicy overflowPolicy, long maxBlockMillis,
+	        long slowObserverThresholdMillis, Executor executor, MetricRegistry metricRegistry) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be > 0:  capacity=" + capacity);
+		}
+		this.observer = observer;
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+		this.maxBlockMillis = maxBlockMillis;
+		this.slowObserverThresholdMillis = slowObserverThresholdMillis;
+		this.executor = executor;
+		this.latencyHistogram = metricRegistry.histogram("observer.callback.latencyMillis");
+		this.slowCounter = metricRegistry.counter("observer.callback.slow");
+		this.mergedCounter = metricRegistry.counter("observer.queue.merged");
+		this.droppedCounter = metricRegistry.counter("observer.queue.dropped");
+		this.blockedCounter = metricRegistry.counter("observer.queue.blocked");
+	}
+
+	public synchronized int size() {
+		return deque.size();
+	}
+
+	/**
+	 * Queue notification for delivery, applying overflow policy if queue is full.
+	 * 
+	 * @param notification
+	 */
+	void offer(Notification notification) {
+		boolean scheduleDrain;
+		synchronized (this) {
+			if (deque.size() >= capacity) {
+				switch (overflowPolicy) {
+				case MERGE_TO_LATEST:
+					Notification merged = deque.peekLast().merge(notification);
+					if (merged != null) {
+						deque.pollLast();
+						notification = merged;
+						mergedCounter.inc();
+					} else {
+						dropOldest();
+					}
+					break;
+				case BLOCK:
+					blockedCounter.inc();
+					if (!awaitRoom()) {
+						dropOldest();
+					}
+					break;
+				default:
+					dropOldest();
+				}
+			}
+			deque.offerLast(notification);
+
+			scheduleDrain = !draining;
+			draining = true;
+		}
+
+		if (scheduleDrain) {
+			scheduleDrain();
+		}
+	}
+
+	/**
+	 * Wait for room in queue; must hold lock.
+	 * 
+	 * @return true if there is room
+	 */
+	boolean awaitRoom() {
+		long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxBlockMillis);
+		try {
+			while (deque.size() >= capacity) {
+				long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+				if (remainingMillis <= 0) {
+					logger.warn("Timed out waiting for room in observer queue:  observerType={}; path={}; queueDepth={}",
+					        new Object[] { observer.getClass().getName(), observer.getPath(), deque.size() });
+					return false;
+				}
+				this.wait(remainingMillis);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return true;
+	}
+
+	void dropOldest() {
+		deque.pollFirst();
+		droppedCounter.inc();
+	}
+
+	void scheduleDrain() {
+		try {
+			executor.execute(drainTask);
+		} catch (RejectedExecutionException e) {
+			logger.debug("Not delivering observer notifications:  shutting down");
+			synchronized (this) {
+				draining = false;
+			}
+		}
+	}
+
+	void drain() {
+		for (int i = 0; i < MAX_DRAIN_BATCH; i++) {
+			Notification notification;
+			synchronized (this) {
+				notification = deque.pollFirst();
+				if (notification == null) {
+					draining = false;
+					return;
+				}
+
+				// wake up any notifiers blocked on a full queue
+				this.notifyAll();
+			}
+
+			long startNanos = System.nanoTime();
+			try {
+				notification.deliver(observer);
+			} catch (Exception e) {
+				logger.warn("Observer callback failed:  observerType=" + observer.getClass().getName() + "; path="
+				        + observer.getPath(), e);
+			}
+			long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+			latencyHistogram.update(latencyMillis);
+			if (latencyMillis >= slowObserverThresholdMillis) {
+				slowCounter.inc();
+				logger.warn(
+				        "Slow observer:  observerType={}; path={}; notification={}; latencyMillis={}; queueDepth={}",
+				        new Object[] { observer.getClass().getName(), observer.getPath(),
+				                notification.getClass().getSimpleName(), latencyMillis, size() });
+			}
+		}
+
+		// more to deliver:  let other observers have a turn
+		scheduleDrain();
+	}
+
+	/**
+	 * A pending callback to an observer.
+	 */
+	static abstract class Notification {
+		abstract void deliver(Observer observer);
+
+		/**
+		 * 
+		 * @param newer
+		 * @return single notification equivalent to this followed by newer; null if they cannot be merged
+		 */
+		Notification merge(Notification newer) {
+			return null;
+		}
+	}
+
+	static class ChildrenChanged extends Notification {
+		private final List<String> updatedChildList;
+		private final List<String> previousChildList;
+		private final ChildListDelta delta;
+
+		ChildrenChanged(List<String> updatedChildList, List<String> previousChildList, ChildListDelta delta) {
+			this.updatedChildList = updatedChildList;
+			this.previousChildList = previousChildList;
+			this.delta = delta;
+		}
+
+		@Override
+		void deliver(Observer observer) {
+			observer.nodeChildrenChanged(updatedChildList, previousChildList);
+			observer.nodeChildrenChanged(updatedChildList, previousChildList, delta);
+		}
+
+		@Override
+		Notification merge(Notification newer) {
+			if (!(newer instanceof ChildrenChanged)) {
+				return null;
+			}
+			List<String> mergedChildList = ((ChildrenChanged) newer).updatedChildList;
+			return new ChildrenChanged(mergedChildList, previousChildList, ChildListDelta.compute(previousChildList,
+			        mergedChildList));
+		}
+	}
+
+	static class DataChanged extends Notification {
+		private final byte[] updatedData;
+		private final byte[] previousData;
+		private final Stat updatedStat;
+
+		DataChanged(byte[] updatedData, byte[] previousData, Stat updatedStat) {
+			this.updatedData = updatedData;
+			this.previousData = previousData;
+			this.updatedStat = updatedStat;
+		}
+
+		@Override
+		void deliver(Observer observer) {
+			observer.nodeDataChanged(updatedData, previousData);
+			observer.nodeDataChanged(updatedData, previousData, updatedStat);
+		}
+
+		@Override
+		Notification merge(Notification newer) {
+			if (!(newer instanceof DataChanged)) {
+				return null;
+			}
+			return new DataChanged(((DataChanged) newer).updatedData, previousData, ((DataChanged) newer).updatedStat);
+		}
+	}
+
+	static class Created extends Notification {
+		private final byte[] data;
+		private final List<String> childList;
+		private final Stat updatedStat;
+
+		Created(byte[] data, List<String> childList, Stat updatedStat) {
+			this.data = data;
+			this.childList = childList;
+			this.updatedStat = updatedStat;
+		}
+
+		@Override
+		void deliver(Observer observer) {
+			observer.nodeCreated(data, childList);
+			observer.nodeCreated(data, childList, updatedStat);
+		}
+	}
+
+	static class Deleted extends Notification {
+		private final byte[] previousData;
+		private final List<String> previousChildList;
+
+		Deleted(byte[] previousData, List<String> previousChildList) {
+			this.previousData = previousData;
+			this.previousChildList = previousChildList;
+		}
+
+		@Override
+		void deliver(Observer observer) {
+			observer.nodeDeleted(previousData, previousChildList);
+		}
+	}
+
+	static class StateReset extends Notification {
+		private final Object o;
+
+		StateReset(Object o) {
+			this.o = o;
+		}
+
+		@Override
+		void deliver(Observer observer) {
+			observer.stateReset(o);
+		}
+
+		@Override
+		Notification merge(Notification newer) {
+			return newer instanceof StateReset ? newer : null;
+		}
+	}
+
+	static class StateUnknown extends Notification {
+		private final Object o;
+
+		StateUnknown(Object o) {
+			this.o = o;
+		}
+
+		@Override
+		void deliver(Observer observer) {
+			observer.stateUnknown(o);
+		}
+
+		@Override
+		Notification merge(Notification newer) {
+			return newer instanceof StateUnknown ? newer : null;
+		}
+	}
+
+	static class SubtreeNodeCreated extends Notification {
+		private final String path;
+		private final byte[] data;
+		private final Stat stat;
+
+		SubtreeNodeCreated(String path, byte[] data, Stat stat) {
+			this.path = path;
+			this.data = data;
+			this.stat = stat;
+		}
+
+		@Override
+		void deliver(Observer observer) {
+			((SubtreeObserver) observer).nodeCreated(path, data, stat);
+		}
+	}
+
+	static class SubtreeNodeUpdated extends Notification {
+		private final String path;
+		private final byte[] updatedData;
+		private final byte[] previousData;
+		private final Stat updatedStat;
+
+		SubtreeNodeUpdated(String path, byte[] updatedData, byte[] previousData, Stat updatedStat) {
+			this.path = path;
+			this.updatedData = updatedData;
+			this.previousData = previousData;
+			this.updatedStat = updatedStat;
+		}
+
+		@Override
+		void deliver(Observer observer) {
+			((SubtreeObserver) observer).nodeUpdated(path, updatedData, previousData, updatedStat);
+		}
+
+		@Override
+		Notification merge(Notification newer) {
+			if (!(newer instanceof SubtreeNodeUpdated) || !path.equals(((SubtreeNodeUpdated) newer).path)) {
+				return null;
+			}
+			return new SubtreeNodeUpdated(path, ((SubtreeNodeUpdated) newer).updatedData, previousData,
+			        ((SubtreeNodeUpdated) newer).updatedStat);
+		}
+	}
+
+	static class SubtreeNodeDeleted extends Notification {
+		private final String path;
+		private final byte[] previousData;
+
+		SubtreeNodeDeleted(String path, byte[] previousData) {
+			this.path = path;
+			this.previousData = previousData;
+		}
+
+		@Override
+		void deliver(Observer observer) {
+			((SubtreeObserver) observer).nodeDeleted(path, previousData);
+		}
+	}
+}
@@ -49,4 +49,11 @@ public interface PathScheme {
 
     public String toPathToken(NodeId nodeId);
 
+    /**
+     * 
+     * @param absolutePath
+     * @return the PathType the given absolute path falls under; null if path is not under a framework PathType
+     */
+    public PathType getPathType(String absolutePath);
+
 }
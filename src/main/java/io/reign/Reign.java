@@ -89,6 +89,11 @@ public class Reign implements Watcher {
 	}
 
 	public Reign(ZkClient zkClient, PathScheme pathScheme, NodeIdProvider nodeIdProvider, TestingServer zkTestServer) {
+		this(zkClient, pathScheme, nodeIdProvider, zkTestServer, ObserverManager.DEFAULT_DISPATCH_PARALLELISM);
+	}
+
+	public Reign(ZkClient zkClient, PathScheme pathScheme, NodeIdProvider nodeIdProvider, TestingServer zkTestServer,
+	        int observerDispatchParallelism) {
 
 		this.zkClient = zkClient;
 
@@ -96,7 +101,8 @@ public class Reign implements Watcher {
 
 		this.nodeIdProvider = nodeIdProvider;
 
-		observerManager = new ObserverManager(zkClient);
+		observerManager = new ObserverManager(zkClient, observerDispatchParallelism);
+		observerManager.setPathScheme(pathScheme);
 
 		this.zkTestServer = zkTestServer;
 
@@ -171,6 +177,10 @@ public class Reign implements Watcher {
 		return zkClient;
 	}
 
+	public ObserverManager getObserverManager() {
+		return observerManager;
+	}
+
 	public synchronized void setZkClient(ZkClient zkClient) {
 		if (started) {
 			throw new IllegalStateException("Cannot set zkClient once started!");
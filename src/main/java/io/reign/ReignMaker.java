@@ -20,12 +20,17 @@ import io.reign.mesg.DefaultMessagingService;
 import io.reign.mesg.MessagingService;
 import io.reign.metrics.MetricsService;
 import io.reign.presence.PresenceService;
+import io.reign.zk.AdmissionControlZkClient;
 import io.reign.zk.PathCache;
+import io.reign.zk.PathRoutingZkClient;
 import io.reign.zk.ResilientZkClient;
+import io.reign.zk.ResilientZkClientWithCache;
+import io.reign.zk.SharedZkClient;
 import io.reign.zk.SimplePathCache;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
@@ -47,12 +52,36 @@ public class ReignMaker {
 	private String zkConnectString;
 	private int zkSessionTimeout = 30000;
 
+	/** when true, share ZooKeeper session(s) with other Reign instances in this JVM */
+	private boolean zkClientShared = false;
+
+	/** when true, allow read-only ZooKeeper sessions and serve reads from path cache while partitioned */
+	private boolean zkClientCanBeReadOnly = false;
+
 	private int pathCacheMaxSize = 1024;
 	private int pathCacheMaxConcurrencyLevel = 2;
 
 	private PathCache pathCache = null;
 	private ZkClient zkClient = null;
 
+	/** ZkClient(s) to use for specific PathType(s) instead of the default ZkClient */
+	private final Map<PathType, ZkClient> pathTypeZkClientMap = new EnumMap<PathType, ZkClient>(PathType.class);
+
+	/** connection settings for PathType(s) that should be routed to a separate ensemble */
+	private final Map<PathType, String> pathTypeZkConnectStringMap = new EnumMap<PathType, String>(PathType.class);
+	private final Map<PathType, Integer> pathTypeZkSessionTimeoutMap = new EnumMap<PathType, Integer>(PathType.class);
+
+	/** write rate limits per PathType:  see AdmissionControlZkClient */
+	private final Map<PathType, Double> zkWritesPerSecondMap = new EnumMap<PathType, Double>(PathType.class);
+	private double zkSharedWritesPerSecond = 0;
+	private long zkWriteMaxWaitMillis = 5000;
+
+	private int observerDispatchParallelism = ObserverManager.DEFAULT_DISPATCH_PARALLELISM;
+	private long observerCoalesceWindowMillis = 0;
+	private int observerQueueCapacity = ObserverManager.DEFAULT_OBSERVER_QUEUE_CAPACITY;
+	private ObserverOverflowPolicy observerOverflowPolicy = ObserverOverflowPolicy.MERGE_TO_LATEST;
+	private long slowObserverThresholdMillis = ObserverManager.DEFAULT_SLOW_OBSERVER_THRESHOLD_MILLIS;
+
 	private PathScheme pathScheme = null;
 
 	private String frameworkClusterId;
@@ -197,6 +226,134 @@ public class ReignMaker {
 
 	}
 
+	/**
+	 * Route requests for paths of the given PathType to a separate ZooKeeper ensemble.
+	 * 
+	 * @param pathType
+	 * @param zkConnectString
+	 * @param zkSessionTimeout
+	 * @return
+	 */
+	public ReignMaker zkClient(PathType pathType, String zkConnectString, int zkSessionTimeout) {
+		this.pathTypeZkConnectStringMap.put(pathType, zkConnectString);
+		this.pathTypeZkSessionTimeoutMap.put(pathType, zkSessionTimeout);
+		return this;
+	}
+
+	/**
+	 * Route requests for paths of the given PathType to the given ZkClient. The caller keeps ownership of it: it is
+	 * not closed when Reign stops, unless it is also the default ZkClient.
+	 * 
+	 * @param pathType
+	 * @param zkClient
+	 * @return
+	 */
+	public ReignMaker zkClient(PathType pathType, ZkClient zkClient) {
+		this.pathTypeZkClientMap.put(pathType, zkClient);
+		return this;
+	}
+
+	/**
+	 * Share ZooKeeper session(s) with other Reign instances in this JVM using the same connection settings. Each
+	 * instance only receives events under its own framework base path, so instances sharing a session must use
+	 * distinct, non-nested framework base paths:  creating the ZkClient fails otherwise.
+	 * 
+	 * @param zkClientShared
+	 * @return
+	 */
+	public ReignMaker zkClientShared(boolean zkClientShared) {
+		this.zkClientShared = zkClientShared;
+		return this;
+	}
+
+	/**
+	 * Allow connecting to read-only ZooKeeper servers when partitioned from quorum:  reads are served by read-only
+	 * servers or the path cache (with entries marked stale) while writes fail fast. The path cache is not used when
+	 * combined with zkClientShared:  reads are then only served by read-only servers.
+	 * 
+	 * @param zkClientCanBeReadOnly
+	 * @return
+	 */
+	public ReignMaker zkClientCanBeReadOnly(boolean zkClientCanBeReadOnly) {
+		this.zkClientCanBeReadOnly = zkClientCanBeReadOnly;
+		return this;
+	}
+
+	/**
+	 * Limit the rate of ZooKeeper writes for paths of the given PathType. Coordination and presence writes are never
+	 * limited.
+	 * 
+	 * @param pathType
+	 * @param writesPerSecond
+	 * @return
+	 */
+	public ReignMaker zkWriteRateLimit(PathType pathType, double writesPerSecond) {
+		this.zkWritesPerSecondMap.put(pathType, writesPerSecond);
+		return this;
+	}
+
+	/**
+	 * Limit the combined rate of ZooKeeper writes for all non-priority PathType(s).
+	 * 
+	 * @param writesPerSecond
+	 * @param maxWaitMillis
+	 *            how long a write may wait for a permit before being rejected
+	 * @return
+	 */
+	public ReignMaker zkWriteRateLimit(double writesPerSecond, long maxWaitMillis) {
+		this.zkSharedWritesPerSecond = writesPerSecond;
+		this.zkWriteMaxWaitMillis = maxWaitMillis;
+		return this;
+	}
+
+	/**
+	 * 
+	 * @param observerDispatchParallelism
+	 *            number of threads used to notify observers; notifications for the same path are always in order
+	 * @return
+	 */
+	public ReignMaker observerDispatchParallelism(int observerDispatchParallelism) {
+		this.observerDispatchParallelism = observerDispatchParallelism;
+		return this;
+	}
+
+	/**
+	 * 
+	 * @param observerCoalesceWindowMillis
+	 *            observer events for a path received within this window are merged into a single notification; 0 to
+	 *            notify on every event
+	 * @return
+	 */
+	public ReignMaker observerCoalesceWindowMillis(long observerCoalesceWindowMillis) {
+		this.observerCoalesceWindowMillis = observerCoalesceWindowMillis;
+		return this;
+	}
+
+	/**
+	 * 
+	 * @param observerQueueCapacity
+	 *            max notifications waiting to be delivered to each observer
+	 * @param observerOverflowPolicy
+	 *            what to do with new notifications when an observer's queue is full
+	 * @return
+	 */
+	public ReignMaker observerQueue(int observerQueueCapacity, ObserverOverflowPolicy observerOverflowPolicy) {
+		this.observerQueueCapacity = observerQueueCapacity;
+		this.observerOverflowPolicy = observerOverflowPolicy;
+		return this;
+	}
+
+	/**
+	 * 
+	 * @param slowObserverThresholdMillis
+	 *            observer callbacks taking at least this long are logged and counted as slow
+	 * @return
+	 */
+	public ReignMaker slowObserverThresholdMillis(long slowObserverThresholdMillis) {
+		this.slowObserverThresholdMillis = slowObserverThresholdMillis;
+		return this;
+	}
+
 	public ReignMaker zkConnectString(String zkConnectString) {
 		this.zkConnectString = zkConnectString;
 		return this;
@@ -284,18 +441,29 @@ public class ReignMaker {
 		if (pathCache == null) {
 			pathCache = defaultPathCache();
 		}
+		if (pathScheme == null) {
+			pathScheme = defaultPathScheme(frameworkBasePath, frameworkClusterId);
+		}
 		if (zkClient == null) {
 			zkClient = defaultZkClient(pathCache);
 		}
-		if (pathScheme == null) {
-			pathScheme = defaultPathScheme(frameworkBasePath, frameworkClusterId);
+		if (pathTypeZkClientMap.size() > 0 || pathTypeZkConnectStringMap.size() > 0) {
+			zkClient = pathRoutingZkClient(zkClient, pathScheme);
+		}
+		if (zkWritesPerSecondMap.size() > 0 || zkSharedWritesPerSecond > 0) {
+			zkClient = new AdmissionControlZkClient(zkClient, pathScheme, zkWritesPerSecondMap,
+			        zkSharedWritesPerSecond, zkWriteMaxWaitMillis);
 		}
 		if (canonicalIdMaker == null) {
 			canonicalIdMaker = defaultCanonicalIdMaker();
 		}
 
 		// build
-		s = new Reign(zkClient, pathScheme, canonicalIdMaker, zkTestServer);
+		s = new Reign(zkClient, pathScheme, canonicalIdMaker, zkTestServer, observerDispatchParallelism);
+		s.getObserverManager().setCoalesceWindowMillis(observerCoalesceWindowMillis);
+		s.getObserverManager().setObserverQueueCapacity(observerQueueCapacity);
+		s.getObserverManager().setOverflowPolicy(observerOverflowPolicy);
+		s.getObserverManager().setSlowObserverThresholdMillis(slowObserverThresholdMillis);
 		s.registerServices(serviceMap);
 		s.setStartHook(startHook);
 		s.setStopHook(stopHook);
@@ -310,13 +478,65 @@ public class ReignMaker {
 
 		ZkClient zkClient = null;
 		try {
-			zkClient = new ResilientZkClient(zkConnectString, zkSessionTimeout);
+			if (zkClientCanBeReadOnly && !zkClientShared) {
+				zkClient = new ResilientZkClientWithCache(zkConnectString, zkSessionTimeout, true, pathCache);
+			} else {
+				if (zkClientCanBeReadOnly) {
+					// cache entries would be shared by all Reign instances attached to the session
+					logger.warn("Shared ZooKeeper session:  path cache not used for reads while partitioned:  "
+					        + "zkConnectString={}; frameworkBasePath={}", zkConnectString, frameworkBasePath);
+				}
+				zkClient = newZkClient(zkConnectString, zkSessionTimeout);
+			}
 		} catch (IOException e) {
 			throw new ReignException("Fatal error:  could not initialize Zookeeper client!", e);
 		}
 		return zkClient;
 	}
 
+	ZkClient newZkClient(String zkConnectString, int zkSessionTimeout) throws IOException {
+		if (zkClientShared) {
+			return SharedZkClient.acquire(zkConnectString, zkSessionTimeout, zkClientCanBeReadOnly, frameworkBasePath);
+		}
+		return new ResilientZkClient(zkConnectString, zkSessionTimeout, zkClientCanBeReadOnly);
+	}
+
+	ZkClient pathRoutingZkClient(ZkClient defaultZkClient, PathScheme pathScheme) {
+		Map<PathType, ZkClient> zkClientMap = new EnumMap<PathType, ZkClient>(PathType.class);
+
+		// PathType(s) configured with the same connection settings share a ZkClient
+		Map<String, ZkClient> connectionZkClientMap = new HashMap<String, ZkClient>();
+		if (zkClientShared && defaultZkClient instanceof SharedZkClient) {
+			// a shared session only accepts one handle per framework base path
+			connectionZkClientMap.put(zkConnectString + "/" + zkSessionTimeout, defaultZkClient);
+		}
+		for (PathType pathType : pathTypeZkConnectStringMap.keySet()) {
+			String pathTypeZkConnectString = pathTypeZkConnectStringMap.get(pathType);
+			int pathTypeZkSessionTimeout = pathTypeZkSessionTimeoutMap.get(pathType);
+			if (pathTypeZkConnectString == null || pathTypeZkSessionTimeout <= 0) {
+				throw new ReignException("zkConnectString and zkSessionTimeout not configured:  pathType=" + pathType);
+			}
+
+			String connectionKey = pathTypeZkConnectString + "/" + pathTypeZkSessionTimeout;
+			ZkClient pathTypeZkClient = connectionZkClientMap.get(connectionKey);
+			if (pathTypeZkClient == null) {
+				try {
+					pathTypeZkClient = newZkClient(pathTypeZkConnectString, pathTypeZkSessionTimeout);
+				} catch (IOException e) {
+					throw new ReignException("Fatal error:  could not initialize Zookeeper client:  pathType="
+					        + pathType, e);
+				}
+				connectionZkClientMap.put(connectionKey, pathTypeZkClient);
+			}
+			zkClientMap.put(pathType, pathTypeZkClient);
+		}
+
+		// explicitly configured ZkClient(s) take precedence
+		zkClientMap.putAll(pathTypeZkClientMap);
+
+		return new PathRoutingZkClient(defaultZkClient, pathScheme, zkClientMap, pathTypeZkClientMap.values());
+	}
+
 	PathCache defaultPathCache() {
 		if (pathCacheMaxSize < 1 || pathCacheMaxConcurrencyLevel < 1) {
 			throw new ReignException(
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 Yen Pai ypai@reign.io
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package io.reign;
+
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Observes every node under a root path (inclusive) with a single registration via
+ * {@link ObserverManager#putSubtree(String, SubtreeObserver)}. Receives one typed callback per node created, updated
+ * or deleted anywhere in the subtree; when a node with descendants is deleted, descendants are reported deleted first.
+ * 
+ * The single-node callbacks inherited from {@link Observer} are not used, except for {@link #stateReset(Object)} and
+ * {@link #stateUnknown(Object)}.
+ * 
+ * @author ypai
+ * 
+ */
+public abstract class SubtreeObserver extends AbstractObserver {
+
+	/**
+	 * 
+	 * @param path
+	 *            absolute path of node created
+	 * @param data
+	 * @param stat
+	 */
+	public void nodeCreated(String path, byte[] data, Stat stat) {
+	}
+
+	/**
+	 * 
+	 * @param path
+	 *            absolute path of node whose data changed
+	 * @param updatedData
+	 * @param previousData
+	 * @param updatedStat
+	 */
+	public void nodeUpdated(String path, byte[] updatedData, byte[] previousData, Stat updatedStat) {
+	}
+
+	/**
+	 * 
+	 * @param path
+	 *            absolute path of node deleted
+	 * @param previousData
+	 */
+	public void nodeDeleted(String path, byte[] previousData) {
+	}
+
+}
@@ -21,6 +21,8 @@ import java.util.List;
 import org.apache.zookeeper.AsyncCallback.VoidCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Stat;
@@ -61,5 +63,20 @@ public interface ZkClient {
 
     public void delete(final String path, final int version) throws InterruptedException, KeeperException;
 
+    /**
+     * Perform operations as one transaction: either all succeed or none do.
+     * 
+     * @param ops
+     * @return results, in the order of ops
+     */
+    public List<OpResult> multi(final Iterable<Op> ops) throws InterruptedException, KeeperException;
+
     public void sync(final String path, final VoidCallback cb, final Object ctx);
+
+    /**
+     * 
+     * @param path
+     * @return highest zxid seen in a response by the session serving the given path, or 0 if unknown
+     */
+    public long getLastSeenZxid(final String path);
 }
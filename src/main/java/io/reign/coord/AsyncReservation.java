@@ -0,0 +1,409 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package io.reign.coord;
+
+import io.reign.PathScheme;
+import io.reign.ZkClient;
+import io.reign.util.ZkClientUtil;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Acquires a lock or semaphore reservation without a thread waiting on it: each check lists the entity's reservations
+ * and, if the reservation is not granted yet, sets a watch whose event schedules the next check on an executor.
+ * Admission follows the same rules as {@link ZkReservationManager#acquire} and
+ * {@link ZkReservationManager#acquireForSemaphore}.
+ * 
+ * The future is completed with the path of the acquired reservation, or with null if the deadline passes first. If the
+ * future is cancelled, fails or times out, the reservation is relinquished.
+ * 
+ * @author ypai
+ * 
+ */
+class AsyncReservation implements Watcher, Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(AsyncReservation.class);
+
+	private final ZkReservationManager zkReservationManager;
+	private final ZkClient zkClient;
+	private final PathScheme pathScheme;
+	private final ZkClientUtil zkUtil = new ZkClientUtil();
+
+	private final String ownerId;
+	private final String entityPath;
+	private final ReservationType reservationType;
+
+	/** permits reservation stands for: semaphores only */
+	private final int permits;
+
+	/** permit pool size: semaphores only; -1 for no limit */
+	private final int totalAvailable;
+
+	private final List<ACL> aclList;
+	private final long waitTimeoutMs;
+	private final ScheduledExecutorService executorService;
+
+	private final SettableFuture<String> future = SettableFuture.create();
+
+	private volatile ScheduledFuture<?> deadlineFuture;
+
+	private volatile long startTimestamp;
+
+	/** guarded by this */
+	private String reservationPath;
+	private long reservationSequence;
+	private byte[] reservationData;
+	private boolean watchChildren = false;
+	private boolean checkScheduled = false;
+	private boolean reservedRecorded = false;
+
+	/** semaphores only: reservation right ahead of ours last seen admitted, and its data version then */
+	private String admittedAheadPath;
+	private int admittedAheadVersion;
+
+	/**
+	 * 
+	 * @param permits
+	 *            ignored for locks
+	 * @param totalAvailable
+	 *            ignored for locks
+	 * @param waitTimeoutMs
+	 *            -1 for no deadline
+	 * @param executorService
+	 *            to run checks and deadline on
+	 */
+	AsyncReservation(ZkReservationManager zkReservationManager, ZkClient zkClient, PathScheme pathScheme,
+	        String ownerId, String entityPath, ReservationType reservationType, int permits, int totalAvailable,
+	        List<ACL> aclList, long waitTimeoutMs, ScheduledExecutorService executorService) {
+		if (waitTimeoutMs < -1) {
+			throw new IllegalArgumentException("waitTimeoutMs must be -1 (no limit) or >= 0!");
+		}
+		if (reservationType == ReservationType.SEMAPHORE && permits < 1) {
+			throw new IllegalArgumentException("permits must be >= 1!");
+		}
+
+		this.zkReservationManager = zkReservationManager;
+		this.zkClient = zkClient;
+		this.pathScheme = pathScheme;
+		this.ownerId = ownerId;
+		this.entityPath = entityPath;
+		this.reservationType = reservationType;
+		this.permits = reservationType == ReservationType.SEMAPHORE ? permits : 1;
+		this.totalAvailable = totalAvailable;
+		this.aclList = aclList;
+		this.waitTimeoutMs = waitTimeoutMs;
+		this.executorService = executorService;
+	}
+
+	/**
+	 * Get in line and return right away.
+	 * 
+	 * @return future completed with path of acquired reservation; null if not acquired before deadline
+	 */
+	ListenableFuture<String> start() {
+		startTimestamp = System.currentTimeMillis();
+		future.addListener(new Runnable() {
+			@Override
+			public void run() {
+				ScheduledFuture<?> tmpDeadlineFuture = deadlineFuture;
+				if (tmpDeadlineFuture != null) {
+					tmpDeadlineFuture.cancel(false);
+				}
+				if (!isGranted()) {
+					relinquish();
+				}
+			}
+		}, MoreExecutors.sameThreadExecutor());
+
+		try {
+			if (waitTimeoutMs != -1) {
+				deadlineFuture = executorService.schedule(new Runnable() {
+					@Override
+					public void run() {
+						if (future.set(null)) {
+							zkReservationManager.getReservationMetrics().timedOut(entityPath);
+							logger.info("Could not acquire:  ownerId={}; lockType={}; lockPath={}; waitTimeoutMillis={}",
+							        new Object[] { ownerId, reservationType, entityPath, waitTimeoutMs });
+						}
+					}
+				}, waitTimeoutMs, TimeUnit.MILLISECONDS);
+			}
+			scheduleCheck();
+		} catch (RejectedExecutionException e) {
+			future.setException(e);
+		}
+
+		return future;
+	}
+
+	/**
+	 * Wait on a lock reservation that was already made, e.g. in one transaction together with others, instead of
+	 * making one.
+	 * 
+	 * @param reservationPath
+	 * @return future completed with reservationPath once acquired; null if not acquired before deadline
+	 */
+	ListenableFuture<String> start(String reservationPath) {
+		synchronized (this) {
+			this.reservationPath = reservationPath;
+			this.reservationSequence = Reservation.parseSequence(reservationPath.substring(reservationPath
+			        .lastIndexOf('/') + 1));
+		}
+		return start();
+	}
+
+	@Override
+	public void run() {
+		synchronized (this) {
+			checkScheduled = false;
+		}
+
+		String acquiredPath = null;
+		try {
+			acquiredPath = check();
+		} catch (Exception e) {
+			logger.error("Error trying to acquire:  " + e + ":  ownerId=" + ownerId + "; entityPath=" + entityPath
+			        + "; lockType=" + reservationType, e);
+			future.setException(e);
+			return;
+		}
+
+		// set outside of monitor, since listeners may run on this thread;
+		// if future was completed meanwhile, reservation was already
+		// relinquished
+		if (acquiredPath != null && future.set(acquiredPath)) {
+			logger.debug("Acquired:  ownerId={}; lockType={}; acquiredPath={}", new Object[] { ownerId,
+			        reservationType, acquiredPath });
+		}
+	}
+
+	/**
+	 * 
+	 * @return path of reservation if granted; null if still waiting
+	 * @throws Exception
+	 */
+	private synchronized String check() throws Exception {
+		if (future.isDone()) {
+			return null;
+		}
+
+		if (zkReservationManager.isShutdown()) {
+			future.set(null);
+			return null;
+		}
+
+		if (reservationPath == null) {
+			createReservation();
+		}
+
+		while (true) {
+			List<String> lockReservationList = watchChildren ? zkClient.getChildren(entityPath, this) : zkClient
+			        .getChildren(entityPath, false);
+			ReservationIndex reservationIndex = zkReservationManager.getReservationIndex(entityPath,
+			        lockReservationList, null);
+
+			int position = reservationIndex.positionOf(reservationSequence);
+			if (position == -1) {
+				throw new IllegalStateException("Reservation no longer exists:  lockReservationPath="
+				        + reservationPath);
+			}
+			if (!reservedRecorded) {
+				zkReservationManager.getReservationMetrics().reserved(entityPath, position);
+				reservedRecorded = true;
+			}
+
+			String watchPath = null;
+			if (reservationType == ReservationType.SEMAPHORE) {
+				if (totalAvailable < 0 || reservationIndex.getPermitsAhead(position + 1) <= totalAvailable) {
+					// a reservation behind us may be watching us
+					if (position < reservationIndex.size() - 1) {
+						zkClient.setData(reservationPath, reservationData, -1);
+					}
+					return granted();
+
+				} else if (reservationIndex.getPermitsAhead(position) <= totalAvailable) {
+					// we are next: list again with watch on children
+					watchPath = entityPath;
+					if (!watchChildren) {
+						watchChildren = true;
+						continue;
+					}
+
+				} else {
+					// watch the reservation right ahead of us, which updates
+					// its data when admitted
+					watchPath = pathScheme.joinPaths(entityPath, reservationIndex.get(position - 1).getName());
+					Stat stat = zkClient.exists(watchPath, this);
+					if (stat == null) {
+						watchChildren = false;
+						continue;
+					}
+					if (stat.getVersion() > 0) {
+						// admitted, but we still do not fit, e.g. because
+						// permit pool size differs between processes: list
+						// again only if admitted since we last looked, and
+						// watch children so that releases ahead of us
+						// schedule the next check instead of spinning here
+						if (!watchPath.equals(admittedAheadPath) || stat.getVersion() != admittedAheadVersion) {
+							admittedAheadPath = watchPath;
+							admittedAheadVersion = stat.getVersion();
+							watchChildren = true;
+							continue;
+						}
+					} else {
+						watchChildren = false;
+					}
+				}
+
+			} else {
+				int exclusiveAheadPosition = reservationIndex.getExclusiveAheadPosition(position);
+				if (position == 0 || (!reservationType.isExclusive() && exclusiveAheadPosition == -1)) {
+					return granted();
+				}
+
+				// watch the last exclusive reservation ahead of us, or else the
+				// one right ahead of us
+				watchPath = pathScheme.joinPaths(entityPath, reservationIndex.get(
+				        exclusiveAheadPosition != -1 ? exclusiveAheadPosition : position - 1).getName());
+				if (zkClient.exists(watchPath, this) == null) {
+					continue;
+				}
+			}
+
+			logger.debug("Waiting to acquire:  ownerId={}; lockType={}; lockReservationPath={}; watchPath={}",
+			        new Object[] { ownerId, reservationType, reservationPath, watchPath });
+			return null;
+		}
+	}
+
+	private void createReservation() throws Exception {
+		String reservationPrefix;
+		String data;
+		if (reservationType == ReservationType.SEMAPHORE) {
+			reservationPrefix = pathScheme.joinPaths(entityPath, Reservation.prefix(reservationType, permits));
+			data = "{\"ownerId\":\"" + ownerId + "\",\"permits\":" + permits + "}";
+		} else {
+			reservationPrefix = CoordServicePathUtil.getAbsolutePathReservationPrefix(pathScheme, entityPath,
+			        reservationType);
+			data = "{\"ownerId\":\"" + ownerId + "\"}";
+		}
+
+		reservationData = data.getBytes("UTF-8");
+		reservationPath = zkUtil.updatePath(zkClient, pathScheme, reservationPrefix, reservationData, aclList,
+		        CreateMode.EPHEMERAL_SEQUENTIAL, -1);
+		reservationSequence = Reservation.parseSequence(reservationPath.substring(reservationPath
+		        .lastIndexOf('/') + 1));
+
+		logger.debug("Attempting to acquire:  ownerId={}; lockType={}; lockReservationPath={}", new Object[] {
+		        ownerId, reservationType, reservationPath });
+	}
+
+	private String granted() throws Exception {
+		// set watch on lock node so that we are notified if it is deleted
+		// outside of framework and can notify any lock observers
+		zkClient.exists(reservationPath, true);
+
+		zkReservationManager.getReservationMetrics().acquired(entityPath, reservationPath,
+		        System.currentTimeMillis() - startTimestamp);
+		return reservationPath;
+	}
+
+	private boolean isGranted() {
+		if (future.isCancelled()) {
+			return false;
+		}
+		try {
+			return Uninterruptibles.getUninterruptibly(future) != null;
+		} catch (ExecutionException e) {
+			return false;
+		}
+	}
+
+	private void relinquish() {
+		// wait for any check in progress, which may be creating reservation
+		String tmpReservationPath;
+		synchronized (this) {
+			tmpReservationPath = reservationPath;
+		}
+		if (tmpReservationPath != null) {
+			try {
+				zkReservationManager.relinquish(tmpReservationPath);
+			} catch (Exception e) {
+				logger.error("Unable to relinquish:  " + e + ":  ownerId=" + ownerId + "; lockReservationPath="
+				        + tmpReservationPath, e);
+			}
+		}
+	}
+
+	private void scheduleCheck() {
+		synchronized (this) {
+			if (checkScheduled || future.isDone()) {
+				return;
+			}
+			checkScheduled = true;
+		}
+		executorService.execute(this);
+	}
+
+	@Override
+	public void process(WatchedEvent event) {
+		switch (event.getType()) {
+		case NodeCreated:
+		case NodeChildrenChanged:
+		case NodeDataChanged:
+		case NodeDeleted:
+			try {
+				scheduleCheck();
+			} catch (RejectedExecutionException e) {
+				future.setException(e);
+			}
+			break;
+
+		case None:
+			// watches survive reconnection: only recheck if session is gone
+			if (event.getState() == Event.KeeperState.Expired) {
+				try {
+					scheduleCheck();
+				} catch (RejectedExecutionException e) {
+					future.setException(e);
+				}
+			}
+			break;
+
+		default:
+			logger.warn("Unhandled event type:  type={}; path={}", event.getType(), event.getPath());
+		}
+	}
+}
@@ -24,11 +24,21 @@ import io.reign.mesg.RequestMessage;
 import io.reign.mesg.ResponseMessage;
 import io.reign.mesg.ResponseStatus;
 import io.reign.mesg.SimpleResponseMessage;
+import io.reign.metrics.MetricsService;
+import io.reign.metrics.StaticMetricRegistryManager;
+import io.reign.presence.PresenceService;
 import io.reign.util.JacksonUtil;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -39,6 +49,13 @@ import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+
 /**
  * Provides resources for coordination like locks, semaphores, barriers, etc.
  * 
@@ -52,14 +69,52 @@ public class CoordinationService extends AbstractService {
 
 	/**
 	 * what is the maximum amount of time a reservation can be held: -1 for indefinite (used to kill reservations held
-	 * by zombie processes as a safety)
+	 * by zombie processes as a safety). Measured from the first reaper pass that sees the reservation held, so only as
+	 * accurate as the reaper interval.
 	 */
 	private volatile long maxReservationHoldTimeMillis = -1;
 
+	/** how often the elected node looks for abandoned reservations: takes effect on init() */
+	private volatile long reaperIntervalMillis = 60000;
+
+	/**
+	 * how many lock and semaphore entities get contention metrics of their own; the rest are counted together. Takes
+	 * effect on init().
+	 */
+	private volatile int maxMetricsEntities = ReservationMetrics.DEFAULT_MAX_ENTITIES;
+
+	/**
+	 * how many times in a row a locally aggregated lock's reservation may be handed between local threads before it is
+	 * relinquished to let other processes waiting on the lock in
+	 */
+	private volatile int maxLocalLockHandoffs = 16;
+
+	/**
+	 * how long a locally aggregated lock's reservation is kept after it is released for the last local thread, in
+	 * case it is locked again from this process: -1 to relinquish right away. Kept reservations are relinquished as
+	 * soon as another process gets in line for the lock.
+	 */
+	private volatile long lazyLockReleaseMillis = -1;
+
 	private final CoordinationServiceCache coordinationServiceCache = new CoordinationServiceCache();
 
+	/** elections this process takes part in, by entity path */
+	private final ConcurrentMap<String, ZkLeaderElection> leaderElectionMap = new ConcurrentHashMap<String, ZkLeaderElection>(
+	        16, 0.9f, 2);
+
+	/** rate limiters used in this process, by entity path */
+	private final ConcurrentMap<String, ZkRateLimiter> rateLimiterMap = new ConcurrentHashMap<String, ZkRateLimiter>(
+	        16, 0.9f, 2);
+
+	private final MetricRegistry metricRegistry = new MetricRegistry();
+
+	private ReservationReaper reservationReaper;
+
 	private ScheduledThreadPoolExecutor executorService;
 
+	/** runs reaper passes, which can take a while, off the scheduler that lock timeouts and handoffs run on */
+	private ScheduledThreadPoolExecutor reaperExecutorService;
+
 	public CoordinationService() {
 		super();
 
@@ -71,18 +126,31 @@ public class CoordinationService extends AbstractService {
 			return;
 		}
 
-		zkReservationManager = new ZkReservationManager(getZkClient(), getPathScheme(), coordinationServiceCache);
+		zkReservationManager = new ZkReservationManager(getZkClient(), getPathScheme(), coordinationServiceCache,
+		        new ReservationMetrics(metricRegistry, getPathScheme(), maxMetricsEntities));
+
+		reservationReaper = new ReservationReaper(getContext(), zkReservationManager, coordinationServiceCache,
+		        metricRegistry);
 
 		executorService = new ScheduledThreadPoolExecutor(1);
+		reaperExecutorService = new ScheduledThreadPoolExecutor(1);
 
 		Runnable adminRunnable = new AdminRunnable();
-		executorService.scheduleAtFixedRate(adminRunnable, 60000, 60000, TimeUnit.MILLISECONDS);
+		reaperExecutorService.scheduleAtFixedRate(adminRunnable, reaperIntervalMillis, reaperIntervalMillis,
+		        TimeUnit.MILLISECONDS);
 
 	}
 
 	@Override
 	public void destroy() {
+		for (ZkLeaderElection leaderElection : leaderElectionMap.values()) {
+			leaderElection.stop();
+		}
+		for (ZkRateLimiter rateLimiter : rateLimiterMap.values()) {
+			rateLimiter.destroy();
+		}
 		zkReservationManager.shutdown();
+		reaperExecutorService.shutdown();
 		executorService.shutdown();
 
 	}
@@ -176,6 +244,114 @@ public class CoordinationService extends AbstractService {
 		return new ZkDistributedBarrier(entityPath, getContext().getNodeId().toString(), parties, getContext());
 	}
 
+	/**
+	 * Get a barrier that can be awaited round after round, e.g. once per iteration of a batch job, without having to
+	 * be reset or re-created in between.
+	 * 
+	 * @param clusterId
+	 * @param barrierName
+	 * @param parties
+	 * @return new instance: parties in the same process each need their own
+	 */
+	public DistributedBarrier getCyclicBarrier(String clusterId, String barrierName, int parties) {
+		return getCyclicBarrier(clusterId, barrierName, parties, getDefaultZkAclList());
+	}
+
+	DistributedBarrier getCyclicBarrier(String clusterId, String barrierName, int parties, List<ACL> aclList) {
+		String entityPath = getPathScheme().getAbsolutePath(PathType.COORD, clusterId, "cyclicbarrier", barrierName);
+		return new ZkCyclicBarrier(getZkClient(), getPathScheme(), getContext().getNodeId().toString(), entityPath,
+		        parties, aclList);
+	}
+
+	/**
+	 * Get this process's candidacy in a leader election, joining it if not already a candidate. Candidacy lasts until
+	 * {@link #leaveLeaderElection(String, String)} or the end of the ZooKeeper session, so checking
+	 * {@link DistributedLeaderElection#isLeader()} before periodic work costs no ZooKeeper round trips.
+	 * 
+	 * @param clusterId
+	 * @param electionName
+	 * @return election shared by all callers in this process
+	 */
+	public DistributedLeaderElection getLeaderElection(String clusterId, String electionName) {
+		return getLeaderElection(clusterId, electionName, getDefaultZkAclList());
+	}
+
+	DistributedLeaderElection getLeaderElection(String clusterId, String electionName, List<ACL> aclList) {
+		String entityPath = CoordServicePathUtil.getAbsolutePathEntity(getPathScheme(), PathType.COORD, clusterId,
+		        ReservationType.LEADER_ELECTION, electionName);
+		ZkLeaderElection leaderElection = leaderElectionMap.get(entityPath);
+		if (leaderElection == null) {
+			leaderElection = new ZkLeaderElection(zkReservationManager, getZkClient(), getPathScheme(), getContext()
+			        .getNodeId().toString(), entityPath, aclList, executorService);
+			ZkLeaderElection existing = leaderElectionMap.putIfAbsent(entityPath, leaderElection);
+			if (existing != null) {
+				leaderElection = existing;
+			}
+		}
+		leaderElection.start();
+		return leaderElection;
+	}
+
+	/**
+	 * Get a rate limit shared by the nodes of a service. Permits are prefetched from a budget in ZooKeeper in
+	 * allotments sized by the number of nodes announced for the service, so
+	 * {@link DistributedRateLimiter#tryAcquire()} does not wait on ZooKeeper.
+	 * 
+	 * @param clusterId
+	 * @param serviceId
+	 *            service whose nodes share the limit
+	 * @param rateLimiterName
+	 * @param permitsPerSecond
+	 *            across all nodes
+	 * @return rate limiter shared by all callers in this process
+	 */
+	public DistributedRateLimiter getRateLimiter(String clusterId, String serviceId, String rateLimiterName,
+	        int permitsPerSecond) {
+		return getRateLimiter(clusterId, serviceId, rateLimiterName, permitsPerSecond, getDefaultZkAclList());
+	}
+
+	DistributedRateLimiter getRateLimiter(String clusterId, String serviceId, String rateLimiterName,
+	        int permitsPerSecond, List<ACL> aclList) {
+		String entityPath = getPathScheme().getAbsolutePath(PathType.COORD, clusterId, "ratelimiter", rateLimiterName);
+		while (true) {
+			ZkRateLimiter rateLimiter = rateLimiterMap.get(entityPath);
+			if (rateLimiter != null && !rateLimiter.isDestroyed()) {
+				if (rateLimiter.getPermitsPerSecond() != permitsPerSecond
+				        || !rateLimiter.getServiceId().equals(serviceId)) {
+					throw new IllegalStateException("Rate limiter already exists with different settings:  clusterId="
+					        + clusterId + "; rateLimiterName=" + rateLimiterName + "; serviceId="
+					        + rateLimiter.getServiceId() + "; permitsPerSecond=" + rateLimiter.getPermitsPerSecond());
+				}
+				return rateLimiter;
+			}
+
+			PresenceService presenceService = getContext().getService("presence");
+			ZkRateLimiter newRateLimiter = new ZkRateLimiter(getZkClient(), getPathScheme(), presenceService,
+			        clusterId, serviceId, entityPath, permitsPerSecond, aclList, executorService);
+			boolean added = rateLimiter == null ? rateLimiterMap.putIfAbsent(entityPath, newRateLimiter) == null
+			        : rateLimiterMap.replace(entityPath, rateLimiter, newRateLimiter);
+			if (added) {
+				newRateLimiter.start();
+				return newRateLimiter;
+			}
+		}
+	}
+
+	/**
+	 * Give up candidacy in a leader election, if a candidate.
+	 * 
+	 * @param clusterId
+	 * @param electionName
+	 */
+	public void leaveLeaderElection(String clusterId, String electionName) {
+		String entityPath = CoordServicePathUtil.getAbsolutePathEntity(getPathScheme(), PathType.COORD, clusterId,
+		        ReservationType.LEADER_ELECTION, electionName);
+		ZkLeaderElection leaderElection = leaderElectionMap.remove(entityPath);
+		if (leaderElection != null) {
+			leaderElection.stop();
+		}
+	}
+
 	public DistributedReentrantLock getReentrantLock(String clusterId, String lockName) {
 		return getReentrantLock(clusterId, lockName, getDefaultZkAclList());
 	}
@@ -190,6 +366,31 @@ public class CoordinationService extends AbstractService {
 		return (DistributedReentrantLock) lock;
 	}
 
+	/**
+	 * Get a reentrant lock whose contenders in this process queue locally, so that the process holds at most one
+	 * reservation for the lock in ZooKeeper at a time and hands it between local threads without a round trip. See
+	 * {@link #setLazyLockReleaseMillis(long)} to also keep the reservation between lock() calls.
+	 * 
+	 * @param clusterId
+	 * @param lockName
+	 * @return
+	 */
+	public DistributedReentrantLock getAggregatedReentrantLock(String clusterId, String lockName) {
+		return getAggregatedReentrantLock(clusterId, lockName, getDefaultZkAclList());
+	}
+
+	DistributedReentrantLock getAggregatedReentrantLock(String clusterId, String lockName, List<ACL> aclList) {
+		String entityPath = CoordServicePathUtil.getAbsolutePathEntity(getPathScheme(), PathType.COORD, clusterId,
+		        ReservationType.LOCK_EXCLUSIVE, lockName);
+		SharedReservation sharedReservation = zkReservationManager.getSharedReservation(entityPath,
+		        ReservationType.LOCK_EXCLUSIVE, maxLocalLockHandoffs, lazyLockReleaseMillis, executorService);
+		DistributedLock lock = new ZkReentrantLock(zkReservationManager, getContext().getNodeId().toString(),
+		        entityPath, ReservationType.LOCK_EXCLUSIVE, aclList, sharedReservation);
+		this.coordinationServiceCache.putLock(entityPath, ReservationType.LOCK_EXCLUSIVE, lock);
+
+		return (DistributedReentrantLock) lock;
+	}
+
 	public DistributedLock getLock(String clusterId, String lockName) {
 		return getLock(clusterId, lockName, getDefaultZkAclList());
 	}
@@ -220,8 +421,11 @@ public class CoordinationService extends AbstractService {
 		// read lock
 		String readEntityPath = CoordServicePathUtil.getAbsolutePathEntity(getPathScheme(), PathType.COORD, clusterId,
 		        ReservationType.LOCK_SHARED, lockName);
+		// local readers share one read reservation
+		SharedReadReservation sharedReadReservation = zkReservationManager.getSharedReadReservation(readEntityPath,
+		        executorService);
 		DistributedLock readLock = new ZkReentrantLock(zkReservationManager, getContext().getNodeId().toString(),
-		        readEntityPath, ReservationType.LOCK_SHARED, aclList);
+		        readEntityPath, aclList, sharedReadReservation);
 		this.coordinationServiceCache.putLock(readEntityPath, ReservationType.LOCK_SHARED, readLock);
 
 		return new ZkReadWriteLock(readLock, writeLock);
@@ -297,6 +501,263 @@ public class CoordinationService extends AbstractService {
 		return semaphore;
 	}
 
+	/**
+	 * Get in line for a reentrant lock without waiting for it: no thread is parked while the lock is held elsewhere,
+	 * since the returned future is completed from ZooKeeper watch callbacks. Cancelling the future gives up the place
+	 * in line.
+	 * 
+	 * Listeners added with a same-thread executor run on this service's scheduler thread, so should not block.
+	 * 
+	 * @param clusterId
+	 * @param lockName
+	 * @param timeout
+	 *            -1 for no deadline
+	 * @param timeUnit
+	 * @return future completed with the lock, held once by this process, to unlock() when done; null if not acquired
+	 *         before the deadline
+	 */
+	public ListenableFuture<DistributedReentrantLock> lockAsync(String clusterId, String lockName, long timeout,
+	        TimeUnit timeUnit) {
+		return lockAsync(clusterId, lockName, timeout, timeUnit, getDefaultZkAclList());
+	}
+
+	ListenableFuture<DistributedReentrantLock> lockAsync(String clusterId, String lockName, long timeout,
+	        TimeUnit timeUnit, List<ACL> aclList) {
+		final String entityPath = CoordServicePathUtil.getAbsolutePathEntity(getPathScheme(), PathType.COORD,
+		        clusterId, ReservationType.LOCK_EXCLUSIVE, lockName);
+		final ZkReentrantLock lock = new ZkReentrantLock(zkReservationManager, getContext().getNodeId().toString(),
+		        entityPath, ReservationType.LOCK_EXCLUSIVE, aclList);
+
+		final ListenableFuture<String> reservationFuture = zkReservationManager.acquireAsync(getContext().getNodeId()
+		        .toString(), entityPath, ReservationType.LOCK_EXCLUSIVE, 1, -1, aclList,
+		        timeout == -1 ? -1 : timeUnit.toMillis(timeout), executorService);
+
+		ListenableFuture<DistributedReentrantLock> lockFuture = Futures.transform(reservationFuture,
+		        new Function<String, DistributedReentrantLock>() {
+			        @Override
+			        public DistributedReentrantLock apply(String acquiredPath) {
+				        if (acquiredPath == null) {
+					        return null;
+				        }
+				        lock.acquired(acquiredPath);
+				        coordinationServiceCache.putLock(entityPath, ReservationType.LOCK_EXCLUSIVE, lock);
+				        return lock;
+			        }
+		        });
+		relinquishIfCancelled(lockFuture, reservationFuture, new Function<String, Void>() {
+			@Override
+			public Void apply(String acquiredPath) {
+				lock.revoke(acquiredPath);
+				zkReservationManager.relinquish(acquiredPath);
+				return null;
+			}
+		});
+		return lockFuture;
+	}
+
+	/**
+	 * Lock several entities together: entity paths are put in a canonical order and all reservations are made in one
+	 * ZooKeeper transaction, so processes locking overlapping sets of entities this way cannot deadlock each other.
+	 * The reservations are then waited on concurrently instead of one after another.
+	 * 
+	 * @param clusterId
+	 * @param lockNames
+	 *            in any order; duplicates are ignored
+	 * @param timeout
+	 *            -1 for no deadline
+	 * @param timeUnit
+	 * @return locks held until {@link DistributedMultiLock#unlock()}; null if not all were acquired before the
+	 *         deadline
+	 * @throws InterruptedException
+	 *             in which case no locks are held
+	 */
+	public DistributedMultiLock lockAll(String clusterId, Collection<String> lockNames, long timeout,
+	        TimeUnit timeUnit) throws InterruptedException {
+		ListenableFuture<DistributedMultiLock> lockFuture = lockAllAsync(clusterId, lockNames, timeout, timeUnit);
+		try {
+			return lockFuture.get();
+		} catch (InterruptedException e) {
+			lockFuture.cancel(false);
+			throw e;
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Error trying to lock:  " + e + ":  clusterId=" + clusterId
+			        + "; lockNames=" + lockNames, e);
+		}
+	}
+
+	/**
+	 * Lock several entities together without waiting: see {@link #lockAll(String, Collection, long, TimeUnit)}.
+	 * Cancelling the future gives up all places in line.
+	 * 
+	 * @param clusterId
+	 * @param lockNames
+	 * @param timeout
+	 * @param timeUnit
+	 * @return future completed with the locks; null if not all were acquired before the deadline
+	 */
+	public ListenableFuture<DistributedMultiLock> lockAllAsync(String clusterId, Collection<String> lockNames,
+	        long timeout, TimeUnit timeUnit) {
+		return lockAllAsync(clusterId, lockNames, timeout, timeUnit, getDefaultZkAclList());
+	}
+
+	ListenableFuture<DistributedMultiLock> lockAllAsync(final String clusterId, Collection<String> lockNames,
+	        long timeout, TimeUnit timeUnit, List<ACL> aclList) {
+		if (lockNames.isEmpty()) {
+			throw new IllegalArgumentException("lockNames must not be empty!");
+		}
+
+		// canonical order
+		Set<String> entityPathSet = new TreeSet<String>();
+		for (String lockName : lockNames) {
+			entityPathSet.add(CoordServicePathUtil.getAbsolutePathEntity(getPathScheme(), PathType.COORD, clusterId,
+			        ReservationType.LOCK_EXCLUSIVE, lockName));
+		}
+		final List<String> entityPathList = new ArrayList<String>(entityPathSet);
+
+		final List<ZkReentrantLock> lockList = new ArrayList<ZkReentrantLock>(entityPathList.size());
+		for (String entityPath : entityPathList) {
+			lockList.add(new ZkReentrantLock(zkReservationManager, getContext().getNodeId().toString(), entityPath,
+			        ReservationType.LOCK_EXCLUSIVE, aclList));
+		}
+
+		final long startNanos = System.nanoTime();
+		ListenableFuture<List<String>> reservationFuture = zkReservationManager.acquireAllAsync(getContext()
+		        .getNodeId().toString(), entityPathList, aclList, timeout == -1 ? -1 : timeUnit.toMillis(timeout),
+		        executorService);
+
+		ListenableFuture<DistributedMultiLock> multiLockFuture = Futures.transform(reservationFuture,
+		        new Function<List<String>, DistributedMultiLock>() {
+			        @Override
+			        public DistributedMultiLock apply(List<String> acquiredPathList) {
+				        if (acquiredPathList == null) {
+					        return null;
+				        }
+				        for (int i = 0; i < lockList.size(); i++) {
+					        lockList.get(i).acquired(acquiredPathList.get(i));
+					        coordinationServiceCache.putLock(entityPathList.get(i), ReservationType.LOCK_EXCLUSIVE,
+					                lockList.get(i));
+				        }
+
+				        long acquisitionMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+				        metricRegistry.histogram("coord.multiLock.acquisitionMillis").update(acquisitionMillis);
+				        logger.debug("Acquired locks:  clusterId={}; lockCount={}; acquisitionMillis={}",
+				                new Object[] { clusterId, lockList.size(), acquisitionMillis });
+				        return new ZkMultiLock(lockList, acquisitionMillis);
+			        }
+		        });
+		relinquishIfCancelled(multiLockFuture, reservationFuture, new Function<List<String>, Void>() {
+			@Override
+			public Void apply(List<String> acquiredPathList) {
+				for (int i = 0; i < lockList.size(); i++) {
+					lockList.get(i).revoke(acquiredPathList.get(i));
+					zkReservationManager.relinquish(acquiredPathList.get(i));
+				}
+				return null;
+			}
+		});
+		return multiLockFuture;
+	}
+
+	/**
+	 * Get in line for permits of a fixed size semaphore without waiting for them: no thread is parked while the
+	 * permits are held elsewhere, since the returned future is completed from ZooKeeper watch callbacks. Cancelling
+	 * the future gives up the place in line.
+	 * 
+	 * Listeners added with a same-thread executor run on this service's scheduler thread, so should not block.
+	 * 
+	 * @param clusterId
+	 * @param semaphoreName
+	 * @param permitPoolSize
+	 * @param permits
+	 *            acquired together with a single reservation, released as a whole as with
+	 *            {@link ZkSemaphore#acquireWeighted(int)}
+	 * @param timeout
+	 *            -1 for no deadline
+	 * @param timeUnit
+	 * @return future completed with the semaphore, holding the permits (see
+	 *         {@link DistributedSemaphore#getAcquiredPermitIds()}) until released; null if not acquired before the
+	 *         deadline
+	 */
+	public ListenableFuture<DistributedSemaphore> acquireAsync(String clusterId, String semaphoreName,
+	        int permitPoolSize, int permits, long timeout, TimeUnit timeUnit) {
+		return acquireAsync(clusterId, semaphoreName, permitPoolSize, permits, timeout, timeUnit,
+		        getDefaultZkAclList());
+	}
+
+	ListenableFuture<DistributedSemaphore> acquireAsync(String clusterId, String semaphoreName, int permitPoolSize,
+	        int permits, long timeout, TimeUnit timeUnit, List<ACL> aclList) {
+		String entityPath = CoordServicePathUtil.getAbsolutePathEntity(getPathScheme(), PathType.COORD, clusterId,
+		        ReservationType.SEMAPHORE, semaphoreName);
+		final ZkSemaphore semaphore = (ZkSemaphore) getFixedSemaphore(clusterId, semaphoreName, permitPoolSize,
+		        aclList);
+
+		ListenableFuture<String> reservationFuture = zkReservationManager.acquireAsync(getContext().getNodeId()
+		        .toString(), entityPath, ReservationType.SEMAPHORE, permits, semaphore.permitPoolSize(), aclList,
+		        timeout == -1 ? -1 : timeUnit.toMillis(timeout), executorService);
+
+		ListenableFuture<DistributedSemaphore> semaphoreFuture = Futures.transform(reservationFuture,
+		        new Function<String, DistributedSemaphore>() {
+			        @Override
+			        public DistributedSemaphore apply(String acquiredPath) {
+				        if (acquiredPath == null) {
+					        return null;
+				        }
+				        semaphore.acquired(acquiredPath);
+				        return semaphore;
+			        }
+		        });
+		relinquishIfCancelled(semaphoreFuture, reservationFuture, new Function<String, Void>() {
+			@Override
+			public Void apply(String acquiredPath) {
+				semaphore.release(acquiredPath);
+				return null;
+			}
+		});
+		return semaphoreFuture;
+	}
+
+	/**
+	 * Cancelling a future transformed from a reservation future only cancels the reservation future if it is not done
+	 * yet: if the reservation was acquired by then, give it up once the reservation future completes.
+	 * 
+	 * @param future
+	 * @param reservationFuture
+	 * @param relinquisher
+	 *            called with what reservationFuture was completed with, if not null
+	 */
+	private static <T> void relinquishIfCancelled(final ListenableFuture<?> future,
+	        final ListenableFuture<T> reservationFuture, final Function<T, Void> relinquisher) {
+		future.addListener(new Runnable() {
+			@Override
+			public void run() {
+				if (!future.isCancelled()) {
+					return;
+				}
+				reservationFuture.addListener(new Runnable() {
+					@Override
+					public void run() {
+						T acquired = null;
+						try {
+							if (!reservationFuture.isCancelled()) {
+								acquired = Uninterruptibles.getUninterruptibly(reservationFuture);
+							}
+						} catch (ExecutionException e) {
+							// not acquired
+						}
+						if (acquired != null) {
+							logger.info("Relinquishing reservation acquired after cancellation:  acquired={}", acquired);
+							try {
+								relinquisher.apply(acquired);
+							} catch (Exception e) {
+								logger.error("Unable to relinquish:  " + e + ":  acquired=" + acquired, e);
+							}
+						}
+					}
+				}, MoreExecutors.sameThreadExecutor());
+			}
+		}, MoreExecutors.sameThreadExecutor());
+	}
+
 	public long getMaxReservationHoldTimeMillis() {
 		return maxReservationHoldTimeMillis;
 	}
@@ -305,6 +766,97 @@ public class CoordinationService extends AbstractService {
 		this.maxReservationHoldTimeMillis = maxReservationHoldTimeMillis;
 	}
 
+	public long getReaperIntervalMillis() {
+		return reaperIntervalMillis;
+	}
+
+	public void setReaperIntervalMillis(long reaperIntervalMillis) {
+		if (reaperIntervalMillis < 1) {
+			throw new IllegalArgumentException("reaperIntervalMillis must be >= 1!");
+		}
+		this.reaperIntervalMillis = reaperIntervalMillis;
+	}
+
+	/**
+	 * 
+	 * @return reservations reaped by this node in total; and contention metrics for each lock and semaphore entity
+	 *         used from this node, up to maxMetricsEntities of them: wait and hold time, queue depth when getting in
+	 *         line, timeouts and reservations made
+	 */
+	public MetricRegistry getMetricRegistry() {
+		return metricRegistry;
+	}
+
+	/**
+	 * Not exported with {@link #exportMetrics(long, TimeUnit)}, since there are metrics for every entity in the
+	 * cluster.
+	 * 
+	 * @return reservations reaped from, and reservations queued on, each lock and semaphore entity as of the last
+	 *         reaper pass on this node; null before init()
+	 */
+	public MetricRegistry getReaperMetricRegistry() {
+		return reservationReaper != null ? reservationReaper.getEntityMetricRegistry() : null;
+	}
+
+	/**
+	 * Export metrics from {@link #getMetricRegistry()} through the metrics service, as service "coord" in the
+	 * framework cluster, so that they can be looked up and aggregated across nodes like any service's.
+	 * 
+	 * @param updateInterval
+	 * @param updateIntervalTimeUnit
+	 */
+	public void exportMetrics(long updateInterval, TimeUnit updateIntervalTimeUnit) {
+		MetricsService metricsService = getContext().getService("metrics");
+		if (metricsService == null) {
+			throw new IllegalStateException("Metrics service is not available!");
+		}
+		metricsService.scheduleExport(getPathScheme().getFrameworkClusterId(), "coord",
+		        new StaticMetricRegistryManager(metricRegistry), updateInterval, updateIntervalTimeUnit);
+	}
+
+	public int getMaxMetricsEntities() {
+		return maxMetricsEntities;
+	}
+
+	public void setMaxMetricsEntities(int maxMetricsEntities) {
+		if (maxMetricsEntities < 0) {
+			throw new IllegalArgumentException("maxMetricsEntities must be >= 0!");
+		}
+		this.maxMetricsEntities = maxMetricsEntities;
+	}
+
+	public int getMaxLocalLockHandoffs() {
+		return maxLocalLockHandoffs;
+	}
+
+	/**
+	 * 
+	 * @param maxLocalLockHandoffs
+	 *            applies to aggregated locks on entities not yet locked in this process
+	 */
+	public void setMaxLocalLockHandoffs(int maxLocalLockHandoffs) {
+		if (maxLocalLockHandoffs < 0) {
+			throw new IllegalArgumentException("maxLocalLockHandoffs must be >= 0!");
+		}
+		this.maxLocalLockHandoffs = maxLocalLockHandoffs;
+	}
+
+	public long getLazyLockReleaseMillis() {
+		return lazyLockReleaseMillis;
+	}
+
+	/**
+	 * 
+	 * @param lazyLockReleaseMillis
+	 *            -1 to disable lazy release; applies to aggregated locks on entities not yet locked in this process
+	 */
+	public void setLazyLockReleaseMillis(long lazyLockReleaseMillis) {
+		if (lazyLockReleaseMillis < -1) {
+			throw new IllegalArgumentException("lazyLockReleaseMillis must be -1 (disabled) or >= 0!");
+		}
+		this.lazyLockReleaseMillis = lazyLockReleaseMillis;
+	}
+
 	public ResponseMessage handleMessage(RequestMessage requestMessage) {
 		ResponseMessage responseMessage = new SimpleResponseMessage();
 		responseMessage.setId(requestMessage.getId());
@@ -387,33 +939,24 @@ public class CoordinationService extends AbstractService {
 	public class AdminRunnable implements Runnable {
 		@Override
 		public void run() {
-			/** get exclusive leader lock to perform maintenance duties **/
-			DistributedLock adminLock = getLock("reign", "coord-reaper", getDefaultZkAclList());
+			/** only the elected node performs maintenance duties **/
+			if (!getLeaderElection("reign", "coord-reaper").isLeader()) {
+				return;
+			}
 			logger.info("Performing administrative maintenance...");
-			try {
-				if (adminLock.tryLock()) {
-					/** semaphore maintenance **/
-					// list semaphores
-
-					// acquire lock on a semaphore
-
-					// revoke any permits that have exceeded the limit
-
-					/** lock maintenance **/
-					// list locks
 
-					// get exclusive lock on a given lock to perform long held lock
-					// checking
-
-					// traverse lock tree and remove any long held locks that exceed
-					// threshold
-
-					/** barrier maintenance **/
+			/** lock and semaphore maintenance **/
+			try {
+				int reapedCount = reservationReaper.reap(maxReservationHoldTimeMillis);
+				if (reapedCount > 0) {
+					logger.info("Reaped abandoned reservations:  reapedCount={}", reapedCount);
 				}
-			} finally {
-				adminLock.unlock();
-				adminLock.destroy();
+			} catch (Exception e) {
+				// keep scheduled executor running
+				logger.error("Error trying to reap reservations:  " + e, e);
 			}
+
+			/** barrier maintenance **/
 		}// run
 	}// AdminRunnable
 }
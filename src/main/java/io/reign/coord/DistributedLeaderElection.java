@@ -0,0 +1,54 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package io.reign.coord;
+
+/**
+ * Long-lived election of one leader among candidate processes: leadership is kept until the leader leaves or its
+ * ZooKeeper session ends, so deciding who does periodic work takes no ZooKeeper writes per period.
+ * 
+ * @author ypai
+ * 
+ */
+public interface DistributedLeaderElection {
+
+    /**
+     * Join election as a candidate, if not already one.
+     */
+    public void start();
+
+    /**
+     * Leave election, giving up leadership if held.
+     */
+    public void stop();
+
+    /**
+     * 
+     * @return true if this process is currently leader; answered from state kept up to date by ZooKeeper watches,
+     *         without a round trip
+     */
+    public boolean isLeader();
+
+    /**
+     * 
+     * @param listener
+     *            notified when this process gains or loses leadership
+     */
+    public void addLeadershipListener(LeadershipListener listener);
+
+    public void removeLeadershipListener(LeadershipListener listener);
+
+}
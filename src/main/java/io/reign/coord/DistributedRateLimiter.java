@@ -0,0 +1,53 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package io.reign.coord;
+
+/**
+ * Cluster-wide rate limit shared by the nodes of a service: each node prefetches allotments of permits from a budget
+ * kept in ZooKeeper, so asking for a permit is answered locally.
+ * 
+ * @author ypai
+ * 
+ */
+public interface DistributedRateLimiter {
+
+    /**
+     * 
+     * @return true if a permit was taken; false if none is left in this node's allotment for the current second
+     */
+    public boolean tryAcquire();
+
+    /**
+     * 
+     * @param permits
+     * @return true if permits were taken; false if not enough are left in this node's allotment for the current second
+     */
+    public boolean tryAcquire(int permits);
+
+    /**
+     * 
+     * @return permits per second allowed across the cluster
+     */
+    public int getPermitsPerSecond();
+
+    /**
+     * Stop prefetching permits: permits left in this node's allotment are dropped.
+     */
+    public void destroy();
+
+}
@@ -0,0 +1,116 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package io.reign.coord;
+
+/**
+ * A reservation node name parsed once into its sequence number, whether it is exclusive and how many permits it
+ * stands for, so sorting and scanning reservations does not re-parse names.
+ * 
+ * A reservation for more than one permit has the permit count between prefix and sequence number, e.g.
+ * "PT_5_0000000012"; otherwise it stands for one permit.
+ * 
+ * @author ypai
+ * 
+ */
+class Reservation implements Comparable<Reservation> {
+
+	private final String name;
+
+	private final long sequence;
+
+	private final boolean exclusive;
+
+	private final int permits;
+
+	Reservation(String name, long sequence, boolean exclusive) {
+		this(name, sequence, exclusive, 1);
+	}
+
+	Reservation(String name, long sequence, boolean exclusive, int permits) {
+		this.name = name;
+		this.sequence = sequence;
+		this.exclusive = exclusive;
+		this.permits = permits;
+	}
+
+	/**
+	 * 
+	 * @param name
+	 *            reservation node name, e.g. "EX_0000000012" or "PT_5_0000000012"
+	 * @return
+	 */
+	static Reservation parse(String name) {
+		return new Reservation(name, parseSequence(name), ReservationType.isExclusive(name), parsePermits(name));
+	}
+
+	static int parsePermits(String name) {
+		int prefixEnd = name.indexOf('_');
+		int sequenceStart = name.lastIndexOf('_');
+		if (prefixEnd == sequenceStart) {
+			return 1;
+		}
+		try {
+			return Integer.parseInt(name.substring(prefixEnd + 1, sequenceStart));
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException("Could not parse permit count:  " + e, e);
+		}
+	}
+
+	/**
+	 * 
+	 * @param reservationType
+	 * @param permits
+	 * @return name prefix that sequence number is appended to, e.g. "PT_" or "PT_5_"
+	 */
+	static String prefix(ReservationType reservationType, int permits) {
+		return permits == 1 ? reservationType.prefix() + "_" : reservationType.prefix() + "_" + permits + "_";
+	}
+
+	static long parseSequence(String name) {
+		try {
+			return Long.parseLong(name.substring(name.lastIndexOf('_') + 1));
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException("Could not parse sequence number:  " + e, e);
+		}
+	}
+
+	String getName() {
+		return name;
+	}
+
+	long getSequence() {
+		return sequence;
+	}
+
+	boolean isExclusive() {
+		return exclusive;
+	}
+
+	int getPermits() {
+		return permits;
+	}
+
+	@Override
+	public int compareTo(Reservation o) {
+		return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
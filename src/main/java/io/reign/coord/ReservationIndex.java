@@ -0,0 +1,198 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package io.reign.coord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, sorted view of the reservations under an entity, tagged with the version of the entity's child list it
+ * was built from. Updating from a previous index only parses and sorts reservations that were added; surviving
+ * reservations keep their order, so an update is a linear merge instead of a full sort.
+ * 
+ * @author ypai
+ * 
+ */
+class ReservationIndex {
+
+	static final ReservationIndex EMPTY = new ReservationIndex(new Reservation[0], -1, -1);
+
+	/** sorted by sequence number */
+	private final Reservation[] reservations;
+
+	/** creation version of entity node */
+	private final long czxid;
+
+	/** child list version of entity node */
+	private final long cversion;
+
+	private final Map<String, Reservation> reservationMap;
+
+	/** for each position, position of the last exclusive reservation ahead of it; -1 if none */
+	private final int[] exclusiveAheadPositions;
+
+	/** for each position, total permits of reservations ahead of it; last element is total of all */
+	private final long[] permitsAhead;
+
+	ReservationIndex(Reservation[] reservations, long czxid, long cversion) {
+		this.reservations = reservations;
+		this.czxid = czxid;
+		this.cversion = cversion;
+
+		this.reservationMap = new HashMap<String, Reservation>(reservations.length * 2);
+		this.exclusiveAheadPositions = new int[reservations.length];
+		this.permitsAhead = new long[reservations.length + 1];
+		int exclusiveAheadPosition = -1;
+		for (int i = 0; i < reservations.length; i++) {
+			reservationMap.put(reservations[i].getName(), reservations[i]);
+			exclusiveAheadPositions[i] = exclusiveAheadPosition;
+			if (reservations[i].isExclusive()) {
+				exclusiveAheadPosition = i;
+			}
+			permitsAhead[i + 1] = permitsAhead[i] + reservations[i].getPermits();
+		}
+	}
+
+	/**
+	 * 
+	 * @param previous
+	 *            index to reuse parsed reservations from
+	 * @param childList
+	 *            current reservation node names, in any order
+	 * @param czxid
+	 *            -1 if unknown
+	 * @param cversion
+	 *            -1 if unknown
+	 * @return
+	 */
+	static ReservationIndex update(ReservationIndex previous, List<String> childList, long czxid, long cversion) {
+		Set<String> childSet = new HashSet<String>(childList);
+		List<Reservation> addedList = new ArrayList<Reservation>();
+		for (String child : childList) {
+			if (!previous.reservationMap.containsKey(child)) {
+				addedList.add(Reservation.parse(child));
+			}
+		}
+		Collections.sort(addedList);
+
+		// merge surviving reservations with added ones: sequence numbers only
+		// increase, so added ones usually all go at the end
+		Reservation[] merged = new Reservation[childSet.size()];
+		int previousPosition = 0;
+		int addedPosition = 0;
+		for (int i = 0; i < merged.length; i++) {
+			while (previousPosition < previous.reservations.length
+			        && !childSet.contains(previous.reservations[previousPosition].getName())) {
+				previousPosition++;
+			}
+			if (previousPosition < previous.reservations.length
+			        && (addedPosition == addedList.size() || previous.reservations[previousPosition]
+			                .compareTo(addedList.get(addedPosition)) <= 0)) {
+				merged[i] = previous.reservations[previousPosition++];
+			} else {
+				merged[i] = addedList.get(addedPosition++);
+			}
+		}
+
+		return new ReservationIndex(merged, czxid, cversion);
+	}
+
+	/**
+	 * 
+	 * @param czxid
+	 * @param cversion
+	 * @return true if this index was built from the given version of the entity's child list
+	 */
+	boolean isVersion(long czxid, long cversion) {
+		return cversion != -1 && this.cversion == cversion && this.czxid == czxid;
+	}
+
+	int size() {
+		return reservations.length;
+	}
+
+	Reservation get(int position) {
+		return reservations[position];
+	}
+
+	/**
+	 * 
+	 * @param sequence
+	 * @return position of reservation with sequence number; -1 if not found
+	 */
+	int positionOf(long sequence) {
+		int low = 0;
+		int high = reservations.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midSequence = reservations[mid].getSequence();
+			if (midSequence < sequence) {
+				low = mid + 1;
+			} else if (midSequence > sequence) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 
+	 * @param position
+	 * @return position of the last exclusive reservation ahead of the given position; -1 if none
+	 */
+	int getExclusiveAheadPosition(int position) {
+		return exclusiveAheadPositions[position];
+	}
+
+	/**
+	 * 
+	 * @param position
+	 * @return total permits of reservations ahead of the given position
+	 */
+	long getPermitsAhead(int position) {
+		return permitsAhead[position];
+	}
+
+	/**
+	 * 
+	 * @return total permits of all reservations
+	 */
+	long getTotalPermits() {
+		return permitsAhead[reservations.length];
+	}
+
+	List<String> getNameList() {
+		List<String> nameList = new ArrayList<String>(reservations.length);
+		for (Reservation reservation : reservations) {
+			nameList.add(reservation.getName());
+		}
+		return nameList;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(reservations);
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package io.reign.coord;
+
+import io.reign.PathScheme;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Contention metrics for each lock and semaphore entity, kept in a {@link MetricRegistry} under
+ * "coord.&lt;clusterId&gt;.&lt;category&gt;.&lt;entityName&gt;":
+ * <ul>
+ * <li>waitMillis: histogram of time from getting in line to acquiring
+ * <li>holdMillis: histogram of time from acquiring to relinquishing
+ * <li>queueDepth: histogram of reservations ahead when getting in line
+ * <li>timeouts: counter of reservations given up on before being acquired
+ * <li>reservations: counter of reservations made
+ * </ul>
+ * 
+ * To keep the number of metrics bounded, entities seen after maxEntities others are counted together under
+ * "coord.other.&lt;category&gt;". Hold time is tracked for no more than {@link #MAX_HELD_TRACKED} reservations at a
+ * time, and not for reservations deleted outside of this process, whose hold time is not known.
+ * 
+ * @author ypai
+ * 
+ */
+class ReservationMetrics {
+
+	static final int DEFAULT_MAX_ENTITIES = 256;
+
+	static final String OTHER = "other";
+
+	/** reservations held at once whose hold time is tracked: more are not counted in holdMillis */
+	static final int MAX_HELD_TRACKED = 4096;
+
+	private final MetricRegistry metricRegistry;
+	private final PathScheme pathScheme;
+	private final int maxEntities;
+
+	/** metrics by entity path: no more than maxEntities plus one per category for the rest */
+	private final ConcurrentMap<String, EntityMetrics> entityMetricsMap = new ConcurrentHashMap<String, EntityMetrics>(
+	        16, 0.9f, 2);
+
+	/** when held reservations made from this process were acquired, by reservation path */
+	private final ConcurrentMap<String, Long> acquiredTimestampMap = new ConcurrentHashMap<String, Long>(16, 0.9f, 2);
+
+	ReservationMetrics(MetricRegistry metricRegistry, PathScheme pathScheme, int maxEntities) {
+		if (maxEntities < 0) {
+			throw new IllegalArgumentException("maxEntities must be >= 0!");
+		}
+		this.metricRegistry = metricRegistry;
+		this.pathScheme = pathScheme;
+		this.maxEntities = maxEntities;
+	}
+
+	MetricRegistry getMetricRegistry() {
+		return metricRegistry;
+	}
+
+	/**
+	 * 
+	 * @param entityPath
+	 * @param queueDepth
+	 *            reservations ahead of the one made
+	 */
+	void reserved(String entityPath, int queueDepth) {
+		EntityMetrics entityMetrics = getEntityMetrics(entityPath);
+		entityMetrics.reservations.inc();
+		entityMetrics.queueDepth.update(queueDepth);
+	}
+
+	void acquired(String entityPath, String reservationPath, long waitMillis) {
+		getEntityMetrics(entityPath).waitMillis.update(waitMillis);
+
+		// racing callers may go a few reservations over the limit
+		if (acquiredTimestampMap.size() < MAX_HELD_TRACKED) {
+			acquiredTimestampMap.put(reservationPath, System.currentTimeMillis());
+		}
+	}
+
+	void timedOut(String entityPath) {
+		getEntityMetrics(entityPath).timeouts.inc();
+	}
+
+	/**
+	 * 
+	 * @param reservationPath
+	 *            ignored if not acquired through {@link #acquired(String, String, long)}
+	 */
+	void relinquished(String reservationPath) {
+		Long acquiredTimestamp = acquiredTimestampMap.remove(reservationPath);
+		if (acquiredTimestamp != null) {
+			String entityPath = reservationPath.substring(0, reservationPath.lastIndexOf('/'));
+			getEntityMetrics(entityPath).holdMillis.update(System.currentTimeMillis() - acquiredTimestamp);
+		}
+	}
+
+	/**
+	 * Reservation was deleted outside of this process: stop tracking its hold time.
+	 * 
+	 * @param reservationPath
+	 */
+	void revoked(String reservationPath) {
+		acquiredTimestampMap.remove(reservationPath);
+	}
+
+	int getHeldTrackedCount() {
+		return acquiredTimestampMap.size();
+	}
+
+	int getEntityCount() {
+		return entityMetricsMap.size();
+	}
+
+	private EntityMetrics getEntityMetrics(String entityPath) {
+		EntityMetrics entityMetrics = entityMetricsMap.get(entityPath);
+		if (entityMetrics != null) {
+			return entityMetrics;
+		}
+
+		String[] tokens = pathScheme.tokenizePath(entityPath);
+		String category = tokens[tokens.length - 2];
+		String otherKey = OTHER + "#" + category;
+
+		// racing callers may go a few entities over the limit
+		String key = entityPath;
+		String metricNamePrefix = MetricRegistry.name("coord", tokens[tokens.length - 3], category,
+		        tokens[tokens.length - 1]);
+		if (entityMetricsMap.size() >= maxEntities) {
+			key = otherKey;
+			metricNamePrefix = MetricRegistry.name("coord", OTHER, category);
+			entityMetrics = entityMetricsMap.get(key);
+			if (entityMetrics != null) {
+				return entityMetrics;
+			}
+		}
+
+		entityMetrics = new EntityMetrics(metricRegistry, metricNamePrefix);
+		EntityMetrics existing = entityMetricsMap.putIfAbsent(key, entityMetrics);
+		return existing != null ? existing : entityMetrics;
+	}
+
+	private static class EntityMetrics {
+		final Histogram waitMillis;
+		final Histogram holdMillis;
+		final Histogram queueDepth;
+		final Counter timeouts;
+		final Counter reservations;
+
+		EntityMetrics(MetricRegistry metricRegistry, String metricNamePrefix) {
+			// registry hands back same metrics for same names
+			waitMillis = metricRegistry.histogram(MetricRegistry.name(metricNamePrefix, "waitMillis"));
+			holdMillis = metricRegistry.histogram(MetricRegistry.name(metricNamePrefix, "holdMillis"));
+			queueDepth = metricRegistry.histogram(MetricRegistry.name(metricNamePrefix, "queueDepth"));
+			timeouts = metricRegistry.counter(MetricRegistry.name(metricNamePrefix, "timeouts"));
+			reservations = metricRegistry.counter(MetricRegistry.name(metricNamePrefix, "reservations"));
+		}
+	}
+}
@@ -0,0 +1,326 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package io.reign.coord;
+
+import io.reign.PathScheme;
+import io.reign.PathType;
+import io.reign.ReignContext;
+import io.reign.ZkClient;
+import io.reign.ZkNodeId;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Removes abandoned lock and semaphore reservations, which otherwise pile up under entity paths and make every acquire
+ * list and sort them. A reservation is reaped when:
+ * <ul>
+ * <li>its owner has not been announced in presence data for two reaper passes in a row; or</li>
+ * <li>it has been held for longer than the maximum hold time.</li>
+ * </ul>
+ * 
+ * Hold time is measured from the first pass that saw the reservation held, since ZooKeeper does not record when a
+ * reservation was granted; so it is only as accurate as the reaper interval, and starts over on a newly elected
+ * reaper.
+ * 
+ * Owner liveness is only checked if this node finds itself in presence data, so that nothing is reaped when presence
+ * data is not available. Semaphore reservations are treated as held if the permit pool size is not known locally.
+ * 
+ * Keeps a "coord.reaped" counter in total in the given registry. Per entity, it keeps a "reaped" counter and a
+ * "queueLength" gauge with the number of reservations seen in the last pass, in a registry of its own: these cover
+ * every entity in the cluster, so are not bounded like contention metrics, and are dropped once an entity is gone.
+ * 
+ * @author ypai
+ * 
+ */
+class ReservationReaper {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReservationReaper.class);
+
+	private static final String[] CATEGORIES = { ReservationType.LOCK_EXCLUSIVE.category(),
+	        ReservationType.SEMAPHORE.category() };
+
+	private final ReignContext context;
+	private final ZkReservationManager zkReservationManager;
+	private final CoordinationServiceCache coordinationServiceCache;
+	private final MetricRegistry entityMetricRegistry = new MetricRegistry();
+
+	private final Counter reapedCounter;
+
+	/** reservations seen in last pass, by entity path; has a gauge registered for each entity */
+	private final ConcurrentMap<String, Integer> queueLengthMap = new ConcurrentHashMap<String, Integer>(16, 0.9f, 2);
+
+	/** reservations whose owner was not in presence data in last pass */
+	private Set<String> suspectSet = Collections.emptySet();
+
+	/** when each reservation held in last pass was first seen held, by reservation path */
+	private Map<String, Long> heldSinceMap = Collections.emptyMap();
+
+	ReservationReaper(ReignContext context, ZkReservationManager zkReservationManager,
+	        CoordinationServiceCache coordinationServiceCache, MetricRegistry metricRegistry) {
+		this.context = context;
+		this.zkReservationManager = zkReservationManager;
+		this.coordinationServiceCache = coordinationServiceCache;
+		this.reapedCounter = metricRegistry.counter("coord.reaped");
+	}
+
+	/**
+	 * 
+	 * @return per entity reaper metrics, under "coord.&lt;clusterId&gt;.&lt;category&gt;.&lt;entityName&gt;"
+	 */
+	MetricRegistry getEntityMetricRegistry() {
+		return entityMetricRegistry;
+	}
+
+	long getReapedCount() {
+		return reapedCounter.getCount();
+	}
+
+	/**
+	 * 
+	 * @param entityPath
+	 * @return reservations seen under entity in last pass; -1 if not seen
+	 */
+	int getQueueLength(String entityPath) {
+		Integer queueLength = queueLengthMap.get(entityPath);
+		return queueLength != null ? queueLength : -1;
+	}
+
+	/**
+	 * Make one pass over all lock and semaphore entities.
+	 * 
+	 * @param maxHoldTimeMillis
+	 *            -1 for no limit
+	 * @return number of reservations reaped
+	 */
+	synchronized int reap(long maxHoldTimeMillis) {
+		ZkClient zkClient = context.getZkClient();
+		PathScheme pathScheme = context.getPathScheme();
+
+		Set<String> liveOwnerIdSet = getLiveOwnerIdSet();
+		Set<String> nextSuspectSet = new HashSet<String>();
+		Map<String, Long> nextHeldSinceMap = new HashMap<String, Long>();
+		Set<String> seenEntityPathSet = new HashSet<String>();
+		int reapedCount = 0;
+
+		for (String clusterId : getChildren(pathScheme.getAbsolutePath(PathType.COORD))) {
+			for (String category : CATEGORIES) {
+				String categoryPath = pathScheme.getAbsolutePath(PathType.COORD, clusterId, category);
+				for (String entityName : getChildren(categoryPath)) {
+					String entityPath = pathScheme.joinPaths(categoryPath, entityName);
+					try {
+						List<String> reservationList = zkClient.getChildren(entityPath, false);
+						ReservationIndex reservationIndex = zkReservationManager.getReservationIndex(entityPath,
+						        reservationList, null);
+
+						int entityReapedCount = 0;
+						long now = System.currentTimeMillis();
+						for (int i = 0; i < reservationIndex.size(); i++) {
+							String reservationPath = pathScheme.joinPaths(entityPath, reservationIndex.get(i).getName());
+							Stat stat = new Stat();
+							byte[] data;
+							try {
+								data = zkClient.getData(reservationPath, false, stat);
+							} catch (KeeperException e) {
+								if (e.code() == KeeperException.Code.NONODE) {
+									continue;
+								}
+								throw e;
+							}
+
+							String reason = null;
+							String ownerId = parseOwnerId(data);
+							if (liveOwnerIdSet != null && ownerId != null && !liveOwnerIdSet.contains(ownerId)) {
+								if (suspectSet.contains(reservationPath)) {
+									reason = "owner not present";
+								} else {
+									nextSuspectSet.add(reservationPath);
+								}
+							}
+							if (isHeld(category, entityPath, reservationIndex, i)) {
+								Long heldSince = heldSinceMap.get(reservationPath);
+								if (heldSince == null) {
+									heldSince = now;
+								}
+								nextHeldSinceMap.put(reservationPath, heldSince);
+								if (reason == null && maxHoldTimeMillis != -1 && now - heldSince > maxHoldTimeMillis) {
+									reason = "held too long";
+								}
+							}
+
+							if (reason != null && zkReservationManager.relinquish(reservationPath)) {
+								logger.info("Reaped reservation:  reason={}; ownerId={}; reservationPath={}",
+								        new Object[] { reason, ownerId, reservationPath });
+								nextHeldSinceMap.remove(reservationPath);
+								entityReapedCount++;
+							}
+						}
+
+						if (entityReapedCount > 0) {
+							reapedCounter.inc(entityReapedCount);
+							entityMetricRegistry.counter(entityMetricName(entityPath, "reaped")).inc(entityReapedCount);
+							reapedCount += entityReapedCount;
+						}
+						updateQueueLength(entityPath, reservationIndex.size() - entityReapedCount);
+						seenEntityPathSet.add(entityPath);
+
+					} catch (KeeperException e) {
+						if (e.code() != KeeperException.Code.NONODE) {
+							logger.warn("Error trying to reap reservations:  " + e + ":  entityPath=" + entityPath, e);
+						}
+					} catch (InterruptedException e) {
+						logger.warn("Interrupted while reaping reservations:  " + e, e);
+						Thread.currentThread().interrupt();
+						return reapedCount;
+					} catch (Exception e) {
+						logger.warn("Error trying to reap reservations:  " + e + ":  entityPath=" + entityPath, e);
+					}
+				}// for entityName
+			}// for category
+		}// for clusterId
+
+		// stop tracking entities that are gone
+		for (String entityPath : queueLengthMap.keySet()) {
+			if (!seenEntityPathSet.contains(entityPath)) {
+				queueLengthMap.remove(entityPath);
+				entityMetricRegistry.remove(entityMetricName(entityPath, "queueLength"));
+				entityMetricRegistry.remove(entityMetricName(entityPath, "reaped"));
+			}
+		}
+
+		suspectSet = nextSuspectSet;
+		heldSinceMap = nextHeldSinceMap;
+		return reapedCount;
+	}
+
+	/**
+	 * 
+	 * @return ids of nodes announced as Reign servers; null if this node is not among them
+	 */
+	Set<String> getLiveOwnerIdSet() {
+		PathScheme pathScheme = context.getPathScheme();
+		String serverPath = pathScheme.getAbsolutePath(PathType.PRESENCE, pathScheme.getFrameworkClusterId(), "server");
+
+		Set<String> liveOwnerIdSet = new HashSet<String>();
+		for (String nodeIdString : getChildren(serverPath)) {
+			try {
+				liveOwnerIdSet.add(context.getNodeIdFromZk(new ZkNodeId(nodeIdString, null)).toString());
+			} catch (Exception e) {
+				logger.warn("Could not parse node id:  " + e + ":  path={}; nodeId={}", serverPath, nodeIdString);
+			}
+		}
+
+		if (!liveOwnerIdSet.contains(context.getNodeId().toString())) {
+			logger.debug("Not checking reservation owners:  this node is not in presence data:  path={}", serverPath);
+			return null;
+		}
+		return liveOwnerIdSet;
+	}
+
+	/**
+	 * Reservation data is written as {"ownerId":"...",...} with the owner id unescaped, so it is extracted as text.
+	 * 
+	 * @param data
+	 * @return owner id; null if data is not in expected format
+	 */
+	static String parseOwnerId(byte[] data) {
+		if (data == null) {
+			return null;
+		}
+
+		String dataString;
+		try {
+			dataString = new String(data, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+
+		String ownerPrefix = "{\"ownerId\":\"";
+		if (!dataString.startsWith(ownerPrefix)) {
+			return null;
+		}
+		int end = dataString.lastIndexOf("\",\"permits\":");
+		if (end == -1) {
+			end = dataString.endsWith("\"}") ? dataString.length() - 2 : -1;
+		}
+		return end >= ownerPrefix.length() ? dataString.substring(ownerPrefix.length(), end) : null;
+	}
+
+	private boolean isHeld(String category, String entityPath, ReservationIndex reservationIndex, int position) {
+		if (ReservationType.SEMAPHORE.category().equals(category)) {
+			PermitPoolSize permitPoolSize = coordinationServiceCache.getPermitPoolSize(entityPath);
+			return permitPoolSize == null
+			        || reservationIndex.getPermitsAhead(position + 1) <= permitPoolSize.get();
+		}
+		return position == 0
+		        || (!reservationIndex.get(position).isExclusive() && reservationIndex
+		                .getExclusiveAheadPosition(position) == -1);
+	}
+
+	private void updateQueueLength(final String entityPath, int queueLength) {
+		if (queueLengthMap.put(entityPath, queueLength) == null) {
+			try {
+				entityMetricRegistry.register(entityMetricName(entityPath, "queueLength"), new Gauge<Integer>() {
+					@Override
+					public Integer getValue() {
+						Integer value = queueLengthMap.get(entityPath);
+						return value != null ? value : 0;
+					}
+				});
+			} catch (IllegalArgumentException e) {
+				// already registered
+			}
+		}
+	}
+
+	private String entityMetricName(String entityPath, String metricName) {
+		String[] tokens = context.getPathScheme().tokenizePath(entityPath);
+		return MetricRegistry.name("coord", tokens[tokens.length - 3], tokens[tokens.length - 2],
+		        tokens[tokens.length - 1], metricName);
+	}
+
+	private List<String> getChildren(String path) {
+		try {
+			return context.getZkClient().getChildren(path, false);
+		} catch (KeeperException e) {
+			if (e.code() != KeeperException.Code.NONODE) {
+				logger.warn("Error trying to list children:  " + e + ":  path=" + path, e);
+			}
+		} catch (InterruptedException e) {
+			logger.warn("Interrupted while listing children:  " + e + ":  path=" + path, e);
+			Thread.currentThread().interrupt();
+		}
+		return Collections.emptyList();
+	}
+}
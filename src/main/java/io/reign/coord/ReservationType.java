@@ -86,6 +86,22 @@ public enum ReservationType {
         public boolean isExclusive() {
             return false;
         }
+    },
+    LEADER_ELECTION {
+        @Override
+        public String prefix() {
+            return "LE";
+        }
+
+        @Override
+        public String category() {
+            return "election";
+        }
+
+        @Override
+        public boolean isExclusive() {
+            return true;
+        }
     };
 
     // public static final Map<String, ReservationType> prefixMap = new HashMap<String, ReservationType>();
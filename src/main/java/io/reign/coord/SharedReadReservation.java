@@ -0,0 +1,314 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package io.reign.coord;
+
+import io.reign.ZkClient;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.data.ACL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single shared (read) reservation on an entity used by all local readers in this process at the same time: the
+ * first reader gets the reservation from ZooKeeper, later ones join it without a round trip, and the last one to
+ * release it relinquishes it.
+ * 
+ * Once a writer gets in line behind the reservation, as seen by a watch on the entity's children, new local readers
+ * no longer join it but wait for it to be relinquished and then get in line behind the writer, so that local readers
+ * cannot starve writers.
+ * 
+ * Holders are identified by object identity and may each hold at most once at a time. Once no local reader is using
+ * it, the reservation is forgotten by {@link ZkReservationManager} and lock objects that still refer to it get the one
+ * in use from there on next acquisition.
+ * 
+ * @author ypai
+ * 
+ */
+class SharedReadReservation {
+
+	private static final Logger logger = LoggerFactory.getLogger(SharedReadReservation.class);
+
+	private final ZkReservationManager zkReservationManager;
+	private final String entityPath;
+	private final ZkClient zkClient;
+	private final ScheduledExecutorService executorService;
+
+	/** guarded by this */
+	private final Set<Object> holderSet = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+	/** guarded by this; null if no reservation is held in ZooKeeper */
+	private String reservationPath;
+
+	/** guarded by this; true while a local reader is getting a reservation from ZooKeeper */
+	private boolean acquiring;
+
+	/** guarded by this; local readers waiting to join reservation or to get one */
+	private int waiterCount;
+
+	/** guarded by this; true if an exclusive reservation is in line behind the held one */
+	private boolean writerWaiting;
+
+	/** guarded by this */
+	private boolean childWatchSet;
+
+	private final Watcher childWatcher = new Watcher() {
+		@Override
+		public void process(WatchedEvent event) {
+			if (event.getType() == EventType.NodeChildrenChanged) {
+				synchronized (SharedReadReservation.this) {
+					childWatchSet = false;
+				}
+
+				// do not block ZooKeeper event thread
+				try {
+					executorService.execute(new Runnable() {
+						@Override
+						public void run() {
+							checkWriterWaiting();
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					logger.debug("Not checking for waiting writers:  executor shut down:  entityPath={}", entityPath);
+				}
+			}
+		}
+	};
+
+	private final AtomicLong reservationCount = new AtomicLong(0);
+	private final AtomicLong joinCount = new AtomicLong(0);
+
+	SharedReadReservation(ZkReservationManager zkReservationManager, String entityPath, ZkClient zkClient,
+	        ScheduledExecutorService executorService) {
+		this.zkReservationManager = zkReservationManager;
+		this.entityPath = entityPath;
+		this.zkClient = zkClient;
+		this.executorService = executorService;
+	}
+
+	/**
+	 * 
+	 * @param holder
+	 * @param ownerId
+	 * @param aclList
+	 * @param waitTimeoutMs
+	 *            -1 for no limit
+	 * @param interruptible
+	 * @return path of reservation acquired; null if not acquired
+	 * @throws InterruptedException
+	 */
+	String acquire(Object holder, String ownerId, List<ACL> aclList, long waitTimeoutMs, boolean interruptible)
+	        throws InterruptedException {
+		long startTimestamp = System.currentTimeMillis();
+
+		synchronized (this) {
+			boolean interrupted = false;
+			waiterCount++;
+			try {
+				while (true) {
+					if (reservationPath != null && !writerWaiting) {
+						holderSet.add(holder);
+						joinCount.incrementAndGet();
+						logger.trace("Joined local readers:  entityPath={}; reservationPath={}; readerCount={}",
+						        new Object[] { entityPath, reservationPath, holderSet.size() });
+						return reservationPath;
+					}
+					if (reservationPath == null && !acquiring) {
+						acquiring = true;
+						break;
+					}
+
+					// another local reader is getting in line, or a writer is waiting for current readers to finish
+					try {
+						if (waitTimeoutMs == -1) {
+							this.wait();
+						} else {
+							long remainingMillis = startTimestamp + waitTimeoutMs - System.currentTimeMillis();
+							if (remainingMillis <= 0) {
+								return null;
+							}
+							this.wait(remainingMillis);
+						}
+					} catch (InterruptedException e) {
+						if (interruptible) {
+							throw e;
+						}
+						interrupted = true;
+					}
+				}
+			} finally {
+				waiterCount--;
+				forgetIfUnused();
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		// no reservation held: get one from ZooKeeper while other local readers wait
+		String acquiredPath = null;
+		try {
+			long remainingMillis = waitTimeoutMs == -1 ? -1 : Math.max(0, startTimestamp + waitTimeoutMs
+			        - System.currentTimeMillis());
+			acquiredPath = zkReservationManager.acquire(ownerId, entityPath, ReservationType.LOCK_SHARED, aclList,
+			        remainingMillis, interruptible);
+		} finally {
+			synchronized (this) {
+				acquiring = false;
+				if (acquiredPath != null) {
+					reservationPath = acquiredPath;
+					writerWaiting = false;
+					holderSet.add(holder);
+					reservationCount.incrementAndGet();
+				}
+				this.notifyAll();
+				forgetIfUnused();
+			}
+		}
+
+		if (acquiredPath != null) {
+			checkWriterWaiting();
+		}
+		return acquiredPath;
+	}
+
+	/**
+	 * 
+	 * @param holder
+	 * @return true if released or not held by holder
+	 */
+	boolean release(Object holder) {
+		String relinquishPath = null;
+		synchronized (this) {
+			if (!holderSet.remove(holder)) {
+				return true;
+			}
+
+			if (holderSet.isEmpty() && reservationPath != null) {
+				relinquishPath = reservationPath;
+				reservationPath = null;
+				writerWaiting = false;
+				this.notifyAll();
+			}
+			forgetIfUnused();
+		}
+
+		return zkReservationManager.relinquish(relinquishPath);
+	}
+
+	/**
+	 * Reservation was deleted outside of framework: next reader gets a new one.
+	 * 
+	 * @param reservationId
+	 */
+	synchronized void revoke(String reservationId) {
+		if (reservationId != null && reservationId.equals(reservationPath)) {
+			reservationPath = null;
+			writerWaiting = false;
+			holderSet.clear();
+			this.notifyAll();
+			forgetIfUnused();
+		}
+	}
+
+	/**
+	 * Let a lock object pick up another reservation next time if no local reader is using this one: call while
+	 * holding lock on this.
+	 */
+	private void forgetIfUnused() {
+		if (holderSet.isEmpty() && reservationPath == null && !acquiring && waiterCount == 0) {
+			zkReservationManager.forgetSharedReadReservation(this);
+		}
+	}
+
+	/**
+	 * List entity's children and set watch on them; stop local readers from joining held reservation if an exclusive
+	 * reservation is in line behind it.
+	 */
+	private void checkWriterWaiting() {
+		String path;
+		synchronized (this) {
+			path = reservationPath;
+			if (path == null || writerWaiting || childWatchSet) {
+				return;
+			}
+			childWatchSet = true;
+		}
+
+		try {
+			List<String> childList = zkClient.getChildren(entityPath, childWatcher);
+			long sequence = Reservation.parseSequence(path.substring(path.lastIndexOf('/') + 1));
+			for (String child : childList) {
+				Reservation reservation = Reservation.parse(child);
+				if (reservation.isExclusive() && reservation.getSequence() > sequence) {
+					synchronized (this) {
+						if (path.equals(reservationPath)) {
+							writerWaiting = true;
+							logger.debug("Writer waiting:  not adding local readers:  entityPath={}; writer={}",
+							        entityPath, child);
+						}
+					}
+					break;
+				}
+			}
+		} catch (Exception e) {
+			synchronized (this) {
+				childWatchSet = false;
+			}
+			logger.warn("Error trying to check for waiting writers:  " + e + ":  entityPath=" + entityPath, e);
+		}
+	}
+
+	String getEntityPath() {
+		return entityPath;
+	}
+
+	/**
+	 * 
+	 * @return number of local readers currently holding reservation
+	 */
+	synchronized int getReaderCount() {
+		return holderSet.size();
+	}
+
+	/**
+	 * 
+	 * @return number of reservations created in ZooKeeper
+	 */
+	long getReservationCount() {
+		return reservationCount.get();
+	}
+
+	/**
+	 * 
+	 * @return number of times a local reader joined a held reservation without going to ZooKeeper
+	 */
+	long getJoinCount() {
+		return joinCount.get();
+	}
+}
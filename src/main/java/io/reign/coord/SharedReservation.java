@@ -0,0 +1,515 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package io.reign.coord;
+
+import io.reign.ZkClient;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.data.ACL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single ZooKeeper reservation on an entity shared by all local contenders in this process. Local contenders queue
+ * here in FIFO order and only the one at the head of the queue goes to ZooKeeper; on release, the reservation is
+ * handed to the next local contender without a round trip, unless it has already been handed off maxLocalHandoffs
+ * times in a row, in which case it is relinquished so that other processes waiting on the entity get their turn.
+ * 
+ * With lazy release, a reservation no local contender is waiting for is kept after release, so that the next local
+ * acquisition is free. It is relinquished once another process gets in line for the entity, as seen by a watch on the
+ * entity's children, or once it has been idle for lazyReleaseMillis.
+ * 
+ * Holders are identified by object identity and may each hold at most once at a time. Once no local contender is
+ * using it, the reservation is forgotten by {@link ZkReservationManager} and lock objects that still refer to it get
+ * the one in use from there on next acquisition.
+ * 
+ * @author ypai
+ * 
+ */
+class SharedReservation {
+
+	private static final Logger logger = LoggerFactory.getLogger(SharedReservation.class);
+
+	private final ZkReservationManager zkReservationManager;
+	private final String entityPath;
+	private final ReservationType reservationType;
+	private final int maxLocalHandoffs;
+
+	/** -1 to relinquish as soon as no local contender is waiting */
+	private final long lazyReleaseMillis;
+
+	private final ZkClient zkClient;
+	private final ScheduledExecutorService executorService;
+
+	/** guarded by this */
+	private final LinkedList<Object> waiterQueue = new LinkedList<Object>();
+
+	/** guarded by this */
+	private Object holder;
+
+	/** guarded by this; null if no reservation is held in ZooKeeper */
+	private String reservationPath;
+
+	/** guarded by this; consecutive local hand-offs of current reservation */
+	private int handoffCount;
+
+	/** guarded by this; true if reservation is kept after release without a local contender waiting for it */
+	private boolean idle;
+
+	/** guarded by this */
+	private long idleTimestamp;
+
+	/** guarded by this; true if another process has a reservation on entity */
+	private boolean remoteWaiting;
+
+	/** guarded by this */
+	private boolean childWatchSet;
+
+	/** guarded by this */
+	private boolean idleCheckScheduled;
+
+	private final Watcher childWatcher = new Watcher() {
+		@Override
+		public void process(WatchedEvent event) {
+			if (event.getType() == EventType.None) {
+				// ephemeral reservation went with the session
+				if (event.getState() == KeeperState.Expired) {
+					synchronized (SharedReservation.this) {
+						childWatchSet = false;
+						if (reservationPath != null) {
+							logger.info("Forgetting reservation:  session expired:  entityPath={}; reservationPath={}",
+							        entityPath, reservationPath);
+							zkReservationManager.revoked(reservationPath);
+							reservationPath = null;
+							idle = false;
+							forgetIfUnused();
+						}
+					}
+				}
+
+			} else if (event.getType() == EventType.NodeChildrenChanged) {
+				synchronized (SharedReservation.this) {
+					childWatchSet = false;
+				}
+
+				// do not block ZooKeeper event thread
+				try {
+					executorService.execute(new Runnable() {
+						@Override
+						public void run() {
+							checkRemoteWaiting();
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					logger.debug("Not checking for remote waiters:  executor shut down:  entityPath={}", entityPath);
+				}
+			}
+		}
+	};
+
+	private final Runnable idleCheckRunnable = new Runnable() {
+		@Override
+		public void run() {
+			relinquishIfIdle();
+		}
+	};
+
+	private final AtomicLong reservationCount = new AtomicLong(0);
+	private final AtomicLong localHandoffCount = new AtomicLong(0);
+
+	SharedReservation(ZkReservationManager zkReservationManager, String entityPath, ReservationType reservationType,
+	        int maxLocalHandoffs) {
+		this(zkReservationManager, entityPath, reservationType, maxLocalHandoffs, -1, null, null);
+	}
+
+	SharedReservation(ZkReservationManager zkReservationManager, String entityPath, ReservationType reservationType,
+	        int maxLocalHandoffs, long lazyReleaseMillis, ZkClient zkClient, ScheduledExecutorService executorService) {
+		if (lazyReleaseMillis >= 0 && (zkClient == null || executorService == null)) {
+			throw new IllegalArgumentException("zkClient and executorService are required for lazy release!");
+		}
+		this.zkReservationManager = zkReservationManager;
+		this.entityPath = entityPath;
+		this.reservationType = reservationType;
+		this.maxLocalHandoffs = maxLocalHandoffs;
+		this.lazyReleaseMillis = lazyReleaseMillis;
+		this.zkClient = zkClient;
+		this.executorService = executorService;
+	}
+
+	/**
+	 * 
+	 * @param holder
+	 * @param ownerId
+	 * @param aclList
+	 * @param waitTimeoutMs
+	 *            -1 for no limit
+	 * @param interruptible
+	 * @return path of reservation acquired; null if not acquired
+	 * @throws InterruptedException
+	 */
+	String acquire(Object holder, String ownerId, List<ACL> aclList, long waitTimeoutMs, boolean interruptible)
+	        throws InterruptedException {
+		long startTimestamp = System.currentTimeMillis();
+
+		String abandonedPath = null;
+		try {
+			synchronized (this) {
+				boolean turn = false;
+				try {
+					turn = awaitTurn(holder, startTimestamp, waitTimeoutMs, interruptible);
+				} finally {
+					if (!turn) {
+						abandonedPath = abandonIfUnclaimed();
+						forgetIfUnused();
+					}
+				}
+				if (!turn) {
+					return null;
+				}
+
+				this.holder = holder;
+				if (reservationPath != null) {
+					// re-acquiring a reservation kept idle is not a hand-off between contenders
+					if (idle) {
+						idle = false;
+					} else {
+						handoffCount++;
+					}
+					localHandoffCount.incrementAndGet();
+					logger.trace("Acquired from local holder:  entityPath={}; reservationPath={}", entityPath,
+					        reservationPath);
+					return reservationPath;
+				}
+			}
+		} finally {
+			if (abandonedPath != null) {
+				zkReservationManager.relinquish(abandonedPath);
+			}
+		}
+
+		// first in line locally and no reservation held: get one from ZooKeeper while other local contenders wait
+		String acquiredPath = null;
+		try {
+			long remainingMillis = waitTimeoutMs == -1 ? -1 : Math.max(0, startTimestamp + waitTimeoutMs
+			        - System.currentTimeMillis());
+			acquiredPath = zkReservationManager.acquire(ownerId, entityPath, reservationType, aclList,
+			        remainingMillis, interruptible);
+		} finally {
+			synchronized (this) {
+				if (acquiredPath != null) {
+					reservationPath = acquiredPath;
+					handoffCount = 0;
+					idle = false;
+					remoteWaiting = false;
+					reservationCount.incrementAndGet();
+				} else {
+					this.holder = null;
+					this.notifyAll();
+					forgetIfUnused();
+				}
+			}
+		}
+		return acquiredPath;
+	}
+
+	/**
+	 * Wait until holder is at head of local queue and reservation is free. Call while holding lock on this.
+	 * 
+	 * @return false if wait timed out
+	 */
+	private boolean awaitTurn(Object holder, long startTimestamp, long waitTimeoutMs, boolean interruptible)
+	        throws InterruptedException {
+		boolean interrupted = false;
+		waiterQueue.add(holder);
+		try {
+			while (this.holder != null || waiterQueue.getFirst() != holder) {
+				try {
+					if (waitTimeoutMs == -1) {
+						this.wait();
+					} else {
+						long remainingMillis = startTimestamp + waitTimeoutMs - System.currentTimeMillis();
+						if (remainingMillis <= 0) {
+							return false;
+						}
+						this.wait(remainingMillis);
+					}
+				} catch (InterruptedException e) {
+					if (interruptible) {
+						throw e;
+					}
+					interrupted = true;
+				}
+			}
+			return true;
+		} finally {
+			waiterQueue.remove(holder);
+
+			// let next in line know that head of queue may have changed
+			this.notifyAll();
+
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * A reservation kept for waiters that have since given up is not held by anyone: call while holding lock on this.
+	 * 
+	 * @return path of reservation to relinquish; null if none
+	 */
+	private String abandonIfUnclaimed() {
+		if (holder == null && waiterQueue.isEmpty() && reservationPath != null) {
+			String abandonedPath = reservationPath;
+			reservationPath = null;
+			idle = false;
+			return abandonedPath;
+		}
+		return null;
+	}
+
+	/**
+	 * Let a lock object pick up another reservation next time if no local contender is using this one: call while
+	 * holding lock on this.
+	 */
+	private void forgetIfUnused() {
+		if (holder == null && waiterQueue.isEmpty() && reservationPath == null) {
+			zkReservationManager.forgetSharedReservation(this);
+		}
+	}
+
+	/**
+	 * 
+	 * @param holder
+	 * @return true if released or not held by holder
+	 */
+	boolean release(Object holder) {
+		String relinquishPath = null;
+		boolean keepIdle = false;
+		synchronized (this) {
+			if (this.holder != holder) {
+				return true;
+			}
+
+			if (reservationPath != null) {
+				if (remoteWaiting || handoffCount >= maxLocalHandoffs
+				        || (waiterQueue.isEmpty() && lazyReleaseMillis < 0)) {
+					relinquishPath = reservationPath;
+					reservationPath = null;
+				} else if (waiterQueue.isEmpty()) {
+					idle = true;
+					idleTimestamp = System.currentTimeMillis();
+					keepIdle = true;
+				}
+			}
+			this.holder = null;
+			this.notifyAll();
+			forgetIfUnused();
+		}
+
+		if (keepIdle) {
+			keepIdle();
+		}
+
+		// next local contender (if any) may already be getting in line behind remote ones
+		return zkReservationManager.relinquish(relinquishPath);
+	}
+
+	/**
+	 * Make sure that a reservation kept idle is relinquished when another process gets in line or it has been idle
+	 * for too long.
+	 */
+	private void keepIdle() {
+		boolean checkRemoteWaiting;
+		boolean scheduleIdleCheck;
+		synchronized (this) {
+			checkRemoteWaiting = !childWatchSet;
+			scheduleIdleCheck = !idleCheckScheduled;
+			idleCheckScheduled = true;
+		}
+
+		if (scheduleIdleCheck) {
+			scheduleIdleCheck(lazyReleaseMillis);
+		}
+		if (checkRemoteWaiting) {
+			checkRemoteWaiting();
+		}
+	}
+
+	private void scheduleIdleCheck(long delayMillis) {
+		try {
+			executorService.schedule(idleCheckRunnable, delayMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			synchronized (this) {
+				idleCheckScheduled = false;
+			}
+			logger.debug("Relinquishing right away:  executor shut down:  entityPath={}", entityPath);
+			relinquishIfIdle();
+		}
+	}
+
+	private void relinquishIfIdle() {
+		String relinquishPath = null;
+		synchronized (this) {
+			idleCheckScheduled = false;
+			if (reservationPath == null || !idle) {
+				// in use: next release will schedule another check
+				return;
+			}
+
+			long remainingMillis = idleTimestamp + lazyReleaseMillis - System.currentTimeMillis();
+			if (remainingMillis > 0 && !executorService.isShutdown()) {
+				idleCheckScheduled = true;
+				scheduleIdleCheck(remainingMillis);
+				return;
+			}
+
+			relinquishPath = reservationPath;
+			reservationPath = null;
+			idle = false;
+			forgetIfUnused();
+		}
+
+		logger.debug("Relinquishing idle reservation:  entityPath={}; reservationPath={}", entityPath, relinquishPath);
+		relinquishQuietly(relinquishPath);
+	}
+
+	/**
+	 * List entity's children and set watch on them; relinquish reservation if idle and another process has a
+	 * reservation on entity, or otherwise have next release relinquish it. Forget reservation if it is gone, e.g.
+	 * reaped or lost with the session, so that the next local acquisition goes back to ZooKeeper.
+	 */
+	private void checkRemoteWaiting() {
+		String path;
+		synchronized (this) {
+			path = reservationPath;
+			if (path == null || childWatchSet) {
+				return;
+			}
+			childWatchSet = true;
+		}
+
+		String relinquishPath = null;
+		try {
+			List<String> childList = zkClient.getChildren(entityPath, childWatcher);
+			String reservation = path.substring(path.lastIndexOf('/') + 1);
+			if (!childList.contains(reservation)) {
+				synchronized (this) {
+					if (path.equals(reservationPath)) {
+						logger.info("Forgetting reservation:  deleted outside of this process:  entityPath={}; "
+						        + "reservationPath={}", entityPath, path);
+						reservationPath = null;
+						idle = false;
+						zkReservationManager.revoked(path);
+						forgetIfUnused();
+					}
+				}
+				return;
+			}
+			for (String child : childList) {
+				if (!child.equals(reservation)) {
+					synchronized (this) {
+						if (path.equals(reservationPath)) {
+							remoteWaiting = true;
+							if (holder == null && waiterQueue.isEmpty()) {
+								relinquishPath = reservationPath;
+								reservationPath = null;
+								idle = false;
+								forgetIfUnused();
+							}
+						}
+					}
+					break;
+				}
+			}
+		} catch (Exception e) {
+			synchronized (this) {
+				childWatchSet = false;
+			}
+			logger.warn("Error checking for other reservations:  " + e + "; entityPath=" + entityPath, e);
+		}
+
+		if (relinquishPath != null) {
+			logger.debug("Relinquishing idle reservation for remote waiter:  entityPath={}; reservationPath={}",
+			        entityPath, relinquishPath);
+			relinquishQuietly(relinquishPath);
+		}
+	}
+
+	private void relinquishQuietly(String relinquishPath) {
+		try {
+			zkReservationManager.relinquish(relinquishPath);
+		} catch (Exception e) {
+			logger.warn("Error relinquishing reservation:  " + e + "; reservationPath=" + relinquishPath, e);
+		}
+	}
+
+	/**
+	 * Forget reservation if it was deleted outside of this process.
+	 * 
+	 * @param reservationId
+	 */
+	synchronized void revoke(String reservationId) {
+		if (reservationId != null && reservationId.equals(reservationPath)) {
+			reservationPath = null;
+			idle = false;
+			forgetIfUnused();
+		}
+	}
+
+	String getEntityPath() {
+		return entityPath;
+	}
+
+	ReservationType getReservationType() {
+		return reservationType;
+	}
+
+	/**
+	 * 
+	 * @return path of reservation held or kept idle; null if none
+	 */
+	synchronized String getReservationPath() {
+		return reservationPath;
+	}
+
+	/**
+	 * 
+	 * @return number of reservations created in ZooKeeper
+	 */
+	long getReservationCount() {
+		return reservationCount.get();
+	}
+
+	/**
+	 * 
+	 * @return number of times a reservation was handed to a local contender without going to ZooKeeper
+	 */
+	long getLocalHandoffCount() {
+		return localHandoffCount.get();
+	}
+}
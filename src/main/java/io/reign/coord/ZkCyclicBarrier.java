@@ -0,0 +1,415 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package io.reign.coord;
+
+import io.reign.PathScheme;
+import io.reign.ZkClient;
+import io.reign.util.ZkClientUtil;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.ACL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Barrier that can be re-used round after round without deleting and re-creating paths. Each round is a generation
+ * node under the entity node; parties arrive by creating sequential nodes under the current generation node, and the
+ * party whose arrival is the last one needed trips the barrier by creating the next generation node. Waiting parties
+ * only watch for the next generation node to be created, so each round costs one watch per party and every arrival
+ * does not wake up every party already waiting.
+ * 
+ * Data of a generation node tells how the previous round ended: a party that times out or is interrupted breaks the
+ * round by creating the next generation node first, marked as broken. Arrivals beyond the number of parties in a round
+ * wait for the next round.
+ * 
+ * Parties in the same process need their own instances.
+ * 
+ * @author ypai
+ * 
+ */
+public class ZkCyclicBarrier implements DistributedBarrier, Watcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZkCyclicBarrier.class);
+
+    static final String GENERATION_PREFIX = "G";
+
+    static final String ARRIVAL_PREFIX = "A";
+
+    private static final byte[] TRIPPED_DATA = "tripped".getBytes();
+
+    private static final byte[] BROKEN_DATA = "broken".getBytes();
+
+    private final ZkClient zkClient;
+
+    private final PathScheme pathScheme;
+
+    private final String ownerId;
+
+    private final String entityPath;
+
+    private final int parties;
+
+    private final List<ACL> aclList;
+
+    private final ZkClientUtil zkClientUtil = new ZkClientUtil();
+
+    /** guarded by this; -1 until looked up */
+    private long generation = -1;
+
+    /** guarded by this */
+    private boolean broken = false;
+
+    public ZkCyclicBarrier(ZkClient zkClient, PathScheme pathScheme, String ownerId, String entityPath, int parties,
+            List<ACL> aclList) {
+        if (parties < 1) {
+            throw new IllegalArgumentException("parties must be >= 1!");
+        }
+        this.zkClient = zkClient;
+        this.pathScheme = pathScheme;
+        this.ownerId = ownerId;
+        this.entityPath = entityPath;
+        this.parties = parties;
+        this.aclList = aclList;
+    }
+
+    @Override
+    public int getParties() {
+        return parties;
+    }
+
+    @Override
+    public int await() {
+        return await(-1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param timeout
+     *            -1 to wait without limit; breaks the round if it passes
+     */
+    @Override
+    public synchronized int await(long timeout, TimeUnit timeUnit) {
+        if (broken) {
+            throw new IllegalStateException("Barrier has been broken:  call reset() to re-use barrier.");
+        }
+
+        long deadline = timeout == -1 ? -1 : System.currentTimeMillis() + timeUnit.toMillis(timeout);
+        boolean interrupted = false;
+        try {
+            if (generation == -1) {
+                generation = lookupGeneration();
+            }
+
+            while (true) {
+                String generationPath = getGenerationPath(generation);
+                String nextGenerationPath = getGenerationPath(generation + 1);
+
+                // get in line
+                String arrivalPath;
+                try {
+                    arrivalPath = zkClient.create(pathScheme.joinPaths(generationPath, ARRIVAL_PREFIX),
+                            ("{\"ownerId\":\"" + ownerId + "\"}").getBytes("UTF-8"), aclList,
+                            CreateMode.EPHEMERAL_SEQUENTIAL);
+                } catch (KeeperException e) {
+                    if (e.code() != KeeperException.Code.NONODE) {
+                        throw e;
+                    }
+                    // generation was cleaned up long ago
+                    generation = lookupGeneration();
+                    continue;
+                }
+
+                List<String> arrivalList = zkClient.getChildren(generationPath, false);
+                Collections.sort(arrivalList);
+                int arrivalIndex = arrivalList.indexOf(arrivalPath.substring(arrivalPath.lastIndexOf('/') + 1));
+
+                if (arrivalIndex >= parties) {
+                    // round is full: wait for next one
+                    logger.debug("Round is full:  entityPath={}; generation={}; arrivalPath={}", new Object[] {
+                            entityPath, generation, arrivalPath });
+                    deleteQuietly(arrivalPath);
+                    if (waitForGeneration(generationPath, nextGenerationPath, deadline) == null) {
+                        throw new IllegalStateException("Timed out waiting for next round at barrier:  entityPath="
+                                + entityPath + "; generation=" + generation);
+                    }
+                    generation++;
+                    continue;
+                }
+
+                byte[] outcome;
+                if (arrivalIndex == parties - 1) {
+                    // last one needed: trip barrier
+                    outcome = createGeneration(nextGenerationPath, TRIPPED_DATA);
+                    if (outcome == TRIPPED_DATA) {
+                        deleteOldGenerations(generation - 1);
+                    }
+                } else {
+                    try {
+                        outcome = waitForGeneration(generationPath, nextGenerationPath, deadline);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        outcome = null;
+                    }
+                    if (outcome == null) {
+                        // timed out or interrupted: break round, unless it was tripped in the meantime
+                        outcome = createGeneration(nextGenerationPath, BROKEN_DATA);
+                    }
+                }
+
+                generation++;
+                if (!isTripped(outcome)) {
+                    broken = true;
+                    throw new IllegalStateException("Barrier has been broken:  entityPath=" + entityPath
+                            + "; generation=" + (generation - 1) + "; interrupted=" + interrupted);
+                }
+
+                // 0 if last to arrive; getParties()-1 if first to arrive
+                return parties - 1 - arrivalIndex;
+            }
+        } catch (IllegalStateException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            interrupted = true;
+            throw new IllegalStateException("Interrupted while waiting at barrier:  " + e, e);
+        } catch (Exception e) {
+            throw new IllegalStateException("Error while waiting at barrier:  " + e, e);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean isBroken() {
+        return broken;
+    }
+
+    /**
+     * Break the current round if parties are waiting in it, and go on to the latest round.
+     */
+    @Override
+    public synchronized void reset() {
+        try {
+            if (generation != -1 && zkClient.exists(getGenerationPath(generation + 1), false) == null
+                    && getArrivalCount(generation) > 0) {
+                createGeneration(getGenerationPath(generation + 1), BROKEN_DATA);
+            }
+            broken = false;
+            generation = lookupGeneration();
+        } catch (Exception e) {
+            throw new IllegalStateException("Error resetting barrier:  " + e, e);
+        }
+    }
+
+    @Override
+    public synchronized int getNumberWaiting() {
+        try {
+            if (generation == -1) {
+                generation = lookupGeneration();
+            }
+            if (zkClient.exists(getGenerationPath(generation + 1), false) != null) {
+                return 0;
+            }
+            return Math.min(getArrivalCount(generation), parties);
+        } catch (Exception e) {
+            throw new IllegalStateException("Error getting number waiting at barrier:  " + e, e);
+        }
+    }
+
+    /**
+     * Nothing to clean up: a pending watch fires once and is ignored.
+     */
+    @Override
+    public void destroy() {
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    @Override
+    public void process(WatchedEvent event) {
+        switch (event.getType()) {
+        case NodeCreated:
+            synchronized (this) {
+                this.notifyAll();
+            }
+            break;
+
+        case None:
+            // watches survive reconnection: only recheck if session is gone
+            if (event.getState() == Event.KeeperState.Expired) {
+                synchronized (this) {
+                    this.notifyAll();
+                }
+            }
+            break;
+
+        default:
+            logger.trace("Ignoring event:  type={}; path={}", event.getType(), event.getPath());
+        }
+    }
+
+    /**
+     * 
+     * @param generationPath
+     *            of round being waited on
+     * @param nextGenerationPath
+     *            created when round ends
+     * @return data of next generation node; null if deadline passed first
+     */
+    private byte[] waitForGeneration(String generationPath, String nextGenerationPath, long deadline)
+            throws KeeperException, InterruptedException {
+        boolean woken = false;
+        while (zkClient.exists(nextGenerationPath, this) == null) {
+            // parties beyond the number needed per round may have gone through rounds after it and cleaned it up
+            // before we got to look
+            if (woken && zkClient.exists(generationPath, false) == null) {
+                return TRIPPED_DATA;
+            }
+            woken = true;
+
+            if (deadline == -1) {
+                wait();
+            } else {
+                long remainingMillis = deadline - System.currentTimeMillis();
+                if (remainingMillis <= 0) {
+                    return null;
+                }
+                wait(remainingMillis);
+            }
+        }
+        return getGenerationData(nextGenerationPath);
+    }
+
+    /**
+     * 
+     * @return data of generation node: data given if created here, or else data it was created with
+     */
+    private byte[] createGeneration(String generationPath, byte[] data) throws KeeperException, InterruptedException {
+        try {
+            zkClient.create(generationPath, data, aclList, CreateMode.PERSISTENT);
+            logger.debug("Ended round:  generationPath={}; tripped={}", generationPath, isTripped(data));
+            return data;
+        } catch (KeeperException e) {
+            if (e.code() != KeeperException.Code.NODEEXISTS) {
+                throw e;
+            }
+            return getGenerationData(generationPath);
+        }
+    }
+
+    private byte[] getGenerationData(String generationPath) throws KeeperException, InterruptedException {
+        try {
+            return zkClient.getData(generationPath, false, null);
+        } catch (KeeperException e) {
+            if (e.code() != KeeperException.Code.NONODE) {
+                throw e;
+            }
+            // only cleaned up after rounds that followed were tripped
+            return TRIPPED_DATA;
+        }
+    }
+
+    private boolean isTripped(byte[] outcome) {
+        return !Arrays.equals(BROKEN_DATA, outcome);
+    }
+
+    private int getArrivalCount(long generation) throws KeeperException, InterruptedException {
+        try {
+            return zkClient.getChildren(getGenerationPath(generation), false).size();
+        } catch (KeeperException e) {
+            if (e.code() != KeeperException.Code.NONODE) {
+                throw e;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * 
+     * @return latest generation, creating first one if there is none
+     */
+    private long lookupGeneration() throws KeeperException, InterruptedException {
+        long latestGeneration = -1;
+        try {
+            for (String child : zkClient.getChildren(entityPath, false)) {
+                if (child.startsWith(GENERATION_PREFIX)) {
+                    latestGeneration = Math.max(latestGeneration, parseGeneration(child));
+                }
+            }
+        } catch (KeeperException e) {
+            if (e.code() != KeeperException.Code.NONODE) {
+                throw e;
+            }
+        }
+
+        if (latestGeneration == -1) {
+            latestGeneration = 0;
+            zkClientUtil.updatePath(zkClient, pathScheme, getGenerationPath(latestGeneration), new byte[0], aclList,
+                    CreateMode.PERSISTENT, -1);
+        }
+        return latestGeneration;
+    }
+
+    /**
+     * All parties of a round have left the round before it, so rounds before that can go.
+     */
+    private void deleteOldGenerations(long oldestKeptGeneration) {
+        try {
+            for (String child : zkClient.getChildren(entityPath, false)) {
+                if (child.startsWith(GENERATION_PREFIX) && parseGeneration(child) < oldestKeptGeneration) {
+                    String generationPath = pathScheme.joinPaths(entityPath, child);
+                    for (String arrival : zkClient.getChildren(generationPath, false)) {
+                        deleteQuietly(pathScheme.joinPaths(generationPath, arrival));
+                    }
+                    deleteQuietly(generationPath);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to delete old rounds:  " + e + ":  entityPath=" + entityPath, e);
+        }
+    }
+
+    private void deleteQuietly(String path) {
+        try {
+            zkClient.delete(path, -1);
+        } catch (KeeperException e) {
+            if (e.code() != KeeperException.Code.NONODE) {
+                logger.warn("Unable to delete:  " + e + ":  path=" + path, e);
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to delete:  " + e + ":  path=" + path, e);
+        }
+    }
+
+    private String getGenerationPath(long generation) {
+        return pathScheme.joinPaths(entityPath, GENERATION_PREFIX + String.format("%010d", generation));
+    }
+
+    static long parseGeneration(String generationNodeName) {
+        return Long.parseLong(generationNodeName.substring(GENERATION_PREFIX.length()));
+    }
+}
@@ -149,7 +149,7 @@ public class ZkDistributedBarrier implements DistributedBarrier {
                 if (timeout == -1) {
                     wait();
                 } else {
-                    wait(timeUnit.toMicros(timeout));
+                    wait(timeUnit.toMillis(timeout));
                 }
 
                 // see if we got out of wait without meeting barrier conditions
@@ -0,0 +1,266 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package io.reign.coord;
+
+import io.reign.PathScheme;
+import io.reign.ZkClient;
+import io.reign.util.ZkClientUtil;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.ACL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Each candidate holds an ephemeral sequential node under the election entity; the candidate with the lowest sequence
+ * number leads. Candidates watch the node right ahead of theirs and the leader watches its own, so a change only wakes
+ * the candidate it concerns, which re-checks on the executor.
+ * 
+ * @author ypai
+ * 
+ */
+public class ZkLeaderElection implements DistributedLeaderElection, Watcher, Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZkLeaderElection.class);
+
+    /** how long to wait before checking again after an error, e.g. while reconnecting to ZooKeeper */
+    private static final long RETRY_INTERVAL_MILLIS = 5000;
+
+    private final ZkReservationManager zkReservationManager;
+    private final ZkClient zkClient;
+    private final PathScheme pathScheme;
+    private final ZkClientUtil zkUtil = new ZkClientUtil();
+    private final String ownerId;
+    private final String entityPath;
+    private final List<ACL> aclList;
+    private final ScheduledExecutorService executorService;
+
+    private final List<LeadershipListener> listenerList = new CopyOnWriteArrayList<LeadershipListener>();
+
+    private volatile boolean leader = false;
+
+    /** guarded by this; leader is also only updated with monitor held */
+    private boolean started = false;
+    private String candidatePath;
+    private long candidateSequence;
+    private boolean checkScheduled = false;
+
+    /**
+     * 
+     * @param executorService
+     *            to check candidacy on when watches fire; listeners are called from it
+     */
+    ZkLeaderElection(ZkReservationManager zkReservationManager, ZkClient zkClient, PathScheme pathScheme,
+            String ownerId, String entityPath, List<ACL> aclList, ScheduledExecutorService executorService) {
+        this.zkReservationManager = zkReservationManager;
+        this.zkClient = zkClient;
+        this.pathScheme = pathScheme;
+        this.ownerId = ownerId;
+        this.entityPath = entityPath;
+        this.aclList = aclList;
+        this.executorService = executorService;
+    }
+
+    @Override
+    public void start() {
+        synchronized (this) {
+            if (started) {
+                return;
+            }
+            started = true;
+        }
+        scheduleCheck(0);
+    }
+
+    @Override
+    public void stop() {
+        String tmpCandidatePath;
+        synchronized (this) {
+            if (!started) {
+                return;
+            }
+            started = false;
+            tmpCandidatePath = candidatePath;
+            candidatePath = null;
+            updateLeader(false);
+        }
+
+        try {
+            zkReservationManager.relinquish(tmpCandidatePath);
+        } catch (Exception e) {
+            logger.warn("Unable to leave election:  " + e + ":  candidatePath=" + tmpCandidatePath, e);
+        }
+    }
+
+    @Override
+    public boolean isLeader() {
+        return leader;
+    }
+
+    @Override
+    public void addLeadershipListener(LeadershipListener listener) {
+        listenerList.add(listener);
+    }
+
+    @Override
+    public void removeLeadershipListener(LeadershipListener listener) {
+        listenerList.remove(listener);
+    }
+
+    String getEntityPath() {
+        return entityPath;
+    }
+
+    @Override
+    public synchronized void run() {
+        checkScheduled = false;
+        try {
+            Boolean updatedLeader = check();
+            if (updatedLeader != null) {
+                updateLeader(updatedLeader);
+            }
+        } catch (Exception e) {
+            // still a candidate: leadership is kept until session ends, so
+            // just try again
+            logger.warn("Error checking leadership (retrying in " + RETRY_INTERVAL_MILLIS + " ms):  " + e
+                    + ":  entityPath=" + entityPath, e);
+            scheduleCheck(RETRY_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * 
+     * @return whether this process leads; null if no longer a candidate
+     * @throws Exception
+     */
+    private Boolean check() throws Exception {
+        while (started) {
+            if (candidatePath == null) {
+                String candidateData = "{\"ownerId\":\"" + ownerId + "\"}";
+                candidatePath = zkUtil.updatePath(zkClient, pathScheme, CoordServicePathUtil
+                        .getAbsolutePathReservationPrefix(pathScheme, entityPath, ReservationType.LEADER_ELECTION),
+                        candidateData.getBytes("UTF-8"), aclList, CreateMode.EPHEMERAL_SEQUENTIAL, -1);
+                candidateSequence = Reservation.parseSequence(candidatePath.substring(candidatePath
+                        .lastIndexOf('/') + 1));
+                logger.debug("Joined election:  ownerId={}; candidatePath={}", ownerId, candidatePath);
+            }
+
+            List<String> candidateList = zkClient.getChildren(entityPath, false);
+            ReservationIndex candidateIndex = zkReservationManager.getReservationIndex(entityPath, candidateList,
+                    null);
+
+            int position = candidateIndex.positionOf(candidateSequence);
+            if (position == -1) {
+                // removed with an expired session or from outside of
+                // framework: get in line again
+                logger.info("Candidate node no longer exists:  joining again:  candidatePath={}", candidatePath);
+                candidatePath = null;
+                continue;
+            }
+
+            if (position == 0) {
+                // watch own node so we find out if it goes away
+                if (zkClient.exists(candidatePath, this) == null) {
+                    continue;
+                }
+                return true;
+            }
+
+            // watch the candidate right ahead of us
+            String candidateAheadPath = pathScheme.joinPaths(entityPath, candidateIndex.get(position - 1).getName());
+            if (zkClient.exists(candidateAheadPath, this) == null) {
+                continue;
+            }
+            return false;
+        }
+
+        return null;
+    }
+
+    /**
+     * Called with monitor held, so that listeners see changes in order.
+     */
+    private void updateLeader(boolean updatedLeader) {
+        if (leader == updatedLeader) {
+            return;
+        }
+        leader = updatedLeader;
+
+        logger.info("Leadership changed:  ownerId={}; entityPath={}; leader={}", new Object[] { ownerId, entityPath,
+                updatedLeader });
+        for (LeadershipListener listener : listenerList) {
+            try {
+                if (updatedLeader) {
+                    listener.leadershipAcquired(this);
+                } else {
+                    listener.leadershipLost(this);
+                }
+            } catch (Exception e) {
+                logger.warn("Error notifying leadership listener:  " + e + ":  entityPath=" + entityPath, e);
+            }
+        }
+    }
+
+    private void scheduleCheck(long delayMillis) {
+        synchronized (this) {
+            if (checkScheduled || !started) {
+                return;
+            }
+            checkScheduled = true;
+        }
+        try {
+            executorService.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Not checking leadership:  executor shut down:  entityPath={}", entityPath);
+        }
+    }
+
+    @Override
+    public void process(WatchedEvent event) {
+        switch (event.getType()) {
+        case NodeCreated:
+        case NodeChildrenChanged:
+        case NodeDataChanged:
+        case NodeDeleted:
+            scheduleCheck(0);
+            break;
+
+        case None:
+            if (event.getState() == Event.KeeperState.Expired) {
+                // candidate node went away with session: someone else may
+                // already be leader
+                synchronized (this) {
+                    candidatePath = null;
+                    updateLeader(false);
+                }
+                scheduleCheck(0);
+            }
+            break;
+
+        default:
+            logger.warn("Unhandled event type:  type={}; path={}", event.getType(), event.getPath());
+        }
+    }
+}
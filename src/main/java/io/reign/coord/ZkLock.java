@@ -72,6 +72,7 @@ public class ZkLock implements DistributedLock {
     public void revoke(String reservationId) {
         if (reservationId != null && reservationId.equals(acquiredLockPath)) {
             acquiredLockPath = null;
+            zkReservationManager.revoked(reservationId);
         }
     }
 
@@ -0,0 +1,59 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package io.reign.coord;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Holds one {@link ZkReentrantLock} per entity, each taking over a reservation made in the same transaction.
+ * 
+ * @author ypai
+ * 
+ */
+public class ZkMultiLock implements DistributedMultiLock {
+
+    private final List<DistributedReentrantLock> lockList;
+
+    private final long acquisitionMillis;
+
+    ZkMultiLock(List<? extends DistributedReentrantLock> lockList, long acquisitionMillis) {
+        this.lockList = Collections.unmodifiableList(new ArrayList<DistributedReentrantLock>(lockList));
+        this.acquisitionMillis = acquisitionMillis;
+    }
+
+    @Override
+    public List<DistributedReentrantLock> getLocks() {
+        return lockList;
+    }
+
+    @Override
+    public void unlock() {
+        // release in reverse order of acquisition
+        for (int i = lockList.size() - 1; i >= 0; i--) {
+            lockList.get(i).unlock();
+        }
+    }
+
+    @Override
+    public long getAcquisitionMillis() {
+        return acquisitionMillis;
+    }
+
+}
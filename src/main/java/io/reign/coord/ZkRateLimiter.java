@@ -0,0 +1,434 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package io.reign.coord;
+
+import io.reign.PathScheme;
+import io.reign.ZkClient;
+import io.reign.presence.PresenceService;
+import io.reign.presence.ServiceInfo;
+import io.reign.util.ZkClientUtil;
+
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Token bucket refilled once a second. The budget for the current second is kept as data of the entity node,
+ * "&lt;second&gt;:&lt;permits claimed&gt;:&lt;claim tokens&gt;", and nodes claim allotments from it with setData()
+ * conditioned on the version read. Claim tokens are random tokens of the most recent claims: the ZkClient retries
+ * setData() after a connection loss, and the retry fails with BADVERSION if the first attempt went through, so a claim
+ * that fails looks for its token before claiming again. An allotment is the budget divided by the number of nodes
+ * announced for the service in presence data, so the budget is spread across nodes and each node claims about once a
+ * second.
+ * 
+ * Permits are taken from the local allotment only; claims are made on an executor when the allotment runs low and at
+ * the start of each second if permits were asked for in the previous one. Permits left at the end of a second are
+ * dropped. Seconds are told apart by local clocks, so nodes are assumed to have synchronized clocks.
+ * 
+ * @author ypai
+ * 
+ */
+public class ZkRateLimiter implements DistributedRateLimiter, Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZkRateLimiter.class);
+
+    private static final long WINDOW_MILLIS = 1000;
+
+    /** number of recent claim tokens kept with budget */
+    static final int CLAIM_TOKEN_HISTORY_SIZE = 16;
+
+    private static final Random random = new Random();
+
+    private final ZkClient zkClient;
+    private final PathScheme pathScheme;
+    private final ZkClientUtil zkUtil = new ZkClientUtil();
+    private final PresenceService presenceService;
+    private final String clusterId;
+    private final String serviceId;
+    private final String entityPath;
+    private final int permitsPerSecond;
+    private final List<ACL> aclList;
+    private final ScheduledExecutorService executorService;
+
+    private volatile Allotment allotment = new Allotment(-1, 0);
+
+    /** permits claimed at a time */
+    private volatile int allotmentSize;
+
+    /** last window permits were asked for in */
+    private volatile long demandWindow = -1;
+
+    /** window shared budget ran out in: no more claims until next one */
+    private volatile long exhaustedWindow = -1;
+
+    private final AtomicBoolean claimScheduled = new AtomicBoolean(false);
+
+    private volatile boolean destroyed = false;
+
+    /** guarded by this */
+    private ScheduledFuture<?> prefetchFuture;
+
+    /**
+     * 
+     * @param presenceService
+     *            to size allotments by number of nodes in service; null to claim whole budget at a time
+     * @param executorService
+     *            to claim permits on
+     */
+    ZkRateLimiter(ZkClient zkClient, PathScheme pathScheme, PresenceService presenceService, String clusterId,
+            String serviceId, String entityPath, int permitsPerSecond, List<ACL> aclList,
+            ScheduledExecutorService executorService) {
+        if (permitsPerSecond < 1) {
+            throw new IllegalArgumentException("permitsPerSecond must be >= 1!");
+        }
+
+        this.zkClient = zkClient;
+        this.pathScheme = pathScheme;
+        this.presenceService = presenceService;
+        this.clusterId = clusterId;
+        this.serviceId = serviceId;
+        this.entityPath = entityPath;
+        this.permitsPerSecond = permitsPerSecond;
+        this.aclList = aclList;
+        this.executorService = executorService;
+        this.allotmentSize = permitsPerSecond;
+    }
+
+    /**
+     * Start prefetching at the start of each second.
+     */
+    synchronized void start() {
+        if (prefetchFuture != null || destroyed) {
+            return;
+        }
+
+        updateAllotmentSize();
+        prefetchFuture = executorService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                updateAllotmentSize();
+                if (demandWindow >= currentWindow() - 1) {
+                    scheduleClaim();
+                }
+            }
+        }, WINDOW_MILLIS - System.currentTimeMillis() % WINDOW_MILLIS, WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void destroy() {
+        destroyed = true;
+        if (prefetchFuture != null) {
+            prefetchFuture.cancel(false);
+        }
+        allotment = new Allotment(-1, 0);
+    }
+
+    boolean isDestroyed() {
+        return destroyed;
+    }
+
+    @Override
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    @Override
+    public boolean tryAcquire(int permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be >= 1!");
+        }
+
+        long window = currentWindow();
+        demandWindow = window;
+
+        Allotment tmpAllotment = allotment;
+        if (tmpAllotment.window == window) {
+            while (true) {
+                long remaining = tmpAllotment.remaining.get();
+                if (remaining < permits) {
+                    break;
+                }
+                if (tmpAllotment.remaining.compareAndSet(remaining, remaining - permits)) {
+                    if (remaining - permits < allotmentSize / 2) {
+                        scheduleClaim();
+                    }
+                    return true;
+                }
+            }
+        }
+
+        scheduleClaim();
+        return false;
+    }
+
+    @Override
+    public int getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    String getServiceId() {
+        return serviceId;
+    }
+
+    @Override
+    public void run() {
+        try {
+            claim();
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while claiming permits:  " + e + ":  entityPath=" + entityPath, e);
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("Error trying to claim permits:  " + e + ":  entityPath=" + entityPath, e);
+        } finally {
+            claimScheduled.set(false);
+        }
+    }
+
+    /**
+     * Claim an allotment for the current window, unless local allotment is still at least half full. Only called from
+     * one thread at a time, so allotment is only replaced here.
+     */
+    void claim() throws KeeperException, InterruptedException {
+        long window = currentWindow();
+        Allotment tmpAllotment = allotment;
+        int tmpAllotmentSize = allotmentSize;
+        if (tmpAllotment.window == window && tmpAllotment.remaining.get() >= tmpAllotmentSize / 2) {
+            return;
+        }
+
+        long claimed = claimFromBudget(window, tmpAllotmentSize);
+        if (claimed < 1) {
+            exhaustedWindow = window;
+            logger.debug("Budget used up:  entityPath={}; window={}", entityPath, window);
+            return;
+        }
+
+        synchronized (this) {
+            if (destroyed) {
+                return;
+            }
+            if (tmpAllotment.window == window) {
+                tmpAllotment.remaining.addAndGet(claimed);
+            } else {
+                allotment = new Allotment(window, claimed);
+            }
+        }
+        logger.trace("Claimed permits:  entityPath={}; window={}; claimed={}", new Object[] { entityPath, window,
+                claimed });
+    }
+
+    /**
+     * 
+     * @param window
+     * @param wanted
+     * @return permits claimed from shared budget for window; 0 if none are left
+     */
+    long claimFromBudget(long window, int wanted) throws KeeperException, InterruptedException {
+        Stat stat = new Stat();
+
+        // claim that failed, but may have gone through on an attempt before
+        // a connection loss
+        String pendingClaimToken = null;
+        long pendingClaimed = 0;
+        while (true) {
+            byte[] bytes;
+            try {
+                bytes = zkClient.getData(entityPath, false, stat);
+            } catch (KeeperException e) {
+                if (e.code() != KeeperException.Code.NONODE) {
+                    throw e;
+                }
+                create();
+                continue;
+            }
+
+            long budgetWindow = -1;
+            long budgetClaimed = 0;
+            String claimTokens = "";
+            String[] budget = fromBytes(bytes).split(":", 3);
+            if (budget.length > 1) {
+                budgetWindow = Long.parseLong(budget[0]);
+                budgetClaimed = Long.parseLong(budget[1]);
+            }
+            if (budget.length > 2) {
+                claimTokens = budget[2];
+            }
+            if (pendingClaimToken != null && isClaimed(claimTokens, pendingClaimToken)) {
+                return pendingClaimed;
+            }
+            if (budgetWindow > window) {
+                // our clock is behind
+                return 0;
+            }
+            if (budgetWindow < window) {
+                budgetClaimed = 0;
+            }
+
+            long claimed = Math.min(wanted, permitsPerSecond - budgetClaimed);
+            if (claimed < 1) {
+                return 0;
+            }
+
+            String claimToken = Long.toString(random.nextLong(), Character.MAX_RADIX);
+            try {
+                zkClient.setData(entityPath, toBytes(window + ":" + (budgetClaimed + claimed) + ":"
+                        + addClaimToken(claimTokens, claimToken)), stat.getVersion());
+                return claimed;
+            } catch (KeeperException e) {
+                if (e.code() != KeeperException.Code.BADVERSION && e.code() != KeeperException.Code.NONODE) {
+                    throw e;
+                }
+                pendingClaimToken = claimToken;
+                pendingClaimed = claimed;
+                logger.trace("Budget changed since read:  retrying:  entityPath={}", entityPath);
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param claimTokens
+     *            comma-separated tokens of most recent claims, most recent first
+     * @param claimToken
+     * @return claimTokens with claimToken added and oldest token(s) dropped as necessary
+     */
+    static String addClaimToken(String claimTokens, String claimToken) {
+        StringBuilder sb = new StringBuilder(claimToken);
+        int tokenCount = 1;
+        for (String token : claimTokens.split(",")) {
+            if (tokenCount >= CLAIM_TOKEN_HISTORY_SIZE) {
+                break;
+            }
+            if (token.length() > 0) {
+                sb.append(',').append(token);
+                tokenCount++;
+            }
+        }
+        return sb.toString();
+    }
+
+    static boolean isClaimed(String claimTokens, String claimToken) {
+        for (String token : claimTokens.split(",")) {
+            if (token.equals(claimToken)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void create() throws KeeperException, InterruptedException {
+        try {
+            zkClient.create(entityPath, new byte[0], aclList, CreateMode.PERSISTENT);
+        } catch (KeeperException e) {
+            if (e.code() == KeeperException.Code.NONODE) {
+                // build parents first, then try again: another process may
+                // have created and updated node in the meantime
+                zkUtil.buildParentPath(zkClient, pathScheme, entityPath, aclList);
+                try {
+                    zkClient.create(entityPath, new byte[0], aclList, CreateMode.PERSISTENT);
+                } catch (KeeperException e2) {
+                    if (e2.code() != KeeperException.Code.NODEEXISTS) {
+                        throw e2;
+                    }
+                }
+            } else if (e.code() != KeeperException.Code.NODEEXISTS) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Rebalance allotments across nodes announced for service.
+     */
+    void updateAllotmentSize() {
+        int nodeCount = 1;
+        if (presenceService != null) {
+            try {
+                ServiceInfo serviceInfo = presenceService.getServiceInfo(clusterId, serviceId);
+                if (serviceInfo != null && serviceInfo.getNodeIdList() != null
+                        && serviceInfo.getNodeIdList().size() > 0) {
+                    nodeCount = serviceInfo.getNodeIdList().size();
+                }
+            } catch (Exception e) {
+                logger.warn("Error trying to get service nodes:  " + e + ":  clusterId=" + clusterId + "; serviceId="
+                        + serviceId, e);
+                return;
+            }
+        }
+        allotmentSize = Math.max(1, (permitsPerSecond + nodeCount - 1) / nodeCount);
+    }
+
+    int getAllotmentSize() {
+        return allotmentSize;
+    }
+
+    private void scheduleClaim() {
+        if (destroyed || exhaustedWindow == currentWindow() || !claimScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executorService.execute(this);
+        } catch (RejectedExecutionException e) {
+            claimScheduled.set(false);
+            logger.debug("Could not schedule claim:  " + e + ":  entityPath={}", entityPath);
+        }
+    }
+
+    private static long currentWindow() {
+        return System.currentTimeMillis() / WINDOW_MILLIS;
+    }
+
+    private static byte[] toBytes(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String fromBytes(byte[] bytes) {
+        try {
+            return bytes == null ? "" : new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Allotment {
+        private final long window;
+        private final AtomicLong remaining;
+
+        Allotment(long window, long remaining) {
+            this.window = window;
+            this.remaining = new AtomicLong(remaining);
+        }
+    }
+}
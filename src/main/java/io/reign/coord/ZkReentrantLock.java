@@ -40,18 +40,53 @@ public class ZkReentrantLock implements DistributedReentrantLock {
     private final ReservationType reservationType;
     private final List<ACL> aclList;
 
+    /** null if this lock gets its own reservation in ZooKeeper; replaced if forgotten while not in use */
+    private volatile SharedReservation sharedReservation;
+
+    /** null if this lock gets its own reservation in ZooKeeper; replaced if forgotten while not in use */
+    private volatile SharedReadReservation sharedReadReservation;
+
     private volatile String acquiredLockPath;
 
     private final AtomicInteger holdCount = new AtomicInteger(0);
 
     public ZkReentrantLock(ZkReservationManager zkReservationManager, String ownerId, String entityPath,
             ReservationType reservationType, List<ACL> aclList) {
+        this(zkReservationManager, ownerId, entityPath, reservationType, aclList, null, null);
+    }
+
+    /**
+     * 
+     * @param sharedReservation
+     *            reservation to share with other local contenders for entity; null to get own reservation
+     */
+    ZkReentrantLock(ZkReservationManager zkReservationManager, String ownerId, String entityPath,
+            ReservationType reservationType, List<ACL> aclList, SharedReservation sharedReservation) {
+        this(zkReservationManager, ownerId, entityPath, reservationType, aclList, sharedReservation, null);
+    }
+
+    /**
+     * 
+     * @param sharedReadReservation
+     *            read reservation to share with other local readers of entity
+     */
+    ZkReentrantLock(ZkReservationManager zkReservationManager, String ownerId, String entityPath,
+            List<ACL> aclList, SharedReadReservation sharedReadReservation) {
+        this(zkReservationManager, ownerId, entityPath, ReservationType.LOCK_SHARED, aclList, null,
+                sharedReadReservation);
+    }
+
+    private ZkReentrantLock(ZkReservationManager zkReservationManager, String ownerId, String entityPath,
+            ReservationType reservationType, List<ACL> aclList, SharedReservation sharedReservation,
+            SharedReadReservation sharedReadReservation) {
         super();
         this.zkReservationManager = zkReservationManager;
         this.ownerId = ownerId;
         this.entityPath = entityPath;
         this.reservationType = reservationType;
         this.aclList = aclList;
+        this.sharedReservation = sharedReservation;
+        this.sharedReadReservation = sharedReadReservation;
     }
 
     @Override
@@ -64,6 +99,12 @@ public class ZkReentrantLock implements DistributedReentrantLock {
     public void revoke(String reservationId) {
         if (reservationId != null && reservationId.equals(acquiredLockPath)) {
             acquiredLockPath = null;
+            zkReservationManager.revoked(reservationId);
+            if (sharedReservation != null) {
+                sharedReservation.revoke(reservationId);
+            } else if (sharedReadReservation != null) {
+                sharedReadReservation.revoke(reservationId);
+            }
         }
     }
 
@@ -86,8 +127,7 @@ public class ZkReentrantLock implements DistributedReentrantLock {
     public void lock() {
         if (acquiredLockPath == null) {
             try {
-                acquiredLockPath = zkReservationManager.acquire(ownerId, entityPath, reservationType, aclList, -1,
-                        false);
+                acquiredLockPath = acquireReservation(-1, false);
                 holdCount.incrementAndGet();
             } catch (InterruptedException e) {
                 logger.warn("Interrupted in lock():  should not happen:  " + e, e);
@@ -106,7 +146,7 @@ public class ZkReentrantLock implements DistributedReentrantLock {
     @Override
     public void lockInterruptibly() throws InterruptedException {
         if (acquiredLockPath == null) {
-            acquiredLockPath = zkReservationManager.acquire(ownerId, entityPath, reservationType, aclList, -1, true);
+            acquiredLockPath = acquireReservation(-1, true);
         }
 
         holdCount.incrementAndGet();
@@ -140,8 +180,7 @@ public class ZkReentrantLock implements DistributedReentrantLock {
     public boolean tryLock() {
         try {
             if (acquiredLockPath == null) {
-                acquiredLockPath = zkReservationManager
-                        .acquire(ownerId, entityPath, reservationType, aclList, 0, false);
+                acquiredLockPath = acquireReservation(0, false);
             }
             if (acquiredLockPath != null) {
                 holdCount.incrementAndGet();
@@ -164,8 +203,7 @@ public class ZkReentrantLock implements DistributedReentrantLock {
             long timeWaitMillis = timeUnit.toMicros(wait);
 
             // attempt to acquire lock
-            acquiredLockPath = zkReservationManager.acquire(ownerId, entityPath, reservationType, aclList,
-                    timeWaitMillis, true);
+            acquiredLockPath = acquireReservation(timeWaitMillis, true);
 
             if (acquiredLockPath != null) {
                 holdCount.incrementAndGet();
@@ -189,7 +227,7 @@ public class ZkReentrantLock implements DistributedReentrantLock {
 
             String tmpAcquiredLockPath = acquiredLockPath;
             acquiredLockPath = null;
-            if (!zkReservationManager.relinquish(tmpAcquiredLockPath)) {
+            if (!relinquishReservation(tmpAcquiredLockPath)) {
                 acquiredLockPath = tmpAcquiredLockPath;
                 holdCount.incrementAndGet();
             } else {
@@ -200,4 +238,45 @@ public class ZkReentrantLock implements DistributedReentrantLock {
         }
     }
 
+    private String acquireReservation(long waitTimeoutMs, boolean interruptible) throws InterruptedException {
+        if (sharedReservation != null) {
+            // other local contenders may have moved on to another one since this lock last used it
+            sharedReservation = zkReservationManager.getSharedReservation(sharedReservation);
+            return sharedReservation.acquire(this, ownerId, aclList, waitTimeoutMs, interruptible);
+        } else if (sharedReadReservation != null) {
+            sharedReadReservation = zkReservationManager.getSharedReadReservation(sharedReadReservation);
+            return sharedReadReservation.acquire(this, ownerId, aclList, waitTimeoutMs, interruptible);
+        }
+        return zkReservationManager.acquire(ownerId, entityPath, reservationType, aclList, waitTimeoutMs,
+                interruptible);
+    }
+
+    private boolean relinquishReservation(String reservationPath) {
+        if (sharedReservation != null) {
+            return sharedReservation.release(this);
+        } else if (sharedReadReservation != null) {
+            return sharedReadReservation.release(this);
+        }
+        return zkReservationManager.relinquish(reservationPath);
+    }
+
+    /**
+     * Take over a reservation acquired for this lock without calling lock(), as if lock() had been called once.
+     * 
+     * @param reservationPath
+     *            path of granted reservation
+     */
+    void acquired(String reservationPath) {
+        acquiredLockPath = reservationPath;
+        holdCount.incrementAndGet();
+    }
+
+    SharedReservation getSharedReservation() {
+        return sharedReservation;
+    }
+
+    SharedReadReservation getSharedReadReservation() {
+        return sharedReadReservation;
+    }
+
 }
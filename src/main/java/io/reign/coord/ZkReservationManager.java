@@ -20,17 +20,30 @@ import io.reign.PathScheme;
 import io.reign.ZkClient;
 import io.reign.util.ZkClientUtil;
 
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
 /**
  * Contains basic functionality for creating Lock/Semaphore functionality using ZooKeeper.
  * 
@@ -41,7 +54,6 @@ class ZkReservationManager {
 
 	private static final Logger logger = LoggerFactory.getLogger(ZkReservationManager.class);
 
-	private final Comparator<String> lockReservationComparator = new LockReservationComparator("_");
 	private final ZkClient zkClient;
 	private final PathScheme pathScheme;
 	private final ZkClientUtil zkUtil = new ZkClientUtil();
@@ -51,18 +63,51 @@ class ZkReservationManager {
 
 	private final CoordinationServiceCache coordinationServiceCache;
 
+	/** contention metrics for lock and semaphore entities */
+	private final ReservationMetrics reservationMetrics;
+
+	/**
+	 * sorted reservations by entity path: reused as is while the entity's child list version is unchanged and
+	 * otherwise updated incrementally
+	 */
+	private final ConcurrentMap<String, ReservationIndex> reservationIndexMap = new ConcurrentHashMap<String, ReservationIndex>(
+	        16, 0.9f, 2);
+
+	/** reservations shared by local contenders, by entity path and reservation type */
+	private final ConcurrentMap<String, SharedReservation> sharedReservationMap = new ConcurrentHashMap<String, SharedReservation>(
+	        16, 0.9f, 2);
+
+	/** read reservations shared by local readers, by entity path */
+	private final ConcurrentMap<String, SharedReadReservation> sharedReadReservationMap = new ConcurrentHashMap<String, SharedReadReservation>(
+	        16, 0.9f, 2);
+
 	ZkReservationManager(ZkClient zkClient, PathScheme pathScheme, CoordinationServiceCache coordinationServiceCache) {
+		this(zkClient, pathScheme, coordinationServiceCache, new ReservationMetrics(new MetricRegistry(), pathScheme,
+		        ReservationMetrics.DEFAULT_MAX_ENTITIES));
+	}
+
+	ZkReservationManager(ZkClient zkClient, PathScheme pathScheme, CoordinationServiceCache coordinationServiceCache,
+	        ReservationMetrics reservationMetrics) {
 		super();
 		this.zkClient = zkClient;
 		this.pathScheme = pathScheme;
 		// this.pathCache = pathCache;
 		this.coordinationServiceCache = coordinationServiceCache;
+		this.reservationMetrics = reservationMetrics;
 	}
 
 	public void shutdown() {
 		this.shutdown = true;
 	}
 
+	boolean isShutdown() {
+		return shutdown;
+	}
+
+	ReservationMetrics getReservationMetrics() {
+		return reservationMetrics;
+	}
+
 	public void destroySemaphore(String entityPath, DistributedSemaphore semaphore, PermitPoolSize permitPoolSize) {
 		semaphore.release(Integer.MAX_VALUE);
 		coordinationServiceCache.removeSemaphore(entityPath, semaphore);
@@ -74,10 +119,161 @@ class ZkReservationManager {
 		coordinationServiceCache.removeLock(entityPath, reservationType, lock);
 	}
 
+	/**
+	 * 
+	 * @param entityPath
+	 * @param reservationType
+	 * @param maxLocalHandoffs
+	 *            used only if shared reservation does not exist yet
+	 * @param lazyReleaseMillis
+	 *            used only if shared reservation does not exist yet; -1 to not release lazily
+	 * @param executorService
+	 *            to time out idle reservations with; may be null if not releasing lazily
+	 * @return reservation shared by all local contenders for entity
+	 */
+	SharedReservation getSharedReservation(String entityPath, ReservationType reservationType, int maxLocalHandoffs,
+	        long lazyReleaseMillis, ScheduledExecutorService executorService) {
+		String key = entityPath + "#" + reservationType;
+		SharedReservation sharedReservation = sharedReservationMap.get(key);
+		if (sharedReservation == null) {
+			sharedReservation = new SharedReservation(this, entityPath, reservationType, maxLocalHandoffs,
+			        lazyReleaseMillis, zkClient, executorService);
+			SharedReservation existing = sharedReservationMap.putIfAbsent(key, sharedReservation);
+			if (existing != null) {
+				sharedReservation = existing;
+			}
+		}
+		return sharedReservation;
+	}
+
+	/**
+	 * Shared reservations are forgotten once no local contender is using them, so that the map does not grow with
+	 * every entity ever locked: lock objects that outlive theirs pick up the one in use now through this method.
+	 * 
+	 * @param sharedReservation
+	 *            reservation previously returned for entity
+	 * @return reservation shared by all local contenders for entity: given one if it is still in use or none is
+	 */
+	SharedReservation getSharedReservation(SharedReservation sharedReservation) {
+		String key = sharedReservation.getEntityPath() + "#" + sharedReservation.getReservationType();
+		SharedReservation existing = sharedReservationMap.putIfAbsent(key, sharedReservation);
+		return existing != null ? existing : sharedReservation;
+	}
+
+	/**
+	 * Forget shared reservation no local contender is using; a lock object that still refers to it puts it back on
+	 * next acquisition.
+	 * 
+	 * @param sharedReservation
+	 */
+	void forgetSharedReservation(SharedReservation sharedReservation) {
+		String key = sharedReservation.getEntityPath() + "#" + sharedReservation.getReservationType();
+		sharedReservationMap.remove(key, sharedReservation);
+	}
+
+	int getSharedReservationCount() {
+		return sharedReservationMap.size();
+	}
+
+	/**
+	 * 
+	 * @param entityPath
+	 * @param executorService
+	 *            to check for waiting writers on when watches fire
+	 * @return read reservation shared by all local readers of entity
+	 */
+	SharedReadReservation getSharedReadReservation(String entityPath, ScheduledExecutorService executorService) {
+		SharedReadReservation sharedReadReservation = sharedReadReservationMap.get(entityPath);
+		if (sharedReadReservation == null) {
+			sharedReadReservation = new SharedReadReservation(this, entityPath, zkClient, executorService);
+			SharedReadReservation existing = sharedReadReservationMap.putIfAbsent(entityPath, sharedReadReservation);
+			if (existing != null) {
+				sharedReadReservation = existing;
+			}
+		}
+		return sharedReadReservation;
+	}
+
+	/**
+	 * See {@link #getSharedReservation(SharedReservation)}.
+	 * 
+	 * @param sharedReadReservation
+	 *            read reservation previously returned for entity
+	 * @return read reservation shared by all local readers of entity: given one if it is still in use or none is
+	 */
+	SharedReadReservation getSharedReadReservation(SharedReadReservation sharedReadReservation) {
+		SharedReadReservation existing = sharedReadReservationMap.putIfAbsent(sharedReadReservation.getEntityPath(),
+		        sharedReadReservation);
+		return existing != null ? existing : sharedReadReservation;
+	}
+
+	/**
+	 * Forget read reservation no local reader is using.
+	 * 
+	 * @param sharedReadReservation
+	 */
+	void forgetSharedReadReservation(SharedReadReservation sharedReadReservation) {
+		sharedReadReservationMap.remove(sharedReadReservation.getEntityPath(), sharedReadReservation);
+	}
+
+	int getSharedReadReservationCount() {
+		return sharedReadReservationMap.size();
+	}
+
 	public List<String> getSortedReservationList(String entityPath) {
-		List<String> list = getReservationList(entityPath);
-		Collections.sort(list, lockReservationComparator);
-		return list;
+		try {
+			Stat entityStat = new Stat();
+			List<String> lockReservationList = zkClient.getChildren(entityPath, true, entityStat);
+			return getReservationIndex(entityPath, lockReservationList, entityStat).getNameList();
+		} catch (Exception e) {
+			throw new IllegalStateException("Error trying to get reservation list:  " + e + ": entityPath="
+			        + entityPath, e);
+		}
+	}
+
+	/**
+	 * 
+	 * @param entityPath
+	 * @param lockReservationList
+	 *            reservations currently under entity
+	 * @param entityStat
+	 *            stat of entity when lockReservationList was read; null if unknown
+	 * @return sorted reservations
+	 */
+	ReservationIndex getReservationIndex(String entityPath, List<String> lockReservationList, Stat entityStat) {
+		long czxid = entityStat != null ? entityStat.getCzxid() : -1;
+		long cversion = entityStat != null ? entityStat.getCversion() : -1;
+
+		ReservationIndex previous = reservationIndexMap.get(entityPath);
+		if (previous == null) {
+			previous = ReservationIndex.EMPTY;
+		} else if (previous.isVersion(czxid, cversion)) {
+			return previous;
+		}
+
+		ReservationIndex updated = ReservationIndex.update(previous, lockReservationList, czxid, cversion);
+		if (updated.size() > 0) {
+			reservationIndexMap.put(entityPath, updated);
+		} else {
+			reservationIndexMap.remove(entityPath);
+		}
+		return updated;
+	}
+
+	/**
+	 * 
+	 * @param entityPath
+	 * @return total permits of all reservations under entity, whether granted or waiting
+	 */
+	public long getReservedPermits(String entityPath) {
+		try {
+			Stat entityStat = new Stat();
+			List<String> lockReservationList = zkClient.getChildren(entityPath, true, entityStat);
+			return getReservationIndex(entityPath, lockReservationList, entityStat).getTotalPermits();
+		} catch (Exception e) {
+			throw new IllegalStateException("Error trying to get reservation list:  " + e + ": entityPath="
+			        + entityPath, e);
+		}
 	}
 
 	public List<String> getReservationList(String entityPath) {
@@ -129,6 +325,7 @@ class ZkReservationManager {
 
 			// path token (last part of path)
 			String lockReservation = lockReservationPath.substring(lockReservationPath.lastIndexOf('/') + 1);
+			long lockReservationSequence = Reservation.parseSequence(lockReservation);
 
 			// create lock watcher for wait/notify
 			if (logger.isDebugEnabled()) {
@@ -138,51 +335,43 @@ class ZkReservationManager {
 
 			String acquiredPath = null;
 			ZkLockWatcher lockReservationWatcher = null;
+			boolean reservedRecorded = false;
 			do {
 				try {
 					/** attempt to acquire lock **/
-					// get lock reservation list without watch
-					List<String> lockReservationList = zkClient.getChildren(entityPath, true);
+					// get lock reservation list with default watch
+					Stat entityStat = new Stat();
+					List<String> lockReservationList = zkClient.getChildren(entityPath, true, entityStat);
 
-					// sort child list
-					Collections.sort(lockReservationList, lockReservationComparator);
+					// sorted reservations: only re-sorted if child list changed
+					ReservationIndex reservationIndex = getReservationIndex(entityPath, lockReservationList,
+					        entityStat);
 
 					logger.debug(
 					        "Checking acquisition status:  entityPath={}; lockReservation={}; lockReservationList={}",
-					        entityPath, lockReservation, lockReservationList);
-
-					// loop through children and see if we have the lock
-					String reservationAheadPath = null;
-					boolean exclusiveReservationEncountered = false;
-					for (int i = 0; i < lockReservationList.size(); i++) {
-						String currentReservation = lockReservationList.get(i);
-
-						// see if we have the lock
-						if (lockReservation.equals(currentReservation)) {
-							// see if we are able to acquire lock immediately
-							if (i == 0 || (!reservationType.isExclusive() && !exclusiveReservationEncountered)) {
-								acquiredPath = lockReservationPath;
-								break;
-							}
+					        entityPath, lockReservation, reservationIndex);
 
-							// if reservationAheadPath is null and set the one
-							// ahead of this reservation so we can
-							// watch if we do not acquire
-							// Check if it's null in case we plan to watch an
-							// exclusive lock reservation
-							if (reservationAheadPath == null) {
-								reservationAheadPath = pathScheme.joinPaths(entityPath, lockReservationList.get(i - 1));
-							}
-							break;
-						}
+					int position = reservationIndex.positionOf(lockReservationSequence);
+					if (position == -1) {
+						throw new IllegalStateException("Reservation no longer exists:  lockReservationPath="
+						        + lockReservationPath);
+					}
+					if (!reservedRecorded) {
+						reservationMetrics.reserved(entityPath, position);
+						reservedRecorded = true;
+					}
 
-						// Check if it's an exclusive lock reservation: set the
-						// exclusiveReservationEncountered flag and
-						// update the reservationAheadPath
-						if (ReservationType.isExclusive(currentReservation)) {
-							exclusiveReservationEncountered = true;
-							reservationAheadPath = pathScheme.joinPaths(entityPath, currentReservation);
-						}
+					// see if we are able to acquire lock immediately: if
+					// not, watch the last exclusive reservation ahead of this
+					// one, or else the one right ahead of it
+					String reservationAheadPath = null;
+					int exclusiveAheadPosition = reservationIndex.getExclusiveAheadPosition(position);
+					if (position == 0 || (!reservationType.isExclusive() && exclusiveAheadPosition == -1)) {
+						acquiredPath = lockReservationPath;
+					} else {
+						reservationAheadPath = pathScheme.joinPaths(entityPath,
+						        reservationIndex.get(exclusiveAheadPosition != -1 ? exclusiveAheadPosition
+						                : position - 1).getName());
 					}
 
 					/** see if we acquired lock **/
@@ -214,6 +403,9 @@ class ZkReservationManager {
 						// lock observers
 						zkClient.exists(acquiredPath, true);
 
+						reservationMetrics.acquired(entityPath, acquiredPath, System.currentTimeMillis()
+						        - startTimestamp);
+
 						break;
 					}
 				} catch (InterruptedException e) {
@@ -236,6 +428,9 @@ class ZkReservationManager {
 
 			// log if not acquired
 			if (acquiredPath == null) {
+				if (!this.shutdown) {
+					reservationMetrics.timedOut(entityPath);
+				}
 				boolean relinquishedLockReservationPath = this.relinquish(lockReservationPath);
 				if (!relinquishedLockReservationPath) {
 					logger.error(
@@ -277,10 +472,37 @@ class ZkReservationManager {
 	public String acquireForSemaphore(String ownerId, String entityPath, ReservationType reservationType,
 	        int totalAvailable, List<ACL> aclList, long waitTimeoutMs, boolean interruptible)
 	        throws InterruptedException {
+		return acquireForSemaphore(ownerId, entityPath, reservationType, 1, totalAvailable, aclList, waitTimeoutMs,
+		        interruptible);
+	}
+
+	/**
+	 * Acquire a number of permits with a single reservation: the reservation is granted once the permits of all
+	 * reservations ahead of it plus its own fit within totalAvailable.
+	 * 
+	 * @param ownerId
+	 * @param entityPath
+	 * @param reservationType
+	 * @param permits
+	 *            number of permits reservation stands for
+	 * @param totalAvailable
+	 * @param aclList
+	 * @param waitTimeoutMs
+	 * @param interruptible
+	 * @return path of reservation for all permits; null if not acquired
+	 * @throws InterruptedException
+	 */
+	public String acquireForSemaphore(String ownerId, String entityPath, ReservationType reservationType,
+	        int permits, int totalAvailable, List<ACL> aclList, long waitTimeoutMs, boolean interruptible)
+	        throws InterruptedException {
 		if (waitTimeoutMs < -1) {
 			throw new IllegalArgumentException("waitTimeoutMs must be -1 (no limit) or >= 0!");
 		}
 
+		if (permits < 1) {
+			throw new IllegalArgumentException("permits must be >= 1!");
+		}
+
 		if (reservationType != ReservationType.SEMAPHORE) {
 			throw new IllegalArgumentException("Invalid reservation type:  " + ReservationType.SEMAPHORE);
 		}
@@ -289,11 +511,13 @@ class ZkReservationManager {
 			long startTimestamp = System.currentTimeMillis();
 
 			// owner data in JSON
-			String lockReservationData = "{\"ownerId\":\"" + ownerId + "\"}";
+			String lockReservationData = "{\"ownerId\":\"" + ownerId + "\",\"permits\":" + permits + "}";
 
-			// path to lock reservation node (to "get in line" for lock)
-			String lockReservationPrefix = CoordServicePathUtil.getAbsolutePathReservationPrefix(pathScheme,
-			        entityPath, reservationType);
+			// path to lock reservation node (to "get in line" for lock):
+			// permit count is part of name so that totals can be computed
+			// from child list alone
+			String lockReservationPrefix = pathScheme.joinPaths(entityPath, Reservation.prefix(reservationType,
+			        permits));
 
 			// create lock reservation sequential node
 			String lockReservationPath = zkUtil.updatePath(zkClient, pathScheme, lockReservationPrefix,
@@ -301,61 +525,107 @@ class ZkReservationManager {
 
 			// path token (last part of path)
 			String lockReservation = lockReservationPath.substring(lockReservationPath.lastIndexOf('/') + 1);
+			long lockReservationSequence = Reservation.parseSequence(lockReservation);
 
 			// create lock watcher for wait/notify
 			if (logger.isDebugEnabled()) {
-				logger.debug("Attempting to acquire:  ownerId={}; lockType={}; lockReservationPath={}", new Object[] {
-				        ownerId, reservationType, lockReservationPath });
+				logger.debug("Attempting to acquire:  ownerId={}; lockType={}; permits={}; lockReservationPath={}",
+				        new Object[] { ownerId, reservationType, permits, lockReservationPath });
 			}
 
 			String acquiredPath = null;
 			ZkLockWatcher lockReservationWatcher = null;
+			boolean reservedRecorded = false;
+
+			// only the first reservation waiting to be admitted watches the
+			// entity's children, since any reservation ahead going away may
+			// admit it; those behind it watch the reservation right ahead of
+			// them, which updates its data when admitted, so that a release
+			// wakes only the waiter it may admit
+			boolean watchChildren = false;
+
+			// reservation right ahead of ours last seen admitted, and its
+			// data version then
+			String admittedAheadPath = null;
+			int admittedAheadVersion = 0;
 			do {
 				try {
 					/** see if we can acquire right away **/
-					// set lock on the reservation ahead of this one
-					Stat stat = zkClient.exists(entityPath, false);
+					// reservations may stand for more than one permit, so
+					// child count alone does not tell whether we are admitted
+					if (lockReservationWatcher == null) {
+						lockReservationWatcher = new ZkLockWatcher(entityPath, lockReservationPath);
+					}
+					List<String> lockReservationList = watchChildren ? zkClient.getChildren(entityPath,
+					        lockReservationWatcher) : zkClient.getChildren(entityPath, false);
+
+					// sorted reservations: only newly added ones are parsed
+					ReservationIndex reservationIndex = getReservationIndex(entityPath, lockReservationList, null);
+
+					int position = reservationIndex.positionOf(lockReservationSequence);
+					if (position == -1) {
+						throw new IllegalStateException("Reservation no longer exists:  lockReservationPath="
+						        + lockReservationPath);
+					}
+					if (!reservedRecorded) {
+						reservationMetrics.reserved(entityPath, position);
+						reservedRecorded = true;
+					}
 
-					// if we are only after semaphore reservations, check child
-					// count to see if we event need to count children
-					// explicitly
-					if (stat.getNumChildren() < totalAvailable) {
+					// see if permits ahead of us and our own fit within
+					// totalAvailable
+					String watchPath = null;
+					if (totalAvailable < 0 || reservationIndex.getPermitsAhead(position + 1) <= totalAvailable) {
 						acquiredPath = lockReservationPath;
-						break;
+
+						// a reservation behind us may have seen us waiting and
+						// be watching us
+						if (position < reservationIndex.size() - 1) {
+							zkClient.setData(lockReservationPath, lockReservationData.getBytes("UTF-8"), -1);
+						}
+
+					} else if (reservationIndex.getPermitsAhead(position) <= totalAvailable) {
+						// reservation ahead of us (if any) was admitted: we are
+						// next, so watch children
+						watchPath = entityPath;
+						if (!watchChildren) {
+							watchChildren = true;
+
+							// list again with watch set
+							continue;
+						}
+
 					} else {
-						// get lock reservation list with watch
-						if (lockReservationWatcher == null) {
-							lockReservationWatcher = new ZkLockWatcher(entityPath, lockReservationPath);
+						watchPath = pathScheme.joinPaths(entityPath, reservationIndex.get(position - 1).getName());
+						Stat stat = zkClient.exists(watchPath, lockReservationWatcher);
+						if (stat == null) {
+							// deleted since listed: check again
+							watchChildren = false;
+							continue;
 						}
-						List<String> lockReservationList = zkClient.getChildren(entityPath, lockReservationWatcher);
-
-						// sort child list
-						Collections.sort(lockReservationList, lockReservationComparator);
-
-						// loop through children and see if we have the lock
-						boolean exclusiveReservationEncountered = false;
-						for (int i = 0; i < lockReservationList.size(); i++) {
-							String currentReservation = lockReservationList.get(i);
-
-							// see if we have the lock
-							if (lockReservation.equals(currentReservation)) {
-								boolean stillAvailable = (totalAvailable < 0 || i < totalAvailable);
-								if (stillAvailable && (i == 0 || !exclusiveReservationEncountered)) {
-									acquiredPath = lockReservationPath;
-									break;
-								}
+						if (stat.getVersion() > 0) {
+							// admitted, but we still do not fit, e.g. because
+							// permit pool size was reduced or differs between
+							// processes: check again only if admitted since we
+							// last looked, and watch children so that releases
+							// ahead of us wake us instead of spinning here
+							if (!watchPath.equals(admittedAheadPath) || stat.getVersion() != admittedAheadVersion) {
+								admittedAheadPath = watchPath;
+								admittedAheadVersion = stat.getVersion();
+								watchChildren = true;
+								continue;
 							}
-
-							exclusiveReservationEncountered = reservationType == ReservationType.LOCK_EXCLUSIVE;
+						} else {
+							watchChildren = false;
 						}
-					}// if
+					}
 
 					/** see if we acquired lock **/
 					if (acquiredPath == null) {
 						// wait to acquire if not yet acquired
 						logger.debug(
 						        "Waiting to acquire:  ownerId={}; lockType={}; lockReservationPath={}; watchPath={}",
-						        new Object[] { ownerId, reservationType, lockReservationPath, entityPath });
+						        new Object[] { ownerId, reservationType, lockReservationPath, watchPath });
 
 						// always call wait() with timeout in case we missed an
 						// update that occurred before setting the watch
@@ -370,6 +640,9 @@ class ZkReservationManager {
 						// lock observers
 						zkClient.exists(acquiredPath, true);
 
+						reservationMetrics.acquired(entityPath, acquiredPath, System.currentTimeMillis()
+						        - startTimestamp);
+
 						break;
 					}
 				} catch (InterruptedException e) {
@@ -392,6 +665,9 @@ class ZkReservationManager {
 
 			// log if not acquired
 			if (acquiredPath == null) {
+				if (!this.shutdown) {
+					reservationMetrics.timedOut(entityPath);
+				}
 				boolean relinquishLockReservationPath = this.relinquish(lockReservationPath);
 				if (!relinquishLockReservationPath) {
 					logger.error(
@@ -418,6 +694,158 @@ class ZkReservationManager {
 
 	}
 
+	/**
+	 * Get in line for a lock or semaphore without waiting: see {@link AsyncReservation}.
+	 * 
+	 * @param ownerId
+	 * @param entityPath
+	 * @param reservationType
+	 * @param permits
+	 *            number of permits reservation stands for; ignored for locks
+	 * @param totalAvailable
+	 *            permit pool size; ignored for locks
+	 * @param aclList
+	 * @param waitTimeoutMs
+	 *            -1 for no deadline
+	 * @param executorService
+	 *            runs checks when watches fire, and deadline
+	 * @return future completed with path of acquired reservation; null if not acquired before deadline
+	 */
+	ListenableFuture<String> acquireAsync(String ownerId, String entityPath, ReservationType reservationType,
+	        int permits, int totalAvailable, List<ACL> aclList, long waitTimeoutMs,
+	        ScheduledExecutorService executorService) {
+		return new AsyncReservation(this, zkClient, pathScheme, ownerId, entityPath, reservationType, permits,
+		        totalAvailable, aclList, waitTimeoutMs, executorService).start();
+	}
+
+	/**
+	 * Get in line for several exclusive locks at once: reservations are made in one transaction, in the order of
+	 * entityPathList, and then waited on concurrently, each as in {@link AsyncReservation}. Since a transaction's
+	 * reservations are either all ahead of or all behind another transaction's, processes locking sets of entities
+	 * this way cannot deadlock each other.
+	 * 
+	 * If the future is cancelled, fails or times out, all reservations are relinquished.
+	 * 
+	 * @param ownerId
+	 * @param entityPathList
+	 *            without duplicates
+	 * @param aclList
+	 * @param waitTimeoutMs
+	 *            -1 for no deadline
+	 * @param executorService
+	 *            runs checks when watches fire, and deadlines
+	 * @return future completed with paths of acquired reservations, in order of entityPathList; null if not all were
+	 *         acquired before deadline
+	 */
+	ListenableFuture<List<String>> acquireAllAsync(String ownerId, List<String> entityPathList, List<ACL> aclList,
+	        long waitTimeoutMs, ScheduledExecutorService executorService) {
+		final List<String> reservationPathList;
+		try {
+			reservationPathList = createReservations(ownerId, entityPathList, ReservationType.LOCK_EXCLUSIVE, aclList);
+		} catch (Exception e) {
+			logger.error("Error trying to acquire:  " + e + ":  ownerId=" + ownerId + "; entityPathList="
+			        + entityPathList, e);
+			SettableFuture<List<String>> failedFuture = SettableFuture.create();
+			failedFuture.setException(e);
+			return failedFuture;
+		}
+
+		final List<ListenableFuture<String>> futureList = new ArrayList<ListenableFuture<String>>(
+		        reservationPathList.size());
+		for (int i = 0; i < reservationPathList.size(); i++) {
+			futureList.add(new AsyncReservation(this, zkClient, pathScheme, ownerId, entityPathList.get(i),
+			        ReservationType.LOCK_EXCLUSIVE, 1, -1, aclList, waitTimeoutMs, executorService)
+			        .start(reservationPathList.get(i)));
+		}
+
+		final ListenableFuture<List<String>> acquiredFuture = Futures.transform(Futures.allAsList(futureList),
+		        new Function<List<String>, List<String>>() {
+			        @Override
+			        public List<String> apply(List<String> acquiredPathList) {
+				        return acquiredPathList.contains(null) ? null : acquiredPathList;
+			        }
+		        });
+		acquiredFuture.addListener(new Runnable() {
+			@Override
+			public void run() {
+				// stop waiting on the rest, and give up all reservations unless
+				// all were acquired
+				for (ListenableFuture<String> future : futureList) {
+					future.cancel(false);
+				}
+				if (!isAcquired(acquiredFuture)) {
+					for (String reservationPath : reservationPathList) {
+						try {
+							relinquish(reservationPath);
+						} catch (Exception e) {
+							logger.error("Unable to relinquish:  " + e + ":  lockReservationPath=" + reservationPath, e);
+						}
+					}
+				}
+			}
+		}, MoreExecutors.sameThreadExecutor());
+
+		return acquiredFuture;
+	}
+
+	/**
+	 * Make reservations on several entities in one transaction, creating entity nodes that do not exist yet.
+	 * 
+	 * @return paths of reservations, in order of entityPathList
+	 */
+	List<String> createReservations(String ownerId, List<String> entityPathList, ReservationType reservationType,
+	        List<ACL> aclList) throws Exception {
+		byte[] lockReservationData = ("{\"ownerId\":\"" + ownerId + "\"}").getBytes("UTF-8");
+		List<Op> opList = new ArrayList<Op>(entityPathList.size());
+		for (String entityPath : entityPathList) {
+			opList.add(Op.create(CoordServicePathUtil.getAbsolutePathReservationPrefix(pathScheme, entityPath,
+			        reservationType), lockReservationData, aclList, CreateMode.EPHEMERAL_SEQUENTIAL));
+		}
+
+		List<OpResult> resultList;
+		try {
+			resultList = zkClient.multi(opList);
+		} catch (KeeperException e) {
+			if (e.code() != KeeperException.Code.NONODE) {
+				throw e;
+			}
+			for (String entityPath : entityPathList) {
+				if (zkClient.exists(entityPath, false) == null) {
+					zkUtil.updatePath(zkClient, pathScheme, entityPath, null, aclList, CreateMode.PERSISTENT, -1);
+				}
+			}
+			resultList = zkClient.multi(opList);
+		}
+
+		List<String> reservationPathList = new ArrayList<String>(resultList.size());
+		for (OpResult result : resultList) {
+			reservationPathList.add(((OpResult.CreateResult) result).getPath());
+		}
+		logger.debug("Attempting to acquire:  ownerId={}; lockType={}; lockReservationPathList={}", new Object[] {
+		        ownerId, reservationType, reservationPathList });
+		return reservationPathList;
+	}
+
+	private static boolean isAcquired(ListenableFuture<List<String>> acquiredFuture) {
+		if (acquiredFuture.isCancelled()) {
+			return false;
+		}
+		try {
+			return Uninterruptibles.getUninterruptibly(acquiredFuture) != null;
+		} catch (ExecutionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reservation was deleted outside of this process, e.g. by the reaper on another node.
+	 * 
+	 * @param reservationPath
+	 */
+	void revoked(String reservationPath) {
+		reservationMetrics.revoked(reservationPath);
+	}
+
 	/**
 	 * 
 	 * @param reservationPath
@@ -434,12 +862,14 @@ class ZkReservationManager {
 			logger.trace("Relinquishing:  path={}", reservationPath);
 
 			zkClient.delete(reservationPath, -1);
+			reservationMetrics.relinquished(reservationPath);
 
 			logger.debug("Relinquished:  path={}", reservationPath);
 			return true;
 		} catch (KeeperException e) {
 			if (e.code() == KeeperException.Code.NONODE) {
 				// already deleted, so just log
+				reservationMetrics.relinquished(reservationPath);
 				if (logger.isDebugEnabled()) {
 					logger.debug("Already deleted ZK reservation node:  " + e + "; path=" + reservationPath, e);
 				}
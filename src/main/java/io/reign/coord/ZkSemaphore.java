@@ -17,9 +17,9 @@
 package io.reign.coord;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -33,6 +33,13 @@ import org.slf4j.LoggerFactory;
  * Maintains general semantics of {@link java.util.concurrent.Semaphore} with some exceptions. In this implementation,
  * permit granting is first come, first served.
  * 
+ * Multiple permits requested at once are acquired with one reservation per permit, one after another, so that each
+ * permit id stands for one permit and {@link #release()} releases one of them. With {@link #acquireWeighted(int)} and
+ * {@link #tryAcquireWeighted(int, long, TimeUnit)} they are instead acquired with a single reservation standing for
+ * all of them, granted together in one place in line, so that two multi-permit acquirers cannot each end up holding
+ * part of what they need: the permit id returned for such a reservation is released as a whole, and
+ * {@link #release(int)} will not release part of it.
+ * 
  * @author ypai
  * 
  */
@@ -72,7 +79,9 @@ public class ZkSemaphore implements DistributedSemaphore {
 
     @Override
     public void revoke(String permitId) {
-        acquiredPermitIds.remove(permitId);
+        if (acquiredPermitIds.remove(permitId)) {
+            zkReservationManager.revoked(permitId);
+        }
     }
 
     @Override
@@ -91,31 +100,87 @@ public class ZkSemaphore implements DistributedSemaphore {
         return acquiredPermitPath;
     }
 
+    /**
+     * 
+     * @return one permit id per permit acquired
+     */
     @Override
     public Collection<String> acquire(int permits) throws InterruptedException {
-        List<String> tmpAcquiredPermits = new ArrayList<String>(permits);
+        if (permits < 1) {
+            return Collections.EMPTY_LIST;
+        }
+
+        List<String> tmpAcquiredPermits = acquireSingly(permits, -1, true);
+        return tmpAcquiredPermits != null ? tmpAcquiredPermits : Collections.EMPTY_LIST;
+    }
 
+    /**
+     * 
+     * @return a single permit id standing for all permits acquired, to be released as a whole
+     */
+    public Collection<String> acquireWeighted(int permits) throws InterruptedException {
+        if (permits < 1) {
+            return Collections.EMPTY_LIST;
+        }
+
+        String acquiredPermitPath = zkReservationManager.acquireForSemaphore(ownerId, entityPath,
+                ReservationType.SEMAPHORE, permits, permitPoolSize(), aclList, -1, true);
+        if (acquiredPermitPath == null) {
+            return Collections.EMPTY_LIST;
+        }
+
+        acquiredPermitIds.add(acquiredPermitPath);
+        return Collections.singletonList(acquiredPermitPath);
+    }
+
+    /**
+     * Acquire permits with one reservation per permit, relinquishing those acquired if not all of them are.
+     * 
+     * @param permits
+     * @param waitTimeoutMs
+     *            for all permits together; -1 for no limit
+     * @param interruptible
+     * @return permit ids acquired; null if not all of them were
+     * @throws InterruptedException
+     */
+    private List<String> acquireSingly(int permits, long waitTimeoutMs, boolean interruptible)
+            throws InterruptedException {
+        long startTimestamp = System.currentTimeMillis();
+        List<String> tmpAcquiredPermits = new ArrayList<String>(permits);
+        boolean acquired = false;
         try {
             for (int i = 0; i < permits; i++) {
+                long remainingMillis = waitTimeoutMs == -1 ? -1 : Math.max(0, startTimestamp + waitTimeoutMs
+                        - System.currentTimeMillis());
                 String acquiredPermitPath = zkReservationManager.acquireForSemaphore(ownerId, entityPath,
-                        ReservationType.SEMAPHORE, permitPoolSize(), aclList, -1, true);
-                if (acquiredPermitPath != null) {
-                    tmpAcquiredPermits.add(acquiredPermitPath);
+                        ReservationType.SEMAPHORE, permitPoolSize(), aclList, remainingMillis, interruptible);
+                if (acquiredPermitPath == null) {
+                    return null;
                 }
+                tmpAcquiredPermits.add(acquiredPermitPath);
             }
+
             acquiredPermitIds.addAll(tmpAcquiredPermits);
-        } catch (InterruptedException e) {
-            // return all permits acquired thus far in method
-            for (String acquiredPermitPath : tmpAcquiredPermits) {
-                zkReservationManager.relinquish(acquiredPermitPath);
+            acquired = true;
+            return tmpAcquiredPermits;
+        } finally {
+            if (!acquired) {
+                // return all permits acquired thus far in method
+                for (String acquiredPermitPath : tmpAcquiredPermits) {
+                    zkReservationManager.relinquish(acquiredPermitPath);
+                }
             }
-
-            acquiredPermitIds.removeAll(tmpAcquiredPermits);
-
-            throw e;
         }
+    }
 
-        return tmpAcquiredPermits.size() > 0 ? tmpAcquiredPermits : Collections.EMPTY_LIST;
+    /**
+     * Take over a permit acquired for this semaphore without calling acquire().
+     * 
+     * @param permitId
+     *            path of granted reservation
+     */
+    void acquired(String permitId) {
+        acquiredPermitIds.add(permitId);
     }
 
     @Override
@@ -198,14 +263,13 @@ public class ZkSemaphore implements DistributedSemaphore {
 
     @Override
     public int availablePermits() {
-        int currentlyAvailable = permitPoolSize() - getAllPermitRequests().size();
-        return currentlyAvailable < 0 ? 0 : currentlyAvailable;
+        long currentlyAvailable = permitPoolSize() - zkReservationManager.getReservedPermits(entityPath);
+        return currentlyAvailable < 0 ? 0 : (int) currentlyAvailable;
 
     }
 
     /**
-     * Tries to acquire as many permits as possible without waiting, or until interruption. On interruption, keeps
-     * permits that it has already acquired.
+     * Tries to acquire as many permits as possible without waiting, one reservation per permit.
      * 
      * @return
      */
@@ -217,8 +281,6 @@ public class ZkSemaphore implements DistributedSemaphore {
         int permitsAcquired = 0;
         boolean interrupted = false;
 
-        // keep acquiring permits until done and then interrupt current thread
-        // if necessary
         try {
             String acquiredPermitPath = null;
             do {
@@ -260,32 +322,36 @@ public class ZkSemaphore implements DistributedSemaphore {
         release(1);
     }
 
+    /**
+     * Releases whole permit ids adding up to permitsToRelease: a permit id standing for more than one permit cannot be
+     * released in part, since the rest of its permits would have to get back in line.
+     * 
+     * @throws IllegalArgumentException
+     *             if no permit ids held add up to permitsToRelease; nothing is released
+     */
     @Override
     public void release(int permitsToRelease) {
         if (permitsToRelease < 0) {
             throw new IllegalArgumentException("Argument permitsToRelease cannot be less than zero.");
         }
 
+        List<String> permitIdsToRelease = selectPermitIds(new ArrayList<String>(acquiredPermitIds), permitsToRelease);
+        if (permitIdsToRelease == null) {
+            throw new IllegalArgumentException("Cannot release part of a multi-permit reservation:  permitsToRelease="
+                    + permitsToRelease + "; acquiredPermitIds=" + acquiredPermitIds);
+        }
+
         // release from ZK
         int permitsReleased = 0;
-        // List<String> permitIdsReleased = new
-        // ArrayList<String>(permitsToRelease);
-        for (String acquiredPermitPath : acquiredPermitIds) {
+        for (String acquiredPermitPath : permitIdsToRelease) {
             acquiredPermitIds.remove(acquiredPermitPath);
             if (zkReservationManager.relinquish(acquiredPermitPath)) {
-                // permitIdsReleased.add(acquiredPermitPath);
-                permitsReleased++;
-                if (permitsReleased >= permitsToRelease) {
-                    break;
-                }
+                permitsReleased += permitsOf(acquiredPermitPath);
             } else {
                 acquiredPermitIds.add(acquiredPermitPath);
             }
         }
 
-        // remove from local set
-        // acquiredPermitIds.removeAll(permitIdsReleased);
-
         // sanity check
         if (permitsReleased < permitsToRelease) {
             logger.warn("Number of permits released does not match requested:  requested={}; released={}",
@@ -293,6 +359,55 @@ public class ZkSemaphore implements DistributedSemaphore {
         }
     }
 
+    /**
+     * 
+     * @param permitIds
+     * @param permits
+     * @return permit ids that together stand for exactly the given number of permits, or all of them if they stand for
+     *         fewer; null if none add up to it
+     */
+    static List<String> selectPermitIds(List<String> permitIds, int permits) {
+        int permitsHeld = 0;
+        for (String permitId : permitIds) {
+            permitsHeld += permitsOf(permitId);
+        }
+        if (permitsHeld <= permits) {
+            return permitIds;
+        }
+
+        // subset sum: lastPermitIdIndex[n] is the last permit id added to
+        // reach n permits, or -1 if n cannot be reached
+        int[] lastPermitIdIndex = new int[permits + 1];
+        Arrays.fill(lastPermitIdIndex, -1);
+        for (int i = 0; i < permitIds.size() && lastPermitIdIndex[permits] == -1; i++) {
+            int permitIdPermits = permitsOf(permitIds.get(i));
+            for (int n = permits; n >= permitIdPermits; n--) {
+                if (lastPermitIdIndex[n] == -1
+                        && (n == permitIdPermits || lastPermitIdIndex[n - permitIdPermits] != -1)) {
+                    lastPermitIdIndex[n] = i;
+                }
+            }
+        }
+        if (permits > 0 && lastPermitIdIndex[permits] == -1) {
+            return null;
+        }
+
+        List<String> selectedPermitIds = new ArrayList<String>();
+        for (int n = permits; n > 0; n -= permitsOf(permitIds.get(lastPermitIdIndex[n]))) {
+            selectedPermitIds.add(permitIds.get(lastPermitIdIndex[n]));
+        }
+        return selectedPermitIds;
+    }
+
+    /**
+     * 
+     * @param permitId
+     * @return number of permits permit id stands for
+     */
+    static int permitsOf(String permitId) {
+        return Reservation.parsePermits(permitId.substring(permitId.lastIndexOf('/') + 1));
+    }
+
     @Override
     public String toString() {
         // TODO Auto-generated method stub
@@ -330,40 +445,43 @@ public class ZkSemaphore implements DistributedSemaphore {
             return false;
         }
 
-        // attempt to acquire all permits, returning all temporarily acquired
-        // permits if we to get desired number of permits quickly
-        Set<String> tmpAcquiredPermitPathSet = new HashSet<String>(permits, 0.9f);
-        long timeWaitMillis = timeUnit.toMicros(wait);
-        long startTimestamp = System.currentTimeMillis();
+        if (permits == 0) {
+            return true;
+        }
+
         try {
-            for (int i = 0; i < permits && System.currentTimeMillis() - startTimestamp < timeWaitMillis; i++) {
-                String acquiredPermitPath = zkReservationManager.acquireForSemaphore(ownerId, entityPath,
-                        ReservationType.SEMAPHORE, permitPoolSize(), aclList, timeWaitMillis, true);
-                if (acquiredPermitPath != null) {
-                    tmpAcquiredPermitPathSet.add(acquiredPermitPath);
-                }
-            }
+            return acquireSingly(permits, timeUnit.toMillis(wait), true) != null;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
 
-            // check that all permits were acquired; if not, return all
-            if (tmpAcquiredPermitPathSet.size() < permits) {
-                // return all permits acquired thus far in method
-                for (String tmpAcquiredPermitPath : tmpAcquiredPermitPathSet) {
-                    zkReservationManager.relinquish(tmpAcquiredPermitPath);
-                }
-                return false;
-            }
+    /**
+     * Like {@link #tryAcquire(int, long, TimeUnit)}, but with a single reservation standing for all permits, to be
+     * released as a whole.
+     */
+    public boolean tryAcquireWeighted(int permits, long wait, TimeUnit timeUnit) throws InterruptedException {
+        if (!isPermitAllocationAvailable(permits)) {
+            return false;
+        }
+
+        if (permits == 0) {
+            return true;
+        }
 
-            if (tmpAcquiredPermitPathSet.size() > 0) {
-                acquiredPermitIds.addAll(tmpAcquiredPermitPathSet);
+        // acquire all permits with one reservation, which is relinquished if
+        // not granted in time
+        long timeWaitMillis = timeUnit.toMillis(wait);
+        try {
+            String acquiredPermitPath = zkReservationManager.acquireForSemaphore(ownerId, entityPath,
+                    ReservationType.SEMAPHORE, permits, permitPoolSize(), aclList, timeWaitMillis, true);
+            if (acquiredPermitPath == null) {
+                return false;
             }
 
+            acquiredPermitIds.add(acquiredPermitPath);
             return true;
         } catch (InterruptedException e) {
-            // return all permits acquired thus far in method
-            for (String acquiredPermitPath : tmpAcquiredPermitPathSet) {
-                zkReservationManager.relinquish(acquiredPermitPath);
-            }
-
             return false;
         }
 
@@ -374,35 +492,13 @@ public class ZkSemaphore implements DistributedSemaphore {
             return false;
         }
 
-        // attempt to acquire all permits, returning all temporarily acquired
-        // permits if we to get desired number of permits quickly
-        Set<String> tmpAcquiredPermitPathSet = new HashSet<String>(permits, 0.9f);
+        if (permits == 0) {
+            return true;
+        }
 
         try {
-            for (int i = 0; i < permits; i++) {
-                String acquiredPermitPath = zkReservationManager.acquireForSemaphore(ownerId, entityPath,
-                        ReservationType.SEMAPHORE, permitPoolSize(), aclList, 0, true);
-                if (acquiredPermitPath != null) {
-                    tmpAcquiredPermitPathSet.add(acquiredPermitPath);
-                } else {
-                    // return all permits acquired thus far in method
-                    for (String tmpAcquiredPermitPath : tmpAcquiredPermitPathSet) {
-                        zkReservationManager.relinquish(tmpAcquiredPermitPath);
-                    }
-                    return false;
-                }
-            }
-            if (tmpAcquiredPermitPathSet.size() > 0) {
-                acquiredPermitIds.addAll(tmpAcquiredPermitPathSet);
-            }
-
-            return true;
+            return acquireSingly(permits, 0, true) != null;
         } catch (InterruptedException e) {
-            // return all permits acquired thus far in method
-            for (String acquiredPermitPath : tmpAcquiredPermitPathSet) {
-                zkReservationManager.relinquish(acquiredPermitPath);
-            }
-
             return false;
         }
     }
@@ -412,7 +508,7 @@ public class ZkSemaphore implements DistributedSemaphore {
             return false;
         }
 
-        long timeWaitMillis = timeUnit.toMicros(wait);
+        long timeWaitMillis = timeUnit.toMillis(wait);
 
         String acquiredPermitPath = zkReservationManager.acquireForSemaphore(ownerId, entityPath,
                 ReservationType.SEMAPHORE, permitPoolSize(), aclList, timeWaitMillis, false);
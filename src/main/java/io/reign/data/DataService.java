@@ -49,6 +49,7 @@ public class DataService extends AbstractService {
 	private static final String DATA_PATH_SUFFIX = "$";
 	private static final String MAP_PATH_SUFFIX = "{}";
 	private static final String LIST_PATH_SUFFIX = "[]";
+	private static final String ATOMIC_PATH_SUFFIX = "#";
 
 	private final TranscodingScheme transcodingScheme;
 
@@ -155,6 +156,32 @@ public class DataService extends AbstractService {
 		return new ZkStackData<V>(linkedListData);
 	}
 
+	public DistributedAtomicLong getAtomicLong(String clusterId, String dataPath) {
+		return getAtomicLong(clusterId, dataPath, 1, getContext()
+				.getDefaultZkAclList());
+	}
+
+	/**
+	 * 
+	 * @param clusterId
+	 * @param dataPath
+	 * @param leaseSize
+	 *            number of values to reserve at a time for
+	 *            {@link DistributedAtomicLong#nextId()}; 1 to not lease
+	 * @param aclList
+	 * @return
+	 */
+	public DistributedAtomicLong getAtomicLong(String clusterId,
+			String dataPath, int leaseSize, List<ACL> aclList) {
+		dataPath = dataPath + ATOMIC_PATH_SUFFIX;
+
+		PathScheme pathScheme = getPathScheme();
+		String absolutePath = pathScheme.getAbsolutePath(PathType.DATA,
+				pathScheme.joinTokens(clusterId, dataPath));
+
+		return new ZkAtomicLong(absolutePath, aclList, leaseSize, getContext());
+	}
+
 	DistributedReadWriteLock getReadWriteLock(String clusterId, String dataPath) {
 		logger.trace("Getting read/write lock:  clusterId={}; dataPath={}",
 				clusterId, dataPath);
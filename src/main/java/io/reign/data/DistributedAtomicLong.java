@@ -0,0 +1,73 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package io.reign.data;
+
+/**
+ * A long value shared across processes, updated atomically with compare-and-set on its ZooKeeper node's version, based
+ * on {@link java.util.concurrent.atomic.AtomicLong}.
+ * 
+ * Unique ids can be generated with {@link #nextId()}, which can lease blocks of values so that most ids are handed out
+ * without a ZooKeeper round trip.
+ * 
+ * @author ypai
+ * 
+ */
+public interface DistributedAtomicLong extends BaseData {
+
+    /**
+     * 
+     * @return current value; 0 if never set
+     */
+    public long get();
+
+    public void set(long newValue);
+
+    /**
+     * 
+     * @param expectedValue
+     * @param newValue
+     * @return true if value was expectedValue and is now newValue
+     */
+    public boolean compareAndSet(long expectedValue, long newValue);
+
+    public long getAndSet(long newValue);
+
+    public long addAndGet(long delta);
+
+    public long getAndAdd(long delta);
+
+    public long incrementAndGet();
+
+    public long decrementAndGet();
+
+    /**
+     * Get a value no other call to nextId() or incrementAndGet() has returned or will return, as long as the shared value
+     * is only ever increased. When leasing blocks of more than one value, values come from the block this process last
+     * leased, so are unique but not in order across processes; values left in a block when the process ends are never
+     * handed out.
+     * 
+     * @return
+     */
+    public long nextId();
+
+    /**
+     * 
+     * @return number of values reserved at a time by {@link #nextId()}
+     */
+    public int getLeaseSize();
+
+}
@@ -0,0 +1,347 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package io.reign.data;
+
+import io.reign.PathScheme;
+import io.reign.ReignContext;
+import io.reign.ZkClient;
+import io.reign.util.ZkClientUtil;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the value as data of a single node, so each update is a read followed by a setData() conditioned on the version
+ * read, retried if another process updated the node in between: no lock is needed.
+ * 
+ * The value is followed by random tokens of the most recent updates. The ZkClient retries setData() after a
+ * connection loss, and the retry fails with BADVERSION if the first attempt went through; an update that fails looks
+ * for its token before trying again, so that it is not applied twice.
+ * 
+ * @author ypai
+ * 
+ */
+public class ZkAtomicLong implements DistributedAtomicLong {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZkAtomicLong.class);
+
+    private static final LongSerializer serializer = new LongSerializer();
+
+    /** number of recent update tokens kept after value */
+    static final int WRITE_TOKEN_HISTORY_SIZE = 16;
+
+    private static final Random random = new Random();
+
+    private final String absolutePath;
+
+    private final ZkClient zkClient;
+
+    private final PathScheme pathScheme;
+
+    private final List<ACL> aclList;
+
+    private final int leaseSize;
+
+    private final ZkClientUtil zkClientUtil = new ZkClientUtil();
+
+    /** block of values leased by nextId(); null if none leased yet */
+    private volatile LeasedBlock leasedBlock;
+
+    /**
+     * 
+     * @param absolutePath
+     * @param aclList
+     * @param leaseSize
+     *            number of values nextId() reserves at a time; 1 to not lease
+     * @param context
+     */
+    public ZkAtomicLong(String absolutePath, List<ACL> aclList, int leaseSize, ReignContext context) {
+        if (leaseSize < 1) {
+            throw new IllegalArgumentException("leaseSize must be >= 1!");
+        }
+
+        this.absolutePath = absolutePath;
+        this.aclList = aclList;
+        this.leaseSize = leaseSize;
+        this.zkClient = context.getZkClient();
+        this.pathScheme = context.getPathScheme();
+    }
+
+    @Override
+    public void destroy() {
+        // values left in leased block are dropped
+        leasedBlock = null;
+    }
+
+    @Override
+    public long get() {
+        try {
+            return valueOf(read(new Stat()));
+        } catch (Exception e) {
+            throw new IllegalStateException("Error trying to read value:  " + e + ":  path=" + absolutePath, e);
+        }
+    }
+
+    @Override
+    public void set(long newValue) {
+        update(newValue, 0, false);
+    }
+
+    @Override
+    public boolean compareAndSet(long expectedValue, long newValue) {
+        try {
+            Stat stat = new Stat();
+            byte[] bytes = read(stat);
+            if (valueOf(bytes) != expectedValue) {
+                return false;
+            }
+            long writeToken = random.nextLong();
+            if (write(newValue, writeToken, bytes, stat.getVersion())) {
+                return true;
+            }
+
+            // may have gone through on an attempt before a connection loss
+            return isWritten(read(stat), writeToken);
+        } catch (Exception e) {
+            throw new IllegalStateException("Error trying to update value:  " + e + ":  path=" + absolutePath, e);
+        }
+    }
+
+    @Override
+    public long getAndSet(long newValue) {
+        return update(newValue, 0, false);
+    }
+
+    @Override
+    public long addAndGet(long delta) {
+        return update(0, delta, true) + delta;
+    }
+
+    @Override
+    public long getAndAdd(long delta) {
+        return update(0, delta, true);
+    }
+
+    @Override
+    public long incrementAndGet() {
+        return addAndGet(1);
+    }
+
+    @Override
+    public long decrementAndGet() {
+        return addAndGet(-1);
+    }
+
+    @Override
+    public long nextId() {
+        if (leaseSize == 1) {
+            return incrementAndGet();
+        }
+
+        while (true) {
+            LeasedBlock block = leasedBlock;
+            if (block != null) {
+                long id = block.next.getAndIncrement();
+                if (id <= block.last) {
+                    return id;
+                }
+            }
+
+            // block used up: lease another one, unless another thread already
+            // did
+            synchronized (this) {
+                if (leasedBlock == block) {
+                    long last = addAndGet(leaseSize);
+                    leasedBlock = new LeasedBlock(last - leaseSize + 1, last);
+                    logger.debug("Leased block:  path={}; first={}; last={}", new Object[] { absolutePath,
+                            last - leaseSize + 1, last });
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getLeaseSize() {
+        return leaseSize;
+    }
+
+    /**
+     * 
+     * @param newValue
+     *            value to set if not adding
+     * @param delta
+     *            value to add if adding
+     * @param add
+     * @return previous value
+     */
+    long update(long newValue, long delta, boolean add) {
+        try {
+            Stat stat = new Stat();
+            byte[] bytes = read(stat);
+            while (true) {
+                long value = valueOf(bytes);
+                long writeToken = random.nextLong();
+                if (write(add ? value + delta : newValue, writeToken, bytes, stat.getVersion())) {
+                    return value;
+                }
+
+                // may have gone through on an attempt before a connection
+                // loss: do not apply again
+                bytes = read(stat);
+                if (isWritten(bytes, writeToken)) {
+                    return value;
+                }
+                logger.trace("Value changed since read:  retrying:  path={}", absolutePath);
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Error trying to update value:  " + e + ":  path=" + absolutePath, e);
+        }
+    }
+
+    /**
+     * 
+     * @param stat
+     *            updated with stat of node read
+     * @return current node data, creating node with 0 if it does not exist
+     */
+    byte[] read(Stat stat) throws KeeperException, InterruptedException {
+        while (true) {
+            try {
+                return zkClient.getData(absolutePath, false, stat);
+            } catch (KeeperException e) {
+                if (e.code() != KeeperException.Code.NONODE) {
+                    throw e;
+                }
+            }
+            create();
+        }
+    }
+
+    /**
+     * 
+     * @param newValue
+     * @param writeToken
+     *            identifies this update
+     * @param bytes
+     *            node data read, with tokens of earlier updates
+     * @param version
+     *            version of node value was read at
+     * @return true if node had not changed since read and was updated
+     */
+    boolean write(long newValue, long writeToken, byte[] bytes, int version) throws KeeperException,
+            InterruptedException {
+        try {
+            zkClient.setData(absolutePath, toBytes(newValue, writeToken, bytes), version);
+            return true;
+        } catch (KeeperException e) {
+            if (e.code() == KeeperException.Code.BADVERSION || e.code() == KeeperException.Code.NONODE) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 
+     * @param bytes
+     *            node data
+     * @return value in node data
+     */
+    static long valueOf(byte[] bytes) {
+        return bytes == null || bytes.length < 8 ? 0 : serializer.deserialize(bytes);
+    }
+
+    /**
+     * 
+     * @param value
+     * @param writeToken
+     * @param previousBytes
+     *            node data being replaced
+     * @return node data with value, followed by writeToken and as many earlier tokens as are kept
+     */
+    static byte[] toBytes(long value, long writeToken, byte[] previousBytes) {
+        int previousTokenCount = previousBytes == null ? 0 : Math.max(0, previousBytes.length / 8 - 1);
+        int tokenCount = Math.min(WRITE_TOKEN_HISTORY_SIZE, previousTokenCount + 1);
+        ByteBuffer byteBuffer = ByteBuffer.allocate(8 * (tokenCount + 1));
+        byteBuffer.putLong(value);
+        byteBuffer.putLong(writeToken);
+        if (tokenCount > 1) {
+            byteBuffer.put(previousBytes, 8, 8 * (tokenCount - 1));
+        }
+        return byteBuffer.array();
+    }
+
+    /**
+     * 
+     * @param bytes
+     *            node data
+     * @param writeToken
+     * @return true if update with writeToken is one of the most recent updates
+     */
+    static boolean isWritten(byte[] bytes, long writeToken) {
+        if (bytes == null) {
+            return false;
+        }
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+        for (int i = 8; i + 8 <= bytes.length; i += 8) {
+            if (byteBuffer.getLong(i) == writeToken) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void create() throws KeeperException, InterruptedException {
+        try {
+            zkClient.create(absolutePath, serializer.serialize(0L), aclList, CreateMode.PERSISTENT);
+        } catch (KeeperException e) {
+            if (e.code() == KeeperException.Code.NONODE) {
+                // build parents first, then try again: another process may
+                // have created and updated node in the meantime
+                zkClientUtil.buildParentPath(zkClient, pathScheme, absolutePath, aclList);
+                try {
+                    zkClient.create(absolutePath, serializer.serialize(0L), aclList, CreateMode.PERSISTENT);
+                } catch (KeeperException e2) {
+                    if (e2.code() != KeeperException.Code.NODEEXISTS) {
+                        throw e2;
+                    }
+                }
+            } else if (e.code() != KeeperException.Code.NODEEXISTS) {
+                throw e;
+            }
+        }
+    }
+
+    private static class LeasedBlock {
+        private final AtomicLong next;
+        private final long last;
+
+        LeasedBlock(long first, long last) {
+            this.next = new AtomicLong(first);
+            this.last = last;
+        }
+    }
+}
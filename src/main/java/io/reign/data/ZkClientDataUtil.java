@@ -25,7 +25,6 @@ import io.reign.zk.PathCache;
 
 import java.util.Map;
 
-import org.apache.zookeeper.AsyncCallback.VoidCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,10 +56,15 @@ public class ZkClientDataUtil extends ZkClientUtil {
         }// if
     }
 
-    void lockForWrite(DistributedReadWriteLock readWriteLock, String dataPath, final Object monitorObject) {
+    /**
+     * Write lock, then sync dataPath. The previous holder's writes may have gone to a different ensemble than the
+     * lock (see PathType routing), so nothing this session has seen bounds them: always sync, but wait at most
+     * {@link ZkClientUtil#DEFAULT_SYNC_TIMEOUT_MILLIS}.
+     */
+    void lockForWrite(DistributedReadWriteLock readWriteLock, String dataPath) {
         if (readWriteLock != null) {
             readWriteLock.writeLock().lock();
-            syncZkClient(dataPath, monitorObject);
+            syncPath(zkClient, dataPath, 0, DEFAULT_SYNC_TIMEOUT_MILLIS);
         }// if
     }
 
@@ -70,10 +74,13 @@ public class ZkClientDataUtil extends ZkClientUtil {
         }
     }
 
-    void lockForRead(DistributedReadWriteLock readWriteLock, String dataPath, final Object monitorObject) {
+    /**
+     * Read lock, then sync dataPath: see {@link #lockForWrite(DistributedReadWriteLock, String)}.
+     */
+    void lockForRead(DistributedReadWriteLock readWriteLock, String dataPath) {
         if (readWriteLock != null) {
             readWriteLock.readLock().lock();
-            syncZkClient(dataPath, monitorObject);
+            syncPath(zkClient, dataPath, 0, DEFAULT_SYNC_TIMEOUT_MILLIS);
         }
     }
 
@@ -83,29 +90,6 @@ public class ZkClientDataUtil extends ZkClientUtil {
         }
     }
 
-    void syncZkClient(String dataPath, final Object monitorObject) {
-        logger.trace("Syncing ZK client:  dataPath={}", dataPath);
-        zkClient.sync(dataPath, new VoidCallback() {
-            @Override
-            public void processResult(int arg0, String arg1, Object arg2) {
-                synchronized (monitorObject) {
-                    monitorObject.notifyAll();
-                }
-            }
-        }, null);
-
-        // wait for sync to complete
-        synchronized (monitorObject) {
-            try {
-                logger.trace("Waiting for ZK client sync complete:  dataPath={}", dataPath);
-                monitorObject.wait();
-                logger.trace("ZK client sync completed:  dataPath={}", dataPath);
-            } catch (InterruptedException e) {
-                logger.warn("Interrupted while waiting for ZK sync():  " + e, e);
-            }
-        }
-    }
-
     boolean isExpired(long lastModifiedMillis, int ttlMillis) {
         return ttlMillis > 0 && lastModifiedMillis + ttlMillis < System.currentTimeMillis();
     }
@@ -190,8 +190,18 @@ public class ZkClientLinkedListDataUtil extends ZkClientDataUtil {
     }
 
     List<String> getSortedChildList(String absoluteBasePath) {
+        return getSortedChildList(absoluteBasePath, new Stat());
+    }
+
+    /**
+     * 
+     * @param absoluteBasePath
+     * @param stat
+     *            filled in with Stat of absoluteBasePath as of listing
+     * @return
+     */
+    List<String> getSortedChildList(String absoluteBasePath, Stat stat) {
         try {
-            Stat stat = new Stat();
             List<String> childList = zkClient.getChildren(absoluteBasePath, true, stat);
 
             if (childList == null) {
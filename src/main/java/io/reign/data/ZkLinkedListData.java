@@ -21,11 +21,13 @@ import io.reign.PathScheme;
 import io.reign.ReignContext;
 import io.reign.ZkClient;
 import io.reign.coord.DistributedReadWriteLock;
+import io.reign.util.ZkClientUtil;
 
 import java.util.List;
 import java.util.Map;
 
 import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -125,7 +127,7 @@ public class ZkLinkedListData<V> implements LinkedListData<V> {
 
     @Override
     public synchronized int size() {
-        zkClientLinkedListDataUtil.lockForRead(readWriteLock, absoluteBasePath, this);
+        zkClientLinkedListDataUtil.lockForRead(readWriteLock, absoluteBasePath);
         try {
             return zkClientLinkedListDataUtil.getSortedChildList(absoluteBasePath).size();
         } finally {
@@ -144,12 +146,13 @@ public class ZkLinkedListData<V> implements LinkedListData<V> {
      */
     synchronized <T extends V> T getValueAt(int index, Class<T> typeClass, boolean deleteAfterRead) {
         if (deleteAfterRead) {
-            zkClientLinkedListDataUtil.lockForWrite(readWriteLock, absoluteBasePath, this);
+            zkClientLinkedListDataUtil.lockForWrite(readWriteLock, absoluteBasePath);
         } else {
-            zkClientLinkedListDataUtil.lockForRead(readWriteLock, absoluteBasePath, this);
+            zkClientLinkedListDataUtil.lockForRead(readWriteLock, absoluteBasePath);
         }
         try {
-            List<String> childList = zkClientLinkedListDataUtil.getSortedChildList(absoluteBasePath);
+            Stat listStat = new Stat();
+            List<String> childList = zkClientLinkedListDataUtil.getSortedChildList(absoluteBasePath, listStat);
             if (index < 0) {
                 index = childList.size() + index;
             }
@@ -158,8 +161,10 @@ public class ZkLinkedListData<V> implements LinkedListData<V> {
                 String child = childList.get(index);
                 String absoluteDataPath = pathScheme.joinPaths(absoluteBasePath, child);
 
-                // sync connection on path before read
-                zkClientLinkedListDataUtil.syncZkClient(absoluteDataPath, this);
+                // sync connection on path before read: skipped if session has already seen the list as of
+                // when the child was listed, which elements are never updated after
+                zkClientLinkedListDataUtil.syncPath(zkClient, absoluteDataPath, listStat.getPzxid(),
+                        ZkClientUtil.DEFAULT_SYNC_TIMEOUT_MILLIS);
 
                 // read child node value
                 T childData = zkClientLinkedListDataUtil.readData(absoluteDataPath, -1, typeClass);
@@ -116,7 +116,7 @@ public class ZkMultiData<V> implements MultiData<V> {
 
     @Override
     public synchronized V get(String index, int ttlMillis, Class<V> typeClass) {
-        zkClientMultiDataUtil.lockForRead(readWriteLock, pathScheme.joinPaths(absoluteBasePath, index), this);
+        zkClientMultiDataUtil.lockForRead(readWriteLock, pathScheme.joinPaths(absoluteBasePath, index));
         try {
             return zkClientMultiDataUtil.readData(absoluteBasePath, index, ttlMillis, typeClass);
         } finally {
@@ -133,7 +133,7 @@ public class ZkMultiData<V> implements MultiData<V> {
 
     @Override
     public synchronized List<V> getAll(int ttlMillis, Class<V> typeClass) {
-        zkClientMultiDataUtil.lockForRead(readWriteLock, absoluteBasePath, this);
+        zkClientMultiDataUtil.lockForRead(readWriteLock, absoluteBasePath);
         try {
             return zkClientMultiDataUtil.readAllData(absoluteBasePath, ttlMillis, typeClass);
         } finally {
@@ -117,8 +117,7 @@ public class ZkMultiMapData<K> implements MultiMapData<K> {
     @Override
     public synchronized <V> V get(K key, String index, int ttlMillis, Class<V> typeClass) {
         throwExceptionIfKeyIsInvalid(key);
-        zkClientMultiDataUtil.lockForRead(readWriteLock, pathScheme.joinPaths(absoluteBasePath, key.toString(), index),
-                this);
+        zkClientMultiDataUtil.lockForRead(readWriteLock, pathScheme.joinPaths(absoluteBasePath, key.toString(), index));
         try {
             return zkClientMultiDataUtil.readData(absoluteKeyPath(key), index, ttlMillis, typeClass);
         } finally {
@@ -134,7 +133,7 @@ public class ZkMultiMapData<K> implements MultiMapData<K> {
     @Override
     public synchronized <V, T extends List<V>> T getAll(K key, int ttlMillis, Class<V> typeClass) {
         throwExceptionIfKeyIsInvalid(key);
-        zkClientMultiDataUtil.lockForRead(readWriteLock, pathScheme.joinPaths(absoluteBasePath, key.toString()), this);
+        zkClientMultiDataUtil.lockForRead(readWriteLock, pathScheme.joinPaths(absoluteBasePath, key.toString()));
         try {
             return (T) zkClientMultiDataUtil.readAllData(absoluteKeyPath(key), ttlMillis, typeClass);
         } finally {
@@ -188,7 +187,7 @@ public class ZkMultiMapData<K> implements MultiMapData<K> {
     @Override
     public synchronized int size() {
         Stat stat = null;
-        zkClientMultiDataUtil.lockForRead(readWriteLock, absoluteBasePath, this);
+        zkClientMultiDataUtil.lockForRead(readWriteLock, absoluteBasePath);
         try {
 
             stat = new Stat();
@@ -215,7 +214,7 @@ public class ZkMultiMapData<K> implements MultiMapData<K> {
     @Override
     public synchronized List<String> keys() {
         List<String> keys = null;
-        zkClientMultiDataUtil.lockForRead(readWriteLock, absoluteBasePath, this);
+        zkClientMultiDataUtil.lockForRead(readWriteLock, absoluteBasePath);
         try {
             // if (readWriteLock == null) {
             // keys = zkClientMultiDataUtil.getChildListFromPathCache(absoluteBasePath, -1);
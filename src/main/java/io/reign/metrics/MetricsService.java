@@ -21,7 +21,6 @@ import io.reign.Reign;
 import io.reign.ReignException;
 import io.reign.ZkClient;
 import io.reign.coord.CoordinationService;
-import io.reign.coord.DistributedLock;
 import io.reign.mesg.MessagingService;
 import io.reign.mesg.ParsedRequestMessage;
 import io.reign.mesg.RequestMessage;
@@ -32,6 +31,7 @@ import io.reign.mesg.SimpleResponseMessage;
 import io.reign.presence.PresenceService;
 import io.reign.util.JacksonUtil;
 import io.reign.util.ZkClientUtil;
+import io.reign.zk.AdmissionControlZkClient;
 
 import java.nio.charset.Charset;
 import java.util.ArrayList;
@@ -119,6 +119,24 @@ public class MetricsService extends AbstractService {
 		        updateInterval, updateIntervalTimeUnit);
 	}
 
+	/**
+	 * Export write admission counters kept by the ZooKeeper client (see
+	 * {@link io.reign.ReignMaker#zkWriteRateLimit(PathType, double)}), as service "zk" in the framework cluster.
+	 * 
+	 * @param updateInterval
+	 * @param updateIntervalTimeUnit
+	 * @throws IllegalStateException
+	 *             if write admission control is not configured
+	 */
+	public void exportZkAdmissionMetrics(long updateInterval, TimeUnit updateIntervalTimeUnit) {
+		ZkClient zkClient = getContext().getZkClient();
+		if (!(zkClient instanceof AdmissionControlZkClient)) {
+			throw new IllegalStateException("Write admission control is not configured!");
+		}
+		scheduleExport(getContext().getPathScheme().getFrameworkClusterId(), "zk", new StaticMetricRegistryManager(
+		        ((AdmissionControlZkClient) zkClient).getMetricRegistry()), updateInterval, updateIntervalTimeUnit);
+	}
+
 	String exportPathMapKey(String clusterId, String serviceId, String nodeId) {
 		return clusterId + "/" + serviceId + "/" + nodeId;
 	}
@@ -569,8 +587,6 @@ public class MetricsService extends AbstractService {
 	public class AggregationRunnable implements Runnable {
 		@Override
 		public void run() {
-			long startTimeNanos = System.nanoTime();
-
 			logger.trace("AggregationRunnable starting:  hashCode={}", this.hashCode());
 
 			// list all services in cluster
@@ -595,26 +611,24 @@ public class MetricsService extends AbstractService {
 					// only aggregate if node is in service
 					if (presenceService.isMemberOf(clusterId, serviceId)) {
 						memberServiceIds.add(serviceId);
+					} else {
+						coordinationService.leaveLeaderElection("reign", "metrics-" + clusterId + "-" + serviceId);
 					}
 				}
 
-				// go through member service list in deterministic order so
-				// locks are acquired in the same order across
-				// nodes
-				Collections.sort(memberServiceIds);
 				for (int i = 0; i < memberServiceIds.size(); i++) {
 					long currentTimestamp = System.currentTimeMillis();
 
 					String serviceId = memberServiceIds.get(i);
 
-					logger.trace("Finding data nodes:  clusterId={}; serviceId={}", clusterId, serviceId);
-
-					// get lock for a service
-					DistributedLock lock = coordinationService.getLock("reign", "metrics-" + clusterId + "-"
-					        + serviceId);
-					if (!lock.tryLock()) {
+					// only the elected node of a service aggregates its data
+					if (!coordinationService.getLeaderElection("reign", "metrics-" + clusterId + "-" + serviceId)
+					        .isLeader()) {
 						continue;
 					}
+
+					logger.trace("Finding data nodes:  clusterId={}; serviceId={}", clusterId, serviceId);
+
 					try {
 
 						// get all data nodes for a service
@@ -834,26 +848,6 @@ public class MetricsService extends AbstractService {
 						        serviceMetricsDataString.getBytes(UTF_8), getContext().getDefaultZkAclList(),
 						        CreateMode.PERSISTENT, -1);
 
-						// sleep to hold lock before next interval so that
-						// updates don't happen too frequently with
-						// more nodes in service
-						if (i == memberServiceIds.size() - 1) {
-							try {
-								long elapsedMillis = (System.nanoTime() - startTimeNanos) / 1000000;
-								long sleepIntervalMillis = (updateIntervalMillis - elapsedMillis) / 2;
-								if (sleepIntervalMillis < 0) {
-									sleepIntervalMillis = updateIntervalMillis;
-								}
-								logger.debug(
-								        "AggregationRunnable SLEEPING btw. services:  sleepIntervalMillis={}; memberServiceIds.size={}",
-								        sleepIntervalMillis, memberServiceIds.size());
-								Thread.sleep(sleepIntervalMillis);
-
-							} catch (InterruptedException e) {
-								logger.warn("Interrupted while sleeping at end of aggregation:  " + e, e);
-							}
-						}
-
 					} catch (KeeperException e) {
 						if (e.code() != KeeperException.Code.NONODE) {
 							logger.warn("Error trying to aggregate data directory for service:  clusterId=" + clusterId
@@ -862,11 +856,6 @@ public class MetricsService extends AbstractService {
 					} catch (Exception e) {
 						logger.warn("Error trying to aggregate data directory for service:  clusterId=" + clusterId
 						        + "; serviceId=" + serviceId + ":  " + e, e);
-					} finally {
-						logger.trace("Releasing lock:  metrics-aggregation-{}-{}", clusterId, serviceId);
-						lock.unlock();
-						lock.destroy();
-						logger.trace("Released and destroyed lock:  metrics-aggregation-{}-{}", clusterId, serviceId);
 					}// try
 
 				}// for service
@@ -909,10 +898,9 @@ public class MetricsService extends AbstractService {
 
 					long currentTimestamp = System.currentTimeMillis();
 
-					// get lock for a service
-					DistributedLock lock = coordinationService.getLock("reign", "metrics-" + clusterId + "-"
-					        + serviceId);
-					if (!lock.tryLock()) {
+					// only the elected node of a service cleans up its data
+					if (!coordinationService.getLeaderElection("reign", "metrics-" + clusterId + "-" + serviceId)
+					        .isLeader()) {
 						continue;
 					}
 					String dataPath = null;
@@ -969,9 +957,6 @@ public class MetricsService extends AbstractService {
 					} catch (Exception e) {
 						logger.warn("Error trying to clean up data directory for service:  clusterId=" + clusterId
 						        + "; serviceId=" + serviceId + "; dataPath=" + dataPath + ":  " + e, e);
-					} finally {
-						lock.unlock();
-						lock.destroy();
 					}// try
 				}// for service
 			}// for cluster
@@ -41,7 +41,16 @@ public class StaticMetricRegistryManager implements MetricRegistryManager {
     private final long lastRotatedTimestamp;
 
     public StaticMetricRegistryManager() {
-        this.metricRegistry = new MetricRegistry();
+        this(new MetricRegistry());
+    }
+
+    /**
+     * 
+     * @param metricRegistry
+     *            registry to hand out, e.g. one a service already keeps its metrics in
+     */
+    public StaticMetricRegistryManager(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
         lastRotatedTimestamp = System.currentTimeMillis();
     }
 
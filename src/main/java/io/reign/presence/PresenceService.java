@@ -22,7 +22,6 @@ import io.reign.Reign;
 import io.reign.ReignException;
 import io.reign.ZkNodeId;
 import io.reign.coord.CoordinationService;
-import io.reign.coord.DistributedLock;
 import io.reign.mesg.MessagingService;
 import io.reign.mesg.ParsedRequestMessage;
 import io.reign.mesg.RequestMessage;
@@ -769,10 +768,14 @@ public class PresenceService extends AbstractService {
 	}
 
 	void doUpdateAnnouncement(String path, Announcement announcement) {
-		if (announcement.isHidden()) {
-			doHide(path, announcement);
-		} else {
-			doShow(path, announcement);
+		// updates for the same announcement may be queued on different threads:
+		// apply one at a time so the last one applied reflects latest state
+		synchronized (announcement) {
+			if (announcement.isHidden()) {
+				doHide(path, announcement);
+			} else {
+				doShow(path, announcement);
+			}
 		}
 	}
 
@@ -841,7 +844,8 @@ public class PresenceService extends AbstractService {
 
 			/** do zombie node check per interval **/
 			if (System.currentTimeMillis() - lastZombieCheckTimestamp > zombieCheckIntervalMillis) {
-				// get exclusive leader lock to perform maintenance duties
+				// only the elected node of each service performs
+				// maintenance duties
 				CoordinationService coordinationService = getContext().getService("coord");
 
 				try {
@@ -858,52 +862,47 @@ public class PresenceService extends AbstractService {
 						// iterate through services in cluster
 						List<String> serviceIdList = getServices(clusterId);
 						for (String serviceId : serviceIdList) {
+							String electionName = "presence-zombie-checker-" + clusterId + "-" + serviceId;
 							if (!isMemberOf(clusterId, serviceId)) {
+								coordinationService.leaveLeaderElection("reign", electionName);
 								continue;
 							}
 
-							DistributedLock adminLock = coordinationService.getLock("reign", "presence-zombie-checker-"
-							        + clusterId + "-" + serviceId);
-							if (!adminLock.tryLock()) {
+							if (!coordinationService.getLeaderElection("reign", electionName).isLeader()) {
 								continue;
 							}
-							try {
-
-								// service path
-								String servicePath = getPathScheme().getAbsolutePath(PathType.PRESENCE, clusterId,
-								        serviceId);
-
-								// get children of service
-								List<String> serviceChildren = getZkClient().getChildren(servicePath, false);
-								if (serviceChildren == null) {
-									serviceChildren = Collections.EMPTY_LIST;
-								}
-
-								logger.info("Checking for service zombie child nodes:  path={}; childrenToCheck={}",
-								        servicePath, serviceChildren.size());
-
-								// check stat and make sure mtime of each child is
-								// within 4x heartbeatIntervalMillis; if not, delete
-								for (String child : serviceChildren) {
-									String serviceChildPath = getPathScheme().joinPaths(servicePath, child);
-									logger.debug("Checking for service zombie child nodes:  path={}", serviceChildPath);
-									Stat stat = getZkClient().exists(serviceChildPath, false);
-									if (stat != null) {
-										long timeDiff = System.currentTimeMillis() - stat.getMtime();
-										if (timeDiff > heartbeatIntervalMillis * 4) {
-											logger.warn(
-											        "Found zombie node:  deleting:  path={}; millisSinceLastHeartbeat={}",
-											        serviceChildPath, timeDiff);
-											getZkClient().delete(serviceChildPath, -1);
-										}
-									}// if stat!=null
-								}// for service children
-
-							} finally {
-								adminLock.unlock();
-								adminLock.destroy();
+
+							// service path
+							String servicePath = getPathScheme().getAbsolutePath(PathType.PRESENCE, clusterId,
+							        serviceId);
+
+							// get children of service
+							List<String> serviceChildren = getZkClient().getChildren(servicePath, false);
+							if (serviceChildren == null) {
+								serviceChildren = Collections.EMPTY_LIST;
 							}
 
+							logger.info("Checking for service zombie child nodes:  path={}; childrenToCheck={}",
+							        servicePath, serviceChildren.size());
+
+							// check stat and make sure mtime of each child is
+							// within 4x heartbeatIntervalMillis; if not, delete
+							for (String child : serviceChildren) {
+								String serviceChildPath = getPathScheme().joinPaths(servicePath, child);
+								logger.debug("Checking for service zombie child nodes:  path={}", serviceChildPath);
+								Stat stat = getZkClient().exists(serviceChildPath, false);
+								if (stat != null) {
+									long timeDiff = System.currentTimeMillis() - stat.getMtime();
+									if (timeDiff > heartbeatIntervalMillis * 4) {
+										logger.warn(
+										        "Found zombie node:  deleting:  path={}; millisSinceLastHeartbeat={}",
+										        serviceChildPath, timeDiff);
+										getZkClient().delete(serviceChildPath, -1);
+									}
+								}// if stat!=null
+							}// for service children
+
+
 						}// for service
 
 					}// for cluster
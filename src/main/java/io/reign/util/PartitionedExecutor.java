@@ -0,0 +1,100 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package io.reign.util;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on a fixed number of single-threaded partitions chosen by key hash: tasks with the same key run in
+ * submission order, tasks with different keys may run in parallel.
+ * 
+ * @author ypai
+ * 
+ */
+public class PartitionedExecutor {
+
+    private final ThreadPoolExecutor[] partitions;
+
+    /**
+     * 
+     * @param parallelism
+     *            number of partitions (threads)
+     * @param threadNamePrefix
+     */
+    public PartitionedExecutor(int parallelism, final String threadNamePrefix) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be > 0:  parallelism=" + parallelism);
+        }
+
+        partitions = new ThreadPoolExecutor[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            final String threadName = threadNamePrefix + "-" + i;
+            partitions[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger threadCount = new AtomicInteger(0);
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, threadName + "." + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+    }
+
+    public int getParallelism() {
+        return partitions.length;
+    }
+
+    /**
+     * 
+     * @param key
+     *            may be null
+     * @return partition index for given key
+     */
+    public int partition(Object key) {
+        if (key == null) {
+            return 0;
+        }
+        return (key.hashCode() & Integer.MAX_VALUE) % partitions.length;
+    }
+
+    public Future<?> submit(Object key, Runnable task) {
+        return partitions[partition(key)].submit(task);
+    }
+
+    /**
+     * 
+     * @param partition
+     * @return number of tasks waiting to run on given partition
+     */
+    public int getQueueDepth(int partition) {
+        return partitions[partition].getQueue().size();
+    }
+
+    public void shutdown() {
+        for (ThreadPoolExecutor partition : partitions) {
+            partition.shutdown();
+        }
+    }
+}
@@ -20,6 +20,9 @@ import io.reign.PathScheme;
 import io.reign.ZkClient;
 
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.zookeeper.AsyncCallback.VoidCallback;
@@ -30,6 +33,10 @@ import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
 /**
  * Convenience functions to make operating with Zookeeper easier.
  * 
@@ -39,37 +46,83 @@ import org.slf4j.LoggerFactory;
 public class ZkClientUtil {
     private static final Logger logger = LoggerFactory.getLogger(ZkClientUtil.class);
 
+    public static final long DEFAULT_SYNC_TIMEOUT_MILLIS = 5000;
+
     public String updatePath(final ZkClient zkClient, final PathScheme pathScheme, final String path,
             final byte[] leafData, final List<ACL> aclList, final CreateMode createMode, int leafDataVersion)
             throws KeeperException {
         return updatePath(zkClient, pathScheme, path, leafData, aclList, createMode, leafDataVersion, null);
     }
 
+    /**
+     * Sync and wait up to the default timeout.
+     * 
+     * @param zkClient
+     * @param dataPath
+     * @param monitorObject
+     *            no longer used:  kept for compatibility
+     * @deprecated use {@link #syncPath(ZkClient, String, long, long)}
+     */
+    @Deprecated
     public void syncPath(final ZkClient zkClient, String dataPath, final Object monitorObject) {
+        syncPath(zkClient, dataPath, 0, DEFAULT_SYNC_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Sync so that subsequent reads of dataPath reflect all updates committed before this call, waiting at most
+     * timeoutMillis.
+     * 
+     * @param zkClient
+     * @param dataPath
+     * @param minZxid
+     *            skip sync if the session has already seen a zxid at least this new; 0 to always sync
+     * @param timeoutMillis
+     * @return true if synced or sync was not necessary; false on error or timeout
+     */
+    public boolean syncPath(ZkClient zkClient, String dataPath, long minZxid, long timeoutMillis) {
+        ListenableFuture<Boolean> syncFuture = syncPathAsync(zkClient, dataPath, minZxid);
+        try {
+            return syncFuture.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("Timed out waiting for ZK sync():  dataPath={}; timeoutMillis={}", dataPath, timeoutMillis);
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while waiting for ZK sync():  " + e, e);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.warn("Error while waiting for ZK sync():  " + e, e);
+        }
+        return false;
+    }
+
+    /**
+     * Asynchronously sync so that subsequent reads of dataPath reflect all updates committed before this call.
+     * 
+     * @param zkClient
+     * @param dataPath
+     * @param minZxid
+     *            skip sync if the session has already seen a zxid at least this new; 0 to always sync
+     * @return future that completes with true when synced (or immediately if sync is not necessary), false on error
+     */
+    public ListenableFuture<Boolean> syncPathAsync(ZkClient zkClient, final String dataPath, long minZxid) {
+        if (minZxid > 0 && zkClient.getLastSeenZxid(dataPath) >= minZxid) {
+            logger.trace("Skipping ZK sync:  already seen zxid:  dataPath={}; minZxid={}", dataPath, minZxid);
+            return Futures.immediateFuture(Boolean.TRUE);
+        }
+
         logger.trace("Syncing ZK client:  dataPath={}", dataPath);
+        final SettableFuture<Boolean> syncFuture = SettableFuture.create();
         zkClient.sync(dataPath, new VoidCallback() {
             @Override
-            public void processResult(int arg0, String arg1, Object arg2) {
-                if (monitorObject != null) {
-                    synchronized (monitorObject) {
-                        monitorObject.notifyAll();
-                    }
+            public void processResult(int rc, String path, Object ctx) {
+                if (rc != KeeperException.Code.OK.intValue()) {
+                    logger.warn("ZK sync() returned error:  dataPath={}; code={}", dataPath,
+                            KeeperException.Code.get(rc));
                 }
+                syncFuture.set(rc == KeeperException.Code.OK.intValue());
             }
         }, null);
 
-        // wait for sync to complete
-        if (monitorObject != null) {
-            synchronized (monitorObject) {
-                try {
-                    logger.trace("Waiting for ZK client sync complete:  dataPath={}", dataPath);
-                    monitorObject.wait();
-                    logger.trace("ZK client sync completed:  dataPath={}", dataPath);
-                } catch (InterruptedException e) {
-                    logger.warn("Interrupted while waiting for ZK sync():  " + e, e);
-                }
-            }
-        }
+        return syncFuture;
     }
 
     /**
@@ -202,4 +255,36 @@ public class ZkClientUtil {
         return pathCreated;
 
     }
+
+    /**
+     * Create any missing ancestors of a path as empty persistent nodes; unlike
+     * {@link #updatePath(ZkClient, PathScheme, String, byte[], List, CreateMode, int)}, never sets data on nodes that
+     * already exist.
+     * 
+     * @param zkClient
+     * @param pathScheme
+     * @param path
+     *            path whose parents to build; not created itself
+     * @param aclList
+     * @throws KeeperException
+     * @throws InterruptedException
+     */
+    public void buildParentPath(final ZkClient zkClient, final PathScheme pathScheme, final String path,
+            final List<ACL> aclList) throws KeeperException, InterruptedException {
+        String[] tokens = pathScheme.tokenizePath(path);
+        String pathToCreate = "";
+        for (int i = 0; i < tokens.length - 1; i++) {
+            if ("".equals(tokens[i])) {
+                continue;
+            }
+            pathToCreate = pathToCreate + "/" + tokens[i];
+            try {
+                zkClient.create(pathToCreate, null, aclList, CreateMode.PERSISTENT);
+            } catch (KeeperException e) {
+                if (e.code() != KeeperException.Code.NODEEXISTS) {
+                    throw e;
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2013 Yen Pai ypai@reign.io
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package io.reign.zk;
+
+import io.reign.PathScheme;
+import io.reign.PathType;
+import io.reign.ZkClient;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * ZkClient that limits the rate of writes (create, setData, delete) per PathType so that bursts of data or metrics
+ * writes do not saturate the ensemble leader.
+ * 
+ * Writes for priority PathType(s) (coordination and presence) are never throttled. Writes for other PathType(s) must
+ * get a permit from the rate limit configured for their PathType and from the optional shared rate limit; if a permit
+ * is not available within maxWaitMillis, the write is rejected with a {@link WriteRejectedException}, a KeeperException
+ * with code OPERATIONTIMEOUT, so that callers handle it like any other failed write.
+ * 
+ * Admitted, queued (had to wait for a permit), and rejected counts per PathType are tracked in a MetricRegistry, which
+ * can be exported with {@link io.reign.metrics.MetricsService#exportZkAdmissionMetrics(long, TimeUnit)}.
+ * 
+ * @author ypai
+ * 
+ */
+public class AdmissionControlZkClient implements ZkClient {
+
+	private static final Logger logger = LoggerFactory.getLogger(AdmissionControlZkClient.class);
+
+	/** PathType(s) whose writes are never throttled */
+	public static final Set<PathType> PRIORITY_PATH_TYPES = EnumSet.of(PathType.COORD, PathType.PRESENCE);
+
+	private final ZkClient zkClient;
+
+	private final PathScheme pathScheme;
+
+	private final Map<PathType, RateLimiter> rateLimiterMap = new EnumMap<PathType, RateLimiter>(PathType.class);
+
+	/** shared by all non-priority PathType(s); may be null */
+	private final RateLimiter sharedRateLimiter;
+
+	private final long maxWaitMillis;
+
+	private final MetricRegistry metricRegistry = new MetricRegistry();
+
+	/**
+	 * 
+	 * @param zkClient
+	 * @param pathScheme
+	 * @param writesPerSecondMap
+	 *            write rate limit per PathType; limits for priority PathType(s) are ignored
+	 * @param sharedWritesPerSecond
+	 *            write rate limit shared by all non-priority PathType(s); <=0 for none
+	 * @param maxWaitMillis
+	 *            how long a write may wait for a permit before being rejected
+	 */
+	public AdmissionControlZkClient(ZkClient zkClient, PathScheme pathScheme, Map<PathType, Double> writesPerSecondMap,
+	        double sharedWritesPerSecond, long maxWaitMillis) {
+		this.zkClient = zkClient;
+		this.pathScheme = pathScheme;
+		this.maxWaitMillis = maxWaitMillis;
+
+		for (PathType pathType : writesPerSecondMap.keySet()) {
+			if (PRIORITY_PATH_TYPES.contains(pathType)) {
+				logger.warn("Ignoring write rate limit for priority path type:  pathType={}", pathType);
+				continue;
+			}
+			double writesPerSecond = writesPerSecondMap.get(pathType);
+			if (writesPerSecond > 0) {
+				rateLimiterMap.put(pathType, RateLimiter.create(writesPerSecond));
+			}
+		}
+
+		this.sharedRateLimiter = sharedWritesPerSecond > 0 ? RateLimiter.create(sharedWritesPerSecond) : null;
+
+		logger.info("Write admission control:  writesPerSecond={}; sharedWritesPerSecond={}; maxWaitMillis={}",
+		        new Object[] { writesPerSecondMap, sharedWritesPerSecond, maxWaitMillis });
+	}
+
+	public MetricRegistry getMetricRegistry() {
+		return metricRegistry;
+	}
+
+	public ZkClient getDelegate() {
+		return zkClient;
+	}
+
+	/**
+	 * Get permit(s) for a write to the given path.
+	 * 
+	 * @param path
+	 * @throws WriteRejectedException
+	 *             if permit(s) could not be acquired within maxWaitMillis
+	 */
+	void admit(String path) throws WriteRejectedException {
+		PathType pathType = pathScheme.getPathType(path);
+		if (pathType == null || PRIORITY_PATH_TYPES.contains(pathType)) {
+			return;
+		}
+
+		RateLimiter rateLimiter = rateLimiterMap.get(pathType);
+		if (rateLimiter == null && sharedRateLimiter == null) {
+			return;
+		}
+
+		boolean acquired = tryAcquire(rateLimiter, 0);
+		boolean sharedAcquired = acquired && tryAcquire(sharedRateLimiter, 0);
+		if (sharedAcquired) {
+			counter(pathType, "admitted").inc();
+			return;
+		}
+
+		// have to wait:  use whatever is left of max wait for each permit
+		counter(pathType, "queued").inc();
+		long waitStartNanos = System.nanoTime();
+		if (!acquired) {
+			acquired = tryAcquire(rateLimiter, maxWaitMillis);
+		}
+		if (acquired) {
+			long remainingMillis = maxWaitMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitStartNanos);
+			if (tryAcquire(sharedRateLimiter, Math.max(0, remainingMillis))) {
+				counter(pathType, "admitted").inc();
+				return;
+			}
+		}
+
+		counter(pathType, "rejected").inc();
+		throw new WriteRejectedException(pathType, path);
+	}
+
+	boolean tryAcquire(RateLimiter rateLimiter, long timeoutMillis) {
+		return rateLimiter == null || rateLimiter.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	Counter counter(PathType pathType, String name) {
+		return metricRegistry.counter(MetricRegistry.name("zk.admission", pathType.toString(), name));
+	}
+
+	@Override
+	public void register(Watcher watcher) {
+		zkClient.register(watcher);
+	}
+
+	@Override
+	public void close() {
+		zkClient.close();
+	}
+
+	@Override
+	public Stat exists(String path, boolean watch) throws KeeperException, InterruptedException {
+		return zkClient.exists(path, watch);
+	}
+
+	@Override
+	public Stat exists(String path, Watcher watcher) throws KeeperException, InterruptedException {
+		return zkClient.exists(path, watcher);
+	}
+
+	@Override
+	public List<String> getChildren(String path, boolean watch, Stat stat) throws KeeperException,
+	        InterruptedException {
+		return zkClient.getChildren(path, watch, stat);
+	}
+
+	@Override
+	public List<String> getChildren(String path, Watcher watcher) throws KeeperException, InterruptedException {
+		return zkClient.getChildren(path, watcher);
+	}
+
+	@Override
+	public List<String> getChildren(String path, boolean watch) throws KeeperException, InterruptedException {
+		return zkClient.getChildren(path, watch);
+	}
+
+	@Override
+	public Stat setData(String path, byte[] data, int version) throws KeeperException, InterruptedException {
+		admit(path);
+		return zkClient.setData(path, data, version);
+	}
+
+	@Override
+	public byte[] getData(String path, boolean watch, Stat stat) throws KeeperException, InterruptedException {
+		return zkClient.getData(path, watch, stat);
+	}
+
+	@Override
+	public String create(String path, byte[] data, List<ACL> acl, CreateMode createMode) throws KeeperException,
+	        InterruptedException {
+		admit(path);
+		return zkClient.create(path, data, acl, createMode);
+	}
+
+	@Override
+	public void delete(String path, int version) throws InterruptedException, KeeperException {
+		admit(path);
+		zkClient.delete(path, version);
+	}
+
+	@Override
+	public List<OpResult> multi(Iterable<Op> ops) throws InterruptedException, KeeperException {
+		// one permit for the transaction, admitted as its first operation
+		for (Op op : ops) {
+			admit(op.getPath());
+			break;
+		}
+		return zkClient.multi(ops);
+	}
+
+	@Override
+	public void sync(String path, VoidCallback cb, Object ctx) {
+		zkClient.sync(path, cb, ctx);
+	}
+
+	@Override
+	public long getLastSeenZxid(String path) {
+		return zkClient.getLastSeenZxid(path);
+	}
+
+	/**
+	 * Write was not admitted within maxWaitMillis.
+	 */
+	public static class WriteRejectedException extends KeeperException {
+		private final PathType pathType;
+		private final String path;
+
+		public WriteRejectedException(PathType pathType, String path) {
+			super(Code.OPERATIONTIMEOUT);
+			this.pathType = pathType;
+			this.path = path;
+		}
+
+		public PathType getPathType() {
+			return pathType;
+		}
+
+		@Override
+		public String getPath() {
+			return path;
+		}
+
+		@Override
+		public String getMessage() {
+			return "Write rejected by admission control:  pathType=" + pathType + "; path=" + path;
+		}
+	}
+}
@@ -51,6 +51,10 @@ public class NullPathCache implements PathCache {
         return null;
     }
 
+    @Override
+    public void markStale() {
+    }
+
     @Override
     public long getHitCount() {
         return 0;
@@ -107,6 +107,12 @@ public interface PathCache {
      */
     public PathCacheEntry remove(String absolutePath);
 
+    /**
+     * Mark all current entries as stale:  called when watch events can no longer be relied upon to keep entries up to
+     * date. Entries put afterwards are not stale.
+     */
+    public void markStale();
+
     public long getHitCount();
 
     public long getMissCount();
@@ -12,4 +12,11 @@ public interface PathCacheEntry {
     public byte[] getData();
 
     public List<String> getChildList();
+
+    /**
+     * 
+     * @return true if entry may be out of date because watch events could not be received (disconnected or connected
+     *         to a read-only server)
+     */
+    public boolean isStale();
 }
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2013 Yen Pai ypai@reign.io
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package io.reign.zk;
+
+import io.reign.PathScheme;
+import io.reign.PathType;
+import io.reign.ZkClient;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ZkClient that routes requests to different ZkClient(s) based on the PathType of the requested path, so that heavy
+ * write traffic (metrics, for example) can be directed to a separate ZooKeeper ensemble from coordination traffic.
+ * 
+ * Paths that do not fall under a configured PathType are sent to the default ZkClient.
+ * 
+ * @author ypai
+ * 
+ */
+public class PathRoutingZkClient implements ZkClient {
+
+	private static final Logger logger = LoggerFactory.getLogger(PathRoutingZkClient.class);
+
+	private final ZkClient defaultZkClient;
+
+	private final PathScheme pathScheme;
+
+	private final Map<PathType, ZkClient> zkClientMap = new EnumMap<PathType, ZkClient>(PathType.class);
+
+	/** distinct ZkClient(s) so we only register/close each once */
+	private final Set<ZkClient> zkClientSet = Collections.newSetFromMap(new IdentityHashMap<ZkClient, Boolean>());
+
+	/** ZkClient(s) owned by whoever passed them in: not closed by this client */
+	private final Set<ZkClient> callerOwnedZkClientSet = Collections
+	        .newSetFromMap(new IdentityHashMap<ZkClient, Boolean>());
+
+	public PathRoutingZkClient(ZkClient defaultZkClient, PathScheme pathScheme, Map<PathType, ZkClient> zkClientMap) {
+		this(defaultZkClient, pathScheme, zkClientMap, Collections.<ZkClient> emptySet());
+	}
+
+	/**
+	 * 
+	 * @param defaultZkClient
+	 * @param pathScheme
+	 * @param zkClientMap
+	 * @param callerOwnedZkClients
+	 *            ZkClient(s) in zkClientMap that close() leaves open, since their owner closes them
+	 */
+	public PathRoutingZkClient(ZkClient defaultZkClient, PathScheme pathScheme, Map<PathType, ZkClient> zkClientMap,
+	        Collection<ZkClient> callerOwnedZkClients) {
+		if (defaultZkClient == null || pathScheme == null) {
+			throw new IllegalArgumentException("defaultZkClient and pathScheme cannot be null!");
+		}
+
+		this.defaultZkClient = defaultZkClient;
+		this.pathScheme = pathScheme;
+		this.zkClientMap.putAll(zkClientMap);
+
+		this.zkClientSet.add(defaultZkClient);
+		this.zkClientSet.addAll(zkClientMap.values());
+
+		this.callerOwnedZkClientSet.addAll(callerOwnedZkClients);
+		this.callerOwnedZkClientSet.remove(defaultZkClient);
+
+		logger.info("Routing ZooKeeper requests:  pathTypes={}; distinctClients={}", this.zkClientMap.keySet(),
+		        zkClientSet.size());
+	}
+
+	/**
+	 * 
+	 * @param pathType
+	 * @return ZkClient used for given PathType
+	 */
+	public ZkClient getZkClient(PathType pathType) {
+		ZkClient zkClient = zkClientMap.get(pathType);
+		return zkClient != null ? zkClient : defaultZkClient;
+	}
+
+	public ZkClient getDefaultZkClient() {
+		return defaultZkClient;
+	}
+
+	ZkClient route(String path) {
+		return getZkClient(pathScheme.getPathType(path));
+	}
+
+	boolean isFrameworkBasePathOrParent(String path) {
+		String frameworkBasePath = pathScheme.getFrameworkBasePath();
+		return frameworkBasePath.equals(path) || frameworkBasePath.startsWith(path.endsWith("/") ? path : path + "/");
+	}
+
+	@Override
+	public void register(Watcher watcher) {
+		for (ZkClient zkClient : zkClientSet) {
+			zkClient.register(watcher);
+		}
+	}
+
+	@Override
+	public void close() {
+		for (ZkClient zkClient : zkClientSet) {
+			if (!callerOwnedZkClientSet.contains(zkClient)) {
+				zkClient.close();
+			}
+		}
+	}
+
+	@Override
+	public Stat exists(String path, boolean watch) throws KeeperException, InterruptedException {
+		return route(path).exists(path, watch);
+	}
+
+	@Override
+	public Stat exists(String path, Watcher watcher) throws KeeperException, InterruptedException {
+		return route(path).exists(path, watcher);
+	}
+
+	@Override
+	public List<String> getChildren(String path, boolean watch, Stat stat) throws KeeperException,
+	        InterruptedException {
+		return route(path).getChildren(path, watch, stat);
+	}
+
+	@Override
+	public List<String> getChildren(String path, Watcher watcher) throws KeeperException, InterruptedException {
+		return route(path).getChildren(path, watcher);
+	}
+
+	@Override
+	public List<String> getChildren(String path, boolean watch) throws KeeperException, InterruptedException {
+		return route(path).getChildren(path, watch);
+	}
+
+	@Override
+	public Stat setData(String path, byte[] data, int version) throws KeeperException, InterruptedException {
+		return route(path).setData(path, data, version);
+	}
+
+	@Override
+	public byte[] getData(String path, boolean watch, Stat stat) throws KeeperException, InterruptedException {
+		return route(path).getData(path, watch, stat);
+	}
+
+	@Override
+	public String create(String path, byte[] data, List<ACL> acl, CreateMode createMode) throws KeeperException,
+	        InterruptedException {
+		ZkClient zkClient = route(path);
+
+		// framework base path (and its parents) are shared by all PathType(s) so create on every ensemble
+		if (zkClient == defaultZkClient && isFrameworkBasePathOrParent(path)) {
+			for (ZkClient otherZkClient : zkClientSet) {
+				if (otherZkClient == defaultZkClient) {
+					continue;
+				}
+				try {
+					otherZkClient.create(path, data, acl, createMode);
+				} catch (KeeperException e) {
+					if (e.code() != KeeperException.Code.NODEEXISTS) {
+						throw e;
+					}
+				}
+			}
+		}
+
+		return zkClient.create(path, data, acl, createMode);
+	}
+
+	@Override
+	public void delete(String path, int version) throws InterruptedException, KeeperException {
+		route(path).delete(path, version);
+	}
+
+	/**
+	 * All operations have to route to the same ensemble, since a transaction cannot span ensembles.
+	 */
+	@Override
+	public List<OpResult> multi(Iterable<Op> ops) throws InterruptedException, KeeperException {
+		ZkClient zkClient = null;
+		for (Op op : ops) {
+			ZkClient opZkClient = route(op.getPath());
+			if (zkClient != null && opZkClient != zkClient) {
+				throw new IllegalArgumentException("Transaction spans ensembles:  path=" + op.getPath());
+			}
+			zkClient = opZkClient;
+		}
+		return (zkClient != null ? zkClient : defaultZkClient).multi(ops);
+	}
+
+	@Override
+	public void sync(String path, VoidCallback cb, Object ctx) {
+		route(path).sync(path, cb, ctx);
+	}
+
+	@Override
+	public long getLastSeenZxid(String path) {
+		return route(path).getLastSeenZxid(path);
+	}
+
+}
@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang.builder.ReflectionToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
@@ -37,6 +38,8 @@ import org.apache.zookeeper.AsyncCallback.VoidCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.Watcher.Event.EventType;
@@ -70,6 +73,15 @@ public class ResilientZkClient implements ZkClient, Watcher {
 
 	private volatile boolean connected = false;
 
+	/** true if ZooKeeper server(s) may be connected to in read-only mode when partitioned from quorum */
+	private final boolean canBeReadOnly;
+
+	/** true if currently connected to a read-only server:  writes fail fast */
+	private volatile boolean readOnly = false;
+
+	/** highest zxid seen in responses on the current session */
+	private final AtomicLong lastSeenZxid = new AtomicLong(0);
+
 	/** Map of String path to Set of unique Watcher(s): used to track child watches */
 	private final ConcurrentMap<String, Set<Watcher>> childWatchesMap = new ConcurrentHashMap<String, Set<Watcher>>(
 	        256, 0.9f, 2);
@@ -99,13 +111,84 @@ public class ResilientZkClient implements ZkClient, Watcher {
 		this.sessionTimeoutMillis = sessionTimeoutMillis;
 		this.currentSessionId = sessionId;
 		this.sessionPassword = sessionPassword;
+		this.canBeReadOnly = false;
 		this.zooKeeper = new ZooKeeper(connectString, sessionTimeoutMillis, this, sessionId, sessionPassword);
 	}
 
 	public ResilientZkClient(String connectString, int sessionTimeoutMillis) throws IOException {
+		this(connectString, sessionTimeoutMillis, false);
+	}
+
+	/**
+	 * 
+	 * @param connectString
+	 * @param sessionTimeoutMillis
+	 * @param canBeReadOnly
+	 *            if true, allow connecting to read-only servers so reads can still be served when partitioned from
+	 *            quorum; writes fail fast with NotReadOnlyException while in read-only mode
+	 * @throws IOException
+	 */
+	public ResilientZkClient(String connectString, int sessionTimeoutMillis, boolean canBeReadOnly)
+	        throws IOException {
 		this.connectString = connectString;
 		this.sessionTimeoutMillis = sessionTimeoutMillis;
-		this.zooKeeper = new ZooKeeper(connectString, sessionTimeoutMillis, this);
+		this.canBeReadOnly = canBeReadOnly;
+		this.zooKeeper = new ZooKeeper(connectString, sessionTimeoutMillis, this, canBeReadOnly);
+	}
+
+	public boolean isCanBeReadOnly() {
+		return canBeReadOnly;
+	}
+
+	/**
+	 * 
+	 * @return true if currently connected to a read-only server
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	public boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * 
+	 * @param path
+	 * @return highest zxid seen by this session in a response; reads on this session will not see an older state
+	 */
+	@Override
+	public long getLastSeenZxid(String path) {
+		return lastSeenZxid.get();
+	}
+
+	/**
+	 * Track highest zxid seen in Stat returned by ZooKeeper.
+	 * 
+	 * @param stat
+	 * @return stat
+	 */
+	Stat recordZxid(Stat stat) {
+		if (stat == null) {
+			return null;
+		}
+		long zxid = Math.max(stat.getMzxid(), Math.max(stat.getPzxid(), stat.getCzxid()));
+		long current = lastSeenZxid.get();
+		while (zxid > current && !lastSeenZxid.compareAndSet(current, zxid)) {
+			current = lastSeenZxid.get();
+		}
+		return stat;
+	}
+
+	/**
+	 * Fail fast instead of retrying writes that cannot succeed while connected to a read-only server.
+	 * 
+	 * @throws KeeperException
+	 */
+	void checkWritable() throws KeeperException {
+		if (readOnly) {
+			throw new KeeperException.NotReadOnlyException();
+		}
 	}
 
 	public BackoffStrategyFactory getBackoffStrategyFactory() {
@@ -419,7 +502,9 @@ public class ResilientZkClient implements ZkClient, Watcher {
 			}
 		};
 
-		return zkAction.perform();
+		List<String> childList = zkAction.perform();
+		recordZxid(stat);
+		return childList;
 	}
 
 	public void getChildren(final String path, final Watcher watcher, final Children2Callback cb, final Object ctx) {
@@ -489,7 +574,9 @@ public class ResilientZkClient implements ZkClient, Watcher {
 			}
 		};
 
-		return zkAction.perform();
+		List<String> childList = zkAction.perform();
+		recordZxid(stat);
+		return childList;
 	}
 
 	@Override
@@ -581,7 +668,9 @@ public class ResilientZkClient implements ZkClient, Watcher {
 			}
 		};
 
-		return zkAction.perform();
+		byte[] data = zkAction.perform();
+		recordZxid(stat);
+		return data;
 	}
 
 	public long getSessionId() {
@@ -599,6 +688,17 @@ public class ResilientZkClient implements ZkClient, Watcher {
 		        watcher.hashCode(), watcherSet.size() });
 	}
 
+	/**
+	 * Stop passing events to a previously registered Watcher.
+	 * 
+	 * @param watcher
+	 */
+	public void unregister(Watcher watcher) {
+		this.watcherSet.remove(watcher);
+		logger.info("Unregistered watcher:  {}:  hashCode={}; watchers={}", new Object[] {
+		        watcher.getClass().getName(), watcher.hashCode(), watcherSet.size() });
+	}
+
 	public void setACL(final String path, final List<ACL> acl, final int version, final StatCallback cb,
 	        final Object ctx) {
 
@@ -711,6 +811,7 @@ public class ResilientZkClient implements ZkClient, Watcher {
 	@Override
 	public String create(final String path, final byte[] data, final List<ACL> acl, final CreateMode createMode)
 	        throws KeeperException, InterruptedException {
+		checkWritable();
 
 		ZooKeeperAction<String> zkAction = new ZooKeeperAction<String>(backoffStrategyFactory.get()) {
 
@@ -785,7 +886,7 @@ public class ResilientZkClient implements ZkClient, Watcher {
 			}
 
 		};
-		return zkAction.perform();
+		return recordZxid(zkAction.perform());
 
 	}
 
@@ -833,6 +934,7 @@ public class ResilientZkClient implements ZkClient, Watcher {
 	 */
 	@Override
 	public void delete(final String path, final int version) throws InterruptedException, KeeperException {
+		checkWritable();
 
 		VoidZooKeeperAction zkAction = new VoidZooKeeperAction(backoffStrategyFactory.get()) {
 
@@ -852,6 +954,29 @@ public class ResilientZkClient implements ZkClient, Watcher {
 
 	}
 
+	/**
+	 * 
+	 * @param ops
+	 * @return
+	 * @throws InterruptedException
+	 * @throws KeeperException
+	 */
+	@Override
+	public List<OpResult> multi(final Iterable<Op> ops) throws InterruptedException, KeeperException {
+		checkWritable();
+
+		ZooKeeperAction<List<OpResult>> zkAction = new ZooKeeperAction<List<OpResult>>(backoffStrategyFactory.get()) {
+
+			@Override
+			public List<OpResult> doPerform() throws KeeperException, InterruptedException {
+				return zooKeeper.multi(ops);
+			}
+
+		};
+		return zkAction.perform();
+
+	}
+
 	/**
 	 * 
 	 * @param path
@@ -864,6 +989,7 @@ public class ResilientZkClient implements ZkClient, Watcher {
 	@Override
 	public Stat setData(final String path, final byte[] data, final int version) throws KeeperException,
 	        InterruptedException {
+		checkWritable();
 
 		ZooKeeperAction<Stat> zkAction = new ZooKeeperAction<Stat>(backoffStrategyFactory.get()) {
 
@@ -874,7 +1000,7 @@ public class ResilientZkClient implements ZkClient, Watcher {
 			}
 
 		};
-		return zkAction.perform();
+		return recordZxid(zkAction.perform());
 
 	}
 
@@ -904,7 +1030,9 @@ public class ResilientZkClient implements ZkClient, Watcher {
 			}
 
 		};
-		return zkAction.perform();
+		byte[] data = zkAction.perform();
+		recordZxid(stat);
+		return data;
 
 	}
 
@@ -932,7 +1060,7 @@ public class ResilientZkClient implements ZkClient, Watcher {
 			}
 
 		};
-		return zkAction.perform();
+		return recordZxid(zkAction.perform());
 
 	}
 
@@ -971,10 +1099,10 @@ public class ResilientZkClient implements ZkClient, Watcher {
 					        getConnectString());
 				}
 				if (currentSessionId == null) {
-					this.zooKeeper = new ZooKeeper(getConnectString(), getSessionTimeout(), this);
+					this.zooKeeper = new ZooKeeper(getConnectString(), getSessionTimeout(), this, canBeReadOnly);
 				} else {
 					this.zooKeeper = new ZooKeeper(getConnectString(), getSessionTimeout(), this, currentSessionId,
-					        sessionPassword);
+					        sessionPassword, canBeReadOnly);
 				}
 
 				synchronized (this) {
@@ -1034,9 +1162,14 @@ public class ResilientZkClient implements ZkClient, Watcher {
 			break;
 		case None:
 			Event.KeeperState eventState = event.getState();
-			if (eventState == Event.KeeperState.SyncConnected) {
+			if (eventState == Event.KeeperState.SyncConnected || eventState == Event.KeeperState.ConnectedReadOnly) {
 
 				this.connected = true;
+				this.readOnly = eventState == Event.KeeperState.ConnectedReadOnly;
+				if (readOnly) {
+					logger.warn("Connected in read-only mode:  writes will fail until quorum is reachable:  connectString={}",
+					        getConnectString());
+				}
 
 				if (currentSessionId == null) {
 					if (logger.isInfoEnabled()) {
@@ -1062,6 +1195,7 @@ public class ResilientZkClient implements ZkClient, Watcher {
 
 			} else if (eventState == Event.KeeperState.Disconnected) {
 				this.connected = false;
+				this.readOnly = false;
 
 			} else if (eventState == Event.KeeperState.Expired) {
 				// expired session; close ZK connection and reconnect
@@ -1074,6 +1208,9 @@ public class ResilientZkClient implements ZkClient, Watcher {
 					// null out current session ID
 					this.currentSessionId = null;
 
+					// new session may connect to a server that is further behind
+					this.lastSeenZxid.set(0);
+
 					// do connection in another thread so as to not block the ZK event thread
 					Thread reconnectThread = new Thread() {
 						@Override
@@ -21,10 +21,13 @@ import io.reign.ZkClient;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.zookeeper.AsyncCallback.VoidCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.Watcher.Event.EventType;
@@ -44,6 +47,12 @@ import org.slf4j.LoggerFactory;
  * Write requests will update path cache items if the ZooKeeper operation is successful and the path is already being
  * tracked by the cache.
  * 
+ * While disconnected or connected to a read-only server, cache entries are marked stale. Read requests without a
+ * watch are then served from the cache (even if stale) instead of waiting for the connection to be restored; stale
+ * entries are refreshed from ZooKeeper once a read-write connection is available again. Read requests without a watch
+ * that miss the cache while disconnected fail fast with ConnectionLossException; while connected to a read-only
+ * server they are served by that server. Use isLastReadStale() to tell whether a read was served from a stale entry.
+ * 
  * @author ypai
  * 
  */
@@ -51,15 +60,103 @@ public class ResilientZkClientWithCache extends AbstractZkEventHandler implement
 
     private static final Logger logger = LoggerFactory.getLogger(ResilientZkClientWithCache.class);
 
-    private final ZkClient zkClient;
+    private final ResilientZkClient zkClient;
 
     private final PathCache pathCache;
 
+    /** true if cache entries have been marked stale since last read-write connection */
+    private volatile boolean staleMarked = false;
+
+    private final AtomicLong staleReadCount = new AtomicLong(0);
+
+    /** true if the last read request made by the thread was served from a stale cache entry */
+    private final ThreadLocal<Boolean> lastReadStale = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return Boolean.FALSE;
+        }
+    };
+
     public ResilientZkClientWithCache(String zkConnectString, int zkSessionTimeout, PathCache pathCache)
             throws IOException {
-        zkClient = new ResilientZkClient(zkConnectString, zkSessionTimeout);
+        this(zkConnectString, zkSessionTimeout, false, pathCache);
+    }
+
+    public ResilientZkClientWithCache(String zkConnectString, int zkSessionTimeout, boolean canBeReadOnly,
+            PathCache pathCache) throws IOException {
+        zkClient = new ResilientZkClient(zkConnectString, zkSessionTimeout, canBeReadOnly);
 
         this.pathCache = pathCache;
+
+        // keep cache entries up to date
+        zkClient.register(this);
+    }
+
+    /**
+     * 
+     * @return number of reads served from cache while disconnected or connected to a read-only server
+     */
+    public long getStaleReadCount() {
+        return staleReadCount.get();
+    }
+
+    /**
+     * 
+     * @return true if the last read request made by the calling thread was served from a stale cache entry
+     */
+    public boolean isLastReadStale() {
+        return lastReadStale.get();
+    }
+
+    /**
+     * 
+     * @return true if disconnected or connected to a read-only server; marks cache entries stale on transition
+     */
+    boolean isDegraded() {
+        boolean degraded = !zkClient.isConnected() || zkClient.isReadOnly();
+        if (degraded && !staleMarked) {
+            staleMarked = true;
+            logger.warn("ZooKeeper connection degraded:  marking cache entries stale:  readOnly={}",
+                    zkClient.isReadOnly());
+            pathCache.markStale();
+        } else if (!degraded && staleMarked) {
+            staleMarked = false;
+        }
+        return degraded;
+    }
+
+    /**
+     * 
+     * @param path
+     * @param watch
+     * @return cache entry to use for read request or null if request should go to ZooKeeper
+     * @throws KeeperException
+     *             if there is no cache entry to use while disconnected
+     */
+    PathCacheEntry getCacheEntry(String path, boolean watch) throws KeeperException {
+        lastReadStale.set(Boolean.FALSE);
+
+        // watches can only be set through ZooKeeper
+        if (watch) {
+            return null;
+        }
+
+        PathCacheEntry pathCacheEntry = pathCache.get(path);
+        if (isDegraded()) {
+            if (pathCacheEntry != null) {
+                staleReadCount.incrementAndGet();
+                lastReadStale.set(Boolean.TRUE);
+                return pathCacheEntry;
+            }
+
+            // fail fast instead of waiting for connection to be restored
+            if (!zkClient.isConnected()) {
+                throw KeeperException.create(KeeperException.Code.CONNECTIONLOSS, path);
+            }
+            return null;
+        }
+
+        return pathCacheEntry == null || pathCacheEntry.isStale() ? null : pathCacheEntry;
     }
 
     @Override
@@ -74,11 +171,9 @@ public class ResilientZkClientWithCache extends AbstractZkEventHandler implement
 
     @Override
     public Stat exists(String path, boolean watch) throws KeeperException, InterruptedException {
-        if (!watch) {
-            PathCacheEntry pathCacheEntry = pathCache.get(path);
-            if (pathCacheEntry != null) {
-                return pathCacheEntry.getStat();
-            }
+        PathCacheEntry pathCacheEntry = getCacheEntry(path, watch);
+        if (pathCacheEntry != null) {
+            return pathCacheEntry.getStat();
         }
 
         Stat stat = zkClient.exists(path, watch);
@@ -93,11 +188,9 @@ public class ResilientZkClientWithCache extends AbstractZkEventHandler implement
 
     @Override
     public Stat exists(String path, Watcher watcher) throws KeeperException, InterruptedException {
-        if (watcher == null) {
-            PathCacheEntry pathCacheEntry = pathCache.get(path);
-            if (pathCacheEntry != null) {
-                return pathCacheEntry.getStat();
-            }
+        PathCacheEntry pathCacheEntry = getCacheEntry(path, watcher != null);
+        if (pathCacheEntry != null) {
+            return pathCacheEntry.getStat();
         }
 
         Stat stat = zkClient.exists(path, watcher);
@@ -113,12 +206,10 @@ public class ResilientZkClientWithCache extends AbstractZkEventHandler implement
     @Override
     public List<String> getChildren(String path, boolean watch, Stat stat) throws KeeperException, InterruptedException {
         // if no watch is to be set, try to get from path cache
-        if (!watch) {
-            PathCacheEntry pathCacheEntry = pathCache.get(path);
-            if (pathCacheEntry != null) {
-                copyStat(pathCacheEntry.getStat(), stat);
-                return pathCacheEntry.getChildList();
-            }
+        PathCacheEntry pathCacheEntry = getCacheEntry(path, watch);
+        if (pathCacheEntry != null) {
+            copyStat(pathCacheEntry.getStat(), stat);
+            return pathCacheEntry.getChildList();
         }
 
         List<String> childList = zkClient.getChildren(path, true);
@@ -132,11 +223,9 @@ public class ResilientZkClientWithCache extends AbstractZkEventHandler implement
     @Override
     public List<String> getChildren(String path, Watcher watcher) throws KeeperException, InterruptedException {
         // if no watch is to be set, try to get from path cache
-        if (watcher == null) {
-            PathCacheEntry pathCacheEntry = pathCache.get(path);
-            if (pathCacheEntry != null) {
-                return pathCacheEntry.getChildList();
-            }
+        PathCacheEntry pathCacheEntry = getCacheEntry(path, watcher != null);
+        if (pathCacheEntry != null) {
+            return pathCacheEntry.getChildList();
         }
 
         List<String> childList = zkClient.getChildren(path, watcher);
@@ -152,11 +241,9 @@ public class ResilientZkClientWithCache extends AbstractZkEventHandler implement
     @Override
     public List<String> getChildren(String path, boolean watch) throws KeeperException, InterruptedException {
         // if no watch is to be set, try to get from path cache
-        if (!watch) {
-            PathCacheEntry pathCacheEntry = pathCache.get(path);
-            if (pathCacheEntry != null) {
-                return pathCacheEntry.getChildList();
-            }
+        PathCacheEntry pathCacheEntry = getCacheEntry(path, watch);
+        if (pathCacheEntry != null) {
+            return pathCacheEntry.getChildList();
         }
 
         List<String> childList = zkClient.getChildren(path, watch);
@@ -182,12 +269,10 @@ public class ResilientZkClientWithCache extends AbstractZkEventHandler implement
     @Override
     public byte[] getData(String path, boolean watch, Stat stat) throws KeeperException, InterruptedException {
         // if no watch is to be set, try to get from path cache
-        if (!watch) {
-            PathCacheEntry pathCacheEntry = pathCache.get(path);
-            if (pathCacheEntry != null) {
-                copyStat(pathCacheEntry.getStat(), stat);
-                return pathCacheEntry.getData();
-            }
+        PathCacheEntry pathCacheEntry = getCacheEntry(path, watch);
+        if (pathCacheEntry != null) {
+            copyStat(pathCacheEntry.getStat(), stat);
+            return pathCacheEntry.getData();
         }
 
         byte[] data = zkClient.getData(path, watch, stat);
@@ -213,11 +298,27 @@ public class ResilientZkClientWithCache extends AbstractZkEventHandler implement
         pathCache.remove(path);
     }
 
+    @Override
+    public List<OpResult> multi(Iterable<Op> ops) throws InterruptedException, KeeperException {
+        List<OpResult> results = zkClient.multi(ops);
+
+        for (Op op : ops) {
+            pathCache.remove(op.getPath());
+        }
+
+        return results;
+    }
+
     @Override
     public void sync(String path, VoidCallback cb, Object ctx) {
         zkClient.sync(path, cb, ctx);
     }
 
+    @Override
+    public long getLastSeenZxid(String path) {
+        return zkClient.getLastSeenZxid(path);
+    }
+
     @Override
     public void nodeChildrenChanged(WatchedEvent event) {
         handleNodeUpdate(event);
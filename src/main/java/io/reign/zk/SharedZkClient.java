@@ -0,0 +1,340 @@
+/*
+ * Copyright 2013 Yen Pai ypai@reign.io
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package io.reign.zk;
+
+import io.reign.ZkClient;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reference-counted handle to a ResilientZkClient shared by multiple Reign instances in the same JVM: each handle only
+ * sees events for paths in its namespace (usually the framework base path), and the underlying ZooKeeper session is
+ * closed when the last handle is closed. Namespaces of open handles to the same session may not overlap, so Reign
+ * instances sharing a session must each use a distinct framework base path.
+ * 
+ * @author ypai
+ * 
+ */
+public class SharedZkClient implements ZkClient {
+
+	private static final Logger logger = LoggerFactory.getLogger(SharedZkClient.class);
+
+	/** shared sessions keyed by connection settings; guarded by synchronizing on the map */
+	private static final Map<String, SharedSession> sharedSessionMap = new HashMap<String, SharedSession>();
+
+	private final SharedSession sharedSession;
+
+	private final String namespace;
+
+	private final Set<Watcher> watcherSet = Collections.newSetFromMap(new ConcurrentHashMap<Watcher, Boolean>(4, 0.9f,
+	        1));
+
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+
+	private SharedZkClient(SharedSession sharedSession, String namespace) {
+		this.sharedSession = sharedSession;
+		this.namespace = namespace;
+	}
+
+	/**
+	 * Get a handle to the shared session for the given connection settings, creating the session if necessary.
+	 * 
+	 * @param connectString
+	 * @param sessionTimeoutMillis
+	 * @param namespace
+	 *            base path of events passed to Watcher(s) registered through the returned handle; null or "/" for all
+	 *            events
+	 * @return
+	 * @throws IOException
+	 * @throws IllegalStateException
+	 *             if namespace overlaps with the namespace of another open handle to the shared session
+	 */
+	public static SharedZkClient acquire(String connectString, int sessionTimeoutMillis, String namespace)
+	        throws IOException {
+		return acquire(connectString, sessionTimeoutMillis, false, namespace);
+	}
+
+	/**
+	 * 
+	 * @param connectString
+	 * @param sessionTimeoutMillis
+	 * @param canBeReadOnly
+	 *            sessions allowing read-only mode are not shared with sessions that do not
+	 * @param namespace
+	 * @return
+	 * @throws IOException
+	 */
+	public static SharedZkClient acquire(String connectString, int sessionTimeoutMillis, boolean canBeReadOnly,
+	        String namespace) throws IOException {
+		String key = sessionKey(connectString, sessionTimeoutMillis, canBeReadOnly);
+		synchronized (sharedSessionMap) {
+			SharedSession sharedSession = sharedSessionMap.get(key);
+			if (sharedSession != null) {
+				// events are filtered by namespace, so handles with overlapping namespaces would see each other's events
+				for (String attachedNamespace : sharedSession.namespaceSet) {
+					if (overlaps(attachedNamespace, namespace)) {
+						throw new IllegalStateException("Namespace overlaps with another handle to shared session:  "
+						        + "namespace=" + namespace + "; attachedNamespace=" + attachedNamespace);
+					}
+				}
+			} else {
+				sharedSession = new SharedSession(key, new ResilientZkClient(connectString, sessionTimeoutMillis,
+				        canBeReadOnly));
+				sharedSessionMap.put(key, sharedSession);
+			}
+			sharedSession.namespaceSet.add(normalizeNamespace(namespace));
+			sharedSession.referenceCount++;
+
+			logger.info("Acquired shared ZooKeeper session:  connectString={}; namespace={}; referenceCount={}",
+			        new Object[] { connectString, namespace, sharedSession.referenceCount });
+
+			return new SharedZkClient(sharedSession, namespace);
+		}
+	}
+
+	/**
+	 * 
+	 * @param connectString
+	 * @param sessionTimeoutMillis
+	 * @return number of open handles to the shared session with the given connection settings that cannot be
+	 *         read-only
+	 */
+	public static int getReferenceCount(String connectString, int sessionTimeoutMillis) {
+		return getReferenceCount(connectString, sessionTimeoutMillis, false);
+	}
+
+	/**
+	 * 
+	 * @param connectString
+	 * @param sessionTimeoutMillis
+	 * @param canBeReadOnly
+	 * @return number of open handles to the shared session with the given connection settings
+	 */
+	public static int getReferenceCount(String connectString, int sessionTimeoutMillis, boolean canBeReadOnly) {
+		synchronized (sharedSessionMap) {
+			SharedSession sharedSession = sharedSessionMap.get(sessionKey(connectString, sessionTimeoutMillis,
+			        canBeReadOnly));
+			return sharedSession != null ? sharedSession.referenceCount : 0;
+		}
+	}
+
+	static String normalizeNamespace(String namespace) {
+		return namespace == null ? "/" : namespace;
+	}
+
+	/**
+	 * 
+	 * @param namespace1
+	 * @param namespace2
+	 * @return true if either namespace is the same as or an ancestor of the other
+	 */
+	static boolean overlaps(String namespace1, String namespace2) {
+		namespace1 = normalizeNamespace(namespace1);
+		namespace2 = normalizeNamespace(namespace2);
+		return namespace1.equals(namespace2) || "/".equals(namespace1) || "/".equals(namespace2)
+		        || namespace1.startsWith(namespace2 + "/") || namespace2.startsWith(namespace1 + "/");
+	}
+
+	static String sessionKey(String connectString, int sessionTimeoutMillis, boolean canBeReadOnly) {
+		return connectString + "/" + sessionTimeoutMillis + (canBeReadOnly ? "/ro" : "");
+	}
+
+	public ResilientZkClient getDelegate() {
+		return sharedSession.zkClient;
+	}
+
+	public String getNamespace() {
+		return namespace;
+	}
+
+	boolean inNamespace(String path) {
+		if (path == null || namespace == null || "/".equals(namespace)) {
+			return true;
+		}
+
+		// also pass events for ancestors of namespace
+		return path.equals(namespace) || path.startsWith(namespace + "/") || namespace.startsWith(path + "/")
+		        || "/".equals(path);
+	}
+
+	@Override
+	public void register(final Watcher watcher) {
+		if (closed.get()) {
+			throw new IllegalStateException("Already closed!");
+		}
+		Watcher namespacedWatcher = new NamespacedWatcher(watcher);
+		if (watcherSet.add(namespacedWatcher)) {
+			sharedSession.zkClient.register(namespacedWatcher);
+		}
+	}
+
+	/**
+	 * Releases this handle; the shared session is closed when no handles remain. Subsequent calls have no effect.
+	 */
+	@Override
+	public void close() {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+
+		for (Watcher watcher : watcherSet) {
+			sharedSession.zkClient.unregister(watcher);
+		}
+		watcherSet.clear();
+
+		synchronized (sharedSessionMap) {
+			sharedSession.namespaceSet.remove(normalizeNamespace(namespace));
+			sharedSession.referenceCount--;
+
+			logger.info("Released shared ZooKeeper session:  key={}; namespace={}; referenceCount={}", new Object[] {
+			        sharedSession.key, namespace, sharedSession.referenceCount });
+
+			if (sharedSession.referenceCount > 0) {
+				return;
+			}
+			sharedSessionMap.remove(sharedSession.key);
+		}
+
+		sharedSession.zkClient.close();
+	}
+
+	@Override
+	public Stat exists(String path, boolean watch) throws KeeperException, InterruptedException {
+		return sharedSession.zkClient.exists(path, watch);
+	}
+
+	@Override
+	public Stat exists(String path, Watcher watcher) throws KeeperException, InterruptedException {
+		return sharedSession.zkClient.exists(path, watcher);
+	}
+
+	@Override
+	public List<String> getChildren(String path, boolean watch, Stat stat) throws KeeperException,
+	        InterruptedException {
+		return sharedSession.zkClient.getChildren(path, watch, stat);
+	}
+
+	@Override
+	public List<String> getChildren(String path, Watcher watcher) throws KeeperException, InterruptedException {
+		return sharedSession.zkClient.getChildren(path, watcher);
+	}
+
+	@Override
+	public List<String> getChildren(String path, boolean watch) throws KeeperException, InterruptedException {
+		return sharedSession.zkClient.getChildren(path, watch);
+	}
+
+	@Override
+	public Stat setData(String path, byte[] data, int version) throws KeeperException, InterruptedException {
+		return sharedSession.zkClient.setData(path, data, version);
+	}
+
+	@Override
+	public byte[] getData(String path, boolean watch, Stat stat) throws KeeperException, InterruptedException {
+		return sharedSession.zkClient.getData(path, watch, stat);
+	}
+
+	@Override
+	public String create(String path, byte[] data, List<ACL> acl, CreateMode createMode) throws KeeperException,
+	        InterruptedException {
+		return sharedSession.zkClient.create(path, data, acl, createMode);
+	}
+
+	@Override
+	public void delete(String path, int version) throws InterruptedException, KeeperException {
+		sharedSession.zkClient.delete(path, version);
+	}
+
+	@Override
+	public List<OpResult> multi(Iterable<Op> ops) throws InterruptedException, KeeperException {
+		return sharedSession.zkClient.multi(ops);
+	}
+
+	@Override
+	public void sync(String path, VoidCallback cb, Object ctx) {
+		sharedSession.zkClient.sync(path, cb, ctx);
+	}
+
+	@Override
+	public long getLastSeenZxid(String path) {
+		return sharedSession.zkClient.getLastSeenZxid(path);
+	}
+
+	/**
+	 * Only passes on events in namespace.
+	 */
+	private class NamespacedWatcher implements Watcher {
+		private final Watcher watcher;
+
+		NamespacedWatcher(Watcher watcher) {
+			this.watcher = watcher;
+		}
+
+		@Override
+		public void process(WatchedEvent event) {
+			if (inNamespace(event.getPath())) {
+				watcher.process(event);
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return watcher.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof NamespacedWatcher && ((NamespacedWatcher) obj).watcher == watcher
+			        && ((NamespacedWatcher) obj).getSharedZkClient() == getSharedZkClient();
+		}
+
+		SharedZkClient getSharedZkClient() {
+			return SharedZkClient.this;
+		}
+	}
+
+	private static class SharedSession {
+		private final String key;
+		private final ResilientZkClient zkClient;
+		private int referenceCount = 0;
+
+		/** namespaces of open handles */
+		private final Set<String> namespaceSet = new HashSet<String>();
+
+		SharedSession(String key, ResilientZkClient zkClient) {
+			this.key = key;
+			this.zkClient = zkClient;
+		}
+	}
+}
@@ -195,6 +195,25 @@ public class SimplePathCache implements PathCache {
         return removed;
     }
 
+    @Override
+    public void markStale() {
+        int markedCount = 0;
+        for (String absolutePath : cache.keySet()) {
+            PathCacheEntry cacheEntry = cache.get(absolutePath);
+            if (cacheEntry == null || cacheEntry.isStale()) {
+                continue;
+            }
+
+            // only replace if entry has not been updated in the meantime
+            PathCacheEntry staleCacheEntry = new SimplePathCacheEntry(cacheEntry.getStat(), cacheEntry.getData(),
+                    cacheEntry.getChildList(), cacheEntry.getLastUpdatedTimestampMillis(), true);
+            if (cache.replace(absolutePath, cacheEntry, staleCacheEntry)) {
+                markedCount++;
+            }
+        }
+        logger.info("Marked cache entries stale:  markedCount={}", markedCount);
+    }
+
     @Override
     public long getHitCount() {
         return hitCount.get();
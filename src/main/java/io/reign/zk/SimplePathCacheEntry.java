@@ -32,12 +32,19 @@ public class SimplePathCacheEntry implements PathCacheEntry {
     private final byte[] data;
     private final List<String> childList;
     private final long lastUpdatedTimestampMillis;
+    private final boolean stale;
 
     public SimplePathCacheEntry(Stat stat, byte[] data, List<String> childList, long lastUpdatedTimestampMillis) {
+        this(stat, data, childList, lastUpdatedTimestampMillis, false);
+    }
+
+    public SimplePathCacheEntry(Stat stat, byte[] data, List<String> childList, long lastUpdatedTimestampMillis,
+            boolean stale) {
         this.stat = stat;
         this.data = data;
         this.childList = childList == null || childList.size() == 0 ? Collections.EMPTY_LIST : childList;
         this.lastUpdatedTimestampMillis = lastUpdatedTimestampMillis;
+        this.stale = stale;
     }
 
     @Override
@@ -60,4 +67,9 @@ public class SimplePathCacheEntry implements PathCacheEntry {
         return childList;
     }
 
+    @Override
+    public boolean isStale() {
+        return stale;
+    }
+
 }
@@ -0,0 +1,131 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package io.reign;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compares bytes allocated per child change event when comparing child lists per observer with HashSet(s) (previous
+ * approach) vs. computing a shared ChildListDelta once per event.
+ * 
+ * Not part of the test suite: run with "mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=io.reign.ChildListDeltaBenchmark" or from an IDE. Requires a HotSpot JVM for per-thread allocation
+ * counts.
+ * 
+ * @author ypai
+ * 
+ */
+public class ChildListDeltaBenchmark {
+
+    private static final int CHILD_COUNT = 5000;
+    private static final int OBSERVER_COUNT = 50;
+    private static final int EVENT_COUNT = 200;
+
+    public static void main(String[] args) throws Exception {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        // unsorted, as returned by ZooKeeper
+        List<String> previousChildList = new ArrayList<String>(CHILD_COUNT);
+        for (int i = 0; i < CHILD_COUNT; i++) {
+            previousChildList.add("node-" + i);
+        }
+        Collections.shuffle(previousChildList);
+
+        // one child replaced: same size, so the HashSet comparison cannot short-circuit
+        List<String> replacedChildList = new ArrayList<String>(previousChildList);
+        replacedChildList.set(CHILD_COUNT / 2, "node-new");
+
+        // one child added
+        List<String> addedChildList = new ArrayList<String>(previousChildList);
+        addedChildList.add("node-new");
+
+        List<String> sortedPreviousChildList = ChildListDelta.sorted(previousChildList);
+
+        for (int warmup = 0; warmup < 3; warmup++) {
+            hashSetEvents(previousChildList, replacedChildList, 20);
+            deltaEvents(sortedPreviousChildList, replacedChildList, 20);
+        }
+
+        report("replaced (HashSet per observer)", threadMXBean, threadId, previousChildList, replacedChildList, false);
+        report("replaced (shared delta)", threadMXBean, threadId, sortedPreviousChildList, replacedChildList, true);
+        report("added (HashSet per observer)", threadMXBean, threadId, previousChildList, addedChildList, false);
+        report("added (shared delta)", threadMXBean, threadId, sortedPreviousChildList, addedChildList, true);
+    }
+
+    static void report(String name, com.sun.management.ThreadMXBean threadMXBean, long threadId,
+            List<String> previousChildList, List<String> updatedChildList, boolean delta) {
+        long startBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+        long startNanos = System.nanoTime();
+        int changedCount = delta ? deltaEvents(previousChildList, updatedChildList, EVENT_COUNT) : hashSetEvents(
+                previousChildList, updatedChildList, EVENT_COUNT);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - startBytes;
+
+        System.out.println(String.format(
+                "%-34s children=%d; observers=%d; bytesPerEvent=%d; microsPerEvent=%d; changed=%d", name,
+                CHILD_COUNT, OBSERVER_COUNT, allocatedBytes / EVENT_COUNT, elapsedNanos / EVENT_COUNT / 1000,
+                changedCount));
+    }
+
+    /**
+     * Previous ObserverManager behavior: each observer compares its previous list to the updated list.
+     */
+    static int hashSetEvents(List<String> previousChildList, List<String> updatedChildList, int eventCount) {
+        int changedCount = 0;
+        for (int event = 0; event < eventCount; event++) {
+            for (int observer = 0; observer < OBSERVER_COUNT; observer++) {
+                boolean differs = previousChildList.size() != updatedChildList.size();
+                if (!differs) {
+                    Set<String> childListSet = new HashSet<String>(previousChildList.size() + 1, 1.0f);
+                    childListSet.addAll(previousChildList);
+                    Set<String> updatedChildListSet = new HashSet<String>(updatedChildList.size() + 1, 1.0f);
+                    updatedChildListSet.addAll(updatedChildList);
+                    differs = !childListSet.equals(updatedChildListSet);
+                }
+                if (differs) {
+                    changedCount++;
+                }
+            }
+        }
+        return changedCount;
+    }
+
+    /**
+     * Current ObserverManager behavior: updated list is sorted once per event and observers sharing the same previous
+     * list share one delta.
+     */
+    static int deltaEvents(List<String> previousChildList, List<String> updatedChildList, int eventCount) {
+        int changedCount = 0;
+        for (int event = 0; event < eventCount; event++) {
+            ObserverManager.ChildListDeltaCache deltaCache = new ObserverManager.ChildListDeltaCache(
+                    ChildListDelta.sorted(updatedChildList));
+            for (int observer = 0; observer < OBSERVER_COUNT; observer++) {
+                if (!deltaCache.get(previousChildList).isEmpty()) {
+                    changedCount++;
+                }
+            }
+        }
+        return changedCount;
+    }
+}
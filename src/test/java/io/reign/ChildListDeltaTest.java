@@ -0,0 +1,77 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package io.reign;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ChildListDeltaTest {
+
+    @Test
+    public void testCompute() throws Exception {
+        List<String> previous = Arrays.asList("A", "B", "C", "E");
+        List<String> updated = Arrays.asList("B", "C", "D", "F");
+
+        ChildListDelta delta = ChildListDelta.compute(previous, updated);
+        assertEquals(Arrays.asList("D", "F"), delta.getAdded());
+        assertEquals(Arrays.asList("A", "E"), delta.getRemoved());
+        assertTrue(!delta.isEmpty());
+
+        assertSame(ChildListDelta.EMPTY, ChildListDelta.compute(previous, previous));
+        assertSame(ChildListDelta.EMPTY, ChildListDelta.compute(null, Collections.EMPTY_LIST));
+
+        delta = ChildListDelta.compute(null, updated);
+        assertEquals(updated, delta.getAdded());
+        assertTrue(delta.getRemoved().isEmpty());
+    }
+
+    @Test
+    public void testComputeUnsorted() throws Exception {
+        List<String> previous = Arrays.asList("C", "A", "B");
+        List<String> updated = Arrays.asList("B", "D", "C");
+
+        ChildListDelta delta = ChildListDelta.compute(previous, updated);
+        assertEquals(Arrays.asList("D"), delta.getAdded());
+        assertEquals(Arrays.asList("A"), delta.getRemoved());
+
+        assertTrue(ChildListDelta.compute(Arrays.asList("B", "A"), Arrays.asList("A", "B")).isEmpty());
+
+        // sorted lists are not copied
+        List<String> sorted = Arrays.asList("A", "B");
+        assertSame(sorted, ChildListDelta.sorted(sorted));
+        assertEquals(Arrays.asList("A", "B", "C"), ChildListDelta.sorted(previous));
+    }
+
+    @Test
+    public void testDeltaCache() throws Exception {
+        List<String> previous = Arrays.asList("A", "B");
+        ObserverManager.ChildListDeltaCache deltaCache = new ObserverManager.ChildListDeltaCache(Arrays.asList("A",
+                "C"));
+
+        ChildListDelta delta = deltaCache.get(previous);
+        assertSame(delta, deltaCache.get(previous));
+        assertEquals(Arrays.asList("C"), delta.getAdded());
+        assertEquals(Arrays.asList("B"), delta.getRemoved());
+    }
+}
@@ -45,6 +45,19 @@ public class DefaultPathSchemeTest {
         assertFalse(pathScheme.isValidToken("jack/jill/up/the/hill/"));
     }
 
+    @Test
+    public void testGetPathType() throws Exception {
+        assertTrue(pathScheme.getPathType(pathScheme.getAbsolutePath(PathType.METRICS)) == PathType.METRICS);
+        assertTrue(pathScheme.getPathType(pathScheme.getAbsolutePath(PathType.COORD, "a/b")) == PathType.COORD);
+        assertTrue(pathScheme.getPathType(pathScheme.getAbsolutePath(PathType.PRESENCE, "a")) == PathType.PRESENCE);
+
+        assertTrue(pathScheme.getPathType("/") == null);
+        assertTrue(pathScheme.getPathType(Reign.DEFAULT_FRAMEWORK_BASE_PATH) == null);
+        assertTrue(pathScheme.getPathType(Reign.DEFAULT_FRAMEWORK_BASE_PATH + "/unknown/a") == null);
+        assertTrue(pathScheme.getPathType("/other/metrics/a") == null);
+        assertTrue(pathScheme.getPathType(Reign.DEFAULT_FRAMEWORK_BASE_PATH + "/metricsX") == null);
+    }
+
     @Test
     public void testGetParentPath() throws Exception {
         String value;
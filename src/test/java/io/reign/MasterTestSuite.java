@@ -8,6 +8,12 @@ import io.reign.data.DataServiceTestSuite;
 import io.reign.mesg.MessagingServiceTestSuite;
 import io.reign.metrics.MetricsServiceTestSuite;
 import io.reign.presence.PresenceServiceTestSuite;
+import io.reign.util.PartitionedExecutorTest;
+import io.reign.util.ZkClientUtilTest;
+import io.reign.zk.AdmissionControlZkClientTest;
+import io.reign.zk.PathRoutingZkClientTest;
+import io.reign.zk.ResilientZkClientWithCacheTest;
+import io.reign.zk.SharedZkClientTest;
 
 import java.io.File;
 import java.util.UUID;
@@ -28,7 +34,10 @@ import org.slf4j.LoggerFactory;
 @RunWith(Suite.class)
 @SuiteClasses({ PresenceServiceTestSuite.class, DataServiceTestSuite.class, CoordServiceTestSuite.class,
         ConfServiceTestSuite.class, MetricsServiceTestSuite.class, MessagingServiceTestSuite.class,
-        ObserverManagerTest.class, DefaultPathSchemeTest.class })
+        ObserverManagerTest.class, DefaultPathSchemeTest.class, PathRoutingZkClientTest.class, SharedZkClientTest.class,
+        ResilientZkClientWithCacheTest.class, ZkClientUtilTest.class,
+        AdmissionControlZkClientTest.class, PartitionedExecutorTest.class,
+        ChildListDeltaTest.class, ObserverQueueTest.class })
 public class MasterTestSuite {
 
 	private static final Logger logger = LoggerFactory.getLogger(MasterTestSuite.class);
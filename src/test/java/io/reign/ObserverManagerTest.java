@@ -18,11 +18,21 @@ package io.reign;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import io.reign.zk.ResilientZkClient;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.data.Stat;
 import org.junit.Test;
 
 public class ObserverManagerTest {
@@ -53,4 +63,188 @@ public class ObserverManagerTest {
         assertTrue(ObserverManager.childListsDiffer(list1, list3));
         assertTrue(ObserverManager.childListsDiffer(list1, list4));
     }
+
+    @Test
+    public void testGetSyncPathList() throws Exception {
+        PathScheme pathScheme = new DefaultPathScheme("/reign", "reign");
+        List<String> duePathList = Arrays.asList("/reign/presence/clusterA/serviceA", "/reign/conf/clusterA/a.json",
+                "/reign/presence/clusterA/serviceB", "/other/path");
+        List<String> dueSubtreePathList = Arrays.asList("/reign/conf/clusterA", "/reign/metrics/clusterA");
+
+        // one path per PathType, since PathType(s) may be on different ensembles
+        assertTrue(new HashSet<String>(ObserverManager.getSyncPathList(pathScheme, duePathList, dueSubtreePathList))
+                .equals(new HashSet<String>(Arrays.asList("/reign/presence/clusterA/serviceA",
+                        "/reign/conf/clusterA/a.json", "/other/path", "/reign/metrics/clusterA"))));
+
+        // all on one ensemble as far as we can tell
+        assertTrue(ObserverManager.getSyncPathList(null, duePathList, dueSubtreePathList).equals(
+                Arrays.asList("/reign/presence/clusterA/serviceA")));
+        assertTrue(ObserverManager.getSyncPathList(null, Collections.<String> emptyList(), dueSubtreePathList)
+                .equals(Arrays.asList("/reign/conf/clusterA")));
+    }
+
+    @Test
+    public void testCoalesceEvents() throws Exception {
+        // make sure test ZooKeeper server is up
+        MasterTestSuite.getReign();
+
+        ZkClient zkClient = new ResilientZkClient("localhost:" + MasterTestSuite.ZK_TEST_SERVER_PORT, 30000);
+        ObserverManager<AbstractObserver> observerManager = new ObserverManager<AbstractObserver>(zkClient, 2);
+        observerManager.init();
+        observerManager.setCoalesceWindowMillis(1000);
+
+        String path = "/coalesceTest";
+        zkClient.create(path, "0".getBytes("UTF-8"), Reign.DEFAULT_ACL_LIST, CreateMode.PERSISTENT);
+
+        final AtomicInteger dataChangedCount = new AtomicInteger(0);
+        final AtomicInteger childrenChangedCount = new AtomicInteger(0);
+        final AtomicReference<String> latestData = new AtomicReference<String>();
+        final AtomicReference<List<String>> latestChildList = new AtomicReference<List<String>>();
+        observerManager.put(path, new AbstractObserver() {
+            @Override
+            public void nodeDataChanged(byte[] updatedData, byte[] previousData) {
+                dataChangedCount.incrementAndGet();
+                latestData.set(new String(updatedData));
+            }
+
+            @Override
+            public void nodeChildrenChanged(List<String> updatedChildList, List<String> previousChildList) {
+                childrenChangedCount.incrementAndGet();
+                latestChildList.set(updatedChildList);
+            }
+        });
+
+        // burst of changes within coalescing window
+        for (int i = 1; i <= 10; i++) {
+            zkClient.create(path + "/child" + i, new byte[0], Reign.DEFAULT_ACL_LIST, CreateMode.PERSISTENT);
+            zkClient.setData(path, String.valueOf(i).getBytes("UTF-8"), -1);
+        }
+
+        Thread.sleep(3000);
+
+        // single notification of each kind with final state
+        assertTrue("dataChangedCount=" + dataChangedCount.get(), dataChangedCount.get() == 1);
+        assertTrue("childrenChangedCount=" + childrenChangedCount.get(), childrenChangedCount.get() == 1);
+        assertTrue("10".equals(latestData.get()));
+        assertTrue(latestChildList.get().size() == 10);
+        assertTrue(observerManager.getMergedEventCount() >= 1);
+
+        for (int i = 1; i <= 10; i++) {
+            zkClient.delete(path + "/child" + i, -1);
+        }
+        zkClient.delete(path, -1);
+        observerManager.destroy();
+        zkClient.close();
+    }
+
+    @Test
+    public void testSweepOnlyFetchesChangedPaths() throws Exception {
+        // make sure test ZooKeeper server is up
+        MasterTestSuite.getReign();
+
+        // not registered with zkClient (no init()), so events are only picked up by sweeper
+        ZkClient zkClient = new ResilientZkClient("localhost:" + MasterTestSuite.ZK_TEST_SERVER_PORT, 30000);
+        ObserverManager<AbstractObserver> observerManager = new ObserverManager<AbstractObserver>(zkClient, 2);
+
+        String path = "/sweepTest";
+        zkClient.create(path, "0".getBytes("UTF-8"), Reign.DEFAULT_ACL_LIST, CreateMode.PERSISTENT);
+
+        final AtomicReference<String> latestData = new AtomicReference<String>();
+        observerManager.put(path, new AbstractObserver() {
+            @Override
+            public void nodeDataChanged(byte[] updatedData, byte[] previousData) {
+                latestData.set(new String(updatedData));
+            }
+        });
+        WatchedEvent event = new WatchedEvent(EventType.NodeDataChanged, KeeperState.SyncConnected, path);
+
+        // no recorded version yet:  full check
+        observerManager.scheduleCheck(event);
+        assertTrue(observerManager.sweep(Long.MAX_VALUE) == 1);
+        Thread.sleep(500);
+
+        // nothing changed
+        observerManager.scheduleCheck(event);
+        assertTrue(observerManager.sweep(Long.MAX_VALUE) == 0);
+
+        // not due yet
+        zkClient.setData(path, "1".getBytes("UTF-8"), -1);
+        observerManager.scheduleCheck(event);
+        assertTrue(observerManager.sweep(System.currentTimeMillis()) == 0);
+
+        // missed change found
+        assertTrue(observerManager.sweep(Long.MAX_VALUE) == 1);
+        Thread.sleep(500);
+        assertTrue("1".equals(latestData.get()));
+        assertTrue(observerManager.getMetricRegistry().getHistograms().get("observer.sweep.paths").getCount() == 3);
+
+        zkClient.delete(path, -1);
+        observerManager.destroy();
+        zkClient.close();
+    }
+
+    @Test
+    public void testSubtreeObserver() throws Exception {
+        // make sure test ZooKeeper server is up
+        MasterTestSuite.getReign();
+
+        ZkClient zkClient = new ResilientZkClient("localhost:" + MasterTestSuite.ZK_TEST_SERVER_PORT, 30000);
+        ObserverManager<AbstractObserver> observerManager = new ObserverManager<AbstractObserver>(zkClient, 2);
+        observerManager.init();
+
+        String path = "/subtreeTest";
+        zkClient.create(path, "0".getBytes("UTF-8"), Reign.DEFAULT_ACL_LIST, CreateMode.PERSISTENT);
+        zkClient.create(path + "/a", new byte[0], Reign.DEFAULT_ACL_LIST, CreateMode.PERSISTENT);
+
+        final List<String> eventList = Collections.synchronizedList(new ArrayList<String>());
+        SubtreeObserver observer = new SubtreeObserver() {
+            @Override
+            public void nodeCreated(String path, byte[] data, Stat stat) {
+                eventList.add("created " + path);
+            }
+
+            @Override
+            public void nodeUpdated(String path, byte[] updatedData, byte[] previousData, Stat updatedStat) {
+                eventList.add("updated " + path + " " + new String(updatedData));
+            }
+
+            @Override
+            public void nodeDeleted(String path, byte[] previousData) {
+                eventList.add("deleted " + path);
+            }
+        };
+        observer.setOwnerId("subtreeTestOwner");
+        observerManager.putSubtree(path, observer);
+        assertTrue(observerManager.getSubtreeDataMap(path).size() == 2);
+
+        // nested create, update at depth, recursive delete
+        zkClient.create(path + "/a/b", new byte[0], Reign.DEFAULT_ACL_LIST, CreateMode.PERSISTENT);
+        Thread.sleep(500);
+        zkClient.create(path + "/a/b/c", new byte[0], Reign.DEFAULT_ACL_LIST, CreateMode.PERSISTENT);
+        Thread.sleep(500);
+        zkClient.setData(path + "/a/b/c", "1".getBytes("UTF-8"), -1);
+        Thread.sleep(500);
+        zkClient.delete(path + "/a/b/c", -1);
+        zkClient.delete(path + "/a/b", -1);
+        Thread.sleep(1000);
+
+        assertTrue(eventList.toString(), eventList.indexOf("created " + path + "/a/b") == 0);
+        assertTrue(eventList.toString(), eventList.indexOf("created " + path + "/a/b/c") == 1);
+        assertTrue(eventList.toString(), eventList.indexOf("updated " + path + "/a/b/c 1") == 2);
+        assertTrue(eventList.toString(), eventList.indexOf("deleted " + path + "/a/b/c") == 3);
+        assertTrue(eventList.toString(), eventList.indexOf("deleted " + path + "/a/b") == 4);
+        assertTrue(eventList.toString(), eventList.size() == 5);
+        assertTrue(observerManager.getSubtreeDataMap(path).size() == 2);
+
+        // indexed owner removal
+        assertTrue(observerManager.getReadOnlyOwnerObserverSet("subtreeTestOwner").size() == 1);
+        observerManager.removeAllByOwnerId("subtreeTestOwner");
+        assertTrue(observerManager.getReadOnlyOwnerObserverSet("subtreeTestOwner").size() == 0);
+        assertTrue(observerManager.getSubtreeDataMap(path).size() == 0);
+
+        zkClient.delete(path + "/a", -1);
+        zkClient.delete(path, -1);
+        observerManager.destroy();
+        zkClient.close();
+    }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2013 Yen Pai ypai@reign.io
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package io.reign;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * 
+ * @author ypai
+ * 
+ */
+public class ObserverQueueTest {
+
+	private ExecutorService executor;
+
+	private MetricRegistry metricRegistry;
+
+	private BlockingObserver observer;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(2);
+		metricRegistry = new MetricRegistry();
+		observer = new BlockingObserver();
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testMergeToLatest() throws Exception {
+		ObserverQueue observerQueue = fillQueue(ObserverOverflowPolicy.MERGE_TO_LATEST, 2, 5000);
+		observerQueue.offer(dataChanged(4, 3));
+		observer.release.countDown();
+
+		assertEquals(Arrays.asList("1<0", "2<1", "4<2"), observer.awaitReceived(3));
+		assertEquals(1, metricRegistry.counter("observer.queue.merged").getCount());
+		assertEquals(0, metricRegistry.counter("observer.queue.dropped").getCount());
+	}
+
+	@Test
+	public void testDropOldest() throws Exception {
+		ObserverQueue observerQueue = fillQueue(ObserverOverflowPolicy.DROP_OLDEST, 2, 5000);
+		observerQueue.offer(dataChanged(4, 3));
+		observer.release.countDown();
+
+		assertEquals(Arrays.asList("1<0", "3<2", "4<3"), observer.awaitReceived(3));
+		assertEquals(1, metricRegistry.counter("observer.queue.dropped").getCount());
+	}
+
+	@Test
+	public void testBlock() throws Exception {
+		ObserverQueue observerQueue = fillQueue(ObserverOverflowPolicy.BLOCK, 2, 5000);
+
+		// room is made while waiting
+		executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+				}
+				observer.release.countDown();
+			}
+		});
+		long startMillis = System.currentTimeMillis();
+		observerQueue.offer(dataChanged(4, 3));
+		assertTrue(System.currentTimeMillis() - startMillis >= 100);
+
+		assertEquals(Arrays.asList("1<0", "2<1", "3<2", "4<3"), observer.awaitReceived(4));
+		assertEquals(1, metricRegistry.counter("observer.queue.blocked").getCount());
+		assertEquals(0, metricRegistry.counter("observer.queue.dropped").getCount());
+	}
+
+	@Test
+	public void testBlockTimeout() throws Exception {
+		ObserverQueue observerQueue = fillQueue(ObserverOverflowPolicy.BLOCK, 2, 200);
+		observerQueue.offer(dataChanged(4, 3));
+		observer.release.countDown();
+
+		assertEquals(Arrays.asList("1<0", "3<2", "4<3"), observer.awaitReceived(3));
+		assertEquals(1, metricRegistry.counter("observer.queue.dropped").getCount());
+	}
+
+	@Test
+	public void testSlowObserver() throws Exception {
+		ObserverQueue observerQueue = fillQueue(ObserverOverflowPolicy.DROP_OLDEST, 2, 5000);
+		Thread.sleep(100);
+		assertEquals(2, observerQueue.size());
+		observer.release.countDown();
+
+		observer.awaitReceived(3);
+		assertEquals(1, metricRegistry.counter("observer.callback.slow").getCount());
+		assertEquals(3, metricRegistry.histogram("observer.callback.latencyMillis").getCount());
+	}
+
+	/**
+	 * Queue a notification that blocks in the observer until released, then fill queue.
+	 */
+	ObserverQueue fillQueue(ObserverOverflowPolicy overflowPolicy, int capacity, long maxBlockMillis)
+	        throws Exception {
+		ObserverQueue observerQueue = new ObserverQueue(observer, capacity, overflowPolicy, maxBlockMillis, 50,
+		        executor, metricRegistry);
+		observerQueue.offer(dataChanged(1, 0));
+		assertTrue(observer.started.await(5, TimeUnit.SECONDS));
+		for (int i = 2; i < capacity + 2; i++) {
+			observerQueue.offer(dataChanged(i, i - 1));
+		}
+		return observerQueue;
+	}
+
+	static ObserverQueue.Notification dataChanged(int updated, int previous) {
+		return new ObserverQueue.DataChanged(String.valueOf(updated).getBytes(), String.valueOf(previous).getBytes(),
+		        null);
+	}
+
+	static class BlockingObserver extends AbstractObserver {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+
+		@Override
+		public void nodeDataChanged(byte[] updatedData, byte[] previousData) {
+			started.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			received.add(new String(updatedData) + "<" + new String(previousData));
+		}
+
+		List<String> awaitReceived(int count) throws InterruptedException {
+			long startMillis = System.currentTimeMillis();
+			while (received.size() < count && System.currentTimeMillis() - startMillis < 5000) {
+				Thread.sleep(10);
+			}
+			Thread.sleep(50);
+			return new ArrayList<String>(received);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package io.reign.coord;
+
+import io.reign.Reign;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.test.TestingServer;
+
+/**
+ * Measures latency per round of a cyclic barrier against number of participants, using a test ZooKeeper instance.
+ * Round latency is the time from the last participant's arrival until every participant has been let through, i.e.
+ * what a batch job pays per iteration on top of its slowest worker.
+ * 
+ * Not part of the test suite: run with "mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=io.reign.coord.CyclicBarrierRoundBenchmark" or from an IDE.
+ * 
+ * @author ypai
+ * 
+ */
+public class CyclicBarrierRoundBenchmark {
+
+	private static final int[] PARTICIPANT_COUNTS = { 10, 25, 50, 100, 200 };
+
+	private static final int ROUNDS = 20;
+
+	private static final int ZK_PORT = 21812;
+
+	public static void main(String[] args) throws Exception {
+		File dataDirectory = new File(System.getProperty("java.io.tmpdir"), UUID.randomUUID().toString());
+		TestingServer zkTestServer = new TestingServer(ZK_PORT, new File(dataDirectory, "zookeeper"));
+		Reign reign = Reign.maker().messagingPort(33135).zkClient("localhost:" + ZK_PORT, 30000).pathCache(1024, 8)
+		        .get();
+		reign.start();
+		try {
+			CoordinationService coordinationService = reign.getService("coord");
+			for (int participantCount : PARTICIPANT_COUNTS) {
+				long[] roundLatencies = roundLatencies(coordinationService, "benchmark-" + participantCount,
+				        participantCount);
+				long total = 0;
+				long max = 0;
+				// first round includes setting up barrier nodes
+				for (int round = 1; round < ROUNDS; round++) {
+					total += roundLatencies[round];
+					max = Math.max(max, roundLatencies[round]);
+				}
+				System.out.println(String.format("participants=%d; rounds=%d; avgRoundMillis=%.2f; maxRoundMillis=%d",
+				        participantCount, ROUNDS - 1, (double) total / (ROUNDS - 1), max));
+			}
+		} finally {
+			reign.stop();
+			zkTestServer.stop();
+		}
+	}
+
+	/**
+	 * 
+	 * @return per round: millis from last arrival until last participant let through
+	 */
+	static long[] roundLatencies(final CoordinationService coordinationService, final String barrierName,
+	        final int participantCount) throws Exception {
+		final long[][] arrivalTimestamps = new long[participantCount][ROUNDS];
+		final long[][] releaseTimestamps = new long[participantCount][ROUNDS];
+
+		List<Thread> participantList = new ArrayList<Thread>();
+		for (int i = 0; i < participantCount; i++) {
+			final int participant = i;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					DistributedBarrier barrier = coordinationService.getCyclicBarrier("benchmark", barrierName,
+					        participantCount);
+					for (int round = 0; round < ROUNDS; round++) {
+						arrivalTimestamps[participant][round] = System.nanoTime();
+						barrier.await(60, TimeUnit.SECONDS);
+						releaseTimestamps[participant][round] = System.nanoTime();
+					}
+				}
+			};
+			participantList.add(thread);
+			thread.start();
+		}
+		for (Thread thread : participantList) {
+			thread.join();
+		}
+
+		long[] roundLatencies = new long[ROUNDS];
+		for (int round = 0; round < ROUNDS; round++) {
+			long lastArrival = Long.MIN_VALUE;
+			long lastRelease = Long.MIN_VALUE;
+			for (int participant = 0; participant < participantCount; participant++) {
+				lastArrival = Math.max(lastArrival, arrivalTimestamps[participant][round]);
+				lastRelease = Math.max(lastRelease, releaseTimestamps[participant][round]);
+			}
+			roundLatencies[round] = TimeUnit.NANOSECONDS.toMillis(lastRelease - lastArrival);
+		}
+		return roundLatencies;
+	}
+}
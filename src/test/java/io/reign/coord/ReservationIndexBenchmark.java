@@ -0,0 +1,130 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package io.reign.coord;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Compares CPU time spent per acquisition check against queue depth when re-sorting the reservation list with
+ * LockReservationComparator on every check (previous approach) vs. updating a cached ReservationIndex.
+ * 
+ * Simulates a lock queue where the holder releases, the next waiter checks whether it acquired, and a new waiter
+ * joins at the back; ZooKeeper round trips are not included.
+ * 
+ * Not part of the test suite: run with "mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=io.reign.coord.ReservationIndexBenchmark" or from an IDE.
+ * 
+ * @author ypai
+ * 
+ */
+public class ReservationIndexBenchmark {
+
+	private static final int[] QUEUE_DEPTHS = { 10, 100, 500, 1000, 5000 };
+
+	private static final int CHECK_COUNT = 2000;
+
+	public static void main(String[] args) throws Exception {
+		for (int warmup = 0; warmup < 3; warmup++) {
+			comparatorChecks(1000, 200);
+			indexChecks(1000, 200);
+		}
+
+		for (int queueDepth : QUEUE_DEPTHS) {
+			long startNanos = System.nanoTime();
+			comparatorChecks(queueDepth, CHECK_COUNT);
+			long comparatorNanos = System.nanoTime() - startNanos;
+
+			startNanos = System.nanoTime();
+			indexChecks(queueDepth, CHECK_COUNT);
+			long indexNanos = System.nanoTime() - startNanos;
+
+			System.out.println(String.format("queueDepth=%d; comparatorMicrosPerCheck=%.2f; indexMicrosPerCheck=%.2f",
+			        queueDepth, comparatorNanos / 1000.0 / CHECK_COUNT, indexNanos / 1000.0 / CHECK_COUNT));
+		}
+	}
+
+	/**
+	 * Previous ZkReservationManager behavior: sort the child list and scan for own reservation on every check.
+	 */
+	static int comparatorChecks(int queueDepth, int checkCount) {
+		LockReservationComparator comparator = new LockReservationComparator("_");
+		LinkedList<String> queue = newQueue(queueDepth);
+		long nextSequence = queueDepth;
+		int acquiredCount = 0;
+		for (int check = 0; check < checkCount; check++) {
+			queue.removeFirst();
+			queue.addLast(reservationName(nextSequence++));
+			String lockReservation = queue.getFirst();
+
+			// as returned by ZooKeeper: not sorted
+			List<String> lockReservationList = shuffled(queue, check);
+			Collections.sort(lockReservationList, comparator);
+			for (int i = 0; i < lockReservationList.size(); i++) {
+				if (lockReservation.equals(lockReservationList.get(i))) {
+					if (i == 0) {
+						acquiredCount++;
+					}
+					break;
+				}
+				ReservationType.isExclusive(lockReservationList.get(i));
+			}
+		}
+		return acquiredCount;
+	}
+
+	/**
+	 * Current ZkReservationManager behavior: update cached index and look up own reservation.
+	 */
+	static int indexChecks(int queueDepth, int checkCount) {
+		LinkedList<String> queue = newQueue(queueDepth);
+		ReservationIndex index = ReservationIndex.EMPTY;
+		long nextSequence = queueDepth;
+		int acquiredCount = 0;
+		for (int check = 0; check < checkCount; check++) {
+			queue.removeFirst();
+			queue.addLast(reservationName(nextSequence++));
+			long lockReservationSequence = Reservation.parseSequence(queue.getFirst());
+
+			index = ReservationIndex.update(index, shuffled(queue, check), 1, check);
+			if (index.positionOf(lockReservationSequence) == 0) {
+				acquiredCount++;
+			}
+		}
+		return acquiredCount;
+	}
+
+	static LinkedList<String> newQueue(int queueDepth) {
+		LinkedList<String> queue = new LinkedList<String>();
+		for (int i = 0; i < queueDepth; i++) {
+			queue.add(reservationName(i));
+		}
+		return queue;
+	}
+
+	static List<String> shuffled(List<String> queue, int seed) {
+		List<String> list = new ArrayList<String>(queue);
+		Collections.shuffle(list, new java.util.Random(seed));
+		return list;
+	}
+
+	static String reservationName(long sequence) {
+		return String.format("EX_%010d", sequence);
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package io.reign.coord;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ReservationIndexTest {
+
+	@Test
+	public void testSortedByParsedSequence() {
+		List<String> childList = Arrays.asList("SH_0000000010", "EX_0000000002", "SH_0000000009", "SH_0000000100");
+		ReservationIndex index = ReservationIndex.update(ReservationIndex.EMPTY, childList, 1, 4);
+
+		assertEquals(Arrays.asList("EX_0000000002", "SH_0000000009", "SH_0000000010", "SH_0000000100"),
+		        index.getNameList());
+		assertEquals(2, index.positionOf(10));
+		assertEquals(-1, index.positionOf(11));
+	}
+
+	@Test
+	public void testExclusiveAheadPosition() {
+		List<String> childList = Arrays.asList("SH_0000000001", "EX_0000000002", "SH_0000000003", "EX_0000000004",
+		        "SH_0000000005");
+		ReservationIndex index = ReservationIndex.update(ReservationIndex.EMPTY, childList, 1, 5);
+
+		assertEquals(-1, index.getExclusiveAheadPosition(0));
+		assertEquals(-1, index.getExclusiveAheadPosition(1));
+		assertEquals(1, index.getExclusiveAheadPosition(2));
+		assertEquals(1, index.getExclusiveAheadPosition(3));
+		assertEquals(3, index.getExclusiveAheadPosition(4));
+	}
+
+	@Test
+	public void testIncrementalUpdate() {
+		ReservationIndex index = ReservationIndex.update(ReservationIndex.EMPTY,
+		        Arrays.asList("EX_0000000003", "EX_0000000001", "EX_0000000002"), 1, 3);
+		Reservation reservation = index.get(2);
+
+		// head removed, two added out of order
+		ReservationIndex updated = ReservationIndex.update(index,
+		        Arrays.asList("EX_0000000005", "EX_0000000002", "EX_0000000003", "EX_0000000004"), 1, 6);
+
+		assertEquals(Arrays.asList("EX_0000000002", "EX_0000000003", "EX_0000000004", "EX_0000000005"),
+		        updated.getNameList());
+
+		// surviving reservations are not re-parsed
+		assertSame(reservation, updated.get(1));
+
+		assertTrue(updated.isVersion(1, 6));
+		assertTrue(!updated.isVersion(1, 3));
+		assertTrue(!updated.isVersion(2, 6));
+		assertTrue(!ReservationIndex.update(updated, Collections.<String> emptyList(), -1, -1).isVersion(-1, -1));
+		assertEquals(0, ReservationIndex.update(updated, Collections.<String> emptyList(), -1, -1).size());
+	}
+
+	@Test
+	public void testPermitsAhead() {
+		List<String> childList = Arrays.asList("PT_0000000001", "PT_5_0000000002", "PT_0000000003", "PT_2_0000000004");
+		ReservationIndex index = ReservationIndex.update(ReservationIndex.EMPTY, childList, 1, 4);
+
+		assertEquals(5, index.get(1).getPermits());
+		assertEquals(0, index.getPermitsAhead(0));
+		assertEquals(1, index.getPermitsAhead(1));
+		assertEquals(6, index.getPermitsAhead(2));
+		assertEquals(7, index.getPermitsAhead(3));
+		assertEquals(9, index.getTotalPermits());
+		assertEquals(2, index.positionOf(3));
+		assertEquals("PT_5_", Reservation.prefix(ReservationType.SEMAPHORE, 5));
+		assertEquals(1, Reservation.parsePermits(Reservation.prefix(ReservationType.SEMAPHORE, 1) + "0000000007"));
+	}
+}
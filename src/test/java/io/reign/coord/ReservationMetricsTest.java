@@ -0,0 +1,92 @@
+package io.reign.coord;
+
+import static org.junit.Assert.assertTrue;
+import io.reign.MasterTestSuite;
+import io.reign.PathType;
+import io.reign.ReignContext;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class ReservationMetricsTest {
+
+	private ReignContext context;
+	private MetricRegistry metricRegistry;
+	private ReservationMetrics reservationMetrics;
+	private ZkReservationManager zkReservationManager;
+
+	@Before
+	public void setUp() throws Exception {
+		context = MasterTestSuite.getReign().getContext();
+		metricRegistry = new MetricRegistry();
+		reservationMetrics = new ReservationMetrics(metricRegistry, context.getPathScheme(), 2);
+		zkReservationManager = new ZkReservationManager(context.getZkClient(), context.getPathScheme(),
+		        new CoordinationServiceCache(), reservationMetrics);
+	}
+
+	@Test
+	public void testContention() throws Exception {
+		String entityPath = CoordServicePathUtil.getAbsolutePathEntity(context.getPathScheme(), PathType.COORD,
+		        "clusterA", ReservationType.LOCK_EXCLUSIVE, "test-metrics-contention");
+		String ownerId = context.getNodeId().toString();
+
+		String reservationPath = zkReservationManager.acquire(ownerId, entityPath, ReservationType.LOCK_EXCLUSIVE,
+		        context.getDefaultZkAclList(), -1, true);
+		assertTrue(reservationPath != null);
+
+		// gets in line behind held reservation and gives up
+		assertTrue(zkReservationManager.acquire(ownerId, entityPath, ReservationType.LOCK_EXCLUSIVE,
+		        context.getDefaultZkAclList(), 200, true) == null);
+
+		Thread.sleep(50);
+		zkReservationManager.relinquish(reservationPath);
+
+		String prefix = "coord.clusterA.lock.test-metrics-contention.";
+		assertTrue(metricRegistry.counter(prefix + "reservations").getCount() == 2);
+		assertTrue(metricRegistry.counter(prefix + "timeouts").getCount() == 1);
+		assertTrue(metricRegistry.histogram(prefix + "waitMillis").getCount() == 1);
+		assertTrue(metricRegistry.histogram(prefix + "holdMillis").getCount() == 1);
+		assertTrue(metricRegistry.histogram(prefix + "holdMillis").getSnapshot().getMax() >= 50);
+
+		// one with no reservation ahead, one with one ahead
+		assertTrue(metricRegistry.histogram(prefix + "queueDepth").getCount() == 2);
+		assertTrue(metricRegistry.histogram(prefix + "queueDepth").getSnapshot().getMax() == 1);
+	}
+
+	@Test
+	public void testBoundedCardinality() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			String entityPath = CoordServicePathUtil.getAbsolutePathEntity(context.getPathScheme(), PathType.COORD,
+			        "clusterA", ReservationType.SEMAPHORE, "test-metrics-cardinality-" + i);
+			reservationMetrics.reserved(entityPath, 0);
+		}
+
+		// two entities of their own plus the rest together
+		assertTrue("Unexpected value:  " + reservationMetrics.getEntityCount(),
+		        reservationMetrics.getEntityCount() == 3);
+		assertTrue(metricRegistry.counter("coord.other.semaphore.reservations").getCount() == 3);
+	}
+
+	@Test
+	public void testHeldTracking() throws Exception {
+		String entityPath = CoordServicePathUtil.getAbsolutePathEntity(context.getPathScheme(), PathType.COORD,
+		        "clusterA", ReservationType.LOCK_EXCLUSIVE, "test-metrics-held");
+
+		// revoked reservation is forgotten without a hold time
+		reservationMetrics.acquired(entityPath, entityPath + "/EX_0000000001", 0);
+		assertTrue(reservationMetrics.getHeldTrackedCount() == 1);
+		reservationMetrics.revoked(entityPath + "/EX_0000000001");
+		assertTrue(reservationMetrics.getHeldTrackedCount() == 0);
+		reservationMetrics.relinquished(entityPath + "/EX_0000000001");
+		assertTrue(metricRegistry.histogram("coord.clusterA.lock.test-metrics-held.holdMillis").getCount() == 0);
+
+		// reservations never relinquished are tracked up to a limit
+		for (int i = 0; i < ReservationMetrics.MAX_HELD_TRACKED + 10; i++) {
+			reservationMetrics.acquired(entityPath, entityPath + "/EX_" + i, 0);
+		}
+		assertTrue("Unexpected value:  " + reservationMetrics.getHeldTrackedCount(),
+		        reservationMetrics.getHeldTrackedCount() == ReservationMetrics.MAX_HELD_TRACKED);
+	}
+}
@@ -0,0 +1,106 @@
+package io.reign.coord;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.reign.MasterTestSuite;
+import io.reign.PathType;
+import io.reign.ReignContext;
+import io.reign.util.ZkClientUtil;
+
+import org.apache.zookeeper.CreateMode;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class ReservationReaperTest {
+
+	private ReignContext context;
+	private ZkReservationManager zkReservationManager;
+	private ReservationReaper reservationReaper;
+	private ZkClientUtil zkUtil = new ZkClientUtil();
+
+	@Before
+	public void setUp() throws Exception {
+		context = MasterTestSuite.getReign().getContext();
+		CoordinationServiceCache coordinationServiceCache = new CoordinationServiceCache();
+		zkReservationManager = new ZkReservationManager(context.getZkClient(), context.getPathScheme(),
+		        coordinationServiceCache);
+		reservationReaper = new ReservationReaper(context, zkReservationManager, coordinationServiceCache,
+		        new MetricRegistry());
+	}
+
+	@Test
+	public void testParseOwnerId() throws Exception {
+		String ownerId = context.getNodeId().toString();
+		assertTrue(ownerId.equals(ReservationReaper.parseOwnerId(("{\"ownerId\":\"" + ownerId + "\"}")
+		        .getBytes("UTF-8"))));
+		assertTrue(ownerId.equals(ReservationReaper.parseOwnerId(("{\"ownerId\":\"" + ownerId + "\",\"permits\":3}")
+		        .getBytes("UTF-8"))));
+		assertTrue(ReservationReaper.parseOwnerId("{}".getBytes("UTF-8")) == null);
+		assertTrue(ReservationReaper.parseOwnerId(null) == null);
+	}
+
+	@Test
+	public void testReapAbsentOwner() throws Exception {
+		waitForPresence();
+
+		String entityPath = CoordServicePathUtil.getAbsolutePathEntity(context.getPathScheme(), PathType.COORD,
+		        "clusterA", ReservationType.LOCK_EXCLUSIVE, "test-reap-absent-owner");
+		String liveReservationPath = reserve(entityPath, context.getNodeId().toString());
+		String abandonedReservationPath = reserve(entityPath, "zombie");
+
+		// owner has to be missing in two passes in a row
+		reservationReaper.reap(-1);
+		assertTrue(context.getZkClient().exists(abandonedReservationPath, false) != null);
+
+		reservationReaper.reap(-1);
+		assertTrue(context.getZkClient().exists(abandonedReservationPath, false) == null);
+		assertTrue(context.getZkClient().exists(liveReservationPath, false) != null);
+		assertTrue("Unexpected value:  " + reservationReaper.getQueueLength(entityPath),
+		        reservationReaper.getQueueLength(entityPath) == 1);
+		assertTrue(reservationReaper.getReapedCount() >= 1);
+
+		zkReservationManager.relinquish(liveReservationPath);
+	}
+
+	@Test
+	public void testReapHeldTooLong() throws Exception {
+		String entityPath = CoordServicePathUtil.getAbsolutePathEntity(context.getPathScheme(), PathType.COORD,
+		        "clusterA", ReservationType.LOCK_EXCLUSIVE, "test-reap-held-too-long");
+		String heldReservationPath = reserve(entityPath, context.getNodeId().toString());
+		String waitingReservationPath = reserve(entityPath, context.getNodeId().toString());
+		Thread.sleep(100);
+
+		// hold time is counted from the first pass that sees the reservation held, not from when it was made
+		reservationReaper.reap(50);
+		assertTrue(context.getZkClient().exists(heldReservationPath, false) != null);
+		Thread.sleep(100);
+
+		// only the reservation holding the lock is reaped
+		reservationReaper.reap(50);
+		assertTrue(context.getZkClient().exists(heldReservationPath, false) == null);
+		assertTrue(context.getZkClient().exists(waitingReservationPath, false) != null);
+
+		// waiting reservation has only just been granted
+		reservationReaper.reap(50);
+		assertTrue(context.getZkClient().exists(waitingReservationPath, false) != null);
+
+		zkReservationManager.relinquish(waitingReservationPath);
+	}
+
+	String reserve(String entityPath, String ownerId) throws Exception {
+		return zkUtil.updatePath(context.getZkClient(), context.getPathScheme(), CoordServicePathUtil
+		        .getAbsolutePathReservationPrefix(context.getPathScheme(), entityPath,
+		                ReservationType.LOCK_EXCLUSIVE), ("{\"ownerId\":\"" + ownerId + "\"}").getBytes("UTF-8"),
+		        context.getDefaultZkAclList(), CreateMode.EPHEMERAL_SEQUENTIAL, -1);
+	}
+
+	void waitForPresence() throws InterruptedException {
+		long startTimestamp = System.currentTimeMillis();
+		while (reservationReaper.getLiveOwnerIdSet() == null && System.currentTimeMillis() - startTimestamp < 30000) {
+			Thread.sleep(50);
+		}
+		assertFalse("Not announced in time", reservationReaper.getLiveOwnerIdSet() == null);
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package io.reign.coord;
+
+import io.reign.PathType;
+import io.reign.Reign;
+import io.reign.ReignContext;
+import io.reign.ZkClient;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+
+/**
+ * Counts waiter wake-ups per permit release against number of waiters queued on a semaphore, using a test ZooKeeper
+ * instance. With every waiter watching the semaphore's children, each release wakes all remaining waiters; with
+ * waiters watching only the reservation that determines their admission, wake-ups per release stay flat.
+ * 
+ * Each waiter acquires a permit and releases it right away, so every release after the first one is made by a waiter
+ * that was just admitted. Wake-ups are counted as node events delivered to the watchers waiters set, through a
+ * ZkClient that wraps them.
+ * 
+ * Not part of the test suite: run with "mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=io.reign.coord.SemaphoreWakeUpBenchmark" or from an IDE.
+ * 
+ * @author ypai
+ * 
+ */
+public class SemaphoreWakeUpBenchmark {
+
+	private static final int[] WAITER_COUNTS = { 5, 10, 25, 50 };
+
+	private static final int PERMIT_POOL_SIZE = 2;
+
+	private static final int ZK_PORT = 21811;
+
+	public static void main(String[] args) throws Exception {
+		File dataDirectory = new File(System.getProperty("java.io.tmpdir"), UUID.randomUUID().toString());
+		TestingServer zkTestServer = new TestingServer(ZK_PORT, new File(dataDirectory, "zookeeper"));
+		Reign reign = Reign.maker().messagingPort(33134).zkClient("localhost:" + ZK_PORT, 30000).pathCache(1024, 8)
+		        .get();
+		reign.start();
+		try {
+			ReignContext context = reign.getContext();
+			AtomicLong nodeEventCount = new AtomicLong(0);
+			ZkReservationManager zkReservationManager = new ZkReservationManager(countingZkClient(
+			        context.getZkClient(), nodeEventCount), context.getPathScheme(), new CoordinationServiceCache());
+			for (int waiterCount : WAITER_COUNTS) {
+				wakeUps(zkReservationManager, context, "benchmark-" + waiterCount, waiterCount, nodeEventCount);
+				long wakeUpCount = nodeEventCount.get();
+				// pool is held with a single reservation
+				int releaseCount = 1 + waiterCount;
+				System.out.println(String.format("waiters=%d; releases=%d; wakeUps=%d; wakeUpsPerRelease=%.2f",
+				        waiterCount, releaseCount, wakeUpCount, (double) wakeUpCount / releaseCount));
+			}
+			zkReservationManager.shutdown();
+		} finally {
+			reign.stop();
+			zkTestServer.stop();
+		}
+	}
+
+	/**
+	 * Fill the permit pool, queue waiters behind it, then release the pool and let the waiters go through.
+	 * 
+	 * @param nodeEventCount
+	 *            reset once all waiters are in line, so that it counts waiter wake-ups from the time the first permit
+	 *            is released until all waiters are done
+	 */
+	static void wakeUps(ZkReservationManager zkReservationManager, ReignContext context, String semaphoreName,
+	        int waiterCount, AtomicLong nodeEventCount) throws Exception {
+		final String entityPath = CoordServicePathUtil.getAbsolutePathEntity(context.getPathScheme(), PathType.COORD,
+		        "benchmark", ReservationType.SEMAPHORE, semaphoreName);
+		ZkSemaphore holder = semaphore(zkReservationManager, context, entityPath);
+		holder.acquireWeighted(PERMIT_POOL_SIZE);
+
+		final CountDownLatch doneLatch = new CountDownLatch(waiterCount);
+		List<Thread> waiterList = new ArrayList<Thread>();
+		for (int i = 0; i < waiterCount; i++) {
+			final ZkSemaphore semaphore = semaphore(zkReservationManager, context, entityPath);
+			Thread waiter = new Thread() {
+				@Override
+				public void run() {
+					try {
+						semaphore.acquire();
+						semaphore.release();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						doneLatch.countDown();
+					}
+				}
+			};
+			waiterList.add(waiter);
+			waiter.start();
+		}
+
+		// wait for all waiters to get in line
+		while (holder.getAllPermitRequests().size() < 1 + waiterCount) {
+			Thread.sleep(50);
+		}
+		Thread.sleep(1000);
+
+		nodeEventCount.set(0);
+		holder.release(PERMIT_POOL_SIZE);
+		doneLatch.await();
+
+		for (Thread waiter : waiterList) {
+			waiter.join();
+		}
+	}
+
+	static ZkSemaphore semaphore(ZkReservationManager zkReservationManager, ReignContext context, String entityPath) {
+		return new ZkSemaphore(zkReservationManager, context.getNodeId().toString(), entityPath,
+		        context.getDefaultZkAclList(), new ConstantPermitPoolSize(PERMIT_POOL_SIZE));
+	}
+
+	/**
+	 * 
+	 * @return ZkClient that counts node events delivered to watchers set through it
+	 */
+	static ZkClient countingZkClient(final ZkClient zkClient, final AtomicLong nodeEventCount) {
+		// same wrapper for same watcher, so that ZooKeeper still delivers an event to it once
+		final Map<Watcher, Watcher> countingWatcherMap = Collections
+		        .synchronizedMap(new IdentityHashMap<Watcher, Watcher>());
+		return (ZkClient) Proxy.newProxyInstance(ZkClient.class.getClassLoader(), new Class[] { ZkClient.class },
+		        new InvocationHandler() {
+			        @Override
+			        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				        for (int i = 0; args != null && i < args.length; i++) {
+					        if (args[i] instanceof Watcher) {
+						        final Watcher watcher = (Watcher) args[i];
+						        synchronized (countingWatcherMap) {
+							        Watcher countingWatcher = countingWatcherMap.get(watcher);
+							        if (countingWatcher == null) {
+								        countingWatcher = new Watcher() {
+									        @Override
+									        public void process(WatchedEvent event) {
+										        if (event.getType() != EventType.None) {
+											        nodeEventCount.incrementAndGet();
+										        }
+										        watcher.process(event);
+									        }
+								        };
+								        countingWatcherMap.put(watcher, countingWatcher);
+							        }
+							        args[i] = countingWatcher;
+						        }
+					        }
+				        }
+				        try {
+					        return method.invoke(zkClient, args);
+				        } catch (InvocationTargetException e) {
+					        throw e.getCause();
+				        }
+			        }
+		        });
+	}
+}
@@ -0,0 +1,107 @@
+package io.reign.coord;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.reign.MasterTestSuite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZkCyclicBarrierTest {
+
+    private CoordinationService coordinationService;
+
+    @Before
+    public void setUp() throws Exception {
+        coordinationService = MasterTestSuite.getReign().getService("coord");
+    }
+
+    @Test
+    public void testRounds() throws Exception {
+        final int parties = 3;
+        final int rounds = 5;
+        final AtomicInteger[] arrivedPerRound = new AtomicInteger[rounds];
+        final List<Set<Integer>> arrivalIndexSetList = new ArrayList<Set<Integer>>();
+        for (int i = 0; i < rounds; i++) {
+            arrivedPerRound[i] = new AtomicInteger(0);
+            arrivalIndexSetList.add(Collections.synchronizedSet(new HashSet<Integer>()));
+        }
+        final AtomicInteger earlyReleaseCount = new AtomicInteger(0);
+        final AtomicInteger passCount = new AtomicInteger(0);
+
+        // threads to simulate multiple processes
+        List<Thread> threadList = new ArrayList<Thread>();
+        for (int i = 0; i < parties; i++) {
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    DistributedBarrier barrier = coordinationService.getCyclicBarrier("clusterA",
+                            "test-cyclic-barrier", parties);
+                    for (int round = 0; round < rounds; round++) {
+                        arrivedPerRound[round].incrementAndGet();
+                        int arrivalIndex = barrier.await(30, TimeUnit.SECONDS);
+                        if (arrivedPerRound[round].get() != parties) {
+                            earlyReleaseCount.incrementAndGet();
+                        }
+                        arrivalIndexSetList.get(round).add(arrivalIndex);
+                        passCount.incrementAndGet();
+                    }
+                }
+            };
+            threadList.add(t);
+            t.start();
+        }
+        for (Thread t : threadList) {
+            t.join(60000);
+        }
+
+        assertTrue("Unexpected value:  " + passCount, passCount.get() == parties * rounds);
+        assertTrue("Unexpected value:  " + earlyReleaseCount, earlyReleaseCount.get() == 0);
+        for (Set<Integer> arrivalIndexSet : arrivalIndexSetList) {
+            // one party each from 0 (last to arrive) to parties-1 (first to arrive)
+            assertTrue("Unexpected value:  " + arrivalIndexSet, arrivalIndexSet.size() == parties);
+        }
+    }
+
+    @Test
+    public void testTimeoutBreaksRound() throws Exception {
+        DistributedBarrier barrier = coordinationService.getCyclicBarrier("clusterA", "test-cyclic-barrier-timeout",
+                2);
+        assertFalse(barrier.isBroken());
+
+        boolean broken = false;
+        try {
+            barrier.await(500, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException e) {
+            broken = true;
+        }
+        assertTrue(broken);
+        assertTrue(barrier.isBroken());
+
+        barrier.reset();
+        assertFalse(barrier.isBroken());
+        assertTrue("Unexpected value:  " + barrier.getNumberWaiting(), barrier.getNumberWaiting() == 0);
+
+        // next round goes through
+        final DistributedBarrier otherBarrier = coordinationService.getCyclicBarrier("clusterA",
+                "test-cyclic-barrier-timeout", 2);
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                otherBarrier.await(30, TimeUnit.SECONDS);
+            }
+        };
+        t.start();
+        barrier.await(30, TimeUnit.SECONDS);
+        t.join(30000);
+        assertFalse(barrier.isBroken());
+    }
+}
@@ -0,0 +1,96 @@
+package io.reign.coord;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.reign.MasterTestSuite;
+import io.reign.PathType;
+import io.reign.ReignContext;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZkLeaderElectionTest {
+
+	private ReignContext context;
+	private ZkReservationManager zkReservationManager;
+	private ScheduledThreadPoolExecutor executorService;
+
+	@Before
+	public void setUp() throws Exception {
+		context = MasterTestSuite.getReign().getContext();
+		zkReservationManager = new ZkReservationManager(context.getZkClient(), context.getPathScheme(),
+		        new CoordinationServiceCache());
+		executorService = new ScheduledThreadPoolExecutor(1);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executorService.shutdown();
+	}
+
+	@Test
+	public void testLeadershipChange() throws Exception {
+		String entityPath = CoordServicePathUtil.getAbsolutePathEntity(context.getPathScheme(), PathType.COORD,
+		        "clusterA", ReservationType.LEADER_ELECTION, "test-leadership-change");
+
+		final AtomicInteger acquiredCount = new AtomicInteger(0);
+		final AtomicInteger lostCount = new AtomicInteger(0);
+		LeadershipListener listener = new LeadershipListener() {
+			@Override
+			public void leadershipAcquired(DistributedLeaderElection election) {
+				acquiredCount.incrementAndGet();
+			}
+
+			@Override
+			public void leadershipLost(DistributedLeaderElection election) {
+				lostCount.incrementAndGet();
+			}
+		};
+
+		ZkLeaderElection election1 = new ZkLeaderElection(zkReservationManager, context.getZkClient(),
+		        context.getPathScheme(), "candidate1", entityPath, context.getDefaultZkAclList(), executorService);
+		election1.addLeadershipListener(listener);
+		election1.start();
+		waitForLeader(election1);
+
+		ZkLeaderElection election2 = new ZkLeaderElection(zkReservationManager, context.getZkClient(),
+		        context.getPathScheme(), "candidate2", entityPath, context.getDefaultZkAclList(), executorService);
+		election2.addLeadershipListener(listener);
+		election2.start();
+		Thread.sleep(1000);
+		assertTrue(election1.isLeader());
+		assertFalse(election2.isLeader());
+
+		// leadership passes on when leader leaves
+		election1.stop();
+		assertFalse(election1.isLeader());
+		waitForLeader(election2);
+
+		election2.stop();
+		assertTrue("Unexpected value:  " + acquiredCount.get(), acquiredCount.get() == 2);
+		assertTrue("Unexpected value:  " + lostCount.get(), lostCount.get() == 2);
+	}
+
+	@Test
+	public void testGetLeaderElection() throws Exception {
+		CoordinationService coordinationService = MasterTestSuite.getReign().getService("coord");
+		DistributedLeaderElection election = coordinationService.getLeaderElection("clusterA", "test-get-election");
+		assertTrue(election == coordinationService.getLeaderElection("clusterA", "test-get-election"));
+		waitForLeader(election);
+
+		coordinationService.leaveLeaderElection("clusterA", "test-get-election");
+		assertFalse(election.isLeader());
+	}
+
+	void waitForLeader(DistributedLeaderElection election) throws InterruptedException {
+		long startTimestamp = System.currentTimeMillis();
+		while (!election.isLeader() && System.currentTimeMillis() - startTimestamp < 30000) {
+			Thread.sleep(50);
+		}
+		assertTrue("Not elected in time", election.isLeader());
+	}
+}
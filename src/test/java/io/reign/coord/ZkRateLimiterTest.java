@@ -0,0 +1,146 @@
+package io.reign.coord;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.reign.MasterTestSuite;
+import io.reign.PathType;
+import io.reign.ReignContext;
+import io.reign.ZkClient;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.zookeeper.KeeperException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZkRateLimiterTest {
+
+	private ReignContext context;
+	private ScheduledThreadPoolExecutor executorService;
+
+	@Before
+	public void setUp() throws Exception {
+		context = MasterTestSuite.getReign().getContext();
+		executorService = new ScheduledThreadPoolExecutor(2);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executorService.shutdown();
+	}
+
+	@Test
+	public void testSharedBudget() throws Exception {
+		String entityPath = context.getPathScheme().getAbsolutePath(PathType.COORD, "clusterA", "ratelimiter",
+		        "test-shared-budget");
+		int permitsPerSecond = 50;
+
+		// two limiters on the same entity stand in for two nodes
+		ZkRateLimiter rateLimiter1 = new ZkRateLimiter(context.getZkClient(), context.getPathScheme(), null,
+		        "clusterA", "serviceA", entityPath, permitsPerSecond, context.getDefaultZkAclList(), executorService);
+		ZkRateLimiter rateLimiter2 = new ZkRateLimiter(context.getZkClient(), context.getPathScheme(), null,
+		        "clusterA", "serviceA", entityPath, permitsPerSecond, context.getDefaultZkAclList(), executorService);
+		rateLimiter1.start();
+		rateLimiter2.start();
+
+		Map<Long, Integer> acquiredPerSecond = new HashMap<Long, Integer>();
+		long endTimestamp = System.currentTimeMillis() + 3000;
+		int i = 0;
+		while (System.currentTimeMillis() < endTimestamp) {
+			ZkRateLimiter rateLimiter = i++ % 2 == 0 ? rateLimiter1 : rateLimiter2;
+			long second = System.currentTimeMillis() / 1000;
+			if (rateLimiter.tryAcquire()) {
+				Integer acquired = acquiredPerSecond.get(second);
+				acquiredPerSecond.put(second, acquired == null ? 1 : acquired + 1);
+			} else {
+				Thread.sleep(1);
+			}
+		}
+		rateLimiter1.destroy();
+		rateLimiter2.destroy();
+
+		assertFalse(acquiredPerSecond.isEmpty());
+		for (Map.Entry<Long, Integer> entry : acquiredPerSecond.entrySet()) {
+			// a permit taken right at the turn of a second may be counted in the previous one
+			assertTrue("Unexpected value:  " + entry, entry.getValue() <= permitsPerSecond + 1);
+		}
+	}
+
+	@Test
+	public void testGetRateLimiter() throws Exception {
+		CoordinationService coordinationService = MasterTestSuite.getReign().getService("coord");
+		DistributedRateLimiter rateLimiter = coordinationService.getRateLimiter("clusterA", "serviceA",
+		        "test-get-rate-limiter", 10);
+		assertTrue(rateLimiter == coordinationService.getRateLimiter("clusterA", "serviceA", "test-get-rate-limiter",
+		        10));
+
+		rateLimiter.destroy();
+		assertFalse(rateLimiter == coordinationService.getRateLimiter("clusterA", "serviceA",
+		        "test-get-rate-limiter", 10));
+	}
+
+	@Test
+	public void testClaimRetriedWrite() throws Exception {
+		String entityPath = context.getPathScheme().getAbsolutePath(PathType.COORD, "clusterA", "ratelimiter",
+		        "test-claim-retried-write");
+
+		// setData() goes through, but is then retried after a connection loss
+		// and fails
+		final ZkClient zkClient = context.getZkClient();
+		final AtomicInteger retriedWriteCount = new AtomicInteger(0);
+		ZkClient retryingZkClient = (ZkClient) Proxy.newProxyInstance(ZkClient.class.getClassLoader(),
+		        new Class[] { ZkClient.class }, new InvocationHandler() {
+			        @Override
+			        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				        try {
+					        Object result = method.invoke(zkClient, args);
+					        if ("setData".equals(method.getName()) && retriedWriteCount.get() > 0) {
+						        retriedWriteCount.decrementAndGet();
+						        throw KeeperException.create(KeeperException.Code.BADVERSION, (String) args[0]);
+					        }
+					        return result;
+				        } catch (InvocationTargetException e) {
+					        throw e.getCause();
+				        }
+			        }
+		        });
+		ZkRateLimiter rateLimiter = new ZkRateLimiter(retryingZkClient, context.getPathScheme(), null, "clusterA",
+		        "serviceA", entityPath, 50, context.getDefaultZkAclList(), executorService);
+
+		// claimed from budget once
+		long window = System.currentTimeMillis() / 1000;
+		retriedWriteCount.set(1);
+		assertTrue(rateLimiter.claimFromBudget(window, 20) == 20);
+		assertTrue(retriedWriteCount.get() == 0);
+		assertTrue(rateLimiter.claimFromBudget(window, 50) == 30);
+		assertTrue(rateLimiter.claimFromBudget(window, 50) == 0);
+
+		rateLimiter.destroy();
+	}
+
+	@Test
+	public void testAddClaimToken() throws Exception {
+		assertTrue("a".equals(ZkRateLimiter.addClaimToken("", "a")));
+		assertTrue("b,a".equals(ZkRateLimiter.addClaimToken("a", "b")));
+		assertTrue(ZkRateLimiter.isClaimed("b,a", "a"));
+		assertFalse(ZkRateLimiter.isClaimed("b,a", "c"));
+
+		// only most recent tokens are kept
+		String claimTokens = "";
+		for (int i = 0; i < ZkRateLimiter.CLAIM_TOKEN_HISTORY_SIZE * 2; i++) {
+			claimTokens = ZkRateLimiter.addClaimToken(claimTokens, Integer.toString(i));
+		}
+		assertTrue(claimTokens.split(",").length == ZkRateLimiter.CLAIM_TOKEN_HISTORY_SIZE);
+		assertTrue(ZkRateLimiter.isClaimed(claimTokens,
+		        Integer.toString(ZkRateLimiter.CLAIM_TOKEN_HISTORY_SIZE * 2 - 1)));
+		assertFalse(ZkRateLimiter.isClaimed(claimTokens, "0"));
+	}
+}
@@ -1,5 +1,6 @@
 package io.reign.coord;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import io.reign.MasterTestSuite;
 
@@ -333,4 +334,54 @@ public class ZkReadWriteLockTest {
         assertTrue("Unexpected value:  " + sb, "123".equals(sb.toString()));
 
     }
+
+    @Test
+    public void testSharedReadReservation() throws Exception {
+        DistributedReadWriteLock rwLock1 = coordinationService.getReadWriteLock("clusterA", "test-shared-read");
+        DistributedReadWriteLock rwLock2 = coordinationService.getReadWriteLock("clusterA", "test-shared-read");
+
+        // local readers share one reservation
+        DistributedLock readLock1 = (DistributedLock) rwLock1.readLock();
+        DistributedLock readLock2 = (DistributedLock) rwLock2.readLock();
+        readLock1.lock();
+        readLock2.lock();
+        assertTrue(readLock1.getReservationId() != null);
+        assertTrue(readLock1.getReservationId().equals(readLock2.getReservationId()));
+        SharedReadReservation sharedReadReservation = ((ZkReentrantLock) readLock1).getSharedReadReservation();
+        assertTrue("Unexpected value:  " + sharedReadReservation.getReaderCount(),
+                sharedReadReservation.getReaderCount() == 2);
+
+        // writer gets in line behind readers
+        final AtomicBoolean writeLocked = new AtomicBoolean(false);
+        final DistributedReadWriteLock writeRwLock = coordinationService.getReadWriteLock("clusterA",
+                "test-shared-read");
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                writeRwLock.writeLock().lock();
+                writeLocked.set(true);
+                writeRwLock.writeLock().unlock();
+            }
+        };
+        writer.start();
+        Thread.sleep(1000);
+        assertFalse(writeLocked.get());
+
+        // new local readers do not join while writer waits
+        DistributedReadWriteLock rwLock3 = coordinationService.getReadWriteLock("clusterA", "test-shared-read");
+        assertFalse(rwLock3.readLock().tryLock());
+
+        readLock1.unlock();
+        readLock2.unlock();
+        writer.join(30000);
+        assertTrue(writeLocked.get());
+
+        assertTrue(rwLock3.readLock().tryLock());
+        rwLock3.readLock().unlock();
+
+        rwLock1.destroy();
+        rwLock2.destroy();
+        rwLock3.destroy();
+        writeRwLock.destroy();
+    }
 }
\ No newline at end of file
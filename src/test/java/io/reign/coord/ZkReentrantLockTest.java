@@ -1,13 +1,31 @@
 package io.reign.coord;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import io.reign.MasterTestSuite;
+import io.reign.PathType;
+import io.reign.ReignContext;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.zookeeper.data.ACL;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 public class ZkReentrantLockTest {
 
     private CoordinationService coordinationService;
@@ -141,4 +159,258 @@ public class ZkReentrantLockTest {
         }
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testAggregatedReentrantLock() throws Exception {
+        final int threadCount = 8;
+        final int lockCountPerThread = 20;
+
+        final AtomicInteger holderCount = new AtomicInteger(0);
+        final AtomicInteger lockCount = new AtomicInteger(0);
+        final AtomicBoolean overlapped = new AtomicBoolean(false);
+
+        // forgotten whenever no local contender is using it
+        final Set<SharedReservation> sharedReservationSet = Collections.synchronizedSet(Collections
+                .newSetFromMap(new IdentityHashMap<SharedReservation, Boolean>()));
+
+        List<Thread> threadList = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    DistributedReentrantLock lock = coordinationService.getAggregatedReentrantLock("clusterA",
+                            "test-lock-aggregated");
+                    try {
+                        for (int j = 0; j < lockCountPerThread; j++) {
+                            lock.lock();
+                            try {
+                                sharedReservationSet.add(((ZkReentrantLock) lock).getSharedReservation());
+                                if (holderCount.incrementAndGet() > 1) {
+                                    overlapped.set(true);
+                                }
+                                lockCount.incrementAndGet();
+                                holderCount.decrementAndGet();
+                            } finally {
+                                lock.unlock();
+                            }
+                        }
+                    } finally {
+                        lock.destroy();
+                    }
+                }
+            };
+            threadList.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threadList) {
+            thread.join();
+        }
+
+        assertTrue("Lock held by more than one thread at a time", !overlapped.get());
+        assertTrue("Unexpected value:  " + lockCount, lockCount.get() == threadCount * lockCountPerThread);
+
+        // local contenders should have been handed the reservation instead of each creating one
+        long reservationCount = 0;
+        long localHandoffCount = 0;
+        for (SharedReservation sharedReservation : sharedReservationSet) {
+            reservationCount += sharedReservation.getReservationCount();
+            localHandoffCount += sharedReservation.getLocalHandoffCount();
+        }
+        assertTrue("Unexpected value:  " + reservationCount, reservationCount < threadCount * lockCountPerThread);
+        assertTrue("Unexpected value:  " + localHandoffCount,
+                reservationCount + localHandoffCount == threadCount * lockCountPerThread);
+    }
+
+    @Test
+    public void testSharedReservationForgotten() throws Exception {
+        ReignContext context = MasterTestSuite.getReign().getContext();
+        ZkReservationManager zkReservationManager = new ZkReservationManager(context.getZkClient(),
+                context.getPathScheme(), new CoordinationServiceCache());
+        String ownerId = context.getNodeId().toString();
+        List<ACL> aclList = context.getDefaultZkAclList();
+
+        // exclusive
+        String entityPath = CoordServicePathUtil.getAbsolutePathEntity(context.getPathScheme(), PathType.COORD,
+                "clusterA", ReservationType.LOCK_EXCLUSIVE, "test-lock-forgotten");
+        SharedReservation sharedReservation = zkReservationManager.getSharedReservation(entityPath,
+                ReservationType.LOCK_EXCLUSIVE, 10, -1, null);
+        ZkReentrantLock lock = new ZkReentrantLock(zkReservationManager, ownerId, entityPath,
+                ReservationType.LOCK_EXCLUSIVE, aclList, sharedReservation);
+        for (int i = 0; i < 2; i++) {
+            lock.lock();
+            assertTrue("Unexpected value:  " + zkReservationManager.getSharedReservationCount(),
+                    zkReservationManager.getSharedReservationCount() == 1);
+            lock.unlock();
+            assertTrue("Unexpected value:  " + zkReservationManager.getSharedReservationCount(),
+                    zkReservationManager.getSharedReservationCount() == 0);
+        }
+
+        // lock object that outlived its reservation picks up the one in use
+        ZkReentrantLock otherLock = new ZkReentrantLock(zkReservationManager, ownerId, entityPath,
+                ReservationType.LOCK_EXCLUSIVE, aclList, zkReservationManager.getSharedReservation(entityPath,
+                        ReservationType.LOCK_EXCLUSIVE, 10, -1, null));
+        otherLock.lock();
+        assertFalse(lock.tryLock());
+        assertTrue(lock.getSharedReservation() == otherLock.getSharedReservation());
+        otherLock.unlock();
+        assertTrue(lock.tryLock());
+        lock.unlock();
+        assertTrue(zkReservationManager.getSharedReservationCount() == 0);
+
+        // shared
+        String readEntityPath = CoordServicePathUtil.getAbsolutePathEntity(context.getPathScheme(), PathType.COORD,
+                "clusterA", ReservationType.LOCK_SHARED, "test-lock-forgotten");
+        ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+        try {
+            ZkReentrantLock readLock = new ZkReentrantLock(zkReservationManager, ownerId, readEntityPath, aclList,
+                    zkReservationManager.getSharedReadReservation(readEntityPath, executorService));
+            for (int i = 0; i < 2; i++) {
+                readLock.lock();
+                assertTrue("Unexpected value:  " + zkReservationManager.getSharedReadReservationCount(),
+                        zkReservationManager.getSharedReadReservationCount() == 1);
+                readLock.unlock();
+                assertTrue("Unexpected value:  " + zkReservationManager.getSharedReadReservationCount(),
+                        zkReservationManager.getSharedReadReservationCount() == 0);
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void testAggregatedReentrantLockLazyRelease() throws Exception {
+        long lazyLockReleaseMillis = coordinationService.getLazyLockReleaseMillis();
+        coordinationService.setLazyLockReleaseMillis(60000);
+        ZkReentrantLock lock;
+        try {
+            lock = (ZkReentrantLock) coordinationService.getAggregatedReentrantLock("clusterA",
+                    "test-lock-lazy-release");
+        } finally {
+            coordinationService.setLazyLockReleaseMillis(lazyLockReleaseMillis);
+        }
+
+        // reservation is kept between lock() calls
+        for (int i = 0; i < 10; i++) {
+            lock.lock();
+            lock.unlock();
+        }
+        SharedReservation sharedReservation = lock.getSharedReservation();
+        assertTrue("Unexpected value:  " + sharedReservation.getReservationCount(),
+                sharedReservation.getReservationCount() == 1);
+
+        // and relinquished as soon as someone else gets in line
+        DistributedReentrantLock otherLock = coordinationService.getReentrantLock("clusterA", "test-lock-lazy-release");
+        long startTimestamp = System.currentTimeMillis();
+        assertTrue(otherLock.tryLock(30, TimeUnit.SECONDS));
+        assertTrue("Took too long to acquire:  " + (System.currentTimeMillis() - startTimestamp),
+                System.currentTimeMillis() - startTimestamp < 30000);
+        otherLock.unlock();
+        otherLock.destroy();
+
+        lock.lock();
+        lock.unlock();
+        assertTrue("Unexpected value:  " + sharedReservation.getReservationCount(),
+                sharedReservation.getReservationCount() == 2);
+        lock.destroy();
+    }
+
+    @Test
+    public void testAggregatedReentrantLockLazyReleaseDeleted() throws Exception {
+        long lazyLockReleaseMillis = coordinationService.getLazyLockReleaseMillis();
+        coordinationService.setLazyLockReleaseMillis(60000);
+        ZkReentrantLock lock;
+        try {
+            lock = (ZkReentrantLock) coordinationService.getAggregatedReentrantLock("clusterA",
+                    "test-lock-lazy-release-deleted");
+        } finally {
+            coordinationService.setLazyLockReleaseMillis(lazyLockReleaseMillis);
+        }
+
+        lock.lock();
+        String idlePath = lock.getReservationId();
+        lock.unlock();
+        SharedReservation sharedReservation = lock.getSharedReservation();
+        assertTrue(idlePath.equals(sharedReservation.getReservationPath()));
+
+        // e.g. reaped as held too long
+        MasterTestSuite.getReign().getContext().getZkClient().delete(idlePath, -1);
+        long startTimestamp = System.currentTimeMillis();
+        while (sharedReservation.getReservationPath() != null && System.currentTimeMillis() - startTimestamp < 30000) {
+            Thread.sleep(50);
+        }
+        assertNull(sharedReservation.getReservationPath());
+
+        // next local lock goes back to ZooKeeper
+        lock.lock();
+        String reservationPath = lock.getReservationId();
+        assertFalse(idlePath.equals(reservationPath));
+        assertNotNull(MasterTestSuite.getReign().getContext().getZkClient().exists(reservationPath, false));
+        assertTrue("Unexpected value:  " + sharedReservation.getReservationCount(),
+                sharedReservation.getReservationCount() == 2);
+        lock.unlock();
+        lock.destroy();
+    }
+
+    @Test
+    public void testLockAsync() throws Exception {
+        DistributedReentrantLock heldLock = coordinationService.getReentrantLock("clusterA", "test-lock-async");
+        heldLock.lock();
+
+        // not granted while held elsewhere
+        ListenableFuture<DistributedReentrantLock> lockFuture = coordinationService.lockAsync("clusterA",
+                "test-lock-async", -1, TimeUnit.MILLISECONDS);
+        Thread.sleep(1000);
+        assertFalse(lockFuture.isDone());
+
+        // times out, giving up its place in line
+        ListenableFuture<DistributedReentrantLock> expiringLockFuture = coordinationService.lockAsync("clusterA",
+                "test-lock-async", 500, TimeUnit.MILLISECONDS);
+        assertNull(expiringLockFuture.get(30, TimeUnit.SECONDS));
+
+        // cancelled, giving up its place in line
+        ListenableFuture<DistributedReentrantLock> cancelledLockFuture = coordinationService.lockAsync("clusterA",
+                "test-lock-async", -1, TimeUnit.MILLISECONDS);
+        assertTrue(cancelledLockFuture.cancel(false));
+
+        // granted once released
+        heldLock.unlock();
+        DistributedReentrantLock lock = lockFuture.get(30, TimeUnit.SECONDS);
+        assertNotNull(lock);
+        assertTrue("Unexpected value:  " + lock.getHoldCount(), lock.getHoldCount() == 1);
+
+        lock.unlock();
+        assertTrue(heldLock.tryLock());
+        heldLock.unlock();
+        heldLock.destroy();
+        lock.destroy();
+    }
+
+    @Test
+    public void testLockAll() throws Exception {
+        DistributedReentrantLock heldLock = coordinationService.getReentrantLock("clusterA", "test-lock-all-b");
+        heldLock.lock();
+
+        // not acquired while one of the locks is held elsewhere
+        assertNull(coordinationService.lockAll("clusterA", Arrays.asList("test-lock-all-c", "test-lock-all-b",
+                "test-lock-all-a"), 500, TimeUnit.MILLISECONDS));
+
+        // other locks were given up
+        DistributedReentrantLock otherLock = coordinationService.getReentrantLock("clusterA", "test-lock-all-a");
+        assertTrue(otherLock.tryLock());
+        otherLock.unlock();
+
+        heldLock.unlock();
+        DistributedMultiLock multiLock = coordinationService.lockAll("clusterA", Arrays.asList("test-lock-all-c",
+                "test-lock-all-b", "test-lock-all-a", "test-lock-all-a"), 30, TimeUnit.SECONDS);
+        assertNotNull(multiLock);
+        assertTrue("Unexpected value:  " + multiLock.getLocks().size(), multiLock.getLocks().size() == 3);
+        assertTrue(multiLock.getAcquisitionMillis() >= 0);
+        assertFalse(heldLock.tryLock());
+
+        multiLock.unlock();
+        assertTrue(heldLock.tryLock());
+        heldLock.unlock();
+        heldLock.destroy();
+        otherLock.destroy();
+    }
+}
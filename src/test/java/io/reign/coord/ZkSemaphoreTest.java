@@ -0,0 +1,505 @@
+package io.reign.coord;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import io.reign.MasterTestSuite;
+import io.reign.PathType;
+import io.reign.ReignContext;
+import io.reign.ZkClient;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class ZkSemaphoreTest {
+
+	/**
+	 * well under the 15 second re-check that waiters fall back on, so that a waiter admitted within this time was
+	 * woken by its watch
+	 */
+	private static final long WAKE_UP_TIMEOUT_MILLIS = 5000;
+
+	private ReignContext context;
+	private ZkReservationManager zkReservationManager;
+
+	@Before
+	public void setUp() throws Exception {
+		context = MasterTestSuite.getReign().getContext();
+		zkReservationManager = new ZkReservationManager(context.getZkClient(), context.getPathScheme(),
+		        new CoordinationServiceCache());
+	}
+
+	@Test
+	public void testWakeUpHandshake() throws Exception {
+		String entityPath = entityPath("test-semaphore-handshake");
+		String holderPath = acquire(zkReservationManager, entityPath, 2, 2);
+
+		// first waiter watches children, second watches first
+		Waiter waiter1 = startWaiter(zkReservationManager, entityPath, 1, 2, 2);
+		Waiter waiter2 = startWaiter(zkReservationManager, entityPath, 1, 2, 3);
+		String waiter1Path = getReservationPathAt(entityPath, 1);
+		assertTrue(context.getZkClient().exists(waiter1Path, false).getVersion() == 0);
+
+		// both are admitted by one release: first one tells second one by
+		// updating its own data
+		zkReservationManager.relinquish(holderPath);
+		assertTrue(waiter1.awaitAcquired());
+		assertTrue(waiter2.awaitAcquired());
+		assertTrue(waiter1Path.equals(waiter1.getAcquiredPath()));
+		Stat stat = context.getZkClient().exists(waiter1Path, false);
+		assertTrue("Unexpected value:  " + stat.getVersion(), stat.getVersion() > 0);
+
+		// last one admitted has nobody behind it to tell
+		assertTrue(context.getZkClient().exists(waiter2.getAcquiredPath(), false).getVersion() == 0);
+
+		zkReservationManager.relinquish(waiter1.getAcquiredPath());
+		zkReservationManager.relinquish(waiter2.getAcquiredPath());
+	}
+
+	@Test
+	public void testMixedWeightFifo() throws Exception {
+		String entityPath = entityPath("test-semaphore-mixed-weight");
+		String holderPath = acquire(zkReservationManager, entityPath, 3, 3);
+
+		Waiter waiter1 = startWaiter(zkReservationManager, entityPath, 2, 3, 2);
+		Waiter waiter2 = startWaiter(zkReservationManager, entityPath, 1, 3, 3);
+		Waiter waiter3 = startWaiter(zkReservationManager, entityPath, 3, 3, 4);
+		Waiter waiter4 = startWaiter(zkReservationManager, entityPath, 1, 3, 5);
+
+		// first two fit together
+		zkReservationManager.relinquish(holderPath);
+		assertTrue(waiter1.awaitAcquired());
+		assertTrue(waiter2.awaitAcquired());
+
+		Thread.sleep(500);
+		assertTrue(!waiter3.isAcquired());
+		assertTrue(!waiter4.isAcquired());
+
+		// last one would now fit, but may not pass the one ahead of it
+		zkReservationManager.relinquish(waiter1.getAcquiredPath());
+		Thread.sleep(500);
+		assertTrue(!waiter3.isAcquired());
+		assertTrue(!waiter4.isAcquired());
+
+		zkReservationManager.relinquish(waiter2.getAcquiredPath());
+		assertTrue(waiter3.awaitAcquired());
+		Thread.sleep(500);
+		assertTrue(!waiter4.isAcquired());
+
+		zkReservationManager.relinquish(waiter3.getAcquiredPath());
+		assertTrue(waiter4.awaitAcquired());
+
+		zkReservationManager.relinquish(waiter4.getAcquiredPath());
+	}
+
+	@Test
+	public void testPredecessorDeletedBeforeWatch() throws Exception {
+		String entityPath = entityPath("test-semaphore-predecessor-deleted");
+
+		// delete predecessor right before waiter sets its watch on it
+		final AtomicReference<String> deletePath = new AtomicReference<String>();
+		final ZkClient zkClient = context.getZkClient();
+		ZkClient deletingZkClient = (ZkClient) Proxy.newProxyInstance(ZkClient.class.getClassLoader(),
+		        new Class[] { ZkClient.class }, new InvocationHandler() {
+			        @Override
+			        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				        if ("exists".equals(method.getName()) && args[1] instanceof Watcher
+				                && args[0].equals(deletePath.get())) {
+					        zkClient.delete(deletePath.getAndSet(null), -1);
+				        }
+				        try {
+					        return method.invoke(zkClient, args);
+				        } catch (InvocationTargetException e) {
+					        throw e.getCause();
+				        }
+			        }
+		        });
+		ZkReservationManager deletingZkReservationManager = new ZkReservationManager(deletingZkClient,
+		        context.getPathScheme(), new CoordinationServiceCache());
+
+		String holderPath = acquire(deletingZkReservationManager, entityPath, 1, 1);
+		Waiter waiter1 = startWaiter(deletingZkReservationManager, entityPath, 1, 1, 2);
+		deletePath.set(getReservationPathAt(entityPath, 1));
+		Waiter waiter2 = startWaiter(deletingZkReservationManager, entityPath, 1, 1, 3);
+
+		// wait for second waiter to find predecessor gone
+		long startTimestamp = System.currentTimeMillis();
+		while (deletePath.get() != null && System.currentTimeMillis() - startTimestamp < WAKE_UP_TIMEOUT_MILLIS) {
+			Thread.sleep(50);
+		}
+		assertTrue(deletePath.get() == null);
+
+		// second waiter is next in line and watching children
+		zkReservationManager.relinquish(holderPath);
+		assertTrue(waiter2.awaitAcquired());
+
+		// first waiter gives up when its reservation is gone
+		waiter1.join(WAKE_UP_TIMEOUT_MILLIS);
+		assertTrue(!waiter1.isAlive());
+		assertTrue(!waiter1.isAcquired());
+
+		zkReservationManager.relinquish(waiter2.getAcquiredPath());
+	}
+
+	@Test
+	public void testWaiterBehindAdmitted() throws Exception {
+		String entityPath = entityPath("test-semaphore-behind-admitted");
+
+		// admitted with nobody behind: data never updated
+		String holder1Path = acquire(zkReservationManager, entityPath, 1, 3);
+		String holder2Path = acquire(zkReservationManager, entityPath, 1, 3);
+		assertTrue(context.getZkClient().exists(holder2Path, false).getVersion() == 0);
+
+		// waiter right behind an admitted reservation watches children, not
+		// the admitted reservation
+		Waiter waiter = startWaiter(zkReservationManager, entityPath, 2, 3, 3);
+		Thread.sleep(500);
+		assertTrue(!waiter.isAcquired());
+
+		// so is woken by a release from further ahead
+		zkReservationManager.relinquish(holder1Path);
+		assertTrue(waiter.awaitAcquired());
+
+		zkReservationManager.relinquish(holder2Path);
+		zkReservationManager.relinquish(waiter.getAcquiredPath());
+	}
+
+	@Test
+	public void testReducedPermitPoolSize() throws Exception {
+		String entityPath = entityPath("test-semaphore-reduced-pool-size");
+		ConfiguredPermitPoolSize permitPoolSize = new ConfiguredPermitPoolSize(2);
+
+		// admitted before permit pool size was reduced; second one as if it
+		// told a waiter behind it that it was admitted
+		String holder1Path = acquire(zkReservationManager, entityPath, 1, 2);
+		String holder2Path = acquire(zkReservationManager, entityPath, 1, 2);
+		context.getZkClient().setData(holder2Path, context.getZkClient().getData(holder2Path, false, new Stat()), -1);
+		permitPoolSize.updated(Collections.singletonMap("permitPoolSize", "1"), null);
+
+		AtomicInteger listCount = new AtomicInteger(0);
+		ZkReservationManager countingZkReservationManager = new ZkReservationManager(countingZkClient(listCount),
+		        context.getPathScheme(), new CoordinationServiceCache());
+		final ZkSemaphore semaphore = new ZkSemaphore(countingZkReservationManager, context.getNodeId().toString(),
+		        entityPath, context.getDefaultZkAclList(), permitPoolSize);
+		final CountDownLatch acquiredLatch = new CountDownLatch(1);
+		Thread waiter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					if (semaphore.tryAcquire(30, TimeUnit.SECONDS)) {
+						acquiredLatch.countDown();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		waiter.start();
+
+		// does not fit behind admitted reservations: waits on its watches
+		// instead of listing again and again
+		Thread.sleep(1000);
+		assertTrue(acquiredLatch.getCount() == 1);
+		assertTrue("Unexpected value:  " + listCount, listCount.get() < 5);
+
+		// woken by releases ahead of it
+		zkReservationManager.relinquish(holder1Path);
+		zkReservationManager.relinquish(holder2Path);
+		assertTrue(acquiredLatch.await(WAKE_UP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		assertTrue(semaphore.availablePermits() == 0);
+
+		semaphore.release();
+		semaphore.destroy();
+	}
+
+	@Test
+	public void testAsyncWaiterBehindAdmittedDoesNotFit() throws Exception {
+		String entityPath = entityPath("test-semaphore-async-behind-admitted");
+
+		// admitted under a larger permit pool size, e.g. before it was
+		// reduced or by a process configured differently
+		String holder1Path = acquire(zkReservationManager, entityPath, 1, 2);
+		String holder2Path = acquire(zkReservationManager, entityPath, 1, 2);
+		context.getZkClient().setData(holder2Path, context.getZkClient().getData(holder2Path, false, new Stat()), -1);
+
+		AtomicInteger listCount = new AtomicInteger(0);
+		ZkReservationManager countingZkReservationManager = new ZkReservationManager(countingZkClient(listCount),
+		        context.getPathScheme(), new CoordinationServiceCache());
+		ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+		try {
+			ListenableFuture<String> future = countingZkReservationManager.acquireAsync(context.getNodeId()
+			        .toString(), entityPath, ReservationType.SEMAPHORE, 1, 1, context.getDefaultZkAclList(), -1,
+			        executorService);
+
+			// waits on its watches instead of listing again and again on
+			// the executor
+			Thread.sleep(1000);
+			assertFalse(future.isDone());
+			assertTrue("Unexpected value:  " + listCount, listCount.get() < 5);
+
+			// executor is free to run other tasks
+			executorService.submit(new Runnable() {
+				@Override
+				public void run() {
+				}
+			}).get(WAKE_UP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+			zkReservationManager.relinquish(holder1Path);
+			zkReservationManager.relinquish(holder2Path);
+			String acquiredPath = future.get(WAKE_UP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			assertTrue(acquiredPath != null);
+			zkReservationManager.relinquish(acquiredPath);
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	@Test
+	public void testWeightedPermits() throws Exception {
+		CoordinationService coordinationService = MasterTestSuite.getReign().getService("coord");
+		ZkSemaphore semaphore = (ZkSemaphore) coordinationService.getFixedSemaphore("clusterA",
+		        "test-semaphore-weighted", 3);
+
+		// one permit id stands for both permits
+		Collection<String> permitIds = semaphore.acquireWeighted(2);
+		assertTrue(permitIds.size() == 1);
+		assertTrue(ZkSemaphore.permitsOf(permitIds.iterator().next()) == 2);
+		assertTrue("Unexpected value:  " + semaphore.availablePermits(), semaphore.availablePermits() == 1);
+
+		assertFalse(semaphore.tryAcquireWeighted(2, 500, TimeUnit.MILLISECONDS));
+		assertTrue(semaphore.tryAcquire(1, 500, TimeUnit.MILLISECONDS));
+		assertTrue(semaphore.availablePermits() == 0);
+		assertTrue(semaphore.getAcquiredPermitIds().size() == 2);
+
+		// released whole
+		semaphore.release(1);
+		assertTrue(semaphore.availablePermits() == 1);
+		assertTrue(semaphore.getAcquiredPermitIds().equals(new HashSet<String>(permitIds)));
+
+		// partial release of a two-permit reservation is rejected, and
+		// nothing is released
+		try {
+			semaphore.release(1);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertTrue(semaphore.availablePermits() == 1);
+		assertTrue(semaphore.getAcquiredPermitIds().size() == 1);
+
+		semaphore.release(2);
+		assertTrue(semaphore.availablePermits() == 3);
+		assertTrue(semaphore.getAcquiredPermitIds().isEmpty());
+
+		semaphore.destroy();
+	}
+
+	@Test
+	public void testMultiplePermitsReleasedOneAtATime() throws Exception {
+		CoordinationService coordinationService = MasterTestSuite.getReign().getService("coord");
+		ZkSemaphore semaphore = (ZkSemaphore) coordinationService.getFixedSemaphore("clusterA",
+		        "test-semaphore-multiple", 3);
+
+		// one permit id per permit
+		Collection<String> permitIds = semaphore.acquire(3);
+		assertTrue(permitIds.size() == 3);
+		assertTrue(semaphore.availablePermits() == 0);
+
+		assertFalse(semaphore.tryAcquire(2, 500, TimeUnit.MILLISECONDS));
+		assertTrue(semaphore.getAcquiredPermitIds().size() == 3);
+
+		semaphore.release();
+		assertTrue(semaphore.availablePermits() == 1);
+		semaphore.release();
+		semaphore.release();
+		assertTrue(semaphore.availablePermits() == 3);
+		assertTrue(semaphore.getAcquiredPermitIds().isEmpty());
+
+		semaphore.destroy();
+	}
+
+	@Test
+	public void testAcquireAsync() throws Exception {
+		CoordinationService coordinationService = MasterTestSuite.getReign().getService("coord");
+		DistributedSemaphore holder = coordinationService.getFixedSemaphore("clusterA", "test-semaphore-async", 3);
+		holder.acquire(2);
+
+		// not granted while permits are held elsewhere
+		ListenableFuture<DistributedSemaphore> semaphoreFuture = coordinationService.acquireAsync("clusterA",
+		        "test-semaphore-async", 3, 2, -1, TimeUnit.MILLISECONDS);
+		Thread.sleep(1000);
+		assertFalse(semaphoreFuture.isDone());
+
+		// times out, giving up its place in line
+		ListenableFuture<DistributedSemaphore> expiringSemaphoreFuture = coordinationService.acquireAsync(
+		        "clusterA", "test-semaphore-async", 3, 1, 500, TimeUnit.MILLISECONDS);
+		assertTrue(expiringSemaphoreFuture.get(30, TimeUnit.SECONDS) == null);
+
+		// cancelled, giving up its place in line
+		ListenableFuture<DistributedSemaphore> cancelledSemaphoreFuture = coordinationService.acquireAsync(
+		        "clusterA", "test-semaphore-async", 3, 1, -1, TimeUnit.MILLISECONDS);
+		assertTrue(cancelledSemaphoreFuture.cancel(false));
+
+		// granted once released, with one permit id for both permits
+		holder.release(2);
+		DistributedSemaphore semaphore = semaphoreFuture.get(30, TimeUnit.SECONDS);
+		assertTrue(semaphore != null);
+		assertTrue(semaphore != holder);
+		assertTrue(semaphore.getAcquiredPermitIds().size() == 1);
+		String permitId = semaphore.getAcquiredPermitIds().iterator().next();
+		assertTrue(ZkSemaphore.permitsOf(permitId) == 2);
+		assertFalse(semaphore.isRevoked(permitId));
+		assertTrue("Unexpected value:  " + semaphore.availablePermits(), semaphore.availablePermits() == 1);
+
+		semaphore.release(2);
+		assertTrue(semaphore.getAcquiredPermitIds().isEmpty());
+		assertTrue(holder.availablePermits() == 3);
+		holder.destroy();
+		semaphore.destroy();
+	}
+
+	@Test
+	public void testSelectPermitIds() throws Exception {
+		List<String> permitIds = Arrays.asList("/s/PT_3_0000000001", "/s/PT_2_0000000002", "/s/PT_2_0000000003",
+		        "/s/PT_0000000004");
+
+		assertTrue(ZkSemaphore.selectPermitIds(permitIds, 4).equals(
+		        Arrays.asList("/s/PT_2_0000000003", "/s/PT_2_0000000002")));
+		assertTrue(ZkSemaphore.selectPermitIds(permitIds, 1).equals(Arrays.asList("/s/PT_0000000004")));
+		assertTrue(ZkSemaphore.selectPermitIds(permitIds, 0).isEmpty());
+		assertTrue(ZkSemaphore.selectPermitIds(permitIds, 8).size() == 4);
+		assertTrue(ZkSemaphore.selectPermitIds(permitIds, 20).size() == 4);
+		assertTrue(ZkSemaphore.selectPermitIds(Arrays.asList("/s/PT_3_0000000001", "/s/PT_2_0000000002"), 4) == null);
+	}
+
+	String entityPath(String semaphoreName) {
+		return CoordServicePathUtil.getAbsolutePathEntity(context.getPathScheme(), PathType.COORD, "clusterA",
+		        ReservationType.SEMAPHORE, semaphoreName);
+	}
+
+	String acquire(ZkReservationManager zkReservationManager, String entityPath, int permits, int totalAvailable)
+	        throws Exception {
+		String acquiredPath = zkReservationManager.acquireForSemaphore(context.getNodeId().toString(), entityPath,
+		        ReservationType.SEMAPHORE, permits, totalAvailable, context.getDefaultZkAclList(), 0, false);
+		assertTrue(acquiredPath != null);
+		return acquiredPath;
+	}
+
+	/**
+	 * Start a waiter and wait for it to get in line.
+	 * 
+	 * @param reservationCount
+	 *            reservations expected under entity once waiter is in line
+	 */
+	Waiter startWaiter(ZkReservationManager zkReservationManager, String entityPath, int permits,
+	        int totalAvailable, int reservationCount) throws Exception {
+		Waiter waiter = new Waiter(zkReservationManager, entityPath, permits, totalAvailable);
+		waiter.start();
+
+		long startTimestamp = System.currentTimeMillis();
+		while (context.getZkClient().getChildren(entityPath, false).size() < reservationCount
+		        && System.currentTimeMillis() - startTimestamp < WAKE_UP_TIMEOUT_MILLIS) {
+			Thread.sleep(50);
+		}
+		assertTrue(context.getZkClient().getChildren(entityPath, false).size() == reservationCount);
+		return waiter;
+	}
+
+	/**
+	 * 
+	 * @param listCount
+	 *            incremented on each getChildren() call
+	 * @return ZkClient delegating to the test ZkClient
+	 */
+	ZkClient countingZkClient(final AtomicInteger listCount) {
+		final ZkClient zkClient = context.getZkClient();
+		return (ZkClient) Proxy.newProxyInstance(ZkClient.class.getClassLoader(), new Class[] { ZkClient.class },
+		        new InvocationHandler() {
+			        @Override
+			        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				        if ("getChildren".equals(method.getName())) {
+					        listCount.incrementAndGet();
+				        }
+				        try {
+					        return method.invoke(zkClient, args);
+				        } catch (InvocationTargetException e) {
+					        throw e.getCause();
+				        }
+			        }
+		        });
+	}
+
+	String getReservationPathAt(String entityPath, int position) throws Exception {
+		List<String> reservationList = context.getZkClient().getChildren(entityPath, false);
+		Collections.sort(reservationList, new Comparator<String>() {
+			@Override
+			public int compare(String name1, String name2) {
+				return Reservation.parse(name1).compareTo(Reservation.parse(name2));
+			}
+		});
+		return context.getPathScheme().joinPaths(entityPath, reservationList.get(position));
+	}
+
+	class Waiter extends Thread {
+		private final ZkReservationManager zkReservationManager;
+		private final String entityPath;
+		private final int permits;
+		private final int totalAvailable;
+		private final CountDownLatch acquiredLatch = new CountDownLatch(1);
+		private volatile String acquiredPath;
+
+		Waiter(ZkReservationManager zkReservationManager, String entityPath, int permits, int totalAvailable) {
+			this.zkReservationManager = zkReservationManager;
+			this.entityPath = entityPath;
+			this.permits = permits;
+			this.totalAvailable = totalAvailable;
+		}
+
+		@Override
+		public void run() {
+			try {
+				acquiredPath = zkReservationManager.acquireForSemaphore(context.getNodeId().toString(), entityPath,
+				        ReservationType.SEMAPHORE, permits, totalAvailable, context.getDefaultZkAclList(), 30000,
+				        false);
+				if (acquiredPath != null) {
+					acquiredLatch.countDown();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		boolean awaitAcquired() throws InterruptedException {
+			return acquiredLatch.await(WAKE_UP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		}
+
+		boolean isAcquired() {
+			return acquiredPath != null;
+		}
+
+		String getAcquiredPath() {
+			return acquiredPath;
+		}
+	}
+}
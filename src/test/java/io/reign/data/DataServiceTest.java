@@ -3,11 +3,24 @@ package io.reign.data;
 import static io.reign.data.Operators.max;
 import static org.junit.Assert.*;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.reign.MasterTestSuite;
+import io.reign.PathType;
 import io.reign.Reign;
+import io.reign.ReignContext;
+import io.reign.ZkClient;
 
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -187,4 +200,112 @@ public class DataServiceTest {
             assertTrue("Expected 'value" + i + "'; received '" + value + "'", ("value" + i).equals(value));
         }
     }
+
+    @Test
+    public void testGetAtomicLongStringString() throws Exception {
+        final DistributedAtomicLong atomicLong = dataService.getAtomicLong("examples", "my-atomic-long");
+        atomicLong.set(0);
+        assertTrue(atomicLong.compareAndSet(0, 10));
+        assertFalse(atomicLong.compareAndSet(0, 20));
+        assertTrue(atomicLong.get() == 10);
+
+        // concurrent increments are not lost
+        List<Thread> threadList = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 25; j++) {
+                        atomicLong.incrementAndGet();
+                    }
+                }
+            };
+            threadList.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threadList) {
+            thread.join();
+        }
+        assertTrue("Expected 110; got " + atomicLong.get(), atomicLong.get() == 110);
+
+        // ids from leased blocks are unique
+        DistributedAtomicLong leasingAtomicLong1 = dataService.getAtomicLong("examples", "my-atomic-long", 50,
+                Reign.DEFAULT_ACL_LIST);
+        DistributedAtomicLong leasingAtomicLong2 = dataService.getAtomicLong("examples", "my-atomic-long", 50,
+                Reign.DEFAULT_ACL_LIST);
+        Set<Long> idSet = new HashSet<Long>();
+        for (int i = 0; i < 120; i++) {
+            assertTrue(idSet.add(leasingAtomicLong1.nextId()));
+            assertTrue(idSet.add(leasingAtomicLong2.nextId()));
+            assertTrue(idSet.add(atomicLong.nextId()));
+        }
+        assertTrue("Expected 110 + 3 * 50 + 3 * 50 + 120; got " + atomicLong.get(), atomicLong.get() == 110 + 3 * 50
+                + 3 * 50 + 120);
+    }
+
+    @Test
+    public void testAtomicLongRetriedWrite() throws Exception {
+        final ReignContext context = MasterTestSuite.getReign().getContext();
+        final ZkClient zkClient = context.getZkClient();
+
+        // setData() goes through, but is then retried after a connection loss
+        // and fails
+        final AtomicInteger retriedWriteCount = new AtomicInteger(0);
+        final ZkClient retryingZkClient = (ZkClient) Proxy.newProxyInstance(ZkClient.class.getClassLoader(),
+                new Class[] { ZkClient.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        try {
+                            Object result = method.invoke(zkClient, args);
+                            if ("setData".equals(method.getName()) && retriedWriteCount.get() > 0) {
+                                retriedWriteCount.decrementAndGet();
+                                throw KeeperException.create(KeeperException.Code.BADVERSION, (String) args[0]);
+                            }
+                            return result;
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+        ReignContext retryingContext = (ReignContext) Proxy.newProxyInstance(ReignContext.class.getClassLoader(),
+                new Class[] { ReignContext.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("getZkClient".equals(method.getName())) {
+                            return retryingZkClient;
+                        }
+                        try {
+                            return method.invoke(context, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+
+        String absolutePath = context.getPathScheme().getAbsolutePath(PathType.DATA, "examples/my-atomic-long-retried");
+        DistributedAtomicLong atomicLong = new ZkAtomicLong(absolutePath, Reign.DEFAULT_ACL_LIST, 1, retryingContext);
+        atomicLong.set(0);
+
+        // applied once
+        retriedWriteCount.set(1);
+        assertTrue(atomicLong.incrementAndGet() == 1);
+        assertTrue("Expected 1; got " + atomicLong.get(), atomicLong.get() == 1);
+        retriedWriteCount.set(1);
+        assertTrue(atomicLong.addAndGet(5) == 6);
+        assertTrue("Expected 6; got " + atomicLong.get(), atomicLong.get() == 6);
+
+        // reported as set
+        retriedWriteCount.set(1);
+        assertTrue(atomicLong.compareAndSet(6, 10));
+        assertTrue(atomicLong.get() == 10);
+        assertTrue(retriedWriteCount.get() == 0);
+
+        // only most recent tokens are kept
+        for (int i = 0; i < ZkAtomicLong.WRITE_TOKEN_HISTORY_SIZE * 2; i++) {
+            atomicLong.incrementAndGet();
+        }
+        byte[] bytes = zkClient.getData(absolutePath, false, new Stat());
+        assertTrue("Unexpected value:  " + bytes.length,
+                bytes.length == 8 * (1 + ZkAtomicLong.WRITE_TOKEN_HISTORY_SIZE));
+    }
 }
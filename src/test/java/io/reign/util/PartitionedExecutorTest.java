@@ -0,0 +1,86 @@
+/*
+ Copyright 2013 Yen Pai ypai@reign.io
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package io.reign.util;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PartitionedExecutorTest {
+
+    @Test
+    public void testOrderingAndParallelism() throws Exception {
+        PartitionedExecutor executor = new PartitionedExecutor(2, "test");
+
+        // find two keys on different partitions
+        String slowKey = "/slow";
+        String fastKey = "/fast";
+        int i = 0;
+        while (executor.partition(fastKey) == executor.partition(slowKey)) {
+            fastKey = "/fast" + (i++);
+        }
+
+        // block slow partition
+        final CountDownLatch releaseLatch = new CountDownLatch(1);
+        executor.submit(slowKey, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    releaseLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        // tasks for same key run in order
+        final List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch doneLatch = new CountDownLatch(100);
+        for (int j = 0; j < 100; j++) {
+            final int value = j;
+            executor.submit(fastKey, new Runnable() {
+                @Override
+                public void run() {
+                    results.add(value);
+                    doneLatch.countDown();
+                }
+            });
+        }
+
+        // other partition is not held up by slow task
+        assertTrue(doneLatch.await(5, TimeUnit.SECONDS));
+        for (int j = 0; j < 100; j++) {
+            assertTrue(results.get(j) == j);
+        }
+
+        executor.submit(slowKey, new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        assertTrue(executor.getQueueDepth(executor.partition(slowKey)) == 1);
+
+        releaseLatch.countDown();
+        executor.shutdown();
+    }
+}
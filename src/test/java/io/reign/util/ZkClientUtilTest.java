@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013 Yen Pai ypai@reign.io
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package io.reign.util;
+
+import static org.junit.Assert.assertTrue;
+import io.reign.MasterTestSuite;
+import io.reign.PathType;
+import io.reign.Reign;
+import io.reign.ZkClient;
+
+import java.util.List;
+
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * 
+ * @author ypai
+ * 
+ */
+public class ZkClientUtilTest {
+
+    private final ZkClientUtil zkClientUtil = new ZkClientUtil();
+
+    @Test
+    public void testSyncPath() throws Exception {
+        Reign reign = MasterTestSuite.getReign();
+        ZkClient zkClient = reign.getZkClient();
+        String path = reign.getPathScheme().getAbsolutePath(PathType.COORD, "syncTest");
+
+        zkClientUtil.updatePath(zkClient, reign.getPathScheme(), path, new byte[0], Reign.DEFAULT_ACL_LIST,
+                CreateMode.PERSISTENT, -1);
+        Stat stat = zkClient.exists(path, false);
+        assertTrue(stat != null);
+
+        // always syncs
+        assertTrue(zkClientUtil.syncPath(zkClient, path, 0, 5000));
+
+        // session has already seen this zxid: completes immediately
+        ListenableFuture<Boolean> syncFuture = zkClientUtil.syncPathAsync(zkClient, path, stat.getMzxid());
+        assertTrue(syncFuture.isDone() && syncFuture.get());
+
+        // lost callback does not hang caller
+        ZkClient noCallbackZkClient = new NoCallbackZkClient(zkClient);
+        long startTimestamp = System.currentTimeMillis();
+        assertTrue(!zkClientUtil.syncPath(noCallbackZkClient, path, 0, 100));
+        assertTrue(System.currentTimeMillis() - startTimestamp < 5000);
+
+        zkClient.delete(path, -1);
+    }
+
+    @Test
+    public void testBuildParentPath() throws Exception {
+        Reign reign = MasterTestSuite.getReign();
+        ZkClient zkClient = reign.getZkClient();
+        String parentPath = reign.getPathScheme().getAbsolutePath(PathType.COORD, "buildParentTest");
+        String path = reign.getPathScheme().joinPaths(parentPath, "a", "leaf");
+
+        // existing parent data is left alone
+        zkClientUtil.updatePath(zkClient, reign.getPathScheme(), parentPath, "data".getBytes("UTF-8"),
+                Reign.DEFAULT_ACL_LIST, CreateMode.PERSISTENT, -1);
+        zkClientUtil.buildParentPath(zkClient, reign.getPathScheme(), path, Reign.DEFAULT_ACL_LIST);
+        assertTrue("data".equals(new String(zkClient.getData(parentPath, false, new Stat()), "UTF-8")));
+
+        // parents only
+        assertTrue(zkClient.exists(reign.getPathScheme().getParentPath(path), false) != null);
+        assertTrue(zkClient.exists(path, false) == null);
+
+        zkClient.delete(reign.getPathScheme().getParentPath(path), -1);
+        zkClient.delete(parentPath, -1);
+    }
+
+    /**
+     * Never invokes sync() callback.
+     */
+    private static class NoCallbackZkClient implements ZkClient {
+        private final ZkClient zkClient;
+
+        NoCallbackZkClient(ZkClient zkClient) {
+            this.zkClient = zkClient;
+        }
+
+        @Override
+        public void register(Watcher watcher) {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public Stat exists(String path, boolean watch) {
+            return null;
+        }
+
+        @Override
+        public Stat exists(String path, Watcher watcher) {
+            return null;
+        }
+
+        @Override
+        public List<String> getChildren(String path, boolean watch, Stat stat) {
+            return null;
+        }
+
+        @Override
+        public List<String> getChildren(String path, Watcher watcher) {
+            return null;
+        }
+
+        @Override
+        public List<String> getChildren(String path, boolean watch) {
+            return null;
+        }
+
+        @Override
+        public Stat setData(String path, byte[] data, int version) {
+            return null;
+        }
+
+        @Override
+        public byte[] getData(String path, boolean watch, Stat stat) {
+            return null;
+        }
+
+        @Override
+        public String create(String path, byte[] data, List<ACL> acl,
+                CreateMode createMode) {
+            return null;
+        }
+
+        @Override
+        public void delete(String path, int version) {
+        }
+
+        @Override
+        public List<OpResult> multi(Iterable<Op> ops) {
+            return null;
+        }
+
+        @Override
+        public void sync(String path, VoidCallback cb, Object ctx) {
+        }
+
+        @Override
+        public long getLastSeenZxid(String path) {
+            return zkClient.getLastSeenZxid(path);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013 Yen Pai ypai@reign.io
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package io.reign.zk;
+
+import static org.junit.Assert.assertTrue;
+import io.reign.MasterTestSuite;
+import io.reign.PathScheme;
+import io.reign.PathType;
+import io.reign.Reign;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.zookeeper.KeeperException;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * 
+ * @author ypai
+ * 
+ */
+public class AdmissionControlZkClientTest {
+
+	@Test
+	public void testAdmission() throws Exception {
+		Reign reign = MasterTestSuite.getReign();
+		PathScheme pathScheme = reign.getPathScheme();
+
+		Map<PathType, Double> writesPerSecondMap = new EnumMap<PathType, Double>(PathType.class);
+		writesPerSecondMap.put(PathType.DATA, 0.5);
+		writesPerSecondMap.put(PathType.COORD, 0.5);
+		AdmissionControlZkClient zkClient = new AdmissionControlZkClient(reign.getZkClient(), pathScheme,
+		        writesPerSecondMap, 0, 0);
+
+		String dataPath = pathScheme.getAbsolutePath(PathType.DATA, "admissionTest");
+		String coordPath = pathScheme.getAbsolutePath(PathType.COORD, "admissionTest");
+
+		// first write admitted, next one rejected since we do not wait
+		zkClient.delete(dataPath, -1);
+		boolean rejected = false;
+		try {
+			zkClient.delete(dataPath, -1);
+		} catch (AdmissionControlZkClient.WriteRejectedException e) {
+			rejected = e.code() == KeeperException.Code.OPERATIONTIMEOUT && dataPath.equals(e.getPath());
+		}
+		assertTrue(rejected);
+
+		// coordination writes are never limited
+		for (int i = 0; i < 5; i++) {
+			zkClient.delete(coordPath, -1);
+		}
+
+		MetricRegistry metricRegistry = zkClient.getMetricRegistry();
+		assertTrue(metricRegistry.counter("zk.admission.data.admitted").getCount() == 1);
+		assertTrue(metricRegistry.counter("zk.admission.data.queued").getCount() == 1);
+		assertTrue(metricRegistry.counter("zk.admission.data.rejected").getCount() == 1);
+		assertTrue(metricRegistry.counter("zk.admission.coord.admitted").getCount() == 0);
+	}
+}
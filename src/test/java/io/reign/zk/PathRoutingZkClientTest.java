@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013 Yen Pai ypai@reign.io
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package io.reign.zk;
+
+import static org.junit.Assert.assertTrue;
+import io.reign.DefaultPathScheme;
+import io.reign.PathScheme;
+import io.reign.PathType;
+import io.reign.Reign;
+import io.reign.ZkClient;
+import io.reign.util.ZkClientUtil;
+
+import java.io.File;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.CreateMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Routes metrics paths to a second ZooKeeper test server and checks that each ensemble only sees its own paths.
+ * 
+ * @author ypai
+ * 
+ */
+public class PathRoutingZkClientTest {
+
+	public static final int COORD_ZK_TEST_SERVER_PORT = 21811;
+	public static final int METRICS_ZK_TEST_SERVER_PORT = 21812;
+
+	private TestingServer coordZkTestServer;
+	private TestingServer metricsZkTestServer;
+
+	private ZkClient coordZkClient;
+	private ZkClient metricsZkClient;
+
+	private PathScheme pathScheme;
+
+	private PathRoutingZkClient pathRoutingZkClient;
+
+	private final ZkClientUtil zkClientUtil = new ZkClientUtil();
+
+	@Before
+	public void setUp() throws Exception {
+		coordZkTestServer = new TestingServer(COORD_ZK_TEST_SERVER_PORT, tempDirectory());
+		metricsZkTestServer = new TestingServer(METRICS_ZK_TEST_SERVER_PORT, tempDirectory());
+
+		coordZkClient = new ResilientZkClient("localhost:" + COORD_ZK_TEST_SERVER_PORT, 30000);
+		metricsZkClient = new ResilientZkClient("localhost:" + METRICS_ZK_TEST_SERVER_PORT, 30000);
+
+		pathScheme = new DefaultPathScheme(Reign.DEFAULT_FRAMEWORK_BASE_PATH, Reign.DEFAULT_FRAMEWORK_CLUSTER_ID);
+
+		Map<PathType, ZkClient> zkClientMap = new EnumMap<PathType, ZkClient>(PathType.class);
+		zkClientMap.put(PathType.METRICS, metricsZkClient);
+		pathRoutingZkClient = new PathRoutingZkClient(coordZkClient, pathScheme, zkClientMap);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		pathRoutingZkClient.close();
+		coordZkTestServer.stop();
+		metricsZkTestServer.stop();
+	}
+
+	@Test
+	public void testRouting() throws Exception {
+		assertTrue(pathRoutingZkClient.getZkClient(PathType.METRICS) == metricsZkClient);
+		assertTrue(pathRoutingZkClient.getZkClient(PathType.COORD) == coordZkClient);
+		assertTrue(pathRoutingZkClient.getZkClient(null) == coordZkClient);
+
+		String metricsPath = pathScheme.getAbsolutePath(PathType.METRICS, "clusterA/serviceA");
+		String coordPath = pathScheme.getAbsolutePath(PathType.COORD, "clusterA/lock/test-lock");
+
+		zkClientUtil.updatePath(pathRoutingZkClient, pathScheme, metricsPath, "metrics".getBytes("UTF-8"),
+		        Reign.DEFAULT_ACL_LIST, CreateMode.PERSISTENT, -1);
+		zkClientUtil.updatePath(pathRoutingZkClient, pathScheme, coordPath, "coord".getBytes("UTF-8"),
+		        Reign.DEFAULT_ACL_LIST, CreateMode.PERSISTENT, -1);
+
+		// each ensemble only has paths for its PathType
+		assertTrue(metricsZkClient.exists(metricsPath, false) != null);
+		assertTrue(metricsZkClient.exists(coordPath, false) == null);
+		assertTrue(coordZkClient.exists(coordPath, false) != null);
+		assertTrue(coordZkClient.exists(metricsPath, false) == null);
+
+		// reads through routing client come from the right ensemble
+		assertTrue(pathRoutingZkClient.exists(metricsPath, false) != null);
+		assertTrue(pathRoutingZkClient.exists(coordPath, false) != null);
+
+		pathRoutingZkClient.delete(metricsPath, -1);
+		assertTrue(metricsZkClient.exists(metricsPath, false) == null);
+	}
+
+	@Test
+	public void testCallerOwnedZkClientLeftOpen() throws Exception {
+		Map<PathType, ZkClient> zkClientMap = new EnumMap<PathType, ZkClient>(PathType.class);
+		zkClientMap.put(PathType.METRICS, metricsZkClient);
+		ZkClient defaultZkClient = new ResilientZkClient("localhost:" + COORD_ZK_TEST_SERVER_PORT, 30000);
+		PathRoutingZkClient callerOwningZkClient = new PathRoutingZkClient(defaultZkClient, pathScheme, zkClientMap,
+		        zkClientMap.values());
+		callerOwningZkClient.close();
+
+		// still usable by its owner
+		assertTrue(metricsZkClient.exists("/", false) != null);
+	}
+
+	static File tempDirectory() {
+		String dataDirectory = System.getProperty("java.io.tmpdir");
+		if (!dataDirectory.endsWith("/")) {
+			dataDirectory += File.separator;
+		}
+		dataDirectory += UUID.randomUUID().toString();
+		return new File(dataDirectory, "zookeeper").getAbsoluteFile();
+	}
+}
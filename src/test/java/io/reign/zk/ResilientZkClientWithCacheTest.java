@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013 Yen Pai ypai@reign.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package io.reign.zk;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import io.reign.Reign;
+
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author ypai
+ *
+ */
+public class ResilientZkClientWithCacheTest {
+
+	private static final Logger logger = LoggerFactory.getLogger(ResilientZkClientWithCacheTest.class);
+
+	public static final int ZK_TEST_SERVER_PORT = 21814;
+
+	@Test
+	public void testStaleReadsWhileDisconnected() throws Exception {
+		TestingServer zkTestServer = new TestingServer(ZK_TEST_SERVER_PORT, PathRoutingZkClientTest.tempDirectory());
+
+		PathCache pathCache = new SimplePathCache(16, 1);
+		ResilientZkClientWithCache zkClient = new ResilientZkClientWithCache("localhost:" + ZK_TEST_SERVER_PORT,
+		        30000, true, pathCache);
+		try {
+			zkClient.create("/staleTest", "value".getBytes("UTF-8"), Reign.DEFAULT_ACL_LIST, CreateMode.PERSISTENT);
+
+			// populate cache
+			zkClient.getData("/staleTest", false, new Stat());
+			assertTrue(pathCache.get("/staleTest") != null);
+			assertTrue(!pathCache.get("/staleTest").isStale());
+
+			// lose connection
+			zkTestServer.stop();
+			long waitStart = System.currentTimeMillis();
+			while (zkClient.isDegraded() == false && System.currentTimeMillis() - waitStart < 10000) {
+				Thread.sleep(100);
+			}
+			assertTrue(zkClient.isDegraded());
+
+			// read is served from cache without waiting for reconnect
+			long readStart = System.currentTimeMillis();
+			byte[] data = zkClient.getData("/staleTest", false, new Stat());
+			long readLatencyMillis = System.currentTimeMillis() - readStart;
+			logger.info("Read latency while disconnected:  readLatencyMillis={}", readLatencyMillis);
+
+			assertTrue("value".equals(new String(data, "UTF-8")));
+			assertTrue("readLatencyMillis=" + readLatencyMillis, readLatencyMillis < 1000);
+			assertTrue(zkClient.getStaleReadCount() == 1);
+			assertTrue(zkClient.isLastReadStale());
+			assertTrue(pathCache.get("/staleTest").isStale());
+
+			// cache miss fails fast instead of waiting for reconnect
+			readStart = System.currentTimeMillis();
+			try {
+				zkClient.getData("/staleTestMissing", false, new Stat());
+				fail("Expected ConnectionLossException");
+			} catch (KeeperException e) {
+				assertTrue(e.code() == KeeperException.Code.CONNECTIONLOSS);
+				assertTrue("/staleTestMissing".equals(e.getPath()));
+			}
+			readLatencyMillis = System.currentTimeMillis() - readStart;
+			assertTrue("readLatencyMillis=" + readLatencyMillis, readLatencyMillis < 1000);
+			assertTrue(zkClient.getStaleReadCount() == 1);
+			assertFalse(zkClient.isLastReadStale());
+		} finally {
+			zkClient.close();
+		}
+	}
+}
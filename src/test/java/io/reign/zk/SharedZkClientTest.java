@@ -0,0 +1,157 @@
+/*
+ * Copyright 2013 Yen Pai ypai@reign.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package io.reign.zk;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import io.reign.Reign;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author ypai
+ *
+ */
+public class SharedZkClientTest {
+
+	public static final int ZK_TEST_SERVER_PORT = 21813;
+
+	private static final String CONNECT_STRING = "localhost:" + ZK_TEST_SERVER_PORT;
+
+	private TestingServer zkTestServer;
+
+	@Before
+	public void setUp() throws Exception {
+		zkTestServer = new TestingServer(ZK_TEST_SERVER_PORT, PathRoutingZkClientTest.tempDirectory());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		zkTestServer.stop();
+	}
+
+	@Test
+	public void testReferenceCounting() throws Exception {
+		SharedZkClient zkClientA = SharedZkClient.acquire(CONNECT_STRING, 30000, "/tenantA");
+		SharedZkClient zkClientB = SharedZkClient.acquire(CONNECT_STRING, 30000, "/tenantB");
+
+		assertTrue(zkClientA.getDelegate() == zkClientB.getDelegate());
+		assertTrue(SharedZkClient.getReferenceCount(CONNECT_STRING, 30000) == 2);
+
+		zkClientA.close();
+		zkClientA.close();
+		assertTrue(SharedZkClient.getReferenceCount(CONNECT_STRING, 30000) == 1);
+
+		// session still usable through remaining handle
+		zkClientB.create("/tenantB", new byte[0], Reign.DEFAULT_ACL_LIST, CreateMode.PERSISTENT);
+		assertTrue(zkClientB.exists("/tenantB", false) != null);
+
+		zkClientB.close();
+		assertTrue(SharedZkClient.getReferenceCount(CONNECT_STRING, 30000) == 0);
+
+		// new session after all handles released
+		SharedZkClient zkClientC = SharedZkClient.acquire(CONNECT_STRING, 30000, "/tenantC");
+		assertTrue(zkClientC.getDelegate() != zkClientB.getDelegate());
+		zkClientC.close();
+	}
+
+	@Test
+	public void testReadOnlyReferenceCounting() throws Exception {
+		SharedZkClient zkClientA = SharedZkClient.acquire(CONNECT_STRING, 30000, true, "/tenantA");
+		SharedZkClient zkClientB = SharedZkClient.acquire(CONNECT_STRING, 30000, false, "/tenantB");
+
+		// read-only capable handles get a session of their own
+		assertTrue(zkClientA.getDelegate() != zkClientB.getDelegate());
+		assertTrue(SharedZkClient.getReferenceCount(CONNECT_STRING, 30000, true) == 1);
+		assertTrue(SharedZkClient.getReferenceCount(CONNECT_STRING, 30000, false) == 1);
+
+		zkClientA.close();
+		assertTrue(SharedZkClient.getReferenceCount(CONNECT_STRING, 30000, true) == 0);
+		assertTrue(SharedZkClient.getReferenceCount(CONNECT_STRING, 30000) == 1);
+
+		zkClientB.close();
+	}
+
+	@Test
+	public void testNamespacedWatches() throws Exception {
+		SharedZkClient zkClientA = SharedZkClient.acquire(CONNECT_STRING, 30000, "/tenantA");
+		SharedZkClient zkClientB = SharedZkClient.acquire(CONNECT_STRING, 30000, "/tenantB");
+
+		final CountDownLatch latchA = new CountDownLatch(1);
+		final AtomicInteger eventCountB = new AtomicInteger(0);
+		zkClientA.register(new Watcher() {
+			@Override
+			public void process(WatchedEvent event) {
+				if ("/tenantA/node".equals(event.getPath())) {
+					latchA.countDown();
+				}
+			}
+		});
+		zkClientB.register(new Watcher() {
+			@Override
+			public void process(WatchedEvent event) {
+				eventCountB.incrementAndGet();
+			}
+		});
+
+		zkClientA.create("/tenantA", new byte[0], Reign.DEFAULT_ACL_LIST, CreateMode.PERSISTENT);
+		zkClientA.exists("/tenantA/node", true);
+		zkClientA.create("/tenantA/node", new byte[0], Reign.DEFAULT_ACL_LIST, CreateMode.PERSISTENT);
+
+		assertTrue(latchA.await(10, TimeUnit.SECONDS));
+		Thread.sleep(500);
+		assertTrue(eventCountB.get() == 0);
+
+		zkClientA.close();
+		zkClientB.close();
+	}
+
+	@Test
+	public void testDistinctNamespaces() throws Exception {
+		SharedZkClient zkClientA = SharedZkClient.acquire(CONNECT_STRING, 30000, "/reign");
+
+		// same, nested, or all-events namespaces are not isolated from each other
+		for (String namespace : new String[] { "/reign", "/reign/tenantB", "/", null }) {
+			try {
+				SharedZkClient.acquire(CONNECT_STRING, 30000, namespace);
+				fail("Expected IllegalStateException:  namespace=" + namespace);
+			} catch (IllegalStateException e) {
+			}
+		}
+		assertTrue(SharedZkClient.getReferenceCount(CONNECT_STRING, 30000) == 1);
+
+		// sibling namespace with common prefix is fine
+		SharedZkClient zkClientB = SharedZkClient.acquire(CONNECT_STRING, 30000, "/reign2");
+		assertTrue(SharedZkClient.getReferenceCount(CONNECT_STRING, 30000) == 2);
+
+		// namespace can be reused once released
+		zkClientA.close();
+		SharedZkClient zkClientC = SharedZkClient.acquire(CONNECT_STRING, 30000, "/reign");
+		assertTrue(zkClientC.getDelegate() == zkClientB.getDelegate());
+
+		zkClientB.close();
+		zkClientC.close();
+	}
+}